@@ -47,6 +47,8 @@ import java.util.HashMap;
 import java.util.ArrayList;
 import java.util.StringTokenizer;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import net.jini.core.lookup.ServiceItem;
 import net.jini.core.entry.Entry;
@@ -63,7 +65,8 @@ import net.sourceforge.cruisecontrol.Builder;
 import net.sourceforge.cruisecontrol.CruiseControlException;
 import net.sourceforge.cruisecontrol.Progress;
 import net.sourceforge.cruisecontrol.distributed.BuildAgentService;
-import net.sourceforge.cruisecontrol.distributed.core.BuildOutputLoggerRemote;
+import net.sourceforge.cruisecontrol.distributed.core.LiveOutputCache;
+import net.sourceforge.cruisecontrol.distributed.core.LiveOutputReceiverRemote;
 import net.sourceforge.cruisecontrol.distributed.core.MulticastDiscovery;
 import net.sourceforge.cruisecontrol.distributed.core.PropertiesHelper;
 import net.sourceforge.cruisecontrol.distributed.core.ReggieUtil;
@@ -72,8 +75,11 @@ import net.sourceforge.cruisecontrol.distributed.core.FileUtil;
 import net.sourceforge.cruisecontrol.distributed.core.ProgressRemoteImpl;
 import net.sourceforge.cruisecontrol.distributed.core.ProgressRemote;
 import net.sourceforge.cruisecontrol.distributed.core.RemoteResult;
+import net.sourceforge.cruisecontrol.distributed.core.ResultChunk;
+import net.sourceforge.cruisecontrol.distributed.core.ResultChunkInputStream;
+import net.sourceforge.cruisecontrol.distributed.core.ResultChunkSource;
+import net.sourceforge.cruisecontrol.distributed.core.WorkspaceManifest;
 import net.sourceforge.cruisecontrol.util.BuildOutputLogger;
-import net.sourceforge.cruisecontrol.util.IO;
 import net.sourceforge.cruisecontrol.util.ValidationHelper;
 
 import org.apache.log4j.Logger;
@@ -88,8 +94,6 @@ public class DistributedMasterBuilder extends Builder {
     private static final String CRUISE_PROPERTIES = "cruise.properties";
     private static final String CRUISE_RUN_DIR = "cruise.run.dir";
 
-    // TODO: Change to property?
-    private static final long DEFAULT_CACHE_MISS_WAIT = 30000;
     private boolean isFailFast;
 
     private String entriesRaw;
@@ -102,6 +106,16 @@ public class DistributedMasterBuilder extends Builder {
     private String masterLogDir;
     private String masterOutputDir;
 
+    private String masterWorkspaceDir;
+    private String agentWorkspaceDir;
+
+    /** Manifests of the agent workspaces as last seen by this master, by agent slot and workspace dir. */
+    private static final Map<String, WorkspaceManifest> AGENT_WORKSPACES
+            = new ConcurrentHashMap<String, WorkspaceManifest>();
+    /** Manifests of the results returned by the last build of each project, by project name and result key. */
+    private static final Map<String, WorkspaceManifest> RETURNED_RESULTS
+            = new ConcurrentHashMap<String, WorkspaceManifest>();
+
     private RemoteResult[] remoteResults;
 
     private final List<Builder> tmpNestedBuilders = new ArrayList<Builder>();
@@ -200,6 +214,15 @@ public class DistributedMasterBuilder extends Builder {
                 remoteResult.validate();
             }
         }
+
+        ValidationHelper.assertIsDependentSet(masterWorkspaceDir, "masterworkspacedir", agentWorkspaceDir,
+                "agentworkspacedir", DistributedMasterBuilder.class);
+        ValidationHelper.assertIsDependentSet(agentWorkspaceDir, "agentworkspacedir", masterWorkspaceDir,
+                "masterworkspacedir", DistributedMasterBuilder.class);
+        if (masterWorkspaceDir != null) {
+            ValidationHelper.assertExists(new File(masterWorkspaceDir), "masterworkspacedir",
+                    DistributedMasterBuilder.class);
+        }
     }
 
 
@@ -263,15 +286,18 @@ public class DistributedMasterBuilder extends Builder {
             }
             // agent is now marked as claimed
 
-            String agentMachine = "unknown";
-            try {
-                agentMachine = agent.getMachineName();
-            } catch (RemoteException e1) {
-                // ignored
-            }
+            final String agentMachine = getAgentName(agent);
 
             final Element buildResults;
             try {
+                final Map<String, File> masterResultDirs = getMasterResultDirs();
+                if (masterWorkspaceDir != null) {
+                    if (progress != null) {
+                        progress.setValue("syncing workspace to " + agentMachine);
+                    }
+                    syncWorkspace(agent, agentMachine);
+                }
+
                 final Map<String, String> distributedAgentProps = new HashMap<String, String>();
                 distributedAgentProps.put(PropertiesHelper.DISTRIBUTED_OVERRIDE_TARGET, overrideTarget);
                 distributedAgentProps.put(PropertiesHelper.DISTRIBUTED_AGENT_LOGDIR, agentLogDir);
@@ -281,6 +307,7 @@ public class DistributedMasterBuilder extends Builder {
                 if (LOG.isDebugEnabled()) {
                     distributedAgentProps.put(PropertiesHelper.DISTRIBUTED_AGENT_DEBUG, "true");
                 }
+                putResultBaselines(distributedAgentProps, projectName, masterResultDirs);
 
                 LOG.debug("Distributed Agent Props: " + distributedAgentProps.toString());
 
@@ -300,25 +327,7 @@ public class DistributedMasterBuilder extends Builder {
                     // and allow remote calls.
                     progressRemoteImpl = new ProgressRemoteImpl(progress, agentMachine);
 
-                    // NOTE: Basic exported fails on nets where DNS is broken, so use config to allow override.
-                    //exporter = new BasicJeriExporter(TcpServerEndpoint.getInstance(0),
-                    //        new BasicILFactory(), false, true);
-                    try {
-                        // @todo use a new config file, ie: 'progressremote.config'. Update 'Bad DNS workaround' docs
-                        final String configFilename = "transient-reggie.config";
-                        final File configFile = FileUtil.getFileFromResource(configFilename);
-                        final Configuration config = ConfigurationProvider.getInstance(
-                                new String[] { configFile.getAbsolutePath() }, getClass().getClassLoader());
-
-                        final Exporter defaultExporter = new BasicJeriExporter(TcpServerEndpoint.getInstance(0),
-                                new BasicILFactory(), false, true);
-                        final String componentName = "com.sun.jini.reggie";
-                        exporter = (Exporter) config.getEntry(componentName, "serverExporter", Exporter.class,
-                                defaultExporter);
-                    } catch (ConfigurationException e) {
-                        throw new CruiseControlException("Error configuring ProgressRemote exporter", e);
-                    }
-
+                    exporter = createExporter("ProgressRemote");
                     progressRemote = (ProgressRemote) exporter.export(progressRemoteImpl);
                 } else {
                     // A strong reference to ProgressRemoteImpl is required to keep internal RMI refs valid.
@@ -330,13 +339,7 @@ public class DistributedMasterBuilder extends Builder {
                 }
 
 
-                if (isLiveOutput()) {
-                    // put LiveOutputReader into manager
-                    final BuildOutputLoggerRemote remoteReader = new BuildOutputLoggerRemote(projectName, agent);
-                    BuildOutputLoggerManager.INSTANCE.put(projectName, remoteReader);
-                    LOG.debug("Distributed Builder set Remote Logger: ProjectName: " + projectName
-                            + "; OutputID: " + remoteReader.getID());
-                }
+                final Exporter liveOutputExporter = startLiveOutput(agent, projectName);
 
 
                 final long masterStartTime = System.currentTimeMillis();
@@ -345,24 +348,17 @@ public class DistributedMasterBuilder extends Builder {
                             progressRemote, remoteResults);
                 } finally {
                     // always remove remote reader (in case liveOutput setting changed - don't leave remote refs).
-                    BuildOutputLoggerManager.INSTANCE.remove(projectName);
-
-                    unexportProgressRemote(exporter);
-                }
+                    final BuildOutputLogger liveOutput = BuildOutputLoggerManager.INSTANCE.remove(projectName);
 
-                final File rootDirCanon;
-                try {
-                    // watch out on Windoze, problems if root dir is c: instead of c:/
-                    LOG.debug("rootDir: " + rootDir + "; rootDir.cp: " + rootDir.getCanonicalPath());
-                    rootDirCanon = rootDir.getCanonicalFile();
-                } catch (IOException e) {
-                    final String message = "Error getting canonical file for: " + rootDir;
-                    LOG.error(message);
-                    System.err.println(message);
-                    throw new CruiseControlException(message, e);
+                    unexport(exporter, "ProgressRemote");
+                    if (liveOutputExporter != null) {
+                        unexport(liveOutputExporter, "live output");
+                        liveOutput.clear(); // deletes the live output file
+                    }
                 }
 
-                retrieveBuildArtifacts(agent, rootDirCanon, projectName, progress, agentMachine);
+                retrieveBuildArtifacts(agent, masterResultDirs, distributedAgentProps, projectName, progress,
+                        agentMachine);
 
             } catch (RemoteException e) {
                 final String message = "RemoteException from"
@@ -370,13 +366,18 @@ public class DistributedMasterBuilder extends Builder {
                         + "\nwhile building project: " + projectName;
                 LOG.error(message, e);
                 System.err.println(message + " - " + e.getMessage());
+                clearOutputFilesAfterError(agent);
+                throw new CruiseControlException(message, e);
+            } catch (CruiseControlException e) {
+                clearOutputFilesAfterError(agent);
+                throw e;
+            } finally {
+                // hand the agent to the next waiting build, if it is still busy the next claim will notice
                 try {
-                    agent.clearOutputFiles();
-                } catch (RemoteException re) {
-                    LOG.error("Exception after prior exception while clearing agent output files (to set busy false).",
-                            re);
+                    MulticastDiscovery.releaseAgent(agent);
+                } catch (RemoteException e) {
+                    LOG.error("Error releasing agent on: " + agentMachine, e);
                 }
-                throw new CruiseControlException(message, e);
             }
             return buildResults;
         } catch (RuntimeException e) {
@@ -390,16 +391,70 @@ public class DistributedMasterBuilder extends Builder {
         }
     }
 
-    private void unexportProgressRemote(final Exporter exporter) {
+    /**
+     * @param purpose what the exported object is for, used in error messages
+     * @return a new exporter for an object that agents call back during a build
+     * @throws CruiseControlException if the exporter configuration is invalid
+     */
+    private Exporter createExporter(final String purpose) throws CruiseControlException {
+        // NOTE: Basic exported fails on nets where DNS is broken, so use config to allow override.
+        //exporter = new BasicJeriExporter(TcpServerEndpoint.getInstance(0),
+        //        new BasicILFactory(), false, true);
+        try {
+            // @todo use a new config file, ie: 'progressremote.config'. Update 'Bad DNS workaround' docs
+            final String configFilename = "transient-reggie.config";
+            final File configFile = FileUtil.getFileFromResource(configFilename);
+            final Configuration config = ConfigurationProvider.getInstance(
+                    new String[] { configFile.getAbsolutePath() }, getClass().getClassLoader());
+
+            final Exporter defaultExporter = new BasicJeriExporter(TcpServerEndpoint.getInstance(0),
+                    new BasicILFactory(), false, true);
+            final String componentName = "com.sun.jini.reggie";
+            return (Exporter) config.getEntry(componentName, "serverExporter", Exporter.class,
+                    defaultExporter);
+        } catch (ConfigurationException e) {
+            throw new CruiseControlException("Error configuring " + purpose + " exporter", e);
+        }
+    }
+
+    /**
+     * Lets the agent push the live output of the build to a cache on this master, which serves all output
+     * readers, so reading the output does not call the agent.
+     * @return the exporter of the cache, or null if live output is off
+     */
+    private Exporter startLiveOutput(final BuildAgentService agent, final String projectName)
+            throws CruiseControlException, RemoteException {
+
+        if (!isLiveOutput()) {
+            return null;
+        }
+        final File segmentFile;
+        try {
+            segmentFile = File.createTempFile("ccLiveOutput-" + getFileSystemSafeProjectName(projectName) + "-",
+                    ".txt");
+        } catch (IOException e) {
+            throw new CruiseControlException("Error creating live output file", e);
+        }
+        final LiveOutputCache liveOutputCache = new LiveOutputCache(projectName, segmentFile);
+        final Exporter exporter = createExporter("live output");
+        agent.pushLiveOutput((LiveOutputReceiverRemote) exporter.export(liveOutputCache));
+        // the manager holds the cache until the build ends, which also keeps the exported object referenced
+        BuildOutputLoggerManager.INSTANCE.put(projectName, liveOutputCache);
+        LOG.debug("Distributed Builder set Live Output Cache: ProjectName: " + projectName
+                + "; OutputID: " + liveOutputCache.getID());
+        return exporter;
+    }
+
+    private void unexport(final Exporter exporter, final String name) {
         if (exporter != null) {
             int count = 0;
             while (!exporter.unexport(false) && count < 10) {
-                LOG.info("Failed to unexport ProgressRemote, retries: " + count);
+                LOG.info("Failed to unexport " + name + ", retries: " + count);
                 // wait a bit and try again
                 try {
                     Thread.sleep(1000);
                 } catch (InterruptedException e) {
-                    LOG.error("Interrupted while unexporting ProgressRemote");
+                    LOG.error("Interrupted while unexporting " + name);
                 }
                 count++;
             }
@@ -408,7 +463,8 @@ public class DistributedMasterBuilder extends Builder {
         }
     }
 
-    private void retrieveBuildArtifacts(final BuildAgentService agent, final File workDir, final String projectName,
+    private void retrieveBuildArtifacts(final BuildAgentService agent, final Map<String, File> masterResultDirs,
+                                        final Map<String, String> distributedAgentProps, final String projectName,
                                         final Progress progress, final String agentMachine)
             throws RemoteException {
 
@@ -416,24 +472,208 @@ public class DistributedMasterBuilder extends Builder {
             progress.setValue("retrieving results from " + agentMachine);
         }
 
-        getResultsFiles(agent, workDir, projectName, PropertiesHelper.RESULT_TYPE_LOGS,
-                resolveMasterDestDir(masterLogDir, workDir, PropertiesHelper.RESULT_TYPE_LOGS));
+        getResultsFiles(agent, projectName, PropertiesHelper.RESULT_TYPE_LOGS,
+                masterResultDirs.get(PropertiesHelper.RESULT_TYPE_LOGS));
 
-        getResultsFiles(agent, workDir, projectName, PropertiesHelper.RESULT_TYPE_OUTPUT,
-                resolveMasterDestDir(masterOutputDir, workDir, PropertiesHelper.RESULT_TYPE_OUTPUT));
+        getResultsFiles(agent, projectName, PropertiesHelper.RESULT_TYPE_OUTPUT,
+                masterResultDirs.get(PropertiesHelper.RESULT_TYPE_OUTPUT));
 
 
         if (remoteResults != null) {
 
             for (final RemoteResult remoteResult : remoteResults) {
-                getRemoteResult(agent, workDir, projectName, remoteResult);
+                getRemoteResult(agent, projectName, remoteResult);
+            }
+        }
+
+        // remember what the master now holds, so the next build of this project returns only changes
+        for (final Map.Entry<String, File> masterResultDir : masterResultDirs.entrySet()) {
+            final String resultKey = masterResultDir.getKey();
+            final WorkspaceManifest manifest = agent.getResultsManifest(resultKey);
+            final WorkspaceManifest returned = RETURNED_RESULTS.get(projectName + "/" + resultKey);
+            if (manifest != null && returned != null && distributedAgentProps.containsKey(
+                    PropertiesHelper.DISTRIBUTED_RESULT_BASELINE_PREFIX + resultKey)) {
+                // the master held the results of the last build, delete those the agent no longer has
+                deleteRemovedResults(masterResultDir.getValue(), manifest.getRemovedPaths(returned));
+            }
+            if (manifest != null) {
+                RETURNED_RESULTS.put(projectName + "/" + resultKey, manifest);
+            } else {
+                RETURNED_RESULTS.remove(projectName + "/" + resultKey);
             }
         }
 
         agent.clearOutputFiles();
     }
 
-    
+    /**
+     * Deletes result files of the last build the agent no longer holds, as only new and changed result files
+     * are returned.
+     */
+    private static void deleteRemovedResults(final File masterResultDir, final List<String> removedPaths) {
+        if (removedPaths.isEmpty()) {
+            return;
+        }
+        int deleted = 0;
+        try {
+            final String resultDirPath = masterResultDir.getCanonicalPath() + File.separator;
+            for (final String removedPath : removedPaths) {
+                final File removed = new File(masterResultDir, removedPath);
+                if (!removed.getCanonicalPath().startsWith(resultDirPath)) {
+                    LOG.warn("Not deleting removed result outside of: " + masterResultDir + ": " + removedPath);
+                } else if (removed.delete()) {
+                    deleted++;
+                } else if (removed.exists()) {
+                    LOG.warn("Error deleting removed result: " + removed.getAbsolutePath());
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Error deleting removed results in: " + masterResultDir, e);
+        }
+        LOG.info("Deleted " + deleted + " results removed on the agent from: " + masterResultDir);
+    }
+
+    private static void clearOutputFilesAfterError(final BuildAgentService agent) {
+        try {
+            agent.clearOutputFiles();
+        } catch (RemoteException re) {
+            LOG.error("Exception after prior exception while clearing agent output files (to set busy false).", re);
+        }
+    }
+
+    /**
+     * @return the master directories into which results are expanded, by result key.
+     * @throws CruiseControlException if the cruise run dir can not be resolved
+     */
+    private Map<String, File> getMasterResultDirs() throws CruiseControlException {
+        final File workDir;
+        try {
+            // watch out on Windoze, problems if root dir is c: instead of c:/
+            LOG.debug("rootDir: " + rootDir + "; rootDir.cp: " + rootDir.getCanonicalPath());
+            workDir = rootDir.getCanonicalFile();
+        } catch (IOException e) {
+            final String message = "Error getting canonical file for: " + rootDir;
+            LOG.error(message);
+            System.err.println(message);
+            throw new CruiseControlException(message, e);
+        }
+
+        final Map<String, File> masterResultDirs = new LinkedHashMap<String, File>();
+        masterResultDirs.put(PropertiesHelper.RESULT_TYPE_LOGS,
+                resolveMasterDestDir(masterLogDir, workDir, PropertiesHelper.RESULT_TYPE_LOGS));
+        masterResultDirs.put(PropertiesHelper.RESULT_TYPE_OUTPUT,
+                resolveMasterDestDir(masterOutputDir, workDir, PropertiesHelper.RESULT_TYPE_OUTPUT));
+        if (remoteResults != null) {
+            for (final RemoteResult remoteResult : remoteResults) {
+                masterResultDirs.put(PropertiesHelper.RESULT_TYPE_DIR + remoteResult.getIdx(),
+                        remoteResult.getMasterDir());
+            }
+        }
+        return masterResultDirs;
+    }
+
+    /**
+     * Tells the agent which results of the last build of this project the master still holds unchanged,
+     * so it need not return them again.
+     */
+    private static void putResultBaselines(final Map<String, String> distributedAgentProps, final String projectName,
+                                           final Map<String, File> masterResultDirs) {
+
+        for (final Map.Entry<String, File> masterResultDir : masterResultDirs.entrySet()) {
+            final WorkspaceManifest returned = RETURNED_RESULTS.get(projectName + "/" + masterResultDir.getKey());
+            try {
+                if (returned != null && returned.isHeldBy(masterResultDir.getValue())) {
+                    distributedAgentProps.put(PropertiesHelper.DISTRIBUTED_RESULT_BASELINE_PREFIX
+                            + masterResultDir.getKey(), returned.getId());
+                }
+            } catch (IOException e) {
+                LOG.warn("Error checking " + masterResultDir.getKey() + " results of last build in: "
+                        + masterResultDir.getValue() + ", all results will be returned", e);
+            }
+        }
+    }
+
+    /**
+     * @param agent a build agent
+     * @return the machine name of the agent, followed by the slot if the agent runs more than one build at a time
+     */
+    private static String getAgentName(final BuildAgentService agent) {
+        try {
+            final int slot = agent.getSlot();
+            return agent.getMachineName() + (slot > 0 ? " slot " + slot : "");
+        } catch (RemoteException e) {
+            return "unknown";
+        }
+    }
+
+    /**
+     * Sends the files of the master workspace that the agent workspace lacks, and deletes the agent workspace
+     * files the master workspace lacks. The agent workspace manifest is cached, so an agent whose workspace did
+     * not change since the last sync does not send it again.
+     */
+    private void syncWorkspace(final BuildAgentService agent, final String agentMachine)
+            throws RemoteException, CruiseControlException {
+
+        final WorkspaceManifest masterManifest;
+        try {
+            masterManifest = WorkspaceManifest.scan(new File(masterWorkspaceDir));
+        } catch (IOException e) {
+            throw new CruiseControlException("Error reading master workspace: " + masterWorkspaceDir, e);
+        }
+
+        final String agentWorkspaceKey = agentMachine + ":" + agentWorkspaceDir;
+        WorkspaceManifest agentManifest = AGENT_WORKSPACES.get(agentWorkspaceKey);
+        final WorkspaceManifest changedManifest = agent.getWorkspaceManifest(agentWorkspaceDir,
+                (agentManifest == null ? null : agentManifest.getId()));
+        if (changedManifest != null) {
+            agentManifest = changedManifest;
+        }
+
+        final List<String> changed = masterManifest.getChangedPaths(agentManifest);
+        final List<String> removed = masterManifest.getRemovedPaths(agentManifest);
+        if (changed.isEmpty() && removed.isEmpty()) {
+            AGENT_WORKSPACES.put(agentWorkspaceKey, agentManifest);
+            LOG.info("Workspace on agent " + agentMachine + " is up to date (" + masterManifest.size() + " files)");
+            return;
+        }
+
+        long bytesSent = 0;
+        if (!changed.isEmpty()) {
+            final File changesZip;
+            try {
+                changesZip = File.createTempFile("workspace-", ".zip");
+            } catch (IOException e) {
+                throw new CruiseControlException("Error creating workspace changes zip", e);
+            }
+            try {
+                ZipUtil.zipFolderContents(changesZip.getAbsolutePath(), masterWorkspaceDir, changed);
+                ResultChunk chunk;
+                do {
+                    chunk = ResultChunk.read(changesZip, bytesSent, ResultChunk.DEFAULT_SIZE);
+                    agent.putWorkspaceChunk(agentWorkspaceDir, chunk);
+                    bytesSent += chunk.getData().length;
+                } while (!chunk.isLast());
+            } catch (IOException e) {
+                throw new CruiseControlException("Error reading workspace changes zip: " + changesZip, e);
+            } finally {
+                if (!changesZip.delete()) {
+                    changesZip.deleteOnExit();
+                }
+            }
+        }
+
+        final String agentManifestId = agent.applyWorkspaceChanges(agentWorkspaceDir,
+                removed.toArray(new String[removed.size()]));
+        if (agentManifestId.equals(masterManifest.getId())) {
+            AGENT_WORKSPACES.put(agentWorkspaceKey, masterManifest);
+        } else {
+            // changed on the agent while syncing, fetch its manifest next time
+            AGENT_WORKSPACES.remove(agentWorkspaceKey);
+        }
+        LOG.info("Synced workspace to agent " + agentMachine + ": sent " + changed.size() + " changed files ("
+                + bytesSent + " bytes), deleted " + removed.size() + " files");
+    }
+
     private static File resolveMasterDestDir(final String masterDestDir, final File workDir,
                                                final String resultType) {
         final File resultDir;
@@ -447,21 +687,22 @@ public class DistributedMasterBuilder extends Builder {
 
     /**
      * @param agent build agent
-     * @param workDir working dir for temp files
      * @param projectName project name being built
      * @param resultsType log, output, or file (RemoteResults)
      * @param masterDestDir destination directory on master into which to expand the result files.
      * @throws RemoteException if a remote call fails
      */
-    public static void getResultsFiles(final BuildAgentService agent, final File workDir, final String projectName,
+    public static void getResultsFiles(final BuildAgentService agent, final String projectName,
                                        final String resultsType, final File masterDestDir)
             throws RemoteException {
 
         if (agent.resultsExist(resultsType)) {
 
-            final byte[] remoteResultBytes = agent.retrieveResultsAsZip(resultsType);
-
-            extractBytesToMaster(workDir, projectName, resultsType, remoteResultBytes, masterDestDir);
+            extractToMaster(projectName, resultsType, new ResultChunkSource() {
+                public ResultChunk fetch(final long offset) throws RemoteException {
+                    return agent.retrieveResultsChunk(resultsType, offset);
+                }
+            }, masterDestDir);
         } else {
             final String message = projectName + ": No results returned for " + resultsType;
             LOG.info(message);
@@ -470,12 +711,11 @@ public class DistributedMasterBuilder extends Builder {
 
     /**
      * @param agent build agent
-     * @param workDir working dir for temp files
      * @param projectName project name being built
      * @param remoteResult remoteResult to retrieve from Agent
      * @throws RemoteException if a remote call fails
      */
-    public static void getRemoteResult(final BuildAgentService agent, final File workDir, final String projectName,
+    public static void getRemoteResult(final BuildAgentService agent, final String projectName,
                                        final RemoteResult remoteResult)
             throws RemoteException {
 
@@ -483,29 +723,43 @@ public class DistributedMasterBuilder extends Builder {
 
         if (agent.remoteResultExists(remoteResult.getIdx())) {
 
-            final byte[] remoteResultBytes = agent.retrieveRemoteResult(remoteResult.getIdx());
-
-            extractBytesToMaster(workDir, projectName, resultsType, remoteResultBytes, remoteResult.getMasterDir());
+            extractToMaster(projectName, resultsType, new ResultChunkSource() {
+                public ResultChunk fetch(final long offset) throws RemoteException {
+                    return agent.retrieveRemoteResultChunk(remoteResult.getIdx(), offset);
+                }
+            }, remoteResult.getMasterDir());
         } else {
             final String message = projectName + ": Nothing returned for remote result: " + remoteResult;
             LOG.info(message);
         }
     }
 
-    private static void extractBytesToMaster(final File workDir, final String projectName, final String resultsType,
-                                             final byte[] remoteResultBytes, final File masterDestDir) {
-        
-        final File zipFile = ZipUtil.getTempResultsZipFile(workDir, projectName, resultsType);
-
-        FileUtil.bytesToFile(remoteResultBytes, zipFile);
+    /**
+     * Unzips the results while their chunks arrive from the agent, without staging the zip on the master.
+     */
+    private static void extractToMaster(final String projectName, final String resultsType,
+                                        final ResultChunkSource source, final File masterDestDir)
+            throws RemoteException {
 
+        final ResultChunkInputStream in = new ResultChunkInputStream(source);
+        final int entries;
         try {
-            LOG.info("unzip " + resultsType + " (" + zipFile.getAbsolutePath() + ") to: " + masterDestDir);
-            ZipUtil.unzipFileToLocation(zipFile.getAbsolutePath(), masterDestDir.getAbsolutePath());
-            IO.delete(zipFile);
+            LOG.info(projectName + ": unzip " + resultsType + " to: " + masterDestDir);
+            entries = ZipUtil.unzipStreamToLocation(in, masterDestDir.getAbsolutePath());
         } catch (IOException e) {
+            if (e.getCause() instanceof RemoteException) {
+                throw (RemoteException) e.getCause();
+            }
+            final String message = "Error retrieving " + resultsType + " results to: " + masterDestDir;
+            LOG.error(message, e);
+            throw new RuntimeException(message, e);
+        }
+        if (entries == 0) {
             // Empty zip for log results--ignore
-            LOG.debug("Ignored retrieve " + resultsType + " results error:", e);
+            LOG.debug("Ignored empty " + resultsType + " results");
+        } else {
+            LOG.info(projectName + ": unzipped " + entries + " entries (" + in.getBytesReceived() + " bytes) of "
+                    + resultsType);
         }
     }
 
@@ -526,40 +780,25 @@ public class DistributedMasterBuilder extends Builder {
             progress.setValue(msgProgress);
         }
 
-        while (agent == null) {
-            final ServiceItem serviceItem;
-            try {
-                serviceItem = MulticastDiscovery.findMatchingServiceAndClaim(entries,
-                        // Non-zero failfast value avoids intermittent failures in unit tests
-                        (isFailFast ? 2000 : MulticastDiscovery.DEFAULT_FIND_WAIT_DUR_MILLIS));
-
-            } catch (RemoteException e) {
-                throw new CruiseControlException("Error finding matching agent.", e);
-            }
+        final ServiceItem serviceItem;
+        try {
+            // prefer the agent that built this project last, it holds the workspace and results of that build
+            serviceItem = MulticastDiscovery.findMatchingServiceAndClaim(entries,
+                    // Non-zero failfast value avoids intermittent failures in unit tests
+                    (isFailFast ? 2000 : 0), projectName);
+
+        } catch (RemoteException e) {
+            throw new CruiseControlException("Error finding matching agent.", e);
+        } catch (InterruptedException e) {
+            LOG.error("Waiting for an available agent to build project: " + projectName + " was interrupted");
+            return null;
+        }
 
-            if (serviceItem != null) {
-                agent = (BuildAgentService) serviceItem.service;
-                try {
-                    LOG.info("Found available agent on: " + agent.getMachineName());
-                } catch (RemoteException e) {
-                    throw new CruiseControlException("Error calling agent method.", e);
-                }
-            } else if (isFailFast()) {
-                LOG.warn("pickAgent: Agent not found. Should only occur in unit tests.");
-                break;
-            } else {
-                // wait a bit and try again
-                LOG.info("Couldn't find available agent with: "
-                        + MulticastDiscovery.toStringEntries(entries) 
-                        + " to build project: " + projectName + ". Waiting "
-                        + (DEFAULT_CACHE_MISS_WAIT / 1000) + " seconds before retry.");
-                try {
-                    Thread.sleep(DEFAULT_CACHE_MISS_WAIT);
-                } catch (InterruptedException e) {
-                    LOG.error("Lookup Cache Miss Wait was interrupted");
-                    break;
-                }
-            }
+        if (serviceItem != null) {
+            agent = (BuildAgentService) serviceItem.service;
+            LOG.info("Found available agent on: " + getAgentName(agent));
+        } else if (isFailFast()) {
+            LOG.warn("pickAgent: Agent not found. Should only occur in unit tests.");
         }
 
         return agent;
@@ -593,6 +832,14 @@ public class DistributedMasterBuilder extends Builder {
         this.masterOutputDir = masterOutputDir;
     }
 
+    public void setMasterWorkspaceDir(final String masterWorkspaceDir) {
+        this.masterWorkspaceDir = masterWorkspaceDir;
+    }
+
+    public void setAgentWorkspaceDir(final String agentWorkspaceDir) {
+        this.agentWorkspaceDir = agentWorkspaceDir;
+    }
+
 
     private int remoteResultIdxCounter;
     
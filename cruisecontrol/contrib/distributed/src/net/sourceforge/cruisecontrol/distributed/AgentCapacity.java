@@ -0,0 +1,79 @@
+/****************************************************************************
+* CruiseControl, a Continuous Integration Toolkit
+* Copyright (c) 2001, ThoughtWorks, Inc.
+* 200 E. Randolph, 25th Floor
+* Chicago, IL 60601 USA
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions
+* are met:
+*
+*     + Redistributions of source code must retain the above copyright
+*       notice, this list of conditions and the following disclaimer.
+*
+*     + Redistributions in binary form must reproduce the above
+*       copyright notice, this list of conditions and the following
+*       disclaimer in the documentation and/or other materials provided
+*       with the distribution.
+*
+*     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+*       names of its contributors may be used to endorse or promote
+*       products derived from this software without specific prior
+*       written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+* "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+* LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+* A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+* EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+* PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+* LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+* NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+****************************************************************************/
+
+package net.sourceforge.cruisecontrol.distributed;
+
+import net.jini.entry.AbstractEntry;
+
+/**
+ * Entry advertising how much build capacity an agent machine has left. The same values are published by
+ * every build slot of the machine, and updated whenever a slot is claimed or released. Use an empty
+ * template to match any agent.
+ */
+public class AgentCapacity extends AbstractEntry {
+
+    private static final long serialVersionUID = 4522167207315437862L;
+
+    /** Number of builds the agent runs at the same time. */
+    public Integer totalSlots;
+    /** Number of slots not building. */
+    public Integer freeSlots;
+    /** Number of processors of the agent machine. */
+    public Integer processors;
+    /** Megabytes of heap the agent JVM can still allocate. */
+    public Integer freeMemoryMB;
+
+    /** Entry must have public, no-arg constructor. */
+    public AgentCapacity() { }
+
+    public AgentCapacity(final int totalSlots, final int freeSlots, final int processors, final int freeMemoryMB) {
+        this.totalSlots = totalSlots;
+        this.freeSlots = freeSlots;
+        this.processors = processors;
+        this.freeMemoryMB = freeMemoryMB;
+    }
+
+    /**
+     * @return the share of busy slots, from 0 when all slots are free to 1 when all are building.
+     */
+    public float getLoad() {
+        if (totalSlots == null || freeSlots == null || totalSlots <= 0) {
+            return 0;
+        }
+        return (totalSlots - freeSlots) / (float) totalSlots;
+    }
+}
@@ -54,6 +54,7 @@ import java.util.ArrayList;
 import java.util.Enumeration;
 import java.awt.GraphicsEnvironment;
 
+import net.jini.core.entry.Entry;
 import net.jini.core.lookup.ServiceID;
 import net.jini.core.lookup.ServiceRegistrar;
 import net.jini.core.discovery.LookupLocator;
@@ -92,12 +93,54 @@ public class BuildAgent implements DiscoveryListener,
      * A Unicast Lookup Locater is useful if multicast isn't working. */
     private static final String REGISTRY_URL = "registry.url";
 
+    /** Optional number of builds this agent runs at the same time, defaults to 1. */
+    static final String AGENT_SLOTS = "agent.slots";
+
+    /**
+     * One build at a time. Each slot is a separate service to the lookup services, with its own
+     * build directory.
+     */
+    private final class Slot implements ServiceIDListener {
+        private final BuildAgentServiceImpl serviceImpl;
+        private final Exporter exporter;
+        private final Remote proxy;
+        private JoinManager joinManager;
+        private ServiceID serviceID;
+
+        private Slot(final BuildAgentServiceImpl serviceImpl) {
+            this.serviceImpl = serviceImpl;
+
+            exporter = new BasicJeriExporter(TcpServerEndpoint.getInstance(0),
+                    new BasicILFactory(), false, true);
+
+            try {
+                proxy = exporter.export(serviceImpl);
+            } catch (ExportException e) {
+                final String message = "Error exporting service";
+                LOG.error(message, e);
+                throw new RuntimeException(message, e);
+            }
+        }
+
+        public void serviceIDNotify(final ServiceID serviceID) {
+            this.serviceID = serviceID;
+            LOG.info("ServiceID assigned to slot " + serviceImpl.getSlot() + ": " + serviceID);
+        }
+
+        private void terminate() {
+            unexport(exporter);
+            joinManager.terminate();
+        }
+    }
+
     private final BuildAgentServiceImpl serviceImpl;
     private final PropertyEntry[] origEntries;
     private final Exporter exporter;
     private final JoinManager joinManager;
     private ServiceID serviceID;
     private final Remote proxy;
+    /** Build slots besides the first one, which is held in the fields above. */
+    private final Slot[] extraSlots;
 
     private Properties entryProperties;
     private Properties configProperties;
@@ -169,6 +212,18 @@ public class BuildAgent implements DiscoveryListener,
         serviceImpl = new BuildAgentServiceImpl(this);
         serviceImpl.setAgentPropertiesFilename(propsFile);
 
+        final int slotCount = Integer.parseInt(configProperties.getProperty(AGENT_SLOTS, "1").trim());
+        if (slotCount < 1) {
+            throw new IllegalArgumentException("Invalid " + AGENT_SLOTS + " value: " + slotCount);
+        }
+        extraSlots = new Slot[slotCount - 1];
+        for (int i = 0; i < extraSlots.length; i++) {
+            final BuildAgentServiceImpl slotImpl = new BuildAgentServiceImpl(this);
+            slotImpl.setAgentPropertiesFilename(propsFile);
+            slotImpl.setSlot(i + 1);
+            extraSlots[i] = new Slot(slotImpl);
+        }
+
         origEntries = SearchablePropertyEntries.getPropertiesAsEntryArray(entryProperties);
         if (!isSkipUI && !GraphicsEnvironment.isHeadless()) {
             LOG.info("Loading Build Agent UI (use param -" + MAIN_ARG_SKIP_UI + " to bypass).");
@@ -202,11 +257,16 @@ public class BuildAgent implements DiscoveryListener,
 
         try {
             if (serviceID == null) {
-                joinManager = new JoinManager(getProxy(), getEntries(), this, lld, null);
+                joinManager = new JoinManager(getProxy(), getAttributes(), this, lld, null);
             } else {
                 LOG.warn("Didn't expect to have a serviceID: " + serviceID + " (agentID: " + testAgentID
                         + "). Are we storing and re-using the serviceID now?");
-                joinManager = new JoinManager(getProxy(), getEntries(), serviceID, lld, null);
+                joinManager = new JoinManager(getProxy(), getAttributes(), serviceID, lld, null);
+            }
+            // the other slots register with the lookup services found for the first one
+            for (final Slot slot : extraSlots) {
+                slot.joinManager = new JoinManager(slot.proxy, getAttributes(), slot,
+                        joinManager.getDiscoveryManager(), null);
             }
         } catch (IOException e) {
             final String message = "Error starting discovery";
@@ -217,6 +277,52 @@ public class BuildAgent implements DiscoveryListener,
         getJoinManager().getDiscoveryManager().addDiscoveryListener(this);
     }
 
+    /**
+     * @return the entries of this agent, followed by its current capacity.
+     */
+    private Entry[] getAttributes() {
+        final PropertyEntry[] entries = getEntries();
+        final Entry[] attributes = new Entry[entries.length + 1];
+        System.arraycopy(entries, 0, attributes, 0, entries.length);
+        attributes[entries.length] = getCapacity();
+        return attributes;
+    }
+
+    /**
+     * @return the free slots and resources of this agent. Takes no lock of the slots, since it is called while
+     * holding the monitor of this agent, which the slots call while claiming or releasing.
+     */
+    AgentCapacity getCapacity() {
+        int freeSlots = (serviceImpl.isBusy() ? 0 : 1);
+        for (final Slot slot : extraSlots) {
+            if (!slot.serviceImpl.isBusy()) {
+                freeSlots++;
+            }
+        }
+        final Runtime runtime = Runtime.getRuntime();
+        final long freeMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+        return new AgentCapacity(extraSlots.length + 1, freeSlots, runtime.availableProcessors(),
+                (int) (freeMemory / (1024 * 1024)));
+    }
+
+    /** Publishes the current entries and capacity of this agent from all its slots. */
+    private synchronized void publishAttributes() {
+        final Entry[] attributes = getAttributes();
+        if (joinManager != null) {
+            joinManager.setAttributes(attributes);
+        }
+        for (final Slot slot : extraSlots) {
+            if (slot.joinManager != null) {
+                slot.joinManager.setAttributes(attributes);
+            }
+        }
+    }
+
+    /** Called by a slot when it is claimed or released, to publish the changed capacity. */
+    void slotBusyChanged() {
+        publishAttributes();
+    }
+
     /**
      * Parses a comma separated list of Unicast Lookup Locaters (URL's).
      * Useful if multicast isn't working.
@@ -263,7 +369,7 @@ public class BuildAgent implements DiscoveryListener,
         putEntryOverrides(prefsEntryOverrides, entryOverrides);
 
         // publish using entries reloaded via getEntries, which adds entry overrides from prefs
-        joinManager.setAttributes(getEntries());
+        publishAttributes();
     }
 
     /**
@@ -286,7 +392,7 @@ public class BuildAgent implements DiscoveryListener,
         clearOverridePrefs();
 
         // publish using entries reloaded via getEntries, which adds entry overrides from prefs
-        joinManager.setAttributes(getEntries());
+        publishAttributes();
     }
 
     private void clearOverridePrefs() {
@@ -412,20 +518,10 @@ public class BuildAgent implements DiscoveryListener,
 
     private void terminate() {
         LOG.info("Terminating build agent.");
-        int unexportAttempts = 0;
-        while (!getExporter().unexport(false) && unexportAttempts < 10) {
-            // wait a bit
-            try {
-                Thread.sleep(500);
-            } catch (InterruptedException e) {
-                LOG.warn("Sleep interrupted during terminate.unexport", e);
-            }
-            unexportAttempts++;
-        }
-        if (!getExporter().unexport(false)) {
-            LOG.warn("Unexport of Agent service failed. Forcing export.");
-            getExporter().unexport(true);
+        for (final Slot slot : extraSlots) {
+            slot.terminate();
         }
+        unexport(getExporter());
         getJoinManager().terminate();
 
         if (!isTerminateFast) {
@@ -443,6 +539,22 @@ public class BuildAgent implements DiscoveryListener,
         }
     }
 
+    private static void unexport(final Exporter exporter) {
+        int unexportAttempts = 0;
+        while (!exporter.unexport(false) && unexportAttempts < 10) {
+            // wait a bit
+            try {
+                Thread.sleep(500);
+            } catch (InterruptedException e) {
+                LOG.warn("Sleep interrupted during terminate.unexport", e);
+            }
+            unexportAttempts++;
+        }
+        if (!exporter.unexport(false)) {
+            LOG.warn("Unexport of Agent service failed. Forcing export.");
+            exporter.unexport(true);
+        }
+    }
 
     private Remote getProxy() {
         return proxy;
@@ -42,10 +42,13 @@ import java.util.Map;
 import java.util.Date;
 
 import net.sourceforge.cruisecontrol.distributed.core.LiveOutputReaderRemote;
+import net.sourceforge.cruisecontrol.distributed.core.LiveOutputReceiverRemote;
 import org.jdom.Element;
 import net.sourceforge.cruisecontrol.Builder;
 import net.sourceforge.cruisecontrol.distributed.core.ProgressRemote;
 import net.sourceforge.cruisecontrol.distributed.core.RemoteResult;
+import net.sourceforge.cruisecontrol.distributed.core.ResultChunk;
+import net.sourceforge.cruisecontrol.distributed.core.WorkspaceManifest;
 
 public interface BuildAgentService extends LiveOutputReaderRemote {
 
@@ -93,17 +96,93 @@ public interface BuildAgentService extends LiveOutputReaderRemote {
      * @throws RemoteException if the remote call fails
      */
     String getProjectName() throws RemoteException;
+    /**
+     * @return the build slot of the agent this service is, 0 for the first one.
+     * @throws RemoteException if the remote call fails
+     */
+    int getSlot() throws RemoteException;
 
 
     boolean resultsExist(String resultsType) throws RemoteException;
+    /**
+     * @param resultsType the type of results
+     * @return the whole zipped results.
+     * @throws RemoteException if the remote call fails
+     * @deprecated holds the whole zip in memory on both sides, use {@link #retrieveResultsChunk(String, long)}.
+     */
+    @Deprecated
     byte[] retrieveResultsAsZip(String resultsType) throws RemoteException;
+    /**
+     * @param resultsType the type of results
+     * @param offset position in the results zip of the first byte to return
+     * @return up to {@link ResultChunk#DEFAULT_SIZE} bytes of the results zip, starting at the offset.
+     * @throws RemoteException if the remote call fails
+     */
+    ResultChunk retrieveResultsChunk(String resultsType, long offset) throws RemoteException;
 
     boolean remoteResultExists(int idx) throws RemoteException;
+    /**
+     * @param resultIdx index of the remote result
+     * @return the whole zipped remote result.
+     * @throws RemoteException if the remote call fails
+     * @deprecated holds the whole zip in memory on both sides, use {@link #retrieveRemoteResultChunk(int, long)}.
+     */
+    @Deprecated
     byte[] retrieveRemoteResult(int resultIdx) throws RemoteException;
+    /**
+     * @param resultIdx index of the remote result
+     * @param offset position in the remote result zip of the first byte to return
+     * @return up to {@link ResultChunk#DEFAULT_SIZE} bytes of the remote result zip, starting at the offset.
+     * @throws RemoteException if the remote call fails
+     */
+    ResultChunk retrieveRemoteResultChunk(int resultIdx, long offset) throws RemoteException;
+
+    /**
+     * @param resultKey the type of results, or
+     * {@link net.sourceforge.cruisecontrol.distributed.core.PropertiesHelper#RESULT_TYPE_DIR} followed by the index
+     * of a remote result.
+     * @return the manifest of all result files of the last build, including those not returned since the master
+     * already holds them, or null if there are no results of the given type.
+     * @throws RemoteException if the remote call fails
+     */
+    WorkspaceManifest getResultsManifest(String resultKey) throws RemoteException;
 
     void clearOutputFiles() throws RemoteException;
 
 
+    /**
+     * Makes the next build push its live output to the given receiver, so the master need not ask for it.
+     * Applies until the claim of this agent is released.
+     * @param receiver the master side of the live output of the build
+     * @throws RemoteException if the remote call fails
+     */
+    void pushLiveOutput(LiveOutputReceiverRemote receiver) throws RemoteException;
+
+    /**
+     * @param workspaceDir the workspace directory on the agent, relative to the slot build directory if relative
+     * @param knownManifestId id of the manifest the master already knows for this workspace, may be null.
+     * @return the manifest of the workspace, or null if its id equals the given id.
+     * @throws RemoteException if the remote call fails
+     */
+    WorkspaceManifest getWorkspaceManifest(String workspaceDir, String knownManifestId) throws RemoteException;
+    /**
+     * Receives the next part of a zip of changed workspace files. A chunk at offset 0 starts a new zip.
+     * @param workspaceDir the workspace directory on the agent, relative to the slot build directory if relative
+     * @param chunk the next part of the zip
+     * @throws RemoteException if the chunk does not follow the last one, is damaged, or can not be written.
+     */
+    void putWorkspaceChunk(String workspaceDir, ResultChunk chunk) throws RemoteException;
+    /**
+     * Unzips the changed files received via {@link #putWorkspaceChunk(String, ResultChunk)} into the workspace,
+     * and deletes the given files.
+     * @param workspaceDir the workspace directory on the agent, relative to the slot build directory if relative
+     * @param removedPaths paths of files to delete, relative to the workspace directory
+     * @return the id of the workspace manifest after the changes
+     * @throws RemoteException if the remote call fails
+     */
+    String applyWorkspaceChanges(String workspaceDir, String[] removedPaths) throws RemoteException;
+
+
     void kill(boolean afterBuildFinished) throws RemoteException;
     /**
      * @return true if a kill command is waiting to execute.
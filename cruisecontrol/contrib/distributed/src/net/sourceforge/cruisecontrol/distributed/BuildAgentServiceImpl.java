@@ -38,6 +38,8 @@
 package net.sourceforge.cruisecontrol.distributed;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
@@ -50,6 +52,7 @@ import java.util.Date;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 
@@ -66,6 +69,9 @@ import net.sourceforge.cruisecontrol.distributed.core.FileUtil;
 import net.sourceforge.cruisecontrol.distributed.core.CCDistVersion;
 import net.sourceforge.cruisecontrol.distributed.core.ProgressRemote;
 import net.sourceforge.cruisecontrol.distributed.core.RemoteResult;
+import net.sourceforge.cruisecontrol.distributed.core.ResultChunk;
+import net.sourceforge.cruisecontrol.distributed.core.WorkspaceManifest;
+import net.sourceforge.cruisecontrol.distributed.core.LiveOutputReceiverRemote;
 import net.sourceforge.cruisecontrol.distributed.core.jnlputil.AntProgressLoggerInstaller;
 import net.sourceforge.cruisecontrol.util.IO;
 import net.sourceforge.cruisecontrol.util.Util;
@@ -107,7 +113,10 @@ public class BuildAgentServiceImpl implements BuildAgentService {
     private final String machineName;
 
     private final Date dateStarted;
-    private boolean isBusy;
+    /** The build slot of the agent this service is, 0 for the first one. */
+    private int slot;
+    /** Written while holding busyLock, volatile so the agent reads the capacity of its slots without locking. */
+    private volatile boolean isBusy;
     private Date dateClaimed;
     private boolean isPendingKill;
     private Date pendingKillSince;
@@ -126,12 +135,23 @@ public class BuildAgentServiceImpl implements BuildAgentService {
     private File buildRootDir;
     private File zippedLogs;
     private File zippedOutput;
+    /** Receives the live output of the next build, if set by the master. */
+    private LiveOutputReceiverRemote liveOutputReceiver;
+
+    /**
+     * Manifests of the results of the last build, by project name and result key. The master names the manifest
+     * it still holds, so the next build of the project returns only new or changed files.
+     */
+    private final Map<String, WorkspaceManifest> resultManifests = new ConcurrentHashMap<String, WorkspaceManifest>();
+
+    /** Zips of changed workspace files being received from the master, by canonical workspace path. */
+    private final Map<String, File> workspaceChanges = new HashMap<String, File>();
 
     private final List<BuildAgent.AgentStatusListener> agentStatusListeners
             = new ArrayList<BuildAgent.AgentStatusListener>();
 
     static final String LOGMSGPREFIX_PREFIX = "Agent Host: ";
-    private final String logMsgPrefix;
+    private String logMsgPrefix;
     /**
      * Prepends Agent machine name to error message. This is especially
      * useful when combined with an "email logger" config for Log4j using a modified
@@ -211,6 +231,31 @@ public class BuildAgentServiceImpl implements BuildAgentService {
         return agentPropertiesFilename;
     }
 
+    void setSlot(final int slot) {
+        this.slot = slot;
+        logMsgPrefix = LOGMSGPREFIX_PREFIX + machineName + (slot > 0 ? " slot " + slot : "") + "; ";
+    }
+    public int getSlot() {
+        return slot;
+    }
+
+    /**
+     * @return the directory holding the builds of this slot: the cruise.build.dir of the agent for the first
+     * slot, and a sub directory of it for each other slot, so concurrent builds on one agent do not share files.
+     */
+    File getSlotBuildDir() {
+        final Properties props = (configProperties != null ? configProperties
+                : (Properties) PropertiesHelper.loadRequiredProperties(getAgentPropertiesFilename()));
+        final File buildDir = new File(props.getProperty(CRUISE_BUILD_DIR));
+        return (slot > 0 ? new File(buildDir, "slot" + slot) : buildDir);
+    }
+
+    /** @return the given file, or if it is relative, the file below the build directory of this slot. */
+    private File getSlotFile(final String path) {
+        final File file = new File(path);
+        return (file.isAbsolute() ? file : new File(getSlotBuildDir(), path));
+    }
+
     private transient DelayedAction lastDelayedAction;
     DelayedAction getLastDelayedAction() { return lastDelayedAction; }
     private void setLastDelayedAction(DelayedAction lastDelayedAction) { this.lastDelayedAction = lastDelayedAction; }
@@ -289,7 +334,11 @@ public class BuildAgentServiceImpl implements BuildAgentService {
     }
 
 
-    private final String busyLock = "busyLock";
+    /**
+     * Guards the busy and pending states of this slot. Never held while calling out to the agent, which publishes
+     * the capacity of all its slots while holding its own monitor.
+     */
+    private final Object busyLock = new Object();
     void setBusy(final boolean newIsBusy) {
         if (!newIsBusy) { // means the claim is being released
 
@@ -319,18 +368,36 @@ public class BuildAgentServiceImpl implements BuildAgentService {
             // clear project name
             projectName = null;
 
+            liveOutputReceiver = null;
+
             dateClaimed = null;
+
+            synchronized (busyLock) {
+                isBusy = false;
+            }
         } else {
-            dateClaimed = new Date();
+            synchronized (busyLock) {
+                markClaimed();
+            }
         }
 
-        synchronized (busyLock) {
-            isBusy = newIsBusy;
-        }
+        busyChanged();
+    }
+
+    /** Flags this slot as busy. Must hold busyLock, and call {@link #busyChanged()} after releasing it. */
+    private void markClaimed() {
+        dateClaimed = new Date();
+        isBusy = true;
+    }
 
+    /** Tells the UI and the agent about a changed busy state. Must not hold busyLock. */
+    private void busyChanged() {
         fireAgentStatusChanged();
+        if (serviceContainer != null) {
+            serviceContainer.slotBusyChanged();
+        }
 
-        logPrefixInfo("agent busy status changed to: " + newIsBusy);
+        logPrefixInfo("agent busy status changed to: " + isBusy);
     }
 
     public Element doBuild(final Builder nestedBuilder, final Map<String, String> projectPropertiesMap,
@@ -338,11 +405,16 @@ public class BuildAgentServiceImpl implements BuildAgentService {
                            final RemoteResult[] remoteResults)
             throws RemoteException {
 
+        final boolean reclaimed;
         synchronized (busyLock) {
-            if (!isBusy()) {    // only reclaim if needed, since it resets the dateClaimed.
-                setBusy(true); // we could remove this, since claim() is called during lookup...
+            reclaimed = !isBusy; // only reclaim if needed, since it resets the dateClaimed.
+            if (reclaimed) {
+                markClaimed(); // we could remove this, since claim() is called during lookup...
             }
         }
+        if (reclaimed) {
+            busyChanged();
+        }
 
         projectName = projectPropertiesMap.get(PropertiesHelper.PROJECT_NAME);
         if (null == projectName) {
@@ -426,19 +498,27 @@ public class BuildAgentServiceImpl implements BuildAgentService {
                 progressRemote.setValueRemote("running remote builder");
                 fireAgentStatusChanged(); // update UI
             }
+            // lets builds use the directory of this slot, which no concurrent build on this agent uses
+            final Map<String, String> buildProperties = new HashMap<String, String>(projectPropertiesMap);
+            buildProperties.put(PropertiesHelper.DISTRIBUTED_AGENT_SLOTDIR, getSlotBuildDir().getAbsolutePath());
             final long startTime = System.currentTimeMillis();
             final Element buildResults;
+            final LiveOutputPusher liveOutputPusher = startLiveOutputPusher();
             try {
                 if (overrideTarget == null) {
-                    buildResults = nestedBuilder.build(projectPropertiesMap, progressLocal);
+                    buildResults = nestedBuilder.build(buildProperties, progressLocal);
                 } else {
-                    buildResults = nestedBuilder.buildWithTarget(projectPropertiesMap, overrideTarget, progressLocal);
+                    buildResults = nestedBuilder.buildWithTarget(buildProperties, overrideTarget, progressLocal);
                 }
             } catch (CruiseControlException e) {
                 final String message = "Failed to complete build on agent";
                 logPrefixError(message, e);
                 System.err.println(message + " - " + e.getMessage());
                 throw new RemoteException(message, e);
+            } finally {
+                if (liveOutputPusher != null) {
+                    liveOutputPusher.stop();
+                }
             }
             // add agent builder info to build log
             CompositeBuilder.insertBuildLogHeader(buildResults,
@@ -512,6 +592,19 @@ public class BuildAgentServiceImpl implements BuildAgentService {
     }
 
 
+    public void pushLiveOutput(final LiveOutputReceiverRemote receiver) {
+        liveOutputReceiver = receiver;
+    }
+
+    private LiveOutputPusher startLiveOutputPusher() {
+        if (liveOutputReceiver == null) {
+            return null;
+        }
+        final LiveOutputPusher pusher = new LiveOutputPusher(projectName, liveOutputReceiver);
+        pusher.start();
+        return pusher;
+    }
+
     public String getIDRemote() {
         return BuildOutputLoggerManager.INSTANCE.lookup(getProjectName()).getID();
     }
@@ -574,11 +667,12 @@ public class BuildAgentServiceImpl implements BuildAgentService {
      * Zip any build artifacts found in the logDir and/or outputDir.
      */
     void prepareLogsAndArtifacts() {
-        final String buildDirProperty = configProperties.getProperty(CRUISE_BUILD_DIR);
+        final File slotBuildDir = getSlotBuildDir();
         try {
-            buildRootDir = new File(buildDirProperty).getCanonicalFile();
+            buildRootDir = slotBuildDir.getCanonicalFile();
+            ensureDirExists(buildRootDir);
         } catch (IOException e) {
-            final String message = "Couldn't create " + buildDirProperty;
+            final String message = "Couldn't create " + slotBuildDir;
             logPrefixError(message, e);
             System.err.println(message + " - " + e.getMessage());
             throw new RuntimeException(message);
@@ -593,10 +687,10 @@ public class BuildAgentServiceImpl implements BuildAgentService {
 
 
         zippedLogs = ZipUtil.getTempResultsZipFile(buildRootDir, projectName, PropertiesHelper.RESULT_TYPE_LOGS);
-        ZipUtil.zipFolderContents(zippedLogs.getAbsolutePath(), logDir.getAbsolutePath());
+        zipResults(zippedLogs, logDir, PropertiesHelper.RESULT_TYPE_LOGS);
 
         zippedOutput = ZipUtil.getTempResultsZipFile(buildRootDir, projectName, PropertiesHelper.RESULT_TYPE_OUTPUT);
-        ZipUtil.zipFolderContents(zippedOutput.getAbsolutePath(), outputDir.getAbsolutePath());
+        zipResults(zippedOutput, outputDir, PropertiesHelper.RESULT_TYPE_OUTPUT);
 
         if (remoteResults != null) {
             for (int i = 0; i < remoteResults.length; i++) {
@@ -607,13 +701,44 @@ public class BuildAgentServiceImpl implements BuildAgentService {
                 remoteResults[i].storeTempZippedFile(
                         ZipUtil.getTempResultsZipFile(buildRootDir, projectName, "remoteResult" + i));
 
-                ZipUtil.zipFolderContents(remoteResults[i].fetchTempZippedFile().getAbsolutePath(),
-                        agentResultDir.getAbsolutePath());
+                zipResults(remoteResults[i].fetchTempZippedFile(), agentResultDir,
+                        PropertiesHelper.RESULT_TYPE_DIR + remoteResults[i].getIdx());
             }
         }
 
     }
 
+    /**
+     * Zips the files of a result directory. If the master still holds the results of the last build of this
+     * project, only new or changed files are zipped.
+     */
+    private void zipResults(final File zipFile, final File resultDir, final String resultKey) {
+        final WorkspaceManifest manifest;
+        try {
+            manifest = WorkspaceManifest.scan(resultDir);
+        } catch (IOException e) {
+            final String message = "Error reading " + resultKey + " results in: " + resultDir.getAbsolutePath();
+            logPrefixError(message, e);
+            throw new RuntimeException(message, e);
+        }
+
+        final WorkspaceManifest lastManifest = resultManifests.put(projectName + "/" + resultKey, manifest);
+        final String baselineId = distributedAgentProps.get(
+                PropertiesHelper.DISTRIBUTED_RESULT_BASELINE_PREFIX + resultKey);
+        if (lastManifest != null && lastManifest.getId().equals(baselineId)) {
+            final List<String> changed = manifest.getChangedPaths(lastManifest);
+            logPrefixInfo("Returning " + changed.size() + " of " + manifest.size() + " " + resultKey
+                    + " files, the master holds the others");
+            ZipUtil.zipFolderContents(zipFile.getAbsolutePath(), resultDir.getAbsolutePath(), changed);
+        } else {
+            ZipUtil.zipFolderContents(zipFile.getAbsolutePath(), resultDir.getAbsolutePath());
+        }
+    }
+
+    public WorkspaceManifest getResultsManifest(final String resultKey) {
+        return resultManifests.get(getProjectName() + "/" + resultKey);
+    }
+
     private File getAgentResultDir(final String resultType, final String resultProperty) {
         String resultDir = distributedAgentProps.get(resultProperty);
         logPrefixDebug("Result: " + resultType + "Prop value: " + resultDir);
@@ -648,20 +773,19 @@ public class BuildAgentServiceImpl implements BuildAgentService {
         // flag this agent as busy for now. Intended to prevent mulitple builds on same agent,
         // when multiple master threads find the same agent, before any build thread has started.
         synchronized (busyLock) {
-            if (isBusy()) {
+            if (isBusy) {
                 throw new IllegalStateException("Cannot claim agent on " + getMachineName()
                         + " that is busy building project: "
                         + projectName);
             }
-            setBusy(true);
+            markClaimed();
         }
+        busyChanged();
     }
 
     public boolean isBusy() {
-        synchronized (busyLock) {
-            logPrefixDebug("Is busy called. value: " + isBusy);
-            return isBusy;
-        }
+        logPrefixDebug("Is busy called. value: " + isBusy);
+        return isBusy;
     }
 
     public Date getDateClaimed() {
@@ -756,6 +880,7 @@ public class BuildAgentServiceImpl implements BuildAgentService {
         return zipFile;
     }
 
+    @SuppressWarnings("deprecation")
     public byte[] retrieveResultsAsZip(final String resultsType) throws RemoteException {
 
         final File zipFile = getResultsZip(resultsType);
@@ -773,25 +898,40 @@ public class BuildAgentServiceImpl implements BuildAgentService {
         return response;
     }
 
-    public byte[] retrieveRemoteResult(final int resultIdx) throws RemoteException {
+    public ResultChunk retrieveResultsChunk(final String resultsType, final long offset) throws RemoteException {
+
+        final File zipFile = getResultsZip(resultsType);
 
-        RemoteResult remoteResult = null;
+        try {
+            return ResultChunk.read(zipFile, offset, ResultChunk.DEFAULT_SIZE);
+        } catch (IOException e) {
+            final String message = "Unable to get file " + zipFile.getAbsolutePath();
+            logPrefixError(message, e);
+            System.err.println(message + " - " + e.getMessage());
+            throw new RuntimeException(message, e);
+        }
+    }
+
+    private RemoteResult findRemoteResult(final int resultIdx) {
         if (remoteResults != null) {
             for (final RemoteResult remoteResultTry : remoteResults) {
                 if (resultIdx == remoteResultTry.getIdx()) {
-                    remoteResult = remoteResultTry;
-                    break;
+                    return remoteResultTry;
                 }
             }
         }
 
-        if (remoteResult == null) {
-            final String message = "Invalid remote result index: " + resultIdx;
-            logPrefixError(message);
-            System.err.println(message);
-            throw new RuntimeException(message);
-        }
-        
+        final String message = "Invalid remote result index: " + resultIdx;
+        logPrefixError(message);
+        System.err.println(message);
+        throw new RuntimeException(message);
+    }
+
+    @SuppressWarnings("deprecation")
+    public byte[] retrieveRemoteResult(final int resultIdx) throws RemoteException {
+
+        final RemoteResult remoteResult = findRemoteResult(resultIdx);
+
         final byte[] response;
         try {
             response = FileUtil.getFileAsBytes(remoteResult.fetchTempZippedFile());
@@ -805,6 +945,20 @@ public class BuildAgentServiceImpl implements BuildAgentService {
         return response;
     }
 
+    public ResultChunk retrieveRemoteResultChunk(final int resultIdx, final long offset) throws RemoteException {
+
+        final RemoteResult remoteResult = findRemoteResult(resultIdx);
+
+        try {
+            return ResultChunk.read(remoteResult.fetchTempZippedFile(), offset, ResultChunk.DEFAULT_SIZE);
+        } catch (IOException e) {
+            final String message = "Unable to get remote result file: " + remoteResult.getAgentDir().getAbsolutePath();
+            logPrefixError(message, e);
+            System.err.println(message + " - " + e.getMessage());
+            throw new RuntimeException(message, e);
+        }
+    }
+
     public void clearOutputFiles() {
         try {
             if (logDir != null) {
@@ -873,14 +1027,19 @@ public class BuildAgentServiceImpl implements BuildAgentService {
 
         // Normally, we would set the busy lock first, but here we should only set the lock after we are certain
         // the required Webstart service is available.
+        final boolean claimed;
         synchronized (busyLock) {
-            if (!isBusy()) {
+            claimed = !isBusy;
+            if (claimed) {
                 // claim agent so no new build can start
-                claim();
+                markClaimed();
             }
             // set project name to informative message in case agent is found while restarting
             projectName = "executingAgentRestart";
         }
+        if (claimed) {
+            busyChanged();
+        }
 
         final URL codeBaseURL = basicService.getCodeBase();
         logPrefixInfo("basicService.getCodeBase()=" + codeBaseURL.toString());
@@ -907,14 +1066,19 @@ public class BuildAgentServiceImpl implements BuildAgentService {
 
     private void doKill() {
         logPrefixInfo("Attempting agent kill.");
+        final boolean claimed;
         synchronized (busyLock) {
-            if (!isBusy()) {
+            claimed = !isBusy;
+            if (claimed) {
                 // claim agent so no new build can start
-                claim();
+                markClaimed();
             }
             // set project name to informative message in case agent is found while shutting down
             projectName = "executingAgentKill";
         }
+        if (claimed) {
+            busyChanged();
+        }
         BuildAgent.kill();
         doKillExecuted = true;
     }
@@ -924,6 +1088,103 @@ public class BuildAgentServiceImpl implements BuildAgentService {
     boolean isDoKillExecuted() { return doKillExecuted; }
 
 
+    public WorkspaceManifest getWorkspaceManifest(final String workspaceDir, final String knownManifestId)
+            throws RemoteException {
+
+        final WorkspaceManifest manifest = scanWorkspace(getSlotFile(workspaceDir));
+        return (manifest.getId().equals(knownManifestId) ? null : manifest);
+    }
+
+    public void putWorkspaceChunk(final String workspaceDir, final ResultChunk chunk) throws RemoteException {
+        if (!chunk.isValid()) {
+            throw new RemoteException("Damaged workspace chunk at offset " + chunk.getOffset());
+        }
+        final String workspaceKey = getCanonicalPath(getSlotFile(workspaceDir));
+        synchronized (workspaceChanges) {
+            File changesZip = workspaceChanges.get(workspaceKey);
+            if (chunk.getOffset() != 0 && (changesZip == null || changesZip.length() != chunk.getOffset())) {
+                throw new RemoteException("Workspace chunk at offset " + chunk.getOffset()
+                        + " does not follow the chunks received for: " + workspaceDir);
+            }
+            try {
+                if (chunk.getOffset() == 0) {
+                    if (changesZip != null) {
+                        IO.delete(changesZip);
+                    }
+                    changesZip = File.createTempFile("workspace-", ".zip");
+                    workspaceChanges.put(workspaceKey, changesZip);
+                }
+                final FileOutputStream out = new FileOutputStream(changesZip, true);
+                try {
+                    out.write(chunk.getData());
+                } finally {
+                    out.close();
+                }
+            } catch (IOException e) {
+                final String message = "Error receiving workspace changes for: " + workspaceDir;
+                logPrefixError(message, e);
+                throw new RemoteException(message, e);
+            }
+        }
+    }
+
+    public String applyWorkspaceChanges(final String workspaceDir, final String[] removedPaths)
+            throws RemoteException {
+
+        final File workspace = getSlotFile(workspaceDir);
+        final String workspaceKey = getCanonicalPath(workspace);
+        final File changesZip;
+        synchronized (workspaceChanges) {
+            changesZip = workspaceChanges.remove(workspaceKey);
+        }
+        try {
+            if (changesZip != null) {
+                final int entries = ZipUtil.unzipStreamToLocation(new FileInputStream(changesZip), workspaceKey);
+                logPrefixInfo("Updated " + entries + " workspace files in: " + workspaceKey);
+            }
+        } catch (IOException e) {
+            final String message = "Error applying workspace changes to: " + workspaceDir;
+            logPrefixError(message, e);
+            throw new RemoteException(message, e);
+        } finally {
+            if (changesZip != null) {
+                IO.delete(changesZip);
+            }
+        }
+
+        for (final String removedPath : removedPaths) {
+            final File removed = new File(workspace, removedPath);
+            if (!getCanonicalPath(removed).startsWith(workspaceKey + File.separator)) {
+                throw new RemoteException("Removed file outside of workspace " + workspaceDir + ": " + removedPath);
+            }
+            IO.delete(removed);
+        }
+        if (removedPaths.length > 0) {
+            logPrefixInfo("Deleted " + removedPaths.length + " workspace files in: " + workspaceKey);
+        }
+
+        return scanWorkspace(workspace).getId();
+    }
+
+    private WorkspaceManifest scanWorkspace(final File workspace) throws RemoteException {
+        try {
+            return WorkspaceManifest.scan(workspace);
+        } catch (IOException e) {
+            final String message = "Error reading workspace: " + workspace.getAbsolutePath();
+            logPrefixError(message, e);
+            throw new RemoteException(message, e);
+        }
+    }
+
+    private static String getCanonicalPath(final File file) throws RemoteException {
+        try {
+            return file.getCanonicalPath();
+        } catch (IOException e) {
+            throw new RemoteException("Error resolving path: " + file.getAbsolutePath(), e);
+        }
+    }
+
+
     public void kill(final boolean afterBuildFinished) throws RemoteException {
         setPendingKill();
 
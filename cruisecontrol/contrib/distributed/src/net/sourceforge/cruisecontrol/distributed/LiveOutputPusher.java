@@ -0,0 +1,143 @@
+/****************************************************************************
+* CruiseControl, a Continuous Integration Toolkit
+* Copyright (c) 2001, ThoughtWorks, Inc.
+* 200 E. Randolph, 25th Floor
+* Chicago, IL 60601 USA
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions
+* are met:
+*
+*     + Redistributions of source code must retain the above copyright
+*       notice, this list of conditions and the following disclaimer.
+*
+*     + Redistributions in binary form must reproduce the above
+*       copyright notice, this list of conditions and the following
+*       disclaimer in the documentation and/or other materials provided
+*       with the distribution.
+*
+*     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+*       names of its contributors may be used to endorse or promote
+*       products derived from this software without specific prior
+*       written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+* "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+* LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+* A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+* EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+* PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+* LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+* NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+****************************************************************************/
+
+package net.sourceforge.cruisecontrol.distributed;
+
+import java.rmi.RemoteException;
+
+import net.sourceforge.cruisecontrol.BuildOutputLoggerManager;
+import net.sourceforge.cruisecontrol.distributed.core.LiveOutputFrame;
+import net.sourceforge.cruisecontrol.distributed.core.LiveOutputReceiverRemote;
+import net.sourceforge.cruisecontrol.util.BuildOutputLogger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Pushes the live output of a build on this agent to the master. New lines are sent once per flush interval,
+ * or right away while more than a frame of lines is waiting. A frame that could not be sent is sent again
+ * before any newer lines.
+ */
+final class LiveOutputPusher implements Runnable {
+
+    private static final Logger LOG = Logger.getLogger(LiveOutputPusher.class);
+
+    /** Milliseconds between pushes of new output lines. */
+    static final long FLUSH_INTERVAL_MILLIS = 1000;
+
+    private final String projectName;
+    private final LiveOutputReceiverRemote receiver;
+    private final Thread thread;
+
+    private long nextSequence;
+    private String outputID;
+    private int nextLine;
+    /** The last frame read, until it was sent. */
+    private LiveOutputFrame unsent;
+
+    /**
+     * @param projectName the project being built, used to find its output logger
+     * @param receiver the master side of the live output
+     */
+    LiveOutputPusher(final String projectName, final LiveOutputReceiverRemote receiver) {
+        this.projectName = projectName;
+        this.receiver = receiver;
+        thread = new Thread(this, "LiveOutputPusher " + projectName);
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /** Stops pushing periodically, and pushes the lines written since the last push. */
+    void stop() {
+        thread.interrupt();
+        try {
+            thread.join(FLUSH_INTERVAL_MILLIS);
+        } catch (InterruptedException e) {
+            LOG.warn("Interrupted while stopping live output pusher of " + projectName);
+        }
+        boolean isMoreWaiting;
+        do {
+            isMoreWaiting = push();
+        } while (isMoreWaiting);
+    }
+
+    public void run() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                if (!push()) {
+                    Thread.sleep(FLUSH_INTERVAL_MILLIS);
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.debug("Stopped pushing live output of " + projectName + " periodically");
+        }
+    }
+
+    /**
+     * Sends the next frame of output lines, if any.
+     * @return true if a full frame was sent, so more lines may be waiting
+     */
+    synchronized boolean push() {
+        if (unsent == null) {
+            final BuildOutputLogger logger = BuildOutputLoggerManager.INSTANCE.lookup(projectName);
+            final String id = logger.getID();
+            if (!id.equals(outputID)) {
+                // a new logger or a cleared output, starts again with its first line
+                outputID = id;
+                nextLine = 0;
+            }
+            final String[] lines = logger.retrieveLines(nextLine);
+            if (lines.length == 0) {
+                return false;
+            }
+            unsent = new LiveOutputFrame(nextSequence++, id, nextLine, lines);
+            nextLine += lines.length;
+        }
+
+        try {
+            receiver.receiveOutput(unsent);
+        } catch (RemoteException e) {
+            LOG.debug("Error pushing live output of " + projectName + ", will retry", e);
+            return false;
+        }
+        final boolean isFull = unsent.getLines().length >= BuildOutputLogger.MAX_LINES;
+        unsent = null;
+        return isFull;
+    }
+}
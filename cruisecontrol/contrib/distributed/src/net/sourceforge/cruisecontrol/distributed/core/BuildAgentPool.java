@@ -0,0 +1,499 @@
+/****************************************************************************
+* CruiseControl, a Continuous Integration Toolkit
+* Copyright (c) 2001, ThoughtWorks, Inc.
+* 200 E. Randolph, 25th Floor
+* Chicago, IL 60601 USA
+* All rights reserved.
+*
+* Redistribution and use in source and binary forms, with or without
+* modification, are permitted provided that the following conditions
+* are met:
+*
+*     + Redistributions of source code must retain the above copyright
+*       notice, this list of conditions and the following disclaimer.
+*
+*     + Redistributions in binary form must reproduce the above
+*       copyright notice, this list of conditions and the following
+*       disclaimer in the documentation and/or other materials provided
+*       with the distribution.
+*
+*     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+*       names of its contributors may be used to endorse or promote
+*       products derived from this software without specific prior
+*       written permission.
+*
+* THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+* "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+* LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+* A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+* CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+* EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+* PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+* PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+* LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+* NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+* SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+****************************************************************************/
+
+package net.sourceforge.cruisecontrol.distributed.core;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import net.jini.core.entry.Entry;
+import net.jini.core.lookup.ServiceID;
+import net.jini.core.lookup.ServiceItem;
+import net.jini.lookup.LookupCache;
+import net.jini.lookup.ServiceDiscoveryEvent;
+import net.jini.lookup.ServiceDiscoveryListener;
+import net.sourceforge.cruisecontrol.distributed.AgentCapacity;
+import net.sourceforge.cruisecontrol.distributed.BuildAgentService;
+
+import org.apache.log4j.Logger;
+import com.sun.jini.lookup.entry.LookupAttributes;
+
+/**
+ * This master's view of the registered build agents, kept up to date by the events of a {@link LookupCache}.
+ * Builders wait in one FIFO queue per set of matching entries, and the longest waiting builder gets the best
+ * free agent matching its entries: the agent that last built for the same affinity key (i.e. project), which
+ * still holds its workspace, else the agent with the lowest advertised {@link AgentCapacity#getLoad() load},
+ * then the most free memory. Agents given back via {@link #release(BuildAgentService)} are handed to
+ * the next waiter right away. Agents are claimed outside of the pool lock, so a slow agent only delays the
+ * builder it was offered to.
+ * <p>
+ * Agents do not publish their busy state to the lookup services, so an agent claimed by another master
+ * (or released without telling this pool) is re-checked when a waiter finds nothing free: once as the waiter
+ * joins the head of its queue, then at most once per probe interval.
+ */
+final class BuildAgentPool implements ServiceDiscoveryListener {
+
+    private static final Logger LOG = Logger.getLogger(BuildAgentPool.class);
+
+    /** Default milliseconds between busy checks of an agent that is not free. */
+    static final long DEFAULT_PROBE_INTERVAL_MILLIS = 30000;
+
+    private static final Entry[] NO_ENTRIES = new Entry[] {};
+
+    private final LookupCache cache;
+    private final long probeIntervalMillis;
+
+    private final Object lock = new Object();
+    /** Registered agents in discovery order, guarded by {@link #lock}. */
+    private final Map<ServiceID, Agent> agents = new LinkedHashMap<ServiceID, Agent>();
+    /** Waiting builders, one FIFO queue per entry set, guarded by {@link #lock}. */
+    private final Map<List<Entry>, LinkedList<Waiter>> queues = new LinkedHashMap<List<Entry>, LinkedList<Waiter>>();
+    private long nextTicket;
+    /** The agent last claimed for each affinity key, guarded by {@link #lock}. */
+    private final Map<String, ServiceID> lastAgents = new HashMap<String, ServiceID>();
+
+    private static final Comparator<Waiter> BY_TICKET = new Comparator<Waiter>() {
+        public int compare(final Waiter w1, final Waiter w2) {
+            return (w1.ticket < w2.ticket ? -1 : (w1.ticket == w2.ticket ? 0 : 1));
+        }
+    };
+
+    private static final class Agent {
+        private ServiceItem item;
+        /** True when the agent is neither claimed nor offered to a waiter, as far as this master knows. */
+        private boolean isFree = true;
+        /** Time of the last busy check. */
+        private long checked;
+
+        private Agent(final ServiceItem item) {
+            this.item = item;
+        }
+
+        private BuildAgentService getService() {
+            return (BuildAgentService) item.service;
+        }
+
+        /** @return the capacity advertised by the agent, or null if it advertises none. */
+        private AgentCapacity getCapacity() {
+            for (final Entry entry : item.attributeSets) {
+                if (entry instanceof AgentCapacity) {
+                    return (AgentCapacity) entry;
+                }
+            }
+            return null;
+        }
+
+        /** @return the advertised load of the agent, 0 if unknown */
+        private float getLoad() {
+            final AgentCapacity capacity = getCapacity();
+            return (capacity == null ? 0 : capacity.getLoad());
+        }
+
+        /** @return the advertised free memory of the agent, 0 if unknown */
+        private int getFreeMemoryMB() {
+            final AgentCapacity capacity = getCapacity();
+            return (capacity == null || capacity.freeMemoryMB == null ? 0 : capacity.freeMemoryMB);
+        }
+    }
+
+    private static final class Waiter {
+        private final long ticket;
+        private final Entry[] entries;
+        private final List<Entry> key;
+        /** Builders with the same affinity key prefer the agent that was last claimed for it, may be null. */
+        private final String affinityKey;
+        /** The agent offered to this waiter and not yet claimed, guarded by the pool lock. */
+        private Agent offered;
+        /** Time this waiter last reported that it is still waiting. */
+        private long reported = System.currentTimeMillis();
+
+        private Waiter(final long ticket, final Entry[] entries, final String affinityKey) {
+            this.ticket = ticket;
+            this.entries = (entries == null ? NO_ENTRIES : entries);
+            key = Arrays.asList(this.entries);
+            this.affinityKey = affinityKey;
+        }
+
+        /**
+         * @param item an agent service item
+         * @return true if every entry of this waiter matches one of the agent attributes, as a lookup
+         * service would match a template.
+         */
+        private boolean matches(final ServiceItem item) {
+            for (final Entry tmpl : entries) {
+                boolean isMatched = false;
+                for (int i = 0; i < item.attributeSets.length && !isMatched; i++) {
+                    isMatched = LookupAttributes.matches(tmpl, item.attributeSets[i]);
+                }
+                if (!isMatched) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param cache the lookup cache of build agent services, this pool registers itself as listener.
+     * @param probeIntervalMillis milliseconds between busy checks of an agent that is not free.
+     */
+    BuildAgentPool(final LookupCache cache, final long probeIntervalMillis) {
+        this.cache = cache;
+        this.probeIntervalMillis = probeIntervalMillis;
+        // the cache replays already discovered services as serviceAdded events
+        cache.addListener(this);
+    }
+
+    /**
+     * Waits in turn for a free agent matching the given entries and claims it.
+     * @param entries matching criteria, null matches any agent
+     * @param waitDurMillis milliseconds to wait for an agent, zero or less waits until one is found
+     * @return the claimed agent, or null if none could be claimed in time
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    ServiceItem claim(final Entry[] entries, final long waitDurMillis) throws InterruptedException {
+        return claim(entries, waitDurMillis, null);
+    }
+
+    /**
+     * Waits in turn for a free agent matching the given entries and claims it, preferring the agent last
+     * claimed with the same affinity key.
+     * @param entries matching criteria, null matches any agent
+     * @param waitDurMillis milliseconds to wait for an agent, zero or less waits until one is found
+     * @param affinityKey identifies builds that benefit from running on the same agent, may be null
+     * @return the claimed agent, or null if none could be claimed in time
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    ServiceItem claim(final Entry[] entries, final long waitDurMillis, final String affinityKey)
+            throws InterruptedException {
+
+        final long deadline = (waitDurMillis > 0 ? System.currentTimeMillis() + waitDurMillis : Long.MAX_VALUE);
+
+        final Waiter waiter;
+        synchronized (lock) {
+            waiter = new Waiter(nextTicket++, entries, affinityKey);
+            LinkedList<Waiter> queue = queues.get(waiter.key);
+            if (queue == null) {
+                queue = new LinkedList<Waiter>();
+                queues.put(waiter.key, queue);
+            }
+            queue.add(waiter);
+            dispatch();
+        }
+        try {
+            // check agents that looked busy before, they may have been released elsewhere
+            probe(waiter, true);
+
+            Agent agent;
+            while ((agent = awaitOffer(waiter, deadline)) != null) {
+                if (claimOffered(waiter, agent)) {
+                    return agent.item;
+                }
+            }
+            return null;
+        } finally {
+            synchronized (lock) {
+                final LinkedList<Waiter> queue = queues.get(waiter.key);
+                queue.remove(waiter);
+                if (queue.isEmpty()) {
+                    queues.remove(waiter.key);
+                }
+                if (waiter.offered != null) {
+                    // timed out or interrupted just as an agent was offered, pass it on
+                    waiter.offered.isFree = true;
+                    waiter.offered = null;
+                }
+                dispatch();
+            }
+        }
+    }
+
+    /**
+     * Makes an agent claimed via this pool available to the next waiter. Call once the agent
+     * is no longer busy, i.e. after {@link BuildAgentService#clearOutputFiles()}.
+     * @param service the agent to release
+     */
+    void release(final BuildAgentService service) {
+        synchronized (lock) {
+            for (final Agent agent : agents.values()) {
+                if (agent.item.service.equals(service)) {
+                    if (!agent.isFree && !isOffered(agent)) {
+                        agent.isFree = true;
+                        agent.checked = System.currentTimeMillis();
+                        dispatch();
+                    }
+                    return;
+                }
+            }
+        }
+    }
+
+    /** Stops listening to lookup events and releases the lookup cache. */
+    void terminate() {
+        cache.removeListener(this);
+        cache.terminate();
+    }
+
+    /** @return the number of builders waiting for an agent, intended only for unit tests. */
+    int getWaitingCount() {
+        synchronized (lock) {
+            int count = 0;
+            for (final LinkedList<Waiter> queue : queues.values()) {
+                count += queue.size();
+            }
+            return count;
+        }
+    }
+
+    public void serviceAdded(final ServiceDiscoveryEvent event) {
+        final ServiceItem item = event.getPostEventServiceItem();
+        synchronized (lock) {
+            final Agent agent = agents.get(item.serviceID);
+            if (agent == null) {
+                agents.put(item.serviceID, new Agent(item));
+            } else {
+                agent.item = item;
+            }
+            dispatch();
+        }
+    }
+
+    public void serviceRemoved(final ServiceDiscoveryEvent event) {
+        final ServiceItem item = event.getPreEventServiceItem();
+        synchronized (lock) {
+            agents.remove(item.serviceID);
+        }
+    }
+
+    public void serviceChanged(final ServiceDiscoveryEvent event) {
+        final ServiceItem item = event.getPostEventServiceItem();
+        synchronized (lock) {
+            final Agent agent = agents.get(item.serviceID);
+            if (agent != null) {
+                // changed entries may now match a waiter
+                agent.item = item;
+                dispatch();
+            }
+        }
+    }
+
+    /**
+     * Offers the best free matching agent to each waiting builder, longest waiting first. Only the first
+     * waiter of each queue without an offer is a candidate, since all waiters in a queue share the same entries.
+     * Must be called with {@link #lock} held.
+     */
+    private void dispatch() {
+        final List<Waiter> heads = new ArrayList<Waiter>();
+        for (final LinkedList<Waiter> queue : queues.values()) {
+            for (final Waiter waiter : queue) {
+                if (waiter.offered == null) {
+                    heads.add(waiter);
+                    break;
+                }
+            }
+        }
+        Collections.sort(heads, BY_TICKET);
+
+        for (final Waiter waiter : heads) {
+            final ServiceID lastAgentID = (waiter.affinityKey == null ? null : lastAgents.get(waiter.affinityKey));
+            Agent best = null;
+            for (final Agent agent : agents.values()) {
+                if (agent.isFree && waiter.matches(agent.item)
+                        && (best == null || isPreferred(agent, best, lastAgentID))) {
+                    best = agent;
+                }
+            }
+            if (best != null) {
+                best.isFree = false;
+                waiter.offered = best;
+            }
+        }
+        lock.notifyAll();
+    }
+
+    /**
+     * @param lastAgentID the agent last claimed for the waiter's affinity key, may be null
+     * @return true if the candidate agent should be offered rather than the best agent found so far
+     */
+    private static boolean isPreferred(final Agent candidate, final Agent best, final ServiceID lastAgentID) {
+        if (lastAgentID != null) {
+            if (lastAgentID.equals(candidate.item.serviceID)) {
+                return true;
+            } else if (lastAgentID.equals(best.item.serviceID)) {
+                return false;
+            }
+        }
+        final float candidateLoad = candidate.getLoad();
+        final float bestLoad = best.getLoad();
+        if (candidateLoad != bestLoad) {
+            return candidateLoad < bestLoad;
+        }
+        return candidate.getFreeMemoryMB() > best.getFreeMemoryMB();
+    }
+
+    private boolean isOffered(final Agent agent) {
+        for (final LinkedList<Waiter> queue : queues.values()) {
+            for (final Waiter waiter : queue) {
+                if (waiter.offered == agent) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Waits until an agent is offered to the given waiter, probing agents that are not free while waiting.
+     * @return the offered agent, still referenced by the waiter until claimed, or null at the deadline
+     */
+    private Agent awaitOffer(final Waiter waiter, final long deadline) throws InterruptedException {
+        while (true) {
+            synchronized (lock) {
+                if (waiter.offered == null) {
+                    final long remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        return null;
+                    }
+                    lock.wait(Math.min(remaining, probeIntervalMillis));
+                }
+                if (waiter.offered != null) {
+                    return waiter.offered;
+                }
+            }
+            probe(waiter, false);
+        }
+    }
+
+    /**
+     * Claims the agent offered to the given waiter. An agent that turns out to be busy stays unavailable
+     * until it is released or probed again, an unreachable agent is discarded from the lookup cache.
+     * @return true if the agent was claimed
+     */
+    private boolean claimOffered(final Waiter waiter, final Agent agent) {
+        boolean isClaimed = false;
+        boolean isUnreachable = false;
+        try {
+            agent.getService().claim();
+            isClaimed = true;
+        } catch (IllegalStateException e) {
+            LOG.debug("Offered agent was claimed elsewhere: " + e.getMessage());
+        } catch (RemoteException e) {
+            LOG.debug("Error claiming offered agent, discarding it.", e);
+            isUnreachable = true;
+        }
+
+        synchronized (lock) {
+            waiter.offered = null;
+            agent.checked = System.currentTimeMillis();
+            if (isClaimed) {
+                if (waiter.affinityKey != null) {
+                    lastAgents.put(waiter.affinityKey, agent.item.serviceID);
+                }
+            } else {
+                dispatch();
+            }
+        }
+        if (isUnreachable) {
+            cache.discard(agent.item.service);
+        }
+        return isClaimed;
+    }
+
+    /**
+     * Checks whether agents that are not free, but match the given waiter, are still busy.
+     * Only the first waiter of a queue probes, others would not get a freed agent anyway.
+     * @param isForced if true, ignore the probe interval
+     */
+    private void probe(final Waiter waiter, final boolean isForced) {
+        final List<Agent> candidates = new ArrayList<Agent>();
+        final long now = System.currentTimeMillis();
+        synchronized (lock) {
+            if (waiter.offered != null || queues.get(waiter.key).getFirst() != waiter) {
+                return;
+            }
+            for (final Agent agent : agents.values()) {
+                if (!agent.isFree && !isOffered(agent) && waiter.matches(agent.item)
+                        && (isForced || now - agent.checked >= probeIntervalMillis)) {
+                    agent.checked = now;
+                    candidates.add(agent);
+                }
+            }
+            if (now - waiter.reported >= probeIntervalMillis) {
+                waiter.reported = now;
+                LOG.info("Still waiting for an available agent with entries: " + waiter.key + " ("
+                        + candidates.size() + " matching agents to re-check)");
+            }
+        }
+
+        final List<Agent> unreachable = new ArrayList<Agent>();
+        for (final Iterator<Agent> it = candidates.iterator(); it.hasNext();) {
+            final Agent agent = it.next();
+            try {
+                if (agent.getService().isBusy()) {
+                    it.remove();
+                }
+            } catch (RemoteException e) {
+                LOG.debug("Error checking agent busy status, discarding it.", e);
+                it.remove();
+                unreachable.add(agent);
+            }
+        }
+
+        if (!candidates.isEmpty()) {
+            synchronized (lock) {
+                for (final Agent agent : candidates) {
+                    if (agents.get(agent.item.serviceID) == agent && !agent.isFree && !isOffered(agent)) {
+                        agent.isFree = true;
+                    }
+                }
+                dispatch();
+            }
+        }
+        for (final Agent agent : unreachable) {
+            cache.discard(agent.item.service);
+        }
+    }
+}
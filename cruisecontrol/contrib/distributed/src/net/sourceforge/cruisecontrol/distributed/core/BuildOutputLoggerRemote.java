@@ -12,7 +12,9 @@ import java.rmi.RemoteException;
  * @author Dan Rollo
  *         Date: May 19, 2010
  *         Time: 10:03:34 PM
+ * @deprecated agents push live output to a {@link LiveOutputCache} on the master instead.
  */
+@Deprecated
 public class BuildOutputLoggerRemote extends BuildOutputLogger implements Serializable {
 
     private static final Logger LOG = Logger.getLogger(BuildOutputLoggerRemote.class);
@@ -0,0 +1,116 @@
+package net.sourceforge.cruisecontrol.distributed.core;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import net.sourceforge.cruisecontrol.util.BuildOutputLogger;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The master's copy of the live output of a build running on an agent. The agent pushes its output in
+ * {@link LiveOutputFrame frames}, and the master keeps the latest lines in a ring buffer and appends all lines
+ * to a segment file. Output readers are served from these, so the number of readers does not change the
+ * calls made to the agent.
+ */
+public final class LiveOutputCache extends BuildOutputLogger implements LiveOutputReceiverRemote {
+
+    private static final long serialVersionUID = 2718440658711652934L;
+
+    private static final Logger LOG = Logger.getLogger(LiveOutputCache.class);
+
+    /** Number of latest lines held in memory, older lines are read from the segment file. */
+    static final int RING_LINES = 2 * MAX_LINES;
+
+    private final String project;
+    private final File segmentFile;
+    private final String[] ring = new String[RING_LINES];
+    /** Number of lines received since the output last restarted, guarded by this. */
+    private int lineCount;
+    /** Sequence number of the next expected frame, guarded by this. */
+    private long nextSequence;
+    /** Id of the agent output the received lines belong to, guarded by this. */
+    private String agentOutputID;
+
+    /**
+     * @param projectName the project being built
+     * @param segmentFile file to append all received lines to, deleted when the output restarts
+     */
+    public LiveOutputCache(final String projectName, final File segmentFile) {
+        super(segmentFile);
+        project = projectName;
+        this.segmentFile = segmentFile;
+    }
+
+    public synchronized void receiveOutput(final LiveOutputFrame frame) {
+        if (frame.getSequence() < nextSequence) {
+            LOG.debug(project + " - Ignoring live output frame received again: " + frame.getSequence());
+            return;
+        } else if (frame.getSequence() > nextSequence) {
+            LOG.warn(project + " - Missed live output frames " + nextSequence + " to " + (frame.getSequence() - 1));
+        }
+        nextSequence = frame.getSequence() + 1;
+
+        if (agentOutputID != null && !agentOutputID.equals(frame.getOutputID())) {
+            // the agent output restarted, e.g. with the next builder of a composite builder
+            clear();
+        }
+        agentOutputID = frame.getOutputID();
+
+        for (final String line : frame.getLines()) {
+            ring[lineCount % RING_LINES] = line;
+            lineCount++;
+        }
+        appendToSegment(frame.getLines());
+    }
+
+    private void appendToSegment(final String[] lines) {
+        try {
+            final PrintStream out = new PrintStream(new FileOutputStream(segmentFile, true));
+            try {
+                for (final String line : lines) {
+                    out.println(line);
+                }
+            } finally {
+                out.close();
+            }
+        } catch (FileNotFoundException e) {
+            LOG.warn(project + " - Error writing live output to: " + segmentFile.getAbsolutePath(), e);
+        }
+    }
+
+    @Override
+    public String[] retrieveLines(final int firstLine) {
+        synchronized (this) {
+            if (firstLine >= 0 && firstLine >= lineCount - RING_LINES) {
+                final int count = Math.max(0, Math.min(lineCount - firstLine, MAX_LINES));
+                final String[] lines = new String[count];
+                for (int i = 0; i < count; i++) {
+                    lines[i] = ring[(firstLine + i) % RING_LINES];
+                }
+                return lines;
+            }
+        }
+        // only readers starting to watch a long build ask for lines no longer held in memory
+        return super.retrieveLines(firstLine);
+    }
+
+    /**
+     * Discards all received lines and changes the {@link #getID() id}, so readers start reading from the first
+     * line again.
+     */
+    @Override
+    public synchronized void clear() {
+        super.clear();
+        Arrays.fill(ring, null);
+        lineCount = 0;
+    }
+
+    @Override
+    public void consumeLine(final String line) {
+        throw new IllegalStateException("Live output of " + project + " is pushed by the agent");
+    }
+}
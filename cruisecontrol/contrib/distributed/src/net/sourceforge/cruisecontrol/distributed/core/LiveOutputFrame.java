@@ -0,0 +1,46 @@
+package net.sourceforge.cruisecontrol.distributed.core;
+
+import java.io.Serializable;
+
+/**
+ * A batch of live output lines pushed by a build agent to the master. The frames of one build are numbered
+ * from 0, so a frame sent again after a failed call can be recognized.
+ */
+public final class LiveOutputFrame implements Serializable {
+
+    private static final long serialVersionUID = -3177421265390874422L;
+
+    private final long sequence;
+    private final String outputID;
+    private final int firstLine;
+    private final String[] lines;
+
+    /**
+     * @param sequence number of this frame in the output of the build
+     * @param outputID id of the agent output logger the lines were read from, changes when the output restarts
+     * @param firstLine line number of the first line of this frame in that output
+     * @param lines the output lines
+     */
+    public LiveOutputFrame(final long sequence, final String outputID, final int firstLine, final String[] lines) {
+        this.sequence = sequence;
+        this.outputID = outputID;
+        this.firstLine = firstLine;
+        this.lines = lines;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public String getOutputID() {
+        return outputID;
+    }
+
+    public int getFirstLine() {
+        return firstLine;
+    }
+
+    public String[] getLines() {
+        return lines;
+    }
+}
@@ -0,0 +1,18 @@
+package net.sourceforge.cruisecontrol.distributed.core;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Receives the live output of a build pushed by a distributed agent.
+ */
+public interface LiveOutputReceiverRemote extends Remote {
+
+    /**
+     * Adds the lines of the given frame to the live output. A frame whose sequence number was already received
+     * is ignored, so a frame can safely be sent again if a call failed.
+     * @param frame the next output lines of the build
+     * @throws RemoteException if the remote call fails
+     */
+    void receiveOutput(LiveOutputFrame frame) throws RemoteException;
+}
@@ -88,6 +88,9 @@ public final class MulticastDiscovery {
 
     private final ServiceDiscoveryManager clientMgr;
 
+    /** Created on first use, since only masters need to track available agents. */
+    private BuildAgentPool agentPool;
+
 
     /**
      * Holds the singleton discovery instance.
@@ -232,43 +235,59 @@ public final class MulticastDiscovery {
     }
 
 
-    private ServiceItem findAvailableBuildAgentService(final Entry[] entries, final long waitDurMillis)
-            throws RemoteException {
-
-        final ServiceTemplate tmpl = new ServiceTemplate(null, SERVICE_CLASSES_BUILDAGENT, entries);
-
-        try {
-            return clientMgr.lookup(tmpl, FLTR_AVAILABLE, waitDurMillis);
-        } catch (InterruptedException e) {
-            throw new RuntimeException("Error finding BuildAgent service.", e);
+    private synchronized BuildAgentPool getBuildAgentPoolImpl() throws RemoteException {
+        if (agentPool == null) {
+            final ServiceTemplate tmpl = new ServiceTemplate(null, SERVICE_CLASSES_BUILDAGENT, null);
+            agentPool = new BuildAgentPool(clientMgr.createLookupCache(tmpl, FLTR_ANY, null),
+                    BuildAgentPool.DEFAULT_PROBE_INTERVAL_MILLIS);
         }
+        return agentPool;
     }
-    private ServiceItem findMatchingServiceAndClaimImpl(final Entry[] entries, final long waitDurMillis)
-            throws RemoteException {
-        
-        final ServiceItem result = findAvailableBuildAgentService(entries, waitDurMillis);
-        if (result != null) {
-            ((BuildAgentService) result.service).claim();
-        }
-        return result;
+
+    /**
+     * Waits in turn with other DistributedMasterBuilders for an available agent and claims it.
+     * Available agents are tracked via lookup service events, and released agents are handed to the next
+     * waiting builder, so this method does not serialize callers.
+     * @param entries matching criteria to use when finding an available agent
+     * @param waitDurMillis milliseconds to wait for an agent to be found, zero or less waits until one is found
+     * @return a matching agent that has been marked as claimed, or null if none was found in time
+     * @throws RemoteException if the lookup cache can not be created
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public static ServiceItem findMatchingServiceAndClaim(final Entry[] entries, final long waitDurMillis)
+            throws RemoteException, InterruptedException {
+
+        return findMatchingServiceAndClaim(entries, waitDurMillis, null);
     }
 
     /**
-     * This method is called concurrently by multiple threads running DistributedMasterBuilders, so until we have
-     * a better way to make an Agent's busy state changes atomic, this method should be synchronized.
+     * Like {@link #findMatchingServiceAndClaim(Entry[], long)}, but prefers the agent last claimed with the
+     * same affinity key, which may still hold files from the last build with that key.
      * @param entries matching criteria to use when finding an available agent
-     * @param waitDurMillis milliseconds to wait for an agent to be found
-     * @return a matching agent that has been marked as claimed
-     * @throws RemoteException if something breaks
+     * @param waitDurMillis milliseconds to wait for an agent to be found, zero or less waits until one is found
+     * @param affinityKey identifies builds that benefit from running on the same agent, e.g. the project name
+     * @return a matching agent that has been marked as claimed, or null if none was found in time
+     * @throws RemoteException if the lookup cache can not be created
+     * @throws InterruptedException if interrupted while waiting
      */
-    public static synchronized ServiceItem findMatchingServiceAndClaim(final Entry[] entries, final long waitDurMillis)
-            throws RemoteException {
+    public static ServiceItem findMatchingServiceAndClaim(final Entry[] entries, final long waitDurMillis,
+                                                          final String affinityKey)
+            throws RemoteException, InterruptedException {
 
-        return getDiscovery().findMatchingServiceAndClaimImpl(entries, waitDurMillis);
+        return getDiscovery().getBuildAgentPoolImpl().claim(entries, waitDurMillis, affinityKey);
     }
 
-    private static final BuildAgentFilter FLTR_AVAILABLE = new BuildAgentFilter(true);
-    private static final BuildAgentFilter FLTR_ANY = new BuildAgentFilter(false);
+    /**
+     * Hands an agent claimed via {@link #findMatchingServiceAndClaim(Entry[], long)} to the next waiting
+     * builder. Call once the agent is no longer busy.
+     * @param agent the agent to release
+     * @throws RemoteException if the lookup cache can not be created
+     */
+    public static void releaseAgent(final BuildAgentService agent) throws RemoteException {
+        getDiscovery().getBuildAgentPoolImpl().release(agent);
+    }
+
+    private static final BuildAgentFilter FLTR_ANY = new BuildAgentFilter();
 
     /**
      * Destroys the given LookupService. NOTE: the LUS.destroy() call is asynchronous, so the service may still be
@@ -346,12 +365,8 @@ public final class MulticastDiscovery {
 
 
 
+    /** Filters out agents that do not respond. Busy agents are tracked by {@link BuildAgentPool}. */
     static final class BuildAgentFilter implements ServiceItemFilter {
-        private final boolean findOnlyNonBusy;
-
-        private BuildAgentFilter(final boolean onlyNonBusy) {
-            findOnlyNonBusy = onlyNonBusy;
-        }
 
         public boolean check(final ServiceItem item) {
 
@@ -362,31 +377,24 @@ public final class MulticastDiscovery {
 
             final BuildAgentService agent = (BuildAgentService) item.service;
             // read agent machine name to make sure agent is still valid
-            final String agentMachine;
             try {
-                agentMachine = agent.getMachineName();
+                agent.getMachineName();
             } catch (RemoteException e) {
                 final String msg = "Error reading agent machine name. Filtering out agent.";
                 LOG.debug(msg, e);
                 return false; // filter out this agent by returning false
             }
-
-            if (!findOnlyNonBusy) {
-                return true; // we don't care if agent is busy or not
-            }
-
-            try {
-                return !agent.isBusy();
-            } catch (RemoteException e) {
-                final String msg = "Error checking agent busy status. Filtering out agent on machine: "
-                        + agentMachine;
-                LOG.debug(msg, e);
-                return false; // filter out this agent by returning false
-            }
+            return true;
         }
     }
 
     private void terminate() {
+        synchronized (this) {
+            if (agentPool != null) {
+                agentPool.terminate();
+                agentPool = null;
+            }
+        }
         if (clientMgr != null) {
             clientMgr.terminate();
         }
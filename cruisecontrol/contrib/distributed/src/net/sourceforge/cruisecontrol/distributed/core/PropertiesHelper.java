@@ -53,9 +53,17 @@ public final class PropertiesHelper {
     public static final String PROJECT_NAME = "projectname";
     public static final String DISTRIBUTED_AGENT_LOGDIR = "distributed.agentlogdir";
     public static final String DISTRIBUTED_AGENT_OUTPUTDIR = "distributed.agentoutputdir";
+    /** Passed to the nested builder by the agent: the build directory of the agent slot running the build. */
+    public static final String DISTRIBUTED_AGENT_SLOTDIR = "distributed.agentslotdir";
 
     public static final String DISTRIBUTED_AGENT_DEBUG = "distributed.agentdebug";
 
+    /**
+     * Prefix of the properties holding, per result type, the id of the results manifest the master still holds.
+     * The agent then returns only new or changed result files.
+     */
+    public static final String DISTRIBUTED_RESULT_BASELINE_PREFIX = "distributed.resultbaseline.";
+
     public static final String RESULT_TYPE_LOGS = "logs";
     public static final String RESULT_TYPE_OUTPUT = "output";
     public static final String RESULT_TYPE_DIR = "dir";
@@ -0,0 +1,85 @@
+package net.sourceforge.cruisecontrol.distributed.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.util.zip.CRC32;
+
+/**
+ * A part of a zipped result file sent from a build agent to the master, with a checksum of its bytes
+ * so the master can detect a damaged transfer and ask for the same part again.
+ */
+public final class ResultChunk implements Serializable {
+
+    private static final long serialVersionUID = -2741380153322487625L;
+
+    /** The number of bytes a build agent sends in one chunk. */
+    public static final int DEFAULT_SIZE = 1024 * 1024;
+
+    private final long offset;
+    private final long totalLength;
+    private final byte[] data;
+    private final long checksum;
+
+    public ResultChunk(final long offset, final long totalLength, final byte[] data) {
+        this.offset = offset;
+        this.totalLength = totalLength;
+        this.data = data;
+        this.checksum = checksum(data);
+    }
+
+    /**
+     * @param file the zipped result file
+     * @param offset position of the first byte to read
+     * @param size the maximal number of bytes to read
+     * @return the bytes of the file from the offset on, fewer than size only at the end of the file.
+     * @throws IOException if the file can not be read or the offset is beyond its end
+     */
+    public static ResultChunk read(final File file, final long offset, final int size) throws IOException {
+        final RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            final long length = in.length();
+            if (offset < 0 || offset > length) {
+                throw new IOException("Offset " + offset + " is outside of " + file.getAbsolutePath()
+                        + " (" + length + " bytes)");
+            }
+            final byte[] bytes = new byte[(int) Math.min(size, length - offset)];
+            in.seek(offset);
+            in.readFully(bytes);
+            return new ResultChunk(offset, length, bytes);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long checksum(final byte[] bytes) {
+        final CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue();
+    }
+
+    /** @return position of the first byte of this chunk in the result file. */
+    public long getOffset() {
+        return offset;
+    }
+
+    /** @return the length of the whole result file. */
+    public long getTotalLength() {
+        return totalLength;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    /** @return true if the bytes still match the checksum taken by the agent. */
+    public boolean isValid() {
+        return checksum == checksum(data);
+    }
+
+    /** @return true if this chunk ends the result file. */
+    public boolean isLast() {
+        return offset + data.length >= totalLength;
+    }
+}
@@ -0,0 +1,107 @@
+package net.sourceforge.cruisecontrol.distributed.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.rmi.RemoteException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Reads a zipped result file from a build agent one chunk at a time, so neither side needs to hold the whole
+ * file in memory. A chunk that fails to arrive, or arrives with a wrong checksum, is fetched again from the
+ * same offset a few times before giving up.
+ */
+public class ResultChunkInputStream extends InputStream {
+
+    private static final Logger LOG = Logger.getLogger(ResultChunkInputStream.class);
+
+    /** How often a chunk is fetched before the transfer fails. */
+    static final int MAX_ATTEMPTS = 3;
+
+    private final ResultChunkSource source;
+
+    private long totalLength = -1;
+    private long offset;
+    private byte[] data = new byte[0];
+    private int position;
+
+    public ResultChunkInputStream(final ResultChunkSource source) {
+        this.source = source;
+    }
+
+    public int read() throws IOException {
+        if (!fill()) {
+            return -1;
+        }
+        return data[position++] & 0xff;
+    }
+
+    public int read(final byte[] buffer, final int off, final int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        final int count = Math.min(len, data.length - position);
+        System.arraycopy(data, position, buffer, off, count);
+        position += count;
+        return count;
+    }
+
+    public int available() {
+        return data.length - position;
+    }
+
+    /** @return the number of bytes received so far. */
+    public long getBytesReceived() {
+        return offset;
+    }
+
+    /**
+     * @return true if there are bytes to read, fetching the next chunk if the current one is used up.
+     */
+    private boolean fill() throws IOException {
+        while (position == data.length) {
+            if (totalLength >= 0 && offset >= totalLength) {
+                return false;
+            }
+            final ResultChunk chunk = fetch();
+            data = chunk.getData();
+            position = 0;
+            offset += data.length;
+            if (data.length == 0 && offset < totalLength) {
+                throw new IOException("Empty chunk at offset " + offset + " of " + totalLength + " bytes");
+            }
+        }
+        return true;
+    }
+
+    private ResultChunk fetch() throws IOException {
+        String problem = null;
+        RemoteException cause = null;
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            try {
+                final ResultChunk chunk = source.fetch(offset);
+                if (chunk.getOffset() != offset) {
+                    problem = "Chunk offset " + chunk.getOffset() + " does not match requested offset " + offset;
+                } else if (!chunk.isValid()) {
+                    problem = "Checksum mismatch in chunk at offset " + offset;
+                } else if (totalLength >= 0 && chunk.getTotalLength() != totalLength) {
+                    throw new IOException("Result changed on the agent during transfer, length was " + totalLength
+                            + ", now " + chunk.getTotalLength());
+                } else {
+                    totalLength = chunk.getTotalLength();
+                    return chunk;
+                }
+            } catch (RemoteException e) {
+                problem = "Error fetching chunk at offset " + offset + ": " + e.getMessage();
+                cause = e;
+            }
+            LOG.warn(problem + " (attempt " + attempt + " of " + MAX_ATTEMPTS + ")");
+        }
+        final IOException failure = new IOException(problem);
+        failure.initCause(cause);
+        throw failure;
+    }
+}
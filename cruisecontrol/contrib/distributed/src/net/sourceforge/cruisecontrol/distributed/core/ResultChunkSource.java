@@ -0,0 +1,17 @@
+package net.sourceforge.cruisecontrol.distributed.core;
+
+import java.rmi.RemoteException;
+
+/**
+ * Fetches the chunks of one zipped result file from a build agent.
+ * @see ResultChunkInputStream
+ */
+public interface ResultChunkSource {
+
+    /**
+     * @param offset position in the result file of the first byte to fetch
+     * @return the chunk of the result file starting at the offset.
+     * @throws RemoteException if the remote call fails
+     */
+    ResultChunk fetch(long offset) throws RemoteException;
+}
@@ -0,0 +1,239 @@
+package net.sourceforge.cruisecontrol.distributed.core;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The content hashes of all files below a directory, used to move only changed files between the master
+ * and build agents. Paths are relative to the directory and use '/' as separator. Manifests of directories
+ * with the same files and contents have the same {@link #getId() id}, wherever the directories are.
+ * <p>
+ * The file states seen by the last scan of each directory are kept, so a file whose length and modification
+ * time did not change is not hashed again.
+ */
+public final class WorkspaceManifest implements Serializable {
+
+    private static final long serialVersionUID = 6319440185417323361L;
+
+    /** File states seen by the last scan, by canonical directory path. */
+    private static final ConcurrentMap<String, Map<String, FileState>> KNOWN_STATES
+            = new ConcurrentHashMap<String, Map<String, FileState>>();
+
+    /**
+     * A file modified this close to its scan may change again without a different modification time,
+     * so its state is not reused by the next scan.
+     */
+    private static final long RACY_MILLIS = 2000;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final SortedMap<String, FileState> files;
+    private final String id;
+
+    private static final class FileState implements Serializable {
+
+        private static final long serialVersionUID = -4700566787120883307L;
+
+        private final long length;
+        private final long lastModified;
+        private final String digest;
+
+        private FileState(final long length, final long lastModified, final String digest) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+
+        private boolean isUnchanged(final File file) {
+            return file.length() == length && file.lastModified() == lastModified;
+        }
+    }
+
+    private WorkspaceManifest(final SortedMap<String, FileState> files) {
+        this.files = files;
+
+        final MessageDigest md = newDigest();
+        for (final Map.Entry<String, FileState> entry : files.entrySet()) {
+            md.update(toBytes(entry.getKey()));
+            md.update((byte) 0);
+            md.update(toBytes(entry.getValue().digest));
+            md.update((byte) '\n');
+        }
+        id = toHex(md.digest());
+    }
+
+    /**
+     * @param dir the directory to scan, need not exist
+     * @return the manifest of all files below the given directory
+     * @throws IOException if a file can not be read
+     */
+    public static WorkspaceManifest scan(final File dir) throws IOException {
+        final String dirKey = dir.getCanonicalPath();
+        final Map<String, FileState> known = KNOWN_STATES.get(dirKey);
+
+        final SortedMap<String, FileState> files = new TreeMap<String, FileState>();
+        if (dir.isDirectory()) {
+            addFiles(dir, "", known, files);
+        }
+        KNOWN_STATES.put(dirKey, Collections.unmodifiableMap(files));
+        return new WorkspaceManifest(files);
+    }
+
+    private static void addFiles(final File dir, final String relativeDir, final Map<String, FileState> known,
+                                 final SortedMap<String, FileState> files) throws IOException {
+
+        final File[] children = dir.listFiles();
+        if (children == null) {
+            throw new IOException("Error listing files of: " + dir.getAbsolutePath());
+        }
+        for (final File child : children) {
+            final String path = relativeDir + child.getName();
+            if (child.isDirectory()) {
+                addFiles(child, path + "/", known, files);
+            } else {
+                files.put(path, getState(child, (known == null ? null : known.get(path))));
+            }
+        }
+    }
+
+    private static FileState getState(final File file, final FileState known) throws IOException {
+        if (known != null && known.isUnchanged(file)) {
+            return known;
+        }
+        final long lastModified = file.lastModified();
+        final MessageDigest md = newDigest();
+        final byte[] buf = new byte[64 * 1024];
+        long length = 0;
+        final InputStream in = new FileInputStream(file);
+        try {
+            int len;
+            while ((len = in.read(buf)) > 0) {
+                md.update(buf, 0, len);
+                length += len;
+            }
+        } finally {
+            in.close();
+        }
+        final boolean isRacy = System.currentTimeMillis() - lastModified < RACY_MILLIS;
+        return new FileState(length, (isRacy ? -1 : lastModified), toHex(md.digest()));
+    }
+
+    /**
+     * Checks the given directory still holds every file of this manifest with the same content. Other files
+     * in the directory are ignored, and only the files of this manifest are read.
+     * @param dir the directory to check
+     * @return true if all files of this manifest exist in the given directory with the same content
+     * @throws IOException if a file can not be read
+     */
+    public boolean isHeldBy(final File dir) throws IOException {
+        final String dirKey = dir.getCanonicalPath();
+        final Map<String, FileState> known = KNOWN_STATES.get(dirKey);
+        final Map<String, FileState> updated = (known == null
+                ? new HashMap<String, FileState>() : new HashMap<String, FileState>(known));
+        try {
+            for (final Map.Entry<String, FileState> entry : files.entrySet()) {
+                final File file = new File(dir, entry.getKey());
+                if (!file.isFile()) {
+                    return false;
+                }
+                final FileState state = getState(file, updated.get(entry.getKey()));
+                updated.put(entry.getKey(), state);
+                if (!state.digest.equals(entry.getValue().digest)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            KNOWN_STATES.put(dirKey, Collections.unmodifiableMap(updated));
+        }
+    }
+
+    /**
+     * @param base the manifest of the files the other side holds, may be null if it holds nothing
+     * @return the paths of files in this manifest that are missing from, or differ in, the given manifest
+     */
+    public List<String> getChangedPaths(final WorkspaceManifest base) {
+        final List<String> changed = new ArrayList<String>();
+        for (final Map.Entry<String, FileState> entry : files.entrySet()) {
+            final FileState baseState = (base == null ? null : base.files.get(entry.getKey()));
+            if (baseState == null || !baseState.digest.equals(entry.getValue().digest)) {
+                changed.add(entry.getKey());
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @param base the manifest of the files the other side holds, may be null if it holds nothing
+     * @return the paths of files in the given manifest that are not in this manifest
+     */
+    public List<String> getRemovedPaths(final WorkspaceManifest base) {
+        final List<String> removed = new ArrayList<String>();
+        if (base != null) {
+            for (final String path : base.files.keySet()) {
+                if (!files.containsKey(path)) {
+                    removed.add(path);
+                }
+            }
+        }
+        return removed;
+    }
+
+    /** @return an id derived from all paths and content hashes of this manifest */
+    public String getId() {
+        return id;
+    }
+
+    /** @return the number of files in this manifest */
+    public int size() {
+        return files.size();
+    }
+
+    public String toString() {
+        return "WorkspaceManifest[id=" + id + ", files=" + files.size() + "]";
+    }
+
+    /** Intended only for unit tests. */
+    static void clearKnownStates() {
+        KNOWN_STATES.clear();
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 digest is not available", e);
+        }
+    }
+
+    private static byte[] toBytes(final String value) {
+        try {
+            return value.getBytes("UTF-8");
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String toHex(final byte[] bytes) {
+        final char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,335 @@
+package net.sourceforge.cruisecontrol.distributed.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Calendar;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a zip archive from entries that were compressed beforehand, so entries can be compressed by several
+ * threads while the archive is written by one. Entry data is appended to the archive with channel transfers,
+ * and the zip64 extensions are used where sizes or counts exceed the classic zip limits.
+ */
+final class ZipArchiveWriter {
+
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final short ZIP64_EXTRA_ID = 0x0001;
+
+    private static final short VERSION = 20;
+    private static final short VERSION_ZIP64 = 45;
+    /** General purpose flag: entry names are UTF-8 encoded. */
+    private static final short FLAG_UTF8 = 0x0800;
+
+    private static final long MAX_32 = 0xFFFFFFFFL;
+    private static final int MAX_16 = 0xFFFF;
+
+    private final FileChannel out;
+    private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+    private long entryCount;
+
+    /**
+     * A file compressed for the archive. Deflated data is held in memory or, for large files, in a temp file.
+     * Stored data is read from the source file when written.
+     */
+    static final class Entry {
+        private final String name;
+        private final long lastModified;
+        private final boolean isStored;
+        private final long crc;
+        private final long size;
+        private final long compressedSize;
+        private final byte[] data;
+        private final File dataFile;
+
+        private Entry(final String name, final long lastModified, final boolean isStored, final long crc,
+                      final long size, final byte[] data, final File dataFile) {
+            this.name = name;
+            this.lastModified = lastModified;
+            this.isStored = isStored;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+            this.dataFile = dataFile;
+            if (isStored) {
+                compressedSize = size;
+            } else {
+                compressedSize = (data != null ? data.length : dataFile.length());
+            }
+        }
+
+        /**
+         * @param file the file to add
+         * @param name the entry name, using '/' as separator
+         * @param isStored true to add the file without compressing it
+         * @param maxInMemory deflated files larger than this are held in a temp file until written
+         * @param buf buffer to use for reading the file
+         * @return the entry, ready to be written
+         * @throws IOException if the file can not be read
+         */
+        static Entry create(final File file, final String name, final boolean isStored, final long maxInMemory,
+                            final byte[] buf) throws IOException {
+
+            final long lastModified = file.lastModified();
+            final CRC32 crc = new CRC32();
+            final InputStream in = new FileInputStream(file);
+            try {
+                if (isStored) {
+                    long size = 0;
+                    int len;
+                    while ((len = in.read(buf)) > 0) {
+                        crc.update(buf, 0, len);
+                        size += len;
+                    }
+                    return new Entry(name, lastModified, true, crc.getValue(), size, null, file);
+                }
+
+                final boolean isInMemory = file.length() <= maxInMemory;
+                final File dataFile = (isInMemory ? null : File.createTempFile("zipentry-", ".tmp"));
+                boolean isDone = false;
+                try {
+                    final ByteArrayOutputStream bytes = (isInMemory ? new ByteArrayOutputStream() : null);
+                    final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+                    final OutputStream dataOut = (isInMemory ? bytes : new FileOutputStream(dataFile));
+                    long size = 0;
+                    try {
+                        final DeflaterOutputStream deflaterOut = new DeflaterOutputStream(dataOut, deflater,
+                                buf.length);
+                        int len;
+                        while ((len = in.read(buf)) > 0) {
+                            crc.update(buf, 0, len);
+                            deflaterOut.write(buf, 0, len);
+                            size += len;
+                        }
+                        deflaterOut.finish();
+                    } finally {
+                        dataOut.close();
+                        deflater.end();
+                    }
+                    final Entry entry = new Entry(name, lastModified, false, crc.getValue(), size,
+                            (isInMemory ? bytes.toByteArray() : null), dataFile);
+                    isDone = true;
+                    return entry;
+                } finally {
+                    if (!isDone && dataFile != null) {
+                        dataFile.delete();
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        }
+
+        /** Deletes the temp file holding the data of this entry, if any. */
+        void discard() {
+            if (!isStored && dataFile != null && !dataFile.delete()) {
+                dataFile.deleteOnExit();
+            }
+        }
+    }
+
+    /** @param out the channel to write the archive to, starting at its current position */
+    ZipArchiveWriter(final FileChannel out) {
+        this.out = out;
+    }
+
+    /**
+     * Appends the given entry to the archive, and discards its temp data.
+     * @param entry the entry to append
+     * @throws IOException if writing fails
+     */
+    void write(final Entry entry) throws IOException {
+        try {
+            final long offset = out.position();
+            final byte[] name = toUtf8(entry.name);
+            final boolean isZip64 = entry.size >= MAX_32 || entry.compressedSize >= MAX_32;
+            final int dosTime = toDosTime(entry.lastModified);
+
+            final ByteBuffer header = newBuffer(30 + name.length + (isZip64 ? 20 : 0));
+            header.putInt(LOCAL_HEADER_SIG);
+            header.putShort(isZip64 ? VERSION_ZIP64 : VERSION);
+            header.putShort(FLAG_UTF8);
+            header.putShort(getMethod(entry));
+            header.putInt(dosTime);
+            header.putInt((int) entry.crc);
+            header.putInt((int) (isZip64 ? MAX_32 : entry.compressedSize));
+            header.putInt((int) (isZip64 ? MAX_32 : entry.size));
+            header.putShort((short) name.length);
+            header.putShort((short) (isZip64 ? 20 : 0));
+            header.put(name);
+            if (isZip64) {
+                header.putShort(ZIP64_EXTRA_ID);
+                header.putShort((short) 16);
+                header.putLong(entry.size);
+                header.putLong(entry.compressedSize);
+            }
+            writeFully(header);
+
+            if (entry.data != null) {
+                writeFully(ByteBuffer.wrap(entry.data));
+            } else {
+                transferFully(entry.dataFile, entry.compressedSize);
+            }
+
+            addCentralHeader(entry, name, dosTime, offset);
+        } finally {
+            entry.discard();
+        }
+    }
+
+    private void addCentralHeader(final Entry entry, final byte[] name, final int dosTime, final long offset)
+            throws IOException {
+
+        final boolean isSizeZip64 = entry.size >= MAX_32 || entry.compressedSize >= MAX_32;
+        final boolean isOffsetZip64 = offset >= MAX_32;
+        final int extraLength = (isSizeZip64 || isOffsetZip64)
+                ? 4 + (isSizeZip64 ? 16 : 0) + (isOffsetZip64 ? 8 : 0) : 0;
+        final short version = (extraLength > 0 ? VERSION_ZIP64 : VERSION);
+
+        final ByteBuffer header = newBuffer(46 + name.length + extraLength);
+        header.putInt(CENTRAL_HEADER_SIG);
+        header.putShort(version);
+        header.putShort(version);
+        header.putShort(FLAG_UTF8);
+        header.putShort(getMethod(entry));
+        header.putInt(dosTime);
+        header.putInt((int) entry.crc);
+        header.putInt((int) (isSizeZip64 ? MAX_32 : entry.compressedSize));
+        header.putInt((int) (isSizeZip64 ? MAX_32 : entry.size));
+        header.putShort((short) name.length);
+        header.putShort((short) extraLength);
+        header.putShort((short) 0); // comment length
+        header.putShort((short) 0); // disk number
+        header.putShort((short) 0); // internal attributes
+        header.putInt(0); // external attributes
+        header.putInt((int) (isOffsetZip64 ? MAX_32 : offset));
+        header.put(name);
+        if (extraLength > 0) {
+            header.putShort(ZIP64_EXTRA_ID);
+            header.putShort((short) (extraLength - 4));
+            if (isSizeZip64) {
+                header.putLong(entry.size);
+                header.putLong(entry.compressedSize);
+            }
+            if (isOffsetZip64) {
+                header.putLong(offset);
+            }
+        }
+        centralDirectory.write(header.array());
+        entryCount++;
+    }
+
+    /**
+     * Writes the central directory, completing the archive. An archive without entries is valid,
+     * holding only the end record.
+     * @throws IOException if writing fails
+     */
+    void finish() throws IOException {
+        final long centralOffset = out.position();
+        writeFully(ByteBuffer.wrap(centralDirectory.toByteArray()));
+        final long centralSize = centralDirectory.size();
+
+        final boolean isZip64 = entryCount >= MAX_16 || centralOffset >= MAX_32 || centralSize >= MAX_32;
+        if (isZip64) {
+            final long zip64EndOffset = out.position();
+            final ByteBuffer zip64End = newBuffer(56 + 20);
+            zip64End.putInt(ZIP64_END_SIG);
+            zip64End.putLong(44); // size of the remaining record
+            zip64End.putShort(VERSION_ZIP64);
+            zip64End.putShort(VERSION_ZIP64);
+            zip64End.putInt(0); // disk number
+            zip64End.putInt(0); // disk with central directory
+            zip64End.putLong(entryCount);
+            zip64End.putLong(entryCount);
+            zip64End.putLong(centralSize);
+            zip64End.putLong(centralOffset);
+
+            zip64End.putInt(ZIP64_LOCATOR_SIG);
+            zip64End.putInt(0); // disk with zip64 end record
+            zip64End.putLong(zip64EndOffset);
+            zip64End.putInt(1); // number of disks
+            writeFully(zip64End);
+        }
+
+        final ByteBuffer end = newBuffer(22);
+        end.putInt(END_SIG);
+        end.putShort((short) 0); // disk number
+        end.putShort((short) 0); // disk with central directory
+        end.putShort((short) (isZip64 ? MAX_16 : entryCount));
+        end.putShort((short) (isZip64 ? MAX_16 : entryCount));
+        end.putInt((int) (isZip64 ? MAX_32 : centralSize));
+        end.putInt((int) (isZip64 ? MAX_32 : centralOffset));
+        end.putShort((short) 0); // comment length
+        writeFully(end);
+    }
+
+    private static short getMethod(final Entry entry) {
+        return (short) (entry.isStored ? 0 : 8);
+    }
+
+    private static ByteBuffer newBuffer(final int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void writeFully(final ByteBuffer buffer) throws IOException {
+        buffer.rewind();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    private void transferFully(final File file, final long count) throws IOException {
+        final FileInputStream in = new FileInputStream(file);
+        try {
+            final FileChannel channel = in.getChannel();
+            long position = 0;
+            while (position < count) {
+                final long transferred = channel.transferTo(position, count - position, out);
+                if (transferred <= 0) {
+                    throw new IOException("File changed while zipping: " + file.getAbsolutePath());
+                }
+                position += transferred;
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] toUtf8(final String name) {
+        try {
+            return name.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** @return the given time in the MS-DOS date and time format used by zip, in the local time zone. */
+    static int toDosTime(final long time) {
+        final Calendar cal = Calendar.getInstance();
+        cal.setTimeInMillis(time);
+        final int year = cal.get(Calendar.YEAR);
+        if (year < 1980) {
+            return (1 << 21) | (1 << 16); // 1980-01-01 00:00:00
+        }
+        return ((year - 1980) << 25)
+                | ((cal.get(Calendar.MONTH) + 1) << 21)
+                | (cal.get(Calendar.DAY_OF_MONTH) << 16)
+                | (cal.get(Calendar.HOUR_OF_DAY) << 11)
+                | (cal.get(Calendar.MINUTE) << 5)
+                | (cal.get(Calendar.SECOND) >> 1);
+    }
+}
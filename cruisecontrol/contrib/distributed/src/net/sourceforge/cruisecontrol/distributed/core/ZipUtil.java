@@ -38,18 +38,30 @@
 package net.sourceforge.cruisecontrol.distributed.core;
 
 import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.ZipInputStream;
 
 import net.sourceforge.cruisecontrol.Builder;
 import org.apache.log4j.Logger;
@@ -59,105 +71,183 @@ public final class ZipUtil {
 
     private static final Logger LOG = Logger.getLogger(ZipUtil.class);
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Files with these extensions are stored as they are, deflating them again saves next to nothing. */
+    private static final String[] COMPRESSED_EXTENSIONS = {
+        ".jar", ".war", ".ear", ".zip", ".gz", ".tgz", ".bz2", ".xz", ".7z",
+        ".png", ".gif", ".jpg", ".jpeg"
+    };
+
+    /** Deflated files larger than this wait in a temp file, rather than memory, until they are written. */
+    private static final long MAX_IN_MEMORY_ENTRY_SIZE = 4 * 1024 * 1024;
+
+    private static final int COMPRESSOR_COUNT = Runtime.getRuntime().availableProcessors();
+
+    /** Files compressed but not yet written, at most. */
+    private static final int MAX_PENDING_ENTRIES = COMPRESSOR_COUNT * 4;
+
+    private static final ThreadFactory COMPRESSOR_FACTORY = new ThreadFactory() {
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "ZipUtil compressor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    private static final ThreadLocal<byte[]> BUFFERS = new ThreadLocal<byte[]>() {
+        protected byte[] initialValue() {
+            return new byte[BUFFER_SIZE];
+        }
+    };
+
     private ZipUtil() { }
 
     public static void zipFolderContents(final String outFilename, final String folderToZip) {
+        zipFolderContents(outFilename, folderToZip, null);
+    }
+
+    /**
+     * Files are compressed in parallel, and written to the zip in the order given. If there are no files
+     * to zip, no zip file is created.
+     * @param outFilename the zip file to create
+     * @param folderToZip the folder holding the files to zip
+     * @param paths the paths of the files to zip, relative to the folder and separated by '/',
+     * or null to zip all files of the folder.
+     */
+    public static void zipFolderContents(final String outFilename, final String folderToZip,
+                                         final Collection<String> paths) {
         validateParams(outFilename, folderToZip);
-        BufferedOutputStream bos = null;
-        ZipOutputStream zipOut = null;
-        String errMsgsFromFinallyBlock = "";
-        Exception exceptionFromFinally = null;
+        final File folder = new File(folderToZip);
+        final List<String> entryNames;
+        if (paths == null) {
+            entryNames = new ArrayList<String>();
+            addEntryNames(folder, "", entryNames);
+        } else {
+            entryNames = new ArrayList<String>(paths);
+        }
+        if (entryNames.isEmpty()) {
+            // a zip without entries is not created at all, as before
+            final File outFile = new File(outFilename);
+            if (outFile.exists() && !outFile.delete()) {
+                final String message = "Error deleting empty zip file: " + outFile.getAbsolutePath();
+                LOG.error(message);
+                throw new RuntimeException(message);
+            }
+            LOG.debug("No files to zip from: " + folderToZip + ", not creating: " + outFilename);
+            return;
+        }
+
+        LOG.info("Zipping files from: " + folderToZip + " to: " + outFilename);
+        final ExecutorService compressors = Executors.newFixedThreadPool(COMPRESSOR_COUNT, COMPRESSOR_FACTORY);
+        final LinkedList<Future<ZipArchiveWriter.Entry>> pending = new LinkedList<Future<ZipArchiveWriter.Entry>>();
         try {
-            bos = new BufferedOutputStream(new FileOutputStream(outFilename));
-            zipOut = new ZipOutputStream(bos);
-            final File folder = new File(folderToZip);
-            String message = "Zipping files from: " + folderToZip + " to: " + outFilename;
-            LOG.info(message);
-            zipFiles(folder, folder, zipOut);
-            message = "Finished zipping files";
-            LOG.info(message);
+            final FileOutputStream out = new FileOutputStream(outFilename);
+            try {
+                final ZipArchiveWriter writer = new ZipArchiveWriter(out.getChannel());
+                final Iterator<String> names = entryNames.iterator();
+                while (names.hasNext() || !pending.isEmpty()) {
+                    // keep the compressors busy, but bound the compressed data waiting to be written
+                    while (names.hasNext() && pending.size() < MAX_PENDING_ENTRIES) {
+                        final String name = names.next();
+                        LOG.debug("adding file [" + name + "]");
+                        pending.add(compressors.submit(new CompressEntry(new File(folder, name), name)));
+                    }
+                    writer.write(getEntry(pending.removeFirst()));
+                }
+                writer.finish();
+            } finally {
+                out.close();
+            }
         } catch (FileNotFoundException fnfe) {
             final String message = "File not found while zipping files to: " + outFilename;
             LOG.error(message, fnfe);
             throw new RuntimeException(message, fnfe);
+        } catch (IOException ioe) {
+            final String message = "Error occured while zipping files to: " + outFilename;
+            LOG.error(message, ioe);
+            throw new RuntimeException(message, ioe);
         } finally {
-            try {
-                if (zipOut != null) {
-                    zipOut.close();
-                }
-            } catch (ZipException ze) {
-                final File file = new File(outFilename);
-                if ((file.length() == 0) && (file.exists())) {
-                    final String message = "Empty zip file created: " + outFilename;
-                    LOG.debug(message);
-                    try {
-                        // this is required in order to close the file stream if zip is empty
-                        bos.close();
-                    } catch (IOException e) {
-                        LOG.error(e);
-                    }
-                    // delete the empty zip file
-                    if (!file.delete()) {
-                        final String msg = "Error deleting empty zip file: " + file.getAbsolutePath();
-                        // DO NOT throw exceptions from inside a finally block - bad things happen!
-                        //throw new RuntimeException(msg);
-                        LOG.error(msg);
-                        errMsgsFromFinallyBlock += msg + "\n";
-                    }
-                    final String message2 = "Deleted empty zip file: " + outFilename;
-                    LOG.debug(message2);
-                }
-            } catch (IOException ioe) {
-                final String message = "Error occured while closing zip file: " + outFilename;
-                LOG.error(message, ioe);
-                // DO NOT throw exceptions from inside a finally block - bad things happen!
-                //throw new RuntimeException(message, ioe);
-                errMsgsFromFinallyBlock += message + "\n";
-                exceptionFromFinally = ioe;
+            compressors.shutdownNow();
+            for (final Future<ZipArchiveWriter.Entry> entry : pending) {
+                discard(entry);
             }
         }
-        if (!"".equals(errMsgsFromFinallyBlock)) {
-            throw new RuntimeException(errMsgsFromFinallyBlock, exceptionFromFinally);
+        LOG.info("Finished zipping files");
+    }
+    private static void addEntryNames(final File dir, final String relativeDir, final List<String> entryNames) {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            final String message = "Error listing files of: " + dir.getAbsolutePath();
+            LOG.error(message);
+            throw new RuntimeException(message);
+        }
+        for (final File file : files) {
+            if (file.isDirectory()) {
+                LOG.debug("adding dir [" + relativeDir + file.getName() + "]");
+                addEntryNames(file, relativeDir + file.getName() + "/", entryNames);
+            } else {
+                entryNames.add(relativeDir + file.getName());
+            }
         }
     }
 
-    private static void zipFiles(final File rootDir, final File folderToZip, final ZipOutputStream zipOutputStream) {
-        final byte[] buf = new byte[1024];
+    /** Compresses one file on a compressor thread. */
+    private static final class CompressEntry implements Callable<ZipArchiveWriter.Entry> {
+        private final File file;
+        private final String name;
 
-        final String relativePath = folderToZip.toString().substring(rootDir.toString().length());
+        private CompressEntry(final File file, final String name) {
+            this.file = file;
+            this.name = name;
+        }
 
-        FileInputStream in;
-        final File[] files = folderToZip.listFiles();
+        public ZipArchiveWriter.Entry call() throws IOException {
+            return ZipArchiveWriter.Entry.create(file, name, isCompressed(name), MAX_IN_MEMORY_ENTRY_SIZE,
+                    BUFFERS.get());
+        }
+    }
 
-        for (final File file : files) {
-            final String filename = file.getName();
-            if (file.isDirectory()) {
-                final String dirName = relativePath + File.separator + filename;
-                LOG.debug("adding dir [" + dirName + "]");
-                zipFiles(rootDir, file, zipOutputStream);
-            } else {
-                String filePath = relativePath + File.separator + filename;
-                if (filePath.charAt(0) == File.separatorChar) {
-                    filePath = filePath.substring(1);
-                }
-                LOG.debug("adding file [" + filePath + "]");
-                try {
-                    in = new FileInputStream(new File(folderToZip, filename));
-                    try {
-                        zipOutputStream.putNextEntry(new ZipEntry(filePath.replace(File.separatorChar, '/')));
-                        int len;
-                        while ((len = in.read(buf)) > 0) {
-                            zipOutputStream.write(buf, 0, len);
-                        }
-                        zipOutputStream.closeEntry();
-                    } finally {
-                        in.close();
-                    }
-                } catch (IOException ioe) {
-                    final String message = "Error occured while zipping file " + filePath;
-                    LOG.error(message, ioe);
-                    throw new RuntimeException(message, ioe);
-                }
+    /**
+     * @param name the name of a file
+     * @return true if the file name has the extension of an already compressed format.
+     */
+    static boolean isCompressed(final String name) {
+        final String lowerName = name.toLowerCase(Locale.ENGLISH);
+        for (final String extension : COMPRESSED_EXTENSIONS) {
+            if (lowerName.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static ZipArchiveWriter.Entry getEntry(final Future<ZipArchiveWriter.Entry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while zipping files");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException(cause);
+        }
+    }
+
+    /** Deletes the temp data of an entry that will not be written. */
+    private static void discard(final Future<ZipArchiveWriter.Entry> future) {
+        if (!future.cancel(true)) {
+            try {
+                future.get().discard();
+            } catch (Exception e) {
+                LOG.debug("Discarded zip entry failed", e);
             }
         }
     }
@@ -197,19 +287,23 @@ public final class ZipUtil {
 
         try {
             zipFile = new ZipFile(zipFilePath);
-            if (zipFile.size() == 0) {
-                isEmptyFile = true;
-            } else {
-                final String infoMessage = "Unzipping file: " + zipFilePath;
-                LOG.info(infoMessage);
-
-                enumr = zipFile.entries();
-                while (enumr.hasMoreElements()) {
-                    final ZipEntry target = (ZipEntry) enumr.nextElement();
-                    final String message = "Exploding: " + target.getName();
-                    LOG.debug(message);
-                    saveItem(zipFile, toDirName, target);
+            try {
+                if (zipFile.size() == 0) {
+                    isEmptyFile = true;
+                } else {
+                    final String infoMessage = "Unzipping file: " + zipFilePath;
+                    LOG.info(infoMessage);
+
+                    final String toDirPath = new File(toDirName).getCanonicalPath() + File.separator;
+                    enumr = zipFile.entries();
+                    while (enumr.hasMoreElements()) {
+                        final ZipEntry target = (ZipEntry) enumr.nextElement();
+                        final String message = "Exploding: " + target.getName();
+                        LOG.debug(message);
+                        saveItem(zipFile, getTargetFile(toDirName, toDirPath, target), target);
+                    }
                 }
+            } finally {
                 zipFile.close();
             }
         } catch (FileNotFoundException fnfe) {
@@ -236,28 +330,61 @@ public final class ZipUtil {
         LOG.info(infoMessage);
     }
 
-    private static void saveItem(final ZipFile zipFile, final String rootDirName, final ZipEntry entry)
+    /**
+     * Unzips a zip while reading it from a stream, so it need not be saved to a file first.
+     * @param in the zip content, is closed when done
+     * @param toDirName the directory into which to put unzipped contents
+     * @return the number of entries unzipped, 0 for an empty zip
+     * @throws IOException if reading the stream or writing files fails
+     */
+    public static int unzipStreamToLocation(final InputStream in, final String toDirName) throws IOException {
+        final ZipInputStream zipIn = new ZipInputStream(new BufferedInputStream(in));
+        int entries = 0;
+        try {
+            final byte[] buf = BUFFERS.get();
+            final String toDirPath = new File(toDirName).getCanonicalPath() + File.separator;
+            for (ZipEntry entry = zipIn.getNextEntry(); entry != null; entry = zipIn.getNextEntry()) {
+                LOG.debug("Exploding: " + entry.getName());
+                final File file = getTargetFile(toDirName, toDirPath, entry);
+                if (entry.isDirectory()) {
+                    Util.doMkDirs(file);
+                } else {
+                    Util.doMkDirs(file.getParentFile());
+                    final OutputStream out = new FileOutputStream(file);
+                    try {
+                        int len;
+                        while ((len = zipIn.read(buf)) > 0) {
+                            out.write(buf, 0, len);
+                        }
+                    } finally {
+                        out.close();
+                    }
+                }
+                entries++;
+            }
+        } finally {
+            zipIn.close();
+        }
+        return entries;
+    }
+
+    private static File getTargetFile(final String toDirName, final String toDirPath, final ZipEntry entry)
+            throws IOException {
+        final File file = new File(toDirName, entry.getName());
+        if (!(file.getCanonicalPath() + File.separator).startsWith(toDirPath)) {
+            throw new IOException("Zip entry outside of " + toDirName + ": " + entry.getName());
+        }
+        return file;
+    }
+
+    private static void saveItem(final ZipFile zipFile, final File file, final ZipEntry entry)
             throws IOException {
-        final InputStream is;
-        BufferedInputStream inStream = null;
-        final FileOutputStream outStream;
-        BufferedOutputStream bufferedOutStream = null;
         try {
-            final File file = new File(rootDirName, entry.getName());
             if (entry.isDirectory()) {
                 Util.doMkDirs(file);
             } else {
-                is = zipFile.getInputStream(entry);
-                inStream = new BufferedInputStream(is);
-                final File dir = new File(file.getParent());
-                Util.doMkDirs(dir);
-                outStream = new FileOutputStream(file);
-                bufferedOutStream = new BufferedOutputStream(outStream);
-
-                int c;
-                while ((c = inStream.read()) != -1) {
-                    bufferedOutStream.write((byte) c);
-                }
+                Util.doMkDirs(file.getParentFile());
+                copy(zipFile.getInputStream(entry), new FileOutputStream(file));
             }
         } catch (ZipException ze) {
             final String message = "Zip error unzipping entry: " + entry.getName();
@@ -267,13 +394,23 @@ public final class ZipUtil {
             final String message = "I/O error unzipping entry: " + entry.getName();
             LOG.error(message, ioe);
             throw new RuntimeException(message, ioe);
-        } finally {
-            if (bufferedOutStream != null) {
-                bufferedOutStream.close();
-            }
-            if (inStream != null) {
-                inStream.close();
+        }
+    }
+
+    /** Copies the given stream to the given file stream, closing both. */
+    private static void copy(final InputStream in, final FileOutputStream out) throws IOException {
+        try {
+            try {
+                final byte[] buf = BUFFERS.get();
+                int len;
+                while ((len = in.read(buf)) > 0) {
+                    out.write(buf, 0, len);
+                }
+            } finally {
+                out.close();
             }
+        } finally {
+            in.close();
         }
     }
 
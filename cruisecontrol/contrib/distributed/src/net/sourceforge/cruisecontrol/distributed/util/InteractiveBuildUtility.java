@@ -309,16 +309,16 @@ public final class InteractiveBuildUtility {
                                         final DistributedMasterBuilder distributedBuildMaster) {
         try {
             final File currentDir = new File(".");
-            DistributedMasterBuilder.getResultsFiles(agent, currentDir, "projectInteractive",
+            DistributedMasterBuilder.getResultsFiles(agent, "projectInteractive",
                     PropertiesHelper.RESULT_TYPE_LOGS, currentDir);
 
-            DistributedMasterBuilder.getResultsFiles(agent, currentDir, "projectInteractive",
+            DistributedMasterBuilder.getResultsFiles(agent, "projectInteractive",
                     PropertiesHelper.RESULT_TYPE_OUTPUT, currentDir);
             
             final RemoteResult[] remoteResults = distributedBuildMaster.getRemoteResultsInfo();
             if (remoteResults != null) {
                 for (final RemoteResult remoteResult : remoteResults) {
-                    DistributedMasterBuilder.getRemoteResult(agent, currentDir, "projectInteractive", remoteResult);
+                    DistributedMasterBuilder.getRemoteResult(agent, "projectInteractive", remoteResult);
                 }
             }
             agent.clearOutputFiles();
@@ -22,6 +22,9 @@ import net.sourceforge.cruisecontrol.distributed.core.PropertiesHelper;
 import net.sourceforge.cruisecontrol.distributed.core.CCDistVersion;
 import net.sourceforge.cruisecontrol.distributed.core.RemoteResult;
 import net.sourceforge.cruisecontrol.distributed.core.RemoteResultTest;
+import net.sourceforge.cruisecontrol.distributed.core.ResultChunk;
+import net.sourceforge.cruisecontrol.distributed.core.WorkspaceManifest;
+import net.sourceforge.cruisecontrol.distributed.core.ZipUtil;
 import net.sourceforge.cruisecontrol.distributed.core.jnlputil.JNLPServiceUtil;
 import net.sourceforge.cruisecontrol.builders.MockBuilder;
 import net.sourceforge.cruisecontrol.builders.DistributedMasterBuilderTest;
@@ -30,6 +33,7 @@ import net.sourceforge.cruisecontrol.builders.CompositeBuilder;
 import net.sourceforge.cruisecontrol.builders.AntScript;
 import net.sourceforge.cruisecontrol.CruiseControlException;
 import net.sourceforge.cruisecontrol.Progress;
+import net.sourceforge.cruisecontrol.util.IO;
 import net.sourceforge.cruisecontrol.util.Util;
 
 import javax.jnlp.UnavailableServiceException;
@@ -974,6 +978,16 @@ public class BuildAgentServiceImplTest extends TestCase {
 
         assertNotNull("Null " + resultType + " zip bytes.", resultZip);
         assertTrue("Empty " + resultType + " zip bytes.", resultZip.length > 0);
+
+        final ResultChunk chunk;
+        if (PropertiesHelper.RESULT_TYPE_DIR.equals(resultType)) {
+            chunk = agentImpl.retrieveRemoteResultChunk(0, 0);
+        } else {
+            chunk = agentImpl.retrieveResultsChunk(resultType, 0);
+        }
+        assertTrue("Damaged " + resultType + " chunk.", chunk.isValid());
+        assertTrue("Small " + resultType + " zip should fit in one chunk.", chunk.isLast());
+        assertTrue(Arrays.equals(resultZip, chunk.getData()));
     }
 
     public void testRetrieveResultsAsZipBuildFail() throws Exception {
@@ -1176,6 +1190,63 @@ public class BuildAgentServiceImplTest extends TestCase {
         buildProducedFile.getParentFile().getParentFile().deleteOnExit();
     }
 
+    public void testSlotBuildDir() throws Exception {
+        final BuildAgentServiceImpl agentImpl = new BuildAgentServiceImpl(null);
+        agentImpl.setAgentPropertiesFilename(TEST_AGENT_PROPERTIES_FILE);
+        final File buildDir = agentImpl.getSlotBuildDir();
+        assertEquals(0, agentImpl.getSlot());
+
+        agentImpl.setSlot(2);
+        assertEquals(2, agentImpl.getSlot());
+        assertEquals(new File(buildDir, "slot2"), agentImpl.getSlotBuildDir());
+    }
+
+    public void testSyncWorkspace() throws Exception {
+        final BuildAgentServiceImpl agentImpl = new BuildAgentServiceImpl(null);
+        final File masterWorkspace = new File(DIR_FILE, "master");
+        final File agentWorkspace = new File(DIR_FILE, "agent");
+        final String agentDir = agentWorkspace.getAbsolutePath();
+        Util.doMkDirs(new File(masterWorkspace, "sub"));
+        Util.doMkDirs(agentWorkspace);
+        IO.write(new File(masterWorkspace, "sub/changed.txt"), "changed");
+        IO.write(new File(agentWorkspace, "stale.txt"), "stale");
+
+        try {
+            final WorkspaceManifest masterManifest = WorkspaceManifest.scan(masterWorkspace);
+            final WorkspaceManifest agentManifest = agentImpl.getWorkspaceManifest(agentDir, null);
+            assertNull("Known workspace should not be returned again",
+                    agentImpl.getWorkspaceManifest(agentDir, agentManifest.getId()));
+
+            final File changesZip = new File(DIR_FILE, "changes.zip");
+            ZipUtil.zipFolderContents(changesZip.getAbsolutePath(), masterWorkspace.getAbsolutePath(),
+                    masterManifest.getChangedPaths(agentManifest));
+            final int half = (int) changesZip.length() / 2;
+            final ResultChunk first = ResultChunk.read(changesZip, 0, half);
+            agentImpl.putWorkspaceChunk(agentDir, first);
+            try {
+                agentImpl.putWorkspaceChunk(agentDir, ResultChunk.read(changesZip, half + 1, half));
+                fail("Chunk not following the received chunks should be rejected");
+            } catch (RemoteException e) {
+                assertTrue(e.getMessage(), e.getMessage().indexOf("does not follow") > 0);
+            }
+            agentImpl.putWorkspaceChunk(agentDir, ResultChunk.read(changesZip, half, ResultChunk.DEFAULT_SIZE));
+
+            final List<String> removed = masterManifest.getRemovedPaths(agentManifest);
+            assertEquals(masterManifest.getId(),
+                    agentImpl.applyWorkspaceChanges(agentDir, removed.toArray(new String[removed.size()])));
+            assertFalse(new File(agentWorkspace, "stale.txt").exists());
+
+            try {
+                agentImpl.applyWorkspaceChanges(agentDir, new String[] {"../master/sub/changed.txt"});
+                fail("Files outside of the workspace should not be deleted");
+            } catch (RemoteException e) {
+                assertTrue(new File(masterWorkspace, "sub/changed.txt").exists());
+            }
+        } finally {
+            IO.delete(DIR_FILE);
+        }
+    }
+
     public void testClaim() {
         final BuildAgentServiceImpl agentImpl = createAndClaimNewBuildAgent();
         final Date firstClaimDate = agentImpl.getDateClaimed();
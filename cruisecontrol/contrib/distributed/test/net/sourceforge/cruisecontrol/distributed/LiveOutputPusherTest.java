@@ -0,0 +1,100 @@
+package net.sourceforge.cruisecontrol.distributed;
+
+import java.io.File;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sourceforge.cruisecontrol.BuildOutputLoggerManager;
+import net.sourceforge.cruisecontrol.distributed.core.LiveOutputFrame;
+import net.sourceforge.cruisecontrol.distributed.core.LiveOutputReceiverRemote;
+import net.sourceforge.cruisecontrol.util.BuildOutputLogger;
+
+public class LiveOutputPusherTest extends TestCase {
+
+    private static final String PROJECT = "LiveOutputPusherTest";
+
+    private File outputFile;
+    private BuildOutputLogger logger;
+    private final List<LiveOutputFrame> frames = new ArrayList<LiveOutputFrame>();
+    private boolean isFailing;
+
+    private final LiveOutputReceiverRemote receiver = new LiveOutputReceiverRemote() {
+        public void receiveOutput(final LiveOutputFrame frame) throws RemoteException {
+            if (isFailing) {
+                throw new RemoteException("master is gone");
+            }
+            frames.add(frame);
+        }
+    };
+
+    protected void setUp() throws Exception {
+        outputFile = File.createTempFile("pusher", ".txt");
+        logger = BuildOutputLoggerManager.INSTANCE.lookupOrCreate(PROJECT, outputFile);
+    }
+
+    protected void tearDown() throws Exception {
+        BuildOutputLoggerManager.INSTANCE.remove(PROJECT);
+        outputFile.delete();
+    }
+
+    public void testPushesNewLinesInNumberedFrames() throws Exception {
+        final LiveOutputPusher pusher = new LiveOutputPusher(PROJECT, receiver);
+        assertFalse(pusher.push());
+        assertEquals(0, frames.size());
+
+        logger.consumeLine("1");
+        logger.consumeLine("2");
+        assertFalse(pusher.push());
+        logger.consumeLine("3");
+        assertFalse(pusher.push());
+
+        assertEquals(2, frames.size());
+        assertEquals(0, frames.get(0).getSequence());
+        assertEquals(2, frames.get(0).getLines().length);
+        assertEquals(1, frames.get(1).getSequence());
+        assertEquals(2, frames.get(1).getFirstLine());
+        assertEquals("3", frames.get(1).getLines()[0]);
+    }
+
+    public void testFailedFrameIsSentAgain() throws Exception {
+        final LiveOutputPusher pusher = new LiveOutputPusher(PROJECT, receiver);
+        logger.consumeLine("1");
+        isFailing = true;
+        assertFalse(pusher.push());
+
+        isFailing = false;
+        logger.consumeLine("2");
+        pusher.push();
+        pusher.push();
+        assertEquals(2, frames.size());
+        assertEquals(0, frames.get(0).getSequence());
+        assertEquals("1", frames.get(0).getLines()[0]);
+        assertEquals("2", frames.get(1).getLines()[0]);
+    }
+
+    public void testClearedOutputStartsAgain() throws Exception {
+        final LiveOutputPusher pusher = new LiveOutputPusher(PROJECT, receiver);
+        logger.consumeLine("1");
+        pusher.push();
+
+        logger.clear();
+        logger.consumeLine("new");
+        pusher.push();
+        assertEquals(2, frames.size());
+        assertEquals(0, frames.get(1).getFirstLine());
+        assertFalse(frames.get(0).getOutputID().equals(frames.get(1).getOutputID()));
+    }
+
+    public void testFullFrameReportsMoreWaiting() throws Exception {
+        for (int i = 0; i <= BuildOutputLogger.MAX_LINES; i++) {
+            logger.consumeLine("line " + i);
+        }
+        final LiveOutputPusher pusher = new LiveOutputPusher(PROJECT, receiver);
+        pusher.start();
+        pusher.stop();
+        assertEquals(2, frames.size());
+        assertEquals(BuildOutputLogger.MAX_LINES, frames.get(1).getFirstLine());
+    }
+}
@@ -0,0 +1,304 @@
+package net.sourceforge.cruisecontrol.distributed.core;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.jini.core.entry.Entry;
+import net.jini.core.lookup.ServiceID;
+import net.jini.core.lookup.ServiceItem;
+import net.jini.lookup.LookupCache;
+import net.jini.lookup.ServiceDiscoveryEvent;
+import net.jini.lookup.ServiceDiscoveryListener;
+import net.jini.lookup.ServiceItemFilter;
+import net.sourceforge.cruisecontrol.distributed.AgentCapacity;
+import net.sourceforge.cruisecontrol.distributed.BuildAgentService;
+import net.sourceforge.cruisecontrol.distributed.PropertyEntry;
+
+public class BuildAgentPoolTest extends TestCase {
+
+    private static final long WAIT = 5000;
+
+    private StubLookupCache cache;
+    private BuildAgentPool pool;
+
+    protected void setUp() throws Exception {
+        cache = new StubLookupCache();
+        pool = new BuildAgentPool(cache, 100);
+    }
+
+    protected void tearDown() throws Exception {
+        pool.terminate();
+    }
+
+    public void testClaimsDiscoveredAgent() throws Exception {
+        final StubAgent agent = cache.add("linux");
+
+        final ServiceItem item = pool.claim(null, WAIT);
+        assertSame(agent.item.service, item.service);
+        assertTrue(agent.isBusy);
+        assertNull("Only agent is claimed", pool.claim(null, 50));
+        assertEquals(0, pool.getWaitingCount());
+    }
+
+    public void testWaiterGetsAgentAddedLater() throws Exception {
+        final ClaimThread waiter = startWaiter(null);
+        final StubAgent agent = cache.add("linux");
+        assertSame(agent.item.service, waiter.await().service);
+    }
+
+    public void testReleasedAgentGoesToWaitersInTurn() throws Exception {
+        final StubAgent agent = cache.add("linux");
+        assertSame(agent.item.service, pool.claim(null, WAIT).service);
+
+        final ClaimThread first = startWaiter(null);
+        final ClaimThread second = startWaiter(null);
+
+        agent.isBusy = false;
+        pool.release(agent.getService());
+        assertSame(agent.item.service, first.await().service);
+        assertTrue(second.isAlive());
+
+        agent.isBusy = false;
+        pool.release(agent.getService());
+        assertSame(agent.item.service, second.await().service);
+    }
+
+    public void testMatchesEntries() throws Exception {
+        final StubAgent linux = cache.add("linux");
+        final ClaimThread windowsWaiter = startWaiter(entries("windows"));
+        assertSame(linux.item.service, pool.claim(entries("linux"), WAIT).service);
+        assertTrue(windowsWaiter.isAlive());
+
+        final StubAgent windows = cache.add("windows");
+        assertSame(windows.item.service, windowsWaiter.await().service);
+    }
+
+    public void testChangedEntriesAreMatched() throws Exception {
+        final StubAgent agent = cache.add("linux");
+        final ClaimThread waiter = startWaiter(entries("windows"));
+        assertTrue(waiter.isAlive());
+
+        cache.change(agent, "windows");
+        assertSame(agent.item.service, waiter.await().service);
+    }
+
+    public void testAgentReleasedElsewhereIsFoundAgain() throws Exception {
+        final StubAgent agent = cache.add("linux");
+        agent.isBusy = true; // claimed by another master
+
+        assertNull(pool.claim(null, 50));
+        assertEquals(1, agent.claims);
+
+        agent.isBusy = false;
+        assertSame(agent.item.service, pool.claim(null, WAIT).service);
+    }
+
+    public void testWaiterProbesBusyAgents() throws Exception {
+        final StubAgent agent = cache.add("linux");
+        agent.isBusy = true; // claimed by another master
+        final ClaimThread waiter = startWaiter(null);
+
+        agent.isBusy = false;
+        assertSame(agent.item.service, waiter.await().service);
+    }
+
+    public void testRemovedAgentIsNotOffered() throws Exception {
+        final StubAgent agent = cache.add("linux");
+        cache.remove(agent);
+        assertNull(pool.claim(null, 50));
+        assertEquals(0, agent.claims);
+    }
+
+    public void testUnreachableAgentIsDiscarded() throws Exception {
+        final StubAgent broken = cache.add("linux");
+        broken.isUnreachable = true;
+        final StubAgent agent = cache.add("linux");
+
+        assertSame(agent.item.service, pool.claim(null, WAIT).service);
+        assertEquals(1, cache.items.size());
+    }
+
+    public void testPrefersLeastLoadedAgent() throws Exception {
+        cache.add("linux", new AgentCapacity(2, 1, 4, 2048));
+        final StubAgent lowMemory = cache.add("linux", new AgentCapacity(2, 2, 4, 256));
+        final StubAgent idle = cache.add("linux", new AgentCapacity(2, 2, 4, 1024));
+        cache.add("windows", new AgentCapacity(1, 1, 8, 4096));
+
+        assertSame(idle.item.service, pool.claim(entries("linux"), WAIT).service);
+        assertSame(lowMemory.item.service, pool.claim(entries("linux"), WAIT).service);
+    }
+
+    public void testPrefersAgentLastClaimedWithSameAffinity() throws Exception {
+        final StubAgent busier = cache.add("linux", new AgentCapacity(2, 1, 4, 1024));
+        final StubAgent idle = cache.add("linux", new AgentCapacity(2, 2, 4, 1024));
+        assertSame(idle.item.service, pool.claim(null, WAIT, "projectA").service);
+        assertSame(busier.item.service, pool.claim(null, WAIT, "projectB").service);
+
+        busier.isBusy = false;
+        pool.release(busier.getService());
+        idle.isBusy = false;
+        pool.release(idle.getService());
+
+        assertSame("Last agent of the project should win over a less loaded one",
+                busier.item.service, pool.claim(null, WAIT, "projectB").service);
+        assertSame(idle.item.service, pool.claim(null, WAIT, "projectA").service);
+    }
+
+    private ClaimThread startWaiter(final Entry[] entries) throws InterruptedException {
+        final int waiting = pool.getWaitingCount();
+        final ClaimThread waiter = new ClaimThread(entries);
+        waiter.start();
+        final long deadline = System.currentTimeMillis() + WAIT;
+        while (pool.getWaitingCount() == waiting && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals("Waiter did not queue", waiting + 1, pool.getWaitingCount());
+        return waiter;
+    }
+
+    private static Entry[] entries(final String os) {
+        return new Entry[] {new PropertyEntry("os.name", os)};
+    }
+
+    private final class ClaimThread extends Thread {
+        private final Entry[] entries;
+        private ServiceItem result;
+        private Exception error;
+
+        private ClaimThread(final Entry[] entries) {
+            this.entries = entries;
+        }
+
+        public void run() {
+            try {
+                result = pool.claim(entries, WAIT);
+            } catch (Exception e) {
+                error = e;
+            }
+        }
+
+        ServiceItem await() throws Exception {
+            join(WAIT);
+            assertFalse("Waiter still waiting", isAlive());
+            if (error != null) {
+                throw error;
+            }
+            return result;
+        }
+    }
+
+    /** A build agent that only knows its busy state. */
+    private static final class StubAgent implements InvocationHandler {
+        private volatile boolean isBusy;
+        private volatile boolean isUnreachable;
+        private int claims;
+        private ServiceItem item;
+
+        private BuildAgentService getService() {
+            return (BuildAgentService) item.service;
+        }
+
+        public synchronized Object invoke(final Object proxy, final Method method, final Object[] args)
+                throws Throwable {
+
+            final String name = method.getName();
+            if ("equals".equals(name)) {
+                return proxy == args[0];
+            } else if ("hashCode".equals(name)) {
+                return System.identityHashCode(proxy);
+            } else if ("toString".equals(name)) {
+                return "StubAgent";
+            } else if (isUnreachable) {
+                throw new RemoteException("agent is gone");
+            } else if ("claim".equals(name)) {
+                claims++;
+                if (isBusy) {
+                    throw new IllegalStateException("Cannot claim agent that is busy");
+                }
+                isBusy = true;
+                return null;
+            } else if ("isBusy".equals(name)) {
+                return isBusy;
+            }
+            throw new UnsupportedOperationException(name);
+        }
+    }
+
+    /** An in-process stand-in for the lookup cache, delivering events synchronously. */
+    private static final class StubLookupCache implements LookupCache {
+        private final List<ServiceItem> items = new ArrayList<ServiceItem>();
+        private final List<ServiceDiscoveryListener> listeners = new ArrayList<ServiceDiscoveryListener>();
+
+        synchronized StubAgent add(final String os) {
+            return add(os, null);
+        }
+
+        synchronized StubAgent add(final String os, final AgentCapacity capacity) {
+            final StubAgent agent = new StubAgent();
+            final Object service = Proxy.newProxyInstance(getClass().getClassLoader(),
+                    new Class[] {BuildAgentService.class}, agent);
+            final Entry[] attributes = (capacity == null ? entries(os) : new Entry[] {entries(os)[0], capacity});
+            agent.item = new ServiceItem(new ServiceID(items.size() + 1, 0), service, attributes);
+            items.add(agent.item);
+            for (final ServiceDiscoveryListener listener : listeners) {
+                listener.serviceAdded(new ServiceDiscoveryEvent(this, null, agent.item));
+            }
+            return agent;
+        }
+
+        synchronized void change(final StubAgent agent, final String os) {
+            final ServiceItem pre = agent.item;
+            agent.item = new ServiceItem(pre.serviceID, pre.service, entries(os));
+            items.set(items.indexOf(pre), agent.item);
+            for (final ServiceDiscoveryListener listener : listeners) {
+                listener.serviceChanged(new ServiceDiscoveryEvent(this, pre, agent.item));
+            }
+        }
+
+        synchronized void remove(final StubAgent agent) {
+            items.remove(agent.item);
+            for (final ServiceDiscoveryListener listener : listeners) {
+                listener.serviceRemoved(new ServiceDiscoveryEvent(this, agent.item, null));
+            }
+        }
+
+        public ServiceItem lookup(final ServiceItemFilter filter) {
+            throw new UnsupportedOperationException();
+        }
+
+        public ServiceItem[] lookup(final ServiceItemFilter filter, final int maxMatches) {
+            throw new UnsupportedOperationException();
+        }
+
+        public synchronized void addListener(final ServiceDiscoveryListener listener) {
+            listeners.add(listener);
+            for (final ServiceItem item : items) {
+                listener.serviceAdded(new ServiceDiscoveryEvent(this, null, item));
+            }
+        }
+
+        public synchronized void removeListener(final ServiceDiscoveryListener listener) {
+            listeners.remove(listener);
+        }
+
+        public synchronized void discard(final Object serviceReference) {
+            for (final ServiceItem item : new ArrayList<ServiceItem>(items)) {
+                if (item.service.equals(serviceReference)) {
+                    items.remove(item);
+                    for (final ServiceDiscoveryListener listener : listeners) {
+                        listener.serviceRemoved(new ServiceDiscoveryEvent(this, item, null));
+                    }
+                }
+            }
+        }
+
+        public synchronized void terminate() {
+            listeners.clear();
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package net.sourceforge.cruisecontrol.distributed.core;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import net.sourceforge.cruisecontrol.util.BuildOutputLogger;
+
+public class LiveOutputCacheTest extends TestCase {
+
+    private File segmentFile;
+    private LiveOutputCache cache;
+
+    protected void setUp() throws Exception {
+        segmentFile = File.createTempFile("liveoutput", ".txt");
+        cache = new LiveOutputCache("project", segmentFile);
+    }
+
+    protected void tearDown() throws Exception {
+        segmentFile.delete();
+    }
+
+    public void testRetrieveLines() throws Exception {
+        assertEquals(0, cache.retrieveLines(0).length);
+
+        cache.receiveOutput(new LiveOutputFrame(0, "agent", 0, new String[] {"1", "2"}));
+        cache.receiveOutput(new LiveOutputFrame(1, "agent", 2, new String[] {"3"}));
+        final String[] lines = cache.retrieveLines(1);
+        assertEquals(2, lines.length);
+        assertEquals("2", lines[0]);
+        assertEquals("3", lines[1]);
+        assertEquals(0, cache.retrieveLines(3).length);
+        assertEquals(0, cache.retrieveLines(10).length);
+    }
+
+    public void testFrameReceivedAgainIsIgnored() throws Exception {
+        final LiveOutputFrame frame = new LiveOutputFrame(0, "agent", 0, new String[] {"1"});
+        cache.receiveOutput(frame);
+        cache.receiveOutput(frame);
+        assertEquals(1, cache.retrieveLines(0).length);
+    }
+
+    public void testOldLinesAreReadFromSegmentFile() throws Exception {
+        final int total = LiveOutputCache.RING_LINES + 10;
+        final String[] lines = new String[total];
+        for (int i = 0; i < total; i++) {
+            lines[i] = "line " + i;
+        }
+        cache.receiveOutput(new LiveOutputFrame(0, "agent", 0, lines));
+
+        final String[] first = cache.retrieveLines(0);
+        assertEquals(BuildOutputLogger.MAX_LINES, first.length);
+        assertEquals("line 0", first[0]);
+        assertEquals("line 5", cache.retrieveLines(5)[0]);
+
+        final String[] last = cache.retrieveLines(total - 3);
+        assertEquals(3, last.length);
+        assertEquals("line " + (total - 1), last[2]);
+    }
+
+    public void testRestartedAgentOutputChangesID() throws Exception {
+        cache.receiveOutput(new LiveOutputFrame(0, "agent", 0, new String[] {"1", "2"}));
+        final String id = cache.getID();
+
+        cache.receiveOutput(new LiveOutputFrame(1, "agent2", 0, new String[] {"next"}));
+        assertFalse(id.equals(cache.getID()));
+        final String[] lines = cache.retrieveLines(0);
+        assertEquals(1, lines.length);
+        assertEquals("next", lines[0]);
+    }
+
+    public void testConsumeLineIsIllegal() throws Exception {
+        try {
+            cache.consumeLine("local");
+            fail();
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage().indexOf("project") > 0);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package net.sourceforge.cruisecontrol.distributed.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.rmi.RemoteException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class ResultChunkInputStreamTest extends TestCase {
+
+    private static final int CHUNK_SIZE = 7;
+
+    private File resultFile;
+    private byte[] content;
+
+    protected void setUp() throws Exception {
+        content = new byte[50];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        resultFile = File.createTempFile("result", ".zip");
+        final FileOutputStream out = new FileOutputStream(resultFile);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    protected void tearDown() throws Exception {
+        resultFile.delete();
+    }
+
+    public void testReadChunk() throws Exception {
+        final ResultChunk chunk = ResultChunk.read(resultFile, 49, CHUNK_SIZE);
+        assertEquals(49, chunk.getOffset());
+        assertEquals(50, chunk.getTotalLength());
+        assertEquals(1, chunk.getData().length);
+        assertTrue(chunk.isValid());
+        assertTrue(chunk.isLast());
+        assertFalse(ResultChunk.read(resultFile, 0, CHUNK_SIZE).isLast());
+
+        try {
+            ResultChunk.read(resultFile, 51, CHUNK_SIZE);
+            fail("Offset beyond the end of the file should fail");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().startsWith("Offset 51 is outside of "));
+        }
+    }
+
+    public void testReadsAllChunks() throws Exception {
+        final CountingSource source = new CountingSource();
+        assertTrue(Arrays.equals(content, readAll(new ResultChunkInputStream(source))));
+        assertEquals(8, source.fetches);
+    }
+
+    public void testReadsEmptyResult() throws Exception {
+        assertTrue(resultFile.delete());
+        assertTrue(resultFile.createNewFile());
+        assertEquals(0, readAll(new ResultChunkInputStream(new CountingSource())).length);
+    }
+
+    public void testFetchesDamagedChunkAgain() throws Exception {
+        final CountingSource source = new CountingSource() {
+            public ResultChunk fetch(final long offset) throws RemoteException {
+                final ResultChunk chunk = super.fetch(offset);
+                if (offset == CHUNK_SIZE && fetches == 2) {
+                    chunk.getData()[0]++;
+                } else if (offset == 2 * CHUNK_SIZE && fetches == 4) {
+                    throw new RemoteException("connection reset");
+                }
+                return chunk;
+            }
+        };
+        assertTrue(Arrays.equals(content, readAll(new ResultChunkInputStream(source))));
+        assertEquals(10, source.fetches);
+    }
+
+    public void testFailsAfterMaxAttempts() throws Exception {
+        final RemoteException failure = new RemoteException("agent gone");
+        final ResultChunkInputStream in = new ResultChunkInputStream(new ResultChunkSource() {
+            public ResultChunk fetch(final long offset) throws RemoteException {
+                throw failure;
+            }
+        });
+        try {
+            in.read();
+            fail("Transfer should fail once all attempts failed");
+        } catch (IOException expected) {
+            assertSame(failure, expected.getCause());
+        }
+    }
+
+    private static byte[] readAll(final InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buf = new byte[5];
+        int len;
+        while ((len = in.read(buf)) != -1) {
+            out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    private class CountingSource implements ResultChunkSource {
+        protected int fetches;
+
+        public ResultChunk fetch(final long offset) throws RemoteException {
+            fetches++;
+            try {
+                return ResultChunk.read(resultFile, offset, CHUNK_SIZE);
+            } catch (IOException e) {
+                throw new RemoteException("read failed", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package net.sourceforge.cruisecontrol.distributed.core;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.zip.ZipFile;
+
+import junit.framework.TestCase;
+import net.sourceforge.cruisecontrol.util.IO;
+
+public class WorkspaceManifestTest extends TestCase {
+
+    private File rootDir;
+    private File master;
+    private File agent;
+
+    protected void setUp() throws Exception {
+        rootDir = File.createTempFile("manifest", "test");
+        assertTrue(rootDir.delete());
+        master = new File(rootDir, "master");
+        agent = new File(rootDir, "agent");
+        WorkspaceManifest.clearKnownStates();
+    }
+
+    protected void tearDown() throws Exception {
+        IO.delete(rootDir);
+        WorkspaceManifest.clearKnownStates();
+    }
+
+    public void testScanMissingDir() throws Exception {
+        final WorkspaceManifest manifest = WorkspaceManifest.scan(master);
+        assertEquals(0, manifest.size());
+        assertEquals(manifest.getId(), WorkspaceManifest.scan(agent).getId());
+    }
+
+    public void testSameContentHasSameId() throws Exception {
+        write(master, "a.txt", "one");
+        write(master, "sub/b.txt", "two");
+        write(agent, "a.txt", "one");
+        write(agent, "sub/b.txt", "two");
+
+        final WorkspaceManifest masterManifest = WorkspaceManifest.scan(master);
+        assertEquals(2, masterManifest.size());
+        assertEquals(masterManifest.getId(), WorkspaceManifest.scan(agent).getId());
+
+        write(agent, "sub/b.txt", "changed");
+        assertFalse(masterManifest.getId().equals(WorkspaceManifest.scan(agent).getId()));
+    }
+
+    public void testChangedAndRemovedPaths() throws Exception {
+        write(master, "same.txt", "same");
+        write(master, "changed.txt", "new");
+        write(master, "sub/added.txt", "added");
+        write(agent, "same.txt", "same");
+        write(agent, "changed.txt", "old");
+        write(agent, "sub/removed.txt", "removed");
+
+        final WorkspaceManifest masterManifest = WorkspaceManifest.scan(master);
+        final WorkspaceManifest agentManifest = WorkspaceManifest.scan(agent);
+        assertEquals(Arrays.asList("changed.txt", "sub/added.txt"), masterManifest.getChangedPaths(agentManifest));
+        assertEquals(Collections.singletonList("sub/removed.txt"), masterManifest.getRemovedPaths(agentManifest));
+
+        assertEquals(3, masterManifest.getChangedPaths(null).size());
+        assertEquals(0, masterManifest.getRemovedPaths(null).size());
+    }
+
+    public void testIsHeldBy() throws Exception {
+        write(agent, "a.txt", "one");
+        final WorkspaceManifest manifest = WorkspaceManifest.scan(agent);
+
+        write(master, "a.txt", "one");
+        write(master, "other.txt", "ignored");
+        assertTrue(manifest.isHeldBy(master));
+
+        write(master, "a.txt", "two");
+        assertFalse(manifest.isHeldBy(master));
+
+        assertTrue(new File(master, "a.txt").delete());
+        assertFalse(manifest.isHeldBy(master));
+    }
+
+    public void testUnchangedFileIsNotHashedAgain() throws Exception {
+        final File file = write(master, "a.txt", "one");
+        assertTrue(file.setLastModified(System.currentTimeMillis() - 60000));
+        final String id = WorkspaceManifest.scan(master).getId();
+
+        // same length and modification time, so the known digest is reused
+        final long lastModified = file.lastModified();
+        write(master, "a.txt", "two");
+        assertTrue(file.setLastModified(lastModified));
+        assertEquals(id, WorkspaceManifest.scan(master).getId());
+
+        WorkspaceManifest.clearKnownStates();
+        assertFalse(id.equals(WorkspaceManifest.scan(master).getId()));
+    }
+
+    public void testRecentlyModifiedFileIsHashedAgain() throws Exception {
+        final File file = write(master, "a.txt", "one");
+        final String id = WorkspaceManifest.scan(master).getId();
+
+        final long lastModified = file.lastModified();
+        write(master, "a.txt", "two");
+        assertTrue(file.setLastModified(lastModified));
+        assertFalse(id.equals(WorkspaceManifest.scan(master).getId()));
+    }
+
+    public void testZipChangedPathsOnly() throws Exception {
+        write(master, "same.txt", "same");
+        write(master, "sub/added.txt", "added");
+        write(agent, "same.txt", "same");
+
+        final WorkspaceManifest masterManifest = WorkspaceManifest.scan(master);
+        final File zip = new File(rootDir, "changes.zip");
+        ZipUtil.zipFolderContents(zip.getAbsolutePath(), master.getAbsolutePath(),
+                masterManifest.getChangedPaths(WorkspaceManifest.scan(agent)));
+
+        final ZipFile zipFile = new ZipFile(zip);
+        try {
+            assertEquals(1, zipFile.size());
+            assertNotNull(zipFile.getEntry("sub/added.txt"));
+        } finally {
+            zipFile.close();
+        }
+
+        ZipUtil.unzipFileToLocation(zip.getAbsolutePath(), agent.getAbsolutePath());
+        assertEquals(masterManifest.getId(), WorkspaceManifest.scan(agent).getId());
+    }
+
+    private static File write(final File dir, final String path, final String content) throws IOException {
+        final File file = new File(dir, path);
+        file.getParentFile().mkdirs();
+        final Writer writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+}
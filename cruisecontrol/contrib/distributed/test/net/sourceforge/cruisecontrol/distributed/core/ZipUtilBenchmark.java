@@ -0,0 +1,186 @@
+package net.sourceforge.cruisecontrol.distributed.core;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import net.sourceforge.cruisecontrol.util.IO;
+import net.sourceforge.cruisecontrol.util.Util;
+
+/**
+ * Compares the zip and unzip throughput of {@link ZipUtil} with the serial implementation it replaced,
+ * on a generated results tree of build logs, reports and jars. Not a unit test, run it with
+ * <code>ant benchmark-zip</code>, optionally passing the tree size in MB as <code>-Dbenchmark.mb=500</code>.
+ */
+public final class ZipUtilBenchmark {
+
+    private static final String[] WORDS = {
+        "[javac]", "Compiling", "source", "files", "to", "BUILD", "SUCCESSFUL", "<testcase", "name=", "time=",
+        "classname=", "net.sourceforge.cruisecontrol", "at", "java.lang.Thread.run", "INFO", "DEBUG", "0.012",
+    };
+
+    private ZipUtilBenchmark() { }
+
+    public static void main(final String[] args) throws IOException {
+        final int megabytes = (args.length > 0 ? Integer.parseInt(args[0]) : 200);
+
+        final File rootDir = File.createTempFile("zipbenchmark", "");
+        IO.delete(rootDir);
+        try {
+            final File resultsDir = new File(rootDir, "results");
+            final long bytes = createResults(resultsDir, megabytes * 1024L * 1024L);
+            System.out.println("Results tree: " + toMegabytes(bytes) + " MB, "
+                    + Runtime.getRuntime().availableProcessors() + " processors");
+
+            final File zip = new File(rootDir, "results.zip");
+            for (int round = 1; round <= 2; round++) {
+                System.out.println("Round " + round + (round == 1 ? " (warm up)" : ""));
+
+                long start = System.currentTimeMillis();
+                serialZip(zip, resultsDir);
+                report("  serial zip", bytes, start, zip);
+                start = System.currentTimeMillis();
+                serialUnzip(zip, new File(rootDir, "serial"));
+                report("  serial unzip", bytes, start, null);
+
+                start = System.currentTimeMillis();
+                ZipUtil.zipFolderContents(zip.getAbsolutePath(), resultsDir.getAbsolutePath());
+                report("  ZipUtil zip", bytes, start, zip);
+                start = System.currentTimeMillis();
+                ZipUtil.unzipFileToLocation(zip.getAbsolutePath(), new File(rootDir, "zipUtil").getAbsolutePath());
+                report("  ZipUtil unzip", bytes, start, null);
+
+                IO.delete(new File(rootDir, "serial"));
+                IO.delete(new File(rootDir, "zipUtil"));
+            }
+        } finally {
+            IO.delete(rootDir);
+        }
+    }
+
+    /** Creates log-like text files of various sizes, and jars of incompressible content. */
+    private static long createResults(final File dir, final long totalBytes) throws IOException {
+        final Random random = new Random(42);
+        long bytes = 0;
+        for (int i = 0; bytes < totalBytes; i++) {
+            final String subDir = "module" + (i % 20) + "/";
+            final int size;
+            final File file;
+            if (i % 50 == 49) {
+                size = 20 * 1024 * 1024;
+                file = new File(dir, subDir + "build" + i + ".log");
+            } else if (i % 10 == 9) {
+                size = 1024 * 1024;
+                file = new File(dir, subDir + "lib" + i + ".jar");
+            } else {
+                size = 16 * 1024 + random.nextInt(128 * 1024);
+                file = new File(dir, subDir + "TEST-" + i + ".xml");
+            }
+            writeFile(file, size, file.getName().endsWith(".jar"), random);
+            bytes += size;
+        }
+        return bytes;
+    }
+
+    private static void writeFile(final File file, final int size, final boolean isRandom, final Random random)
+            throws IOException {
+
+        Util.doMkDirs(file.getParentFile());
+        final byte[] content = new byte[size];
+        if (isRandom) {
+            random.nextBytes(content);
+        } else {
+            int pos = 0;
+            while (pos < size) {
+                final byte[] word = (WORDS[random.nextInt(WORDS.length)] + (random.nextInt(8) == 0 ? "\n" : " "))
+                        .getBytes("US-ASCII");
+                final int len = Math.min(word.length, size - pos);
+                System.arraycopy(word, 0, content, pos, len);
+                pos += len;
+            }
+        }
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    /** The zip loop ZipUtil used before: serial deflate of every file through a 1 KB buffer. */
+    private static void serialZip(final File zip, final File dir) throws IOException {
+        final ZipOutputStream zipOut = new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(zip)));
+        try {
+            serialZipFiles(dir, "", zipOut, new byte[1024]);
+        } finally {
+            zipOut.close();
+        }
+    }
+
+    private static void serialZipFiles(final File dir, final String relativeDir, final ZipOutputStream zipOut,
+                                       final byte[] buf) throws IOException {
+        for (final File file : dir.listFiles()) {
+            if (file.isDirectory()) {
+                serialZipFiles(file, relativeDir + file.getName() + "/", zipOut, buf);
+            } else {
+                final InputStream in = new FileInputStream(file);
+                try {
+                    zipOut.putNextEntry(new ZipEntry(relativeDir + file.getName()));
+                    int len;
+                    while ((len = in.read(buf)) > 0) {
+                        zipOut.write(buf, 0, len);
+                    }
+                    zipOut.closeEntry();
+                } finally {
+                    in.close();
+                }
+            }
+        }
+    }
+
+    /** The unzip loop ZipUtil used before: one byte per read and write call. */
+    private static void serialUnzip(final File zip, final File dir) throws IOException {
+        final ZipFile zipFile = new ZipFile(zip);
+        try {
+            final Enumeration< ? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                final File file = new File(dir, entry.getName());
+                Util.doMkDirs(file.getParentFile());
+                final InputStream in = new BufferedInputStream(zipFile.getInputStream(entry));
+                final OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+                try {
+                    int c;
+                    while ((c = in.read()) != -1) {
+                        out.write((byte) c);
+                    }
+                } finally {
+                    out.close();
+                    in.close();
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    private static void report(final String name, final long bytes, final long start, final File zip) {
+        final long millis = Math.max(1, System.currentTimeMillis() - start);
+        System.out.println(name + ": " + millis + " ms, " + (toMegabytes(bytes) * 1000 / millis) + " MB/s"
+                + (zip != null ? ", zip " + toMegabytes(zip.length()) + " MB" : ""));
+    }
+
+    private static long toMegabytes(final long bytes) {
+        return bytes / (1024 * 1024);
+    }
+}
@@ -38,16 +38,25 @@
 package net.sourceforge.cruisecontrol.distributed.core;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.Properties;
 import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
 
 import junit.framework.TestCase;
 import net.sourceforge.cruisecontrol.util.IO;
+import net.sourceforge.cruisecontrol.util.Util;
 
 import org.apache.log4j.Logger;
 
@@ -205,6 +214,108 @@ public class ZipUtilTest extends TestCase {
         assertEquals(expectedLine, line);
     }
 
+    public void testUnzipStream() throws IOException {
+        final String zipFilePath = new File(rootTempDirPath, "temp.zip").getCanonicalPath();
+        ZipUtil.zipFolderContents(zipFilePath, filledDirPath);
+
+        final File unzipDir = new File(rootTempDirPath, "unzipStream");
+        assertEquals(1, ZipUtil.unzipStreamToLocation(new FileInputStream(zipFilePath), unzipDir.getCanonicalPath()));
+
+        final BufferedReader reader = new BufferedReader(new FileReader(new File(unzipDir, TEMP_FILE)));
+        try {
+            assertEquals("The quick brown fox, yadda, yadda, yadda...", reader.readLine());
+        } finally {
+            reader.close();
+        }
+    }
+
+    public void testUnzipEmptyStream() throws IOException {
+        assertEquals(0, ZipUtil.unzipStreamToLocation(new ByteArrayInputStream(new byte[0]), emptyDirPath));
+    }
+
+    public void testZipStoresCompressedFiles() throws IOException {
+        final File zipDir = new File(rootTempDir, "mixed");
+        final byte[] random = new byte[100000];
+        new Random(1).nextBytes(random);
+        write(new File(zipDir, "lib/random.jar"), random);
+        final StringBuffer text = new StringBuffer();
+        while (text.length() < 5 * 1024 * 1024) { // larger than entries held in memory
+            text.append("The quick brown fox, yadda, yadda, yadda...\n");
+        }
+        write(new File(zipDir, "big.txt"), text.toString().getBytes("US-ASCII"));
+        write(new File(zipDir, "sub/small.TXT"), "small".getBytes("US-ASCII"));
+
+        final File zip = new File(rootTempDir, "mixed.zip");
+        ZipUtil.zipFolderContents(zip.getAbsolutePath(), zipDir.getAbsolutePath());
+
+        final ZipFile zipFile = new ZipFile(zip);
+        try {
+            assertEquals(3, zipFile.size());
+            final ZipEntry jar = zipFile.getEntry("lib/random.jar");
+            assertEquals(ZipEntry.STORED, jar.getMethod());
+            assertEquals(random.length, jar.getCompressedSize());
+            final ZipEntry big = zipFile.getEntry("big.txt");
+            assertEquals(ZipEntry.DEFLATED, big.getMethod());
+            assertEquals(text.length(), big.getSize());
+            assertTrue(big.getCompressedSize() < text.length() / 10);
+            assertEquals(ZipEntry.DEFLATED, zipFile.getEntry("sub/small.TXT").getMethod());
+        } finally {
+            zipFile.close();
+        }
+
+        final String zipDirId = WorkspaceManifest.scan(zipDir).getId();
+        final File unzipDir = new File(rootTempDir, "unzipped");
+        ZipUtil.unzipFileToLocation(zip.getAbsolutePath(), unzipDir.getAbsolutePath());
+        assertEquals(zipDirId, WorkspaceManifest.scan(unzipDir).getId());
+
+        final File unzipStreamDir = new File(rootTempDir, "unzippedStream");
+        assertEquals(3, ZipUtil.unzipStreamToLocation(new FileInputStream(zip), unzipStreamDir.getAbsolutePath()));
+        assertEquals(zipDirId, WorkspaceManifest.scan(unzipStreamDir).getId());
+    }
+
+    public void testUnzipRejectsEntryOutsideDir() throws IOException {
+        final File zip = new File(rootTempDir, "evil.zip");
+        final ZipOutputStream zipOut = new ZipOutputStream(new FileOutputStream(zip));
+        try {
+            zipOut.putNextEntry(new ZipEntry("../evil.txt"));
+            zipOut.write("evil".getBytes("US-ASCII"));
+            zipOut.closeEntry();
+        } finally {
+            zipOut.close();
+        }
+
+        try {
+            ZipUtil.unzipFileToLocation(zip.getAbsolutePath(), filledDirPath);
+            fail("Entry outside of the target dir should be rejected");
+        } catch (RuntimeException e) {
+            assertFalse(new File(rootTempDir, "evil.txt").exists());
+        }
+        try {
+            ZipUtil.unzipStreamToLocation(new FileInputStream(zip), filledDirPath);
+            fail("Entry outside of the target dir should be rejected");
+        } catch (IOException e) {
+            assertFalse(new File(rootTempDir, "evil.txt").exists());
+        }
+    }
+
+    public void testIsCompressed() {
+        assertTrue(ZipUtil.isCompressed("lib/ant.jar"));
+        assertTrue(ZipUtil.isCompressed("site/images/logo.PNG"));
+        assertTrue(ZipUtil.isCompressed("dist.tar.gz"));
+        assertFalse(ZipUtil.isCompressed("log.xml"));
+        assertFalse(ZipUtil.isCompressed("jar"));
+    }
+
+    private static void write(final File file, final byte[] content) throws IOException {
+        Util.doMkDirs(file.getParentFile());
+        final OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
     /**
      * Test method - zips logs from directory specified by cruise.run.dir
      * property in cruise.properties file to cruise-log.zip file in system
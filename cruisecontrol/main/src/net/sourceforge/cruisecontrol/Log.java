@@ -44,7 +44,6 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
 
@@ -52,6 +51,8 @@ import net.sourceforge.cruisecontrol.gendoc.annotations.SkipDoc;
 import net.sourceforge.cruisecontrol.util.BuildOutputLogger;
 import net.sourceforge.cruisecontrol.util.DateUtil;
 import net.sourceforge.cruisecontrol.util.IO;
+import net.sourceforge.cruisecontrol.util.LogDirectoryLayout;
+import net.sourceforge.cruisecontrol.util.LogDirectoryMigrator;
 import net.sourceforge.cruisecontrol.util.Util;
 import net.sourceforge.cruisecontrol.util.XMLLogHelper;
 
@@ -77,6 +78,7 @@ public class Log implements Serializable {
     private transient String logDir;
     private transient String logXmlEncoding;
     private transient boolean isTrimWhitespace;
+    private transient boolean isSharded;
     private transient Element buildLog;
     private final transient List<BuildLogger> loggers = new ArrayList<BuildLogger>();
     private final transient List<Manipulator> manipulators = new ArrayList<Manipulator>();
@@ -182,6 +184,19 @@ public class Log implements Serializable {
         isTrimWhitespace = trimWhitespace;
     }
 
+    /**
+     * @param sharded if true, write each log into a yyyy/MM subdirectory of the log directory for the month of
+     * the build, and move logs found directly in the log directory there in the background.
+     * Defaults to false.
+     */
+    public void setSharded(final boolean sharded) {
+        isSharded = sharded;
+    }
+
+    public boolean isSharded() {
+        return isSharded;
+    }
+
     /**
      * creates log directory if it doesn't already exist
      * @param logDir log directory to create if it doesn't already exist
@@ -231,11 +246,24 @@ public class Log implements Serializable {
         logFileElement.setAttribute("value", logFilename);
         buildLog.getChild("info").addContent(logFileElement);
 
-        final File logfile = new File(logDir, logFilename);
+        final File logfile;
+        if (isSharded) {
+            final File shardDir = LogDirectoryLayout.getShardDirectory(new File(logDir), logFilename);
+            if (!shardDir.isDirectory() && !Util.doMkDirs(shardDir)) {
+                throw new CruiseControlException("Can't create log directory " + shardDir.getAbsolutePath());
+            }
+            logfile = new File(shardDir, logFilename);
+        } else {
+            logfile = new File(logDir, logFilename);
+        }
         LOG.debug("Project " + projectName + ":  Writing log file [" + logfile.getAbsolutePath() + "]");
         writeLogFile(logfile, buildLog);
 
         callManipulators();
+
+        if (isSharded && LogDirectoryMigrator.hasUnmigratedLogs(new File(logDir))) {
+            LogDirectoryMigrator.startInBackground(new File(logDir));
+        }
     }
 
     protected void writeLogFile(final File file, final Element element) throws CruiseControlException {
@@ -330,8 +358,12 @@ public class Log implements Serializable {
                     return name.startsWith("log") && name.endsWith(".xml");
                 }
             };
-            final String[] xmlLogFiles = dir.list(xmlLogFilter);
-            labels.addAll(Arrays.asList(xmlLogFiles));
+            final File[] xmlLogFiles = LogDirectoryLayout.listLogFiles(dir, xmlLogFilter);
+            if (xmlLogFiles != null) {
+                for (final File xmlLogFile : xmlLogFiles) {
+                    labels.add(xmlLogFile.getName());
+                }
+            }
         }
 
         return labels;
@@ -347,7 +379,7 @@ public class Log implements Serializable {
             throw new IllegalArgumentException(MSG_PREFIX_INVALID_LABEL + filename);
         }
 
-        return new File(logDir, filename);
+        return LogDirectoryLayout.locate(new File(logDir), filename);
     }
 
 
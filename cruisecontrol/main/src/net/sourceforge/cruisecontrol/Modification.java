@@ -81,7 +81,9 @@ public class Modification implements Comparable<Modification>, Serializable {
     private static final String TAGNAME_REVISION = "revision";
     private static final String TAGNAME_ACTION = "action";
 
-    public static class ModifiedFile {
+    public static class ModifiedFile implements Serializable {
+
+        private static final long serialVersionUID = -7624286839880178441L;
 
         public String fileName;
         public String revision;
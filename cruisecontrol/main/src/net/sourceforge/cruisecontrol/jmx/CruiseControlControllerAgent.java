@@ -59,6 +59,7 @@ import mx4j.tools.naming.NamingService;
 import mx4j.tools.naming.NamingServiceMBean;
 import net.sourceforge.cruisecontrol.CruiseControlController;
 import net.sourceforge.cruisecontrol.util.MainArgs;
+import net.sourceforge.cruisecontrol.util.TemplatesCache;
 
 import org.apache.log4j.Logger;
 
@@ -123,6 +124,12 @@ public class CruiseControlControllerAgent {
         } catch (Exception e) {
             LOG.error("Problem registering DashboardController for posting", e);
         }
+        try {
+            ObjectName name = new ObjectName("CruiseControl XSLT:name=templatesCache");
+            server.registerMBean(new TemplatesCacheController(TemplatesCache.getInstance()), name);
+        } catch (Exception e) {
+            LOG.error("Problem registering TemplatesCacheController", e);
+        }
 
         // when "-agentutil false", do not attempt to load.
         if (LOAD_JMX_AGENTUTIL.FORCE_BYPASS != enableJMXAgentUtility) {
@@ -0,0 +1,87 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.jmx;
+
+/**
+ * MBean Interface exposing the statistics of the shared compiled stylesheet cache.
+ */
+public interface TemplatesCacheControllerMBean {
+    /**
+     * @return number of compiled stylesheets currently cached
+     */
+    public int getSize();
+
+    /**
+     * @return maximum number of compiled stylesheets kept
+     */
+    public int getMaxSize();
+
+    /**
+     * @param maxSize maximum number of compiled stylesheets kept
+     */
+    public void setMaxSize(int maxSize);
+
+    /**
+     * @return number of lookups served from the cache
+     */
+    public long getHits();
+
+    /**
+     * @return number of lookups which had to compile a stylesheet not in the cache
+     */
+    public long getMisses();
+
+    /**
+     * @return number of stylesheets recompiled because they changed on disk
+     */
+    public long getReloads();
+
+    /**
+     * @return number of compiled stylesheets dropped to respect the maximum size
+     */
+    public long getEvictions();
+
+    /**
+     * Drops all compiled stylesheets.
+     */
+    public void clear();
+
+    /**
+     * Resets hits, misses, reloads and evictions to zero.
+     */
+    public void resetStatistics();
+}
@@ -47,6 +47,7 @@ import java.util.Map;
 import net.sourceforge.cruisecontrol.CruiseControlException;
 import net.sourceforge.cruisecontrol.Manipulator;
 import net.sourceforge.cruisecontrol.Log;
+import net.sourceforge.cruisecontrol.util.LogDirectoryLayout;
 import net.sourceforge.cruisecontrol.util.ValidationHelper;
 
 public abstract class BaseManipulator implements Manipulator {
@@ -70,7 +71,8 @@ public abstract class BaseManipulator implements Manipulator {
     }
 
     /**
-     * Identifies the relevant Logfiles from the given Logdir
+     * Identifies the relevant Logfiles from the given Logdir. Shard directories of months after the cutoff
+     * are not listed.
      * @param logDir the logDir as String
      * @return File-Array of the the relevant files.
      */
@@ -82,7 +84,9 @@ public abstract class BaseManipulator implements Manipulator {
 
             cal.add(unit, -every);
 
-            backupFiles = dir.listFiles(getFilenameFilter(cal.getTime(), ignoreSuffix));
+            final Date cutoff = cal.getTime();
+            backupFiles = LogDirectoryLayout.listLogFiles(dir, null, Log.formatLogFileName(cutoff),
+                    getFilenameFilter(cutoff, ignoreSuffix));
         }
         return backupFiles;
     }
@@ -1,10 +1,11 @@
 package net.sourceforge.cruisecontrol.logmanipulators;
 
+import net.sourceforge.cruisecontrol.util.ArtifactStore;
 import net.sourceforge.cruisecontrol.util.DateUtil;
-import net.sourceforge.cruisecontrol.util.IO;
 
 import java.io.FilenameFilter;
 import java.io.File;
+import java.io.IOException;
 import java.util.Date;
 import java.text.SimpleDateFormat;
 import java.text.ParseException;
@@ -63,7 +64,18 @@ public class DeleteArtifactsManipulator extends BaseManipulator {
         File[] deleteFiles = getRelevantFiles(logDir, true);
         for (int i = 0; i < deleteFiles.length; i++) {
             LOG.debug("Deleting artifacts directory: " + deleteFiles[i].getAbsolutePath());
-            IO.delete(deleteFiles[i]);
+            ArtifactStore.deleteTree(deleteFiles[i]);
+        }
+
+        // artifacts published with deduplicate="true" share stored content, which can only be
+        // removed once no remaining artifacts directory references it
+        final File root = new File(logDir);
+        if (deleteFiles != null && deleteFiles.length > 0 && ArtifactStore.exists(root)) {
+            try {
+                ArtifactStore.getInstance(root).collectGarbage();
+            } catch (IOException e) {
+                LOG.warn("Unable to remove unreferenced artifacts from " + root.getAbsolutePath(), e);
+            }
         }
     }
 
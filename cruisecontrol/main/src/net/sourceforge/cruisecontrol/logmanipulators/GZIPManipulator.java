@@ -54,16 +54,16 @@ public class GZIPManipulator extends BaseManipulator {
         File[] filesToGZip = getRelevantFiles(logDir, false);
         for (int i = 0; i < filesToGZip.length; i++) {
             File file = filesToGZip[i];
-            gzipFile(file, logDir);
+            gzipFile(file);
         }
     }
 
-    private void gzipFile(final File logfile, final String logDir) {
+    private void gzipFile(final File logfile) {
 
         final String fileName = logfile.getName() + ".gz";
         try {
             final OutputStream out = new GZIPOutputStream(
-                    new FileOutputStream(new File(logDir, fileName)));
+                    new FileOutputStream(new File(logfile.getParentFile(), fileName)));
             try {
                 final InputStream in = new FileInputStream(logfile);
                 try {
@@ -43,6 +43,7 @@ import net.sourceforge.cruisecontrol.gendoc.annotations.Description;
 import net.sourceforge.cruisecontrol.gendoc.annotations.Optional;
 import net.sourceforge.cruisecontrol.gendoc.annotations.Required;
 import net.sourceforge.cruisecontrol.gendoc.annotations.SkipDoc;
+import net.sourceforge.cruisecontrol.util.ArtifactStore;
 import net.sourceforge.cruisecontrol.util.ValidationHelper;
 import net.sourceforge.cruisecontrol.util.XMLLogHelper;
 import org.apache.tools.ant.Project;
@@ -65,6 +66,8 @@ public class ArtifactsPublisher implements Publisher {
     private String subdirectory;
     private boolean moveInsteadOfCopy = false;
     private boolean publishOnFailure = true;
+    private boolean deduplicate = false;
+    private int threads = 1;
 
     @Description("parent directory of actual destination directory; actual destination "
             + "directory name will be the build timestamp.")
@@ -103,11 +106,15 @@ public class ArtifactsPublisher implements Publisher {
             String timestamp = helper.getBuildTimestamp();
             File destinationDirectory = getDestinationDirectory(timestamp);
 
-            if (targetDirectory != null) {
-                publishDirectory(project, destinationDirectory);
-            }
-            if (targetFile != null) {
-                publishFile(destinationDirectory);
+            if (deduplicate) {
+                publishToStore(new File(destDir, timestamp), destinationDirectory);
+            } else {
+                if (targetDirectory != null) {
+                    publishDirectory(project, destinationDirectory);
+                }
+                if (targetFile != null) {
+                    publishFile(destinationDirectory);
+                }
             }
         }
     }
@@ -163,6 +170,30 @@ public class ArtifactsPublisher implements Publisher {
         }
     }
 
+    void publishToStore(final File timestampDir, final File uniqueDest) throws CruiseControlException {
+        final File source;
+        final File destination;
+        if (targetDirectory != null) {
+            source = new File(targetDirectory);
+            if (!source.isDirectory()) {
+                throw new CruiseControlException("target directory " + source.getAbsolutePath()
+                        + " does not exist or is not a directory");
+            }
+            destination = uniqueDest;
+        } else {
+            source = new File(targetFile);
+            if (!source.exists()) {
+                throw new CruiseControlException("target file " + source.getAbsolutePath() + " does not exist");
+            }
+            destination = new File(uniqueDest, source.getName());
+        }
+        try {
+            ArtifactStore.getInstance(new File(destDir)).publish(source, destination, timestampDir, threads);
+        } catch (IOException e) {
+            throw new CruiseControlException(e);
+        }
+    }
+
     public void validate() throws CruiseControlException {
         ValidationHelper.assertIsSet(destDir, "dest", this.getClass());
 
@@ -171,6 +202,11 @@ public class ArtifactsPublisher implements Publisher {
 
         ValidationHelper.assertFalse(targetDirectory != null && targetFile != null,
             "only one of 'dir' or 'file' may be specified.");
+
+        ValidationHelper.assertFalse(deduplicate && moveInsteadOfCopy,
+            "'deduplicate' cannot be combined with 'moveInsteadOfCopy'.");
+
+        ValidationHelper.assertFalse(threads < 1, "'threads' must be at least 1.");
     }
 
     @Description("subdirectory under the unique (timestamp) directory to contain artifacts")
@@ -186,6 +222,22 @@ public class ArtifactsPublisher implements Publisher {
         this.moveInsteadOfCopy = moveInsteadOfCopy;
     }
 
+    @Description("Keep each distinct artifact content once in a store below the dest directory and hard "
+            + "link the files of each build to it, so unchanged artifacts take no additional space. "
+            + "Falls back to copying where hard links are not supported.")
+    @Optional
+    @Default("false")
+    public void setDeduplicate(boolean deduplicate) {
+        this.deduplicate = deduplicate;
+    }
+
+    @Description("Number of files published in parallel when deduplicate is set.")
+    @Optional
+    @Default("1")
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
     @SkipDoc // Gendoc should not interpret this as a Copy child.
     public Copy createCopier() {
         return moveInsteadOfCopy ? new Move() : new Copy();
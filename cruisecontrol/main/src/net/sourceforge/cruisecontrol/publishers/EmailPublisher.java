@@ -67,6 +67,7 @@ import net.sourceforge.cruisecontrol.Publisher;
 import net.sourceforge.cruisecontrol.publishers.email.EmailMapper;
 import net.sourceforge.cruisecontrol.publishers.email.EmailMapperHelper;
 import net.sourceforge.cruisecontrol.publishers.email.EmailMapping;
+import net.sourceforge.cruisecontrol.publishers.email.EmailOutbox;
 import net.sourceforge.cruisecontrol.publishers.email.EmailTransmissionResult;
 import net.sourceforge.cruisecontrol.util.ValidationHelper;
 import net.sourceforge.cruisecontrol.util.XMLLogHelper;
@@ -123,6 +124,8 @@ public abstract class EmailPublisher implements Publisher {
     private boolean skipUsers = false;
     private String subjectPrefix;
     private boolean failAsImportant = true;
+    private String outboxDir;
+    private int coalesceWindow;
 
     /**
      * Implementations of this method will create the email message body.
@@ -143,6 +146,9 @@ public abstract class EmailPublisher implements Publisher {
                 "'password' is required if 'username' is set for email.");
         ValidationHelper.assertFalse(getPassword() != null && getUsername() == null,
                 "'username' is required if 'password' is set for email.");
+        ValidationHelper.assertFalse(outboxDir != null && !shouldUseSMTPServer(),
+                "'mailhost' is required if 'outboxdir' is set for email.");
+        ValidationHelper.assertFalse(coalesceWindow < 0, "'coalescewindow' can not be negative.");
 
         validateAddresses(alwaysAddresses);
         validateAddresses(alertAddresses);
@@ -424,9 +430,11 @@ public abstract class EmailPublisher implements Publisher {
         return emailSent;
     }
 
-    private boolean send(Session session, MimeMessage message) throws MessagingException {
+    private boolean send(Session session, MimeMessage message) throws MessagingException, CruiseControlException {
         if (shouldUseSMTPServer()) {
-            if (userName != null && password != null) {
+            if (outboxDir != null) {
+                getOutbox().enqueue(message, coalesceWindow * 1000L);
+            } else if (userName != null && password != null) {
                 message.saveChanges(); // implicit with send()
                 final Transport transport = session.getTransport("smtp");
                 transport.connect(mailHost, userName, password);
@@ -447,6 +455,14 @@ public abstract class EmailPublisher implements Publisher {
         }
     }
 
+    /**
+     * @return the outbox shared by all publishers using the same outboxdir and mail server settings
+     * @throws CruiseControlException if the outbox directory can not be created
+     */
+    protected EmailOutbox getOutbox() throws CruiseControlException {
+        return EmailOutbox.getInstance(new File(outboxDir), getMailProperties(), userName, password);
+    }
+
     private Session initializeSession() {
         if (shouldUseSMTPServer()) {
             final Session session = Session.getDefaultInstance(getMailProperties(), null);
@@ -524,6 +540,26 @@ public abstract class EmailPublisher implements Publisher {
         this.useSSL = useSSL;
     }
 
+    /**
+     * @param directory directory where outgoing mail is queued and sent from in the background,
+     * mail is sent on the build thread if not set.
+     */
+    public void setOutboxDir(final String directory) {
+        outboxDir = directory;
+    }
+
+    public String getOutboxDir() {
+        return outboxDir;
+    }
+
+    /**
+     * @param seconds time mail to the same recipients is held in the outbox to be sent as one digest,
+     * 0 to send every mail on its own.
+     */
+    public void setCoalesceWindow(final int seconds) {
+        coalesceWindow = seconds;
+    }
+
     public void setSubjectPrefix(final String prefix) {
         subjectPrefix = prefix;
     }
@@ -48,6 +48,7 @@ import javax.mail.MessagingException;
 import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMultipart;
 import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
@@ -61,6 +62,8 @@ import net.sourceforge.cruisecontrol.gendoc.annotations.ManualChildName;
 import net.sourceforge.cruisecontrol.gendoc.annotations.Optional;
 import net.sourceforge.cruisecontrol.gendoc.annotations.Title;
 import net.sourceforge.cruisecontrol.launch.Launcher;
+import net.sourceforge.cruisecontrol.util.LogDirectoryLayout;
+import net.sourceforge.cruisecontrol.util.TemplatesCache;
 import net.sourceforge.cruisecontrol.util.ValidationHelper;
 import net.sourceforge.cruisecontrol.util.XMLLogHelper;
 import net.sourceforge.cruisecontrol.util.Util;
@@ -457,7 +460,7 @@ public class HTMLEmailPublisher extends EmailPublisher {
                 // use the same default as ProjectXMLHelper.getLog()
                 logDir = "logs" + File.separator + logHelper.getProjectName();
             }
-            inFile = new File(logDir, logHelper.getLogFileName());
+            inFile = LogDirectoryLayout.locate(new File(logDir), logHelper.getLogFileName());
             message = transform(inFile);
         } catch (Exception ex) {
             LOG.error("error transforming " + (inFile == null ? null : inFile.getAbsolutePath()), ex);
@@ -475,11 +478,9 @@ public class HTMLEmailPublisher extends EmailPublisher {
     protected String transform(final File inFile) throws TransformerException, IOException {
         final StringBuilder messageBuffer = new StringBuilder();
 
-        final TransformerFactory tFactory = TransformerFactory.newInstance();
-
         if (xslFile != null) {
             final File xslFileAsFile = new File(xslFile);
-            appendTransform(inFile, messageBuffer, tFactory, xslFileAsFile);
+            appendTransform(inFile, messageBuffer, xslFileAsFile);
         } else {
             appendHeader(messageBuffer);
             messageBuffer.append(createLinkLine(inFile.getName()));
@@ -489,7 +490,7 @@ public class HTMLEmailPublisher extends EmailPublisher {
             for (final String fileName : fileNames) {
                 final File xsl = new File(xslDirectory, fileName);
                 messageBuffer.append("<p>\n");
-                appendTransform(inFile, messageBuffer, tFactory, xsl);
+                appendTransform(inFile, messageBuffer, xsl);
             }
 
             appendFooter(messageBuffer);
@@ -527,19 +528,49 @@ public class HTMLEmailPublisher extends EmailPublisher {
         return linkLine.toString();
     }
 
-    protected void appendTransform(final File inFile, final StringBuilder messageBuffer,
-                                   final TransformerFactory tFactory, final File xsl) {
+    /**
+     * Appends the result of transforming the log with the given stylesheet. The compiled stylesheet
+     * is taken from the shared {@link TemplatesCache} so it is only compiled once for all mails.
+     * @param inFile log file
+     * @param messageBuffer message being built
+     * @param xsl stylesheet to apply
+     */
+    protected void appendTransform(final File inFile, final StringBuilder messageBuffer, final File xsl) {
         try {
-            final String result = transformFile(new StreamSource(inFile), tFactory, new StreamSource(xsl));
+            final Templates templates = TemplatesCache.getInstance().getTemplates(xsl);
+            final String result = transformFile(new StreamSource(inFile), templates);
             messageBuffer.append(result);
         } catch (Exception e) {
             LOG.error("error transforming with xslFile " + xsl.getName(), e);
         }
     }
+
+    /**
+     * @param inFile log file
+     * @param messageBuffer message being built
+     * @param tFactory ignored, the stylesheet is compiled by the shared {@link TemplatesCache}
+     * @param xsl stylesheet to apply
+     * @deprecated use {@link #appendTransform(File, StringBuilder, File)}.
+     */
+    @Deprecated
+    protected void appendTransform(final File inFile, final StringBuilder messageBuffer,
+                                   final TransformerFactory tFactory, final File xsl) {
+        appendTransform(inFile, messageBuffer, xsl);
+    }
+
     protected String transformFile(final Source logFile, final TransformerFactory tFactory, final Source xsl)
         throws IOException, TransformerException {
 
-        final Transformer transformer = tFactory.newTransformer(xsl);
+        return applyTransformer(logFile, tFactory.newTransformer(xsl));
+    }
+
+    protected String transformFile(final Source logFile, final Templates xsl)
+        throws IOException, TransformerException {
+
+        return applyTransformer(logFile, xsl.newTransformer());
+    }
+
+    private String applyTransformer(final Source logFile, final Transformer transformer) throws TransformerException {
         final CharArrayWriter writer = new CharArrayWriter();
         if (!xsltParameters.isEmpty()) {
             for (final Property param : xsltParameters) {
@@ -37,7 +37,6 @@
 package net.sourceforge.cruisecontrol.publishers;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
 
 import java.util.HashMap;
@@ -51,7 +50,6 @@ import net.sourceforge.cruisecontrol.CruiseControlException;
 import net.sourceforge.cruisecontrol.Publisher;
 import net.sourceforge.cruisecontrol.util.XMLLogHelper;
 import net.sourceforge.cruisecontrol.util.ValidationHelper;
-import net.sourceforge.cruisecontrol.util.IO;
 
 import net.sourceforge.cruisecontrol.publishers.rss.CruiseControlFeed;
 import net.sourceforge.cruisecontrol.publishers.rss.CruiseControlItem;
@@ -90,24 +88,25 @@ public class RSSPublisher implements Publisher {
      */
     public static CruiseControlFeed getRSSFeed(final File publishToFile) {
 
-        // FIXME not thread safe
-
         String pathToPublishFile;
         try {
             pathToPublishFile = publishToFile.getCanonicalPath();
         } catch (IOException ioe) {
             pathToPublishFile = publishToFile.getAbsolutePath().toLowerCase();
         }
-        CruiseControlFeed rssfeed = RSS_FEEDS.get(pathToPublishFile);
-
-        if (rssfeed == null) {
-            //Create a new RSS Feed and add it to the collection.
-            rssfeed = new CruiseControlFeed(publishToFile);
-            RSS_FEEDS.put(pathToPublishFile, rssfeed);
+        synchronized (RSS_FEEDS) {
+            CruiseControlFeed rssfeed = RSS_FEEDS.get(pathToPublishFile);
+
+            if (rssfeed == null) {
+                //Create a new RSS Feed and add it to the collection.  The existing file is
+                // only parsed here; afterwards the feed is kept in memory and just written out.
+                rssfeed = new CruiseControlFeed(publishToFile);
+                RSS_FEEDS.put(pathToPublishFile, rssfeed);
+            }
+
+            rssfeed.incrementProjectCount();
+            return rssfeed;
         }
-
-        rssfeed.incrementProjectCount();
-        return rssfeed;
     }
 
 
@@ -123,12 +122,15 @@ public class RSSPublisher implements Publisher {
 
         // Get a reference to the RSSFeed
         if (this.rssFeed == null) {
-            this.rssFeed = getRSSFeed(new File(this.fileName));
+            final CruiseControlFeed feed = getRSSFeed(new File(this.fileName));
 
             // Ensure that the rssFeed matches the config properties of the publisher.
-            this.rssFeed.setProjectName(helper.getProjectName());
-            this.rssFeed.setMaxLength(this.maxLength);
-            this.rssFeed.setLink(this.channelLinkURL);
+            synchronized (feed) {
+                feed.setProjectName(helper.getProjectName());
+                feed.setMaxLength(this.maxLength);
+                feed.setLink(this.channelLinkURL);
+            }
+            this.rssFeed = feed;
         }
 
         // Create the RSSFeedItem
@@ -140,16 +142,17 @@ public class RSSPublisher implements Publisher {
     }
 
 
+    /**
+     *  Writes the shared feed to disk. Projects publishing into the same file at the same
+     *  time are coalesced into a single write, see {@link CruiseControlFeed#writeTo(File)}.
+     *
+     *  @throws CruiseControlException if the feed could not be written.
+     */
     protected void publishFeed() throws CruiseControlException {
-
-        FileWriter fw = null;
         try {
-            fw = new FileWriter(fileName);
-            this.rssFeed.write(fw);
+            this.rssFeed.writeTo(new File(fileName));
         } catch (IOException ioe) {
             throw new CruiseControlException("Error writing file: " + fileName, ioe);
-        } finally {
-            IO.close(fw);
         }
     }
 
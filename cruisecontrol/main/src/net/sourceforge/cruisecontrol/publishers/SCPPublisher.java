@@ -39,6 +39,7 @@ package net.sourceforge.cruisecontrol.publishers;
 import net.sourceforge.cruisecontrol.CruiseControlException;
 import net.sourceforge.cruisecontrol.Publisher;
 import net.sourceforge.cruisecontrol.util.Commandline;
+import net.sourceforge.cruisecontrol.util.LogDirectoryLayout;
 import net.sourceforge.cruisecontrol.util.ValidationHelper;
 import net.sourceforge.cruisecontrol.util.Commandline.Argument;
 import net.sourceforge.cruisecontrol.util.XMLLogHelper;
@@ -160,9 +161,27 @@ public class SCPPublisher implements Publisher {
         }
     }
 
+    /**
+     * @param cruisecontrolLog the log of the build
+     * @return path of the build's log file relative to the source directory, with a sharded log in its
+     * yyyy/MM subdirectory.
+     * @throws CruiseControlException if the log file name can not be found in the log
+     */
     protected String getLogFileName(Element cruisecontrolLog) throws CruiseControlException {
         XMLLogHelper helper = new XMLLogHelper(cruisecontrolLog);
-        return helper.getLogFileName();
+        String logFileName = helper.getLogFileName();
+        String logDir;
+        try {
+            logDir = helper.getCruiseControlInfoProperty("logdir");
+        } catch (CruiseControlException e) {
+            logDir = sourceDir;
+        }
+        File logFile = LogDirectoryLayout.locate(new File(logDir), logFileName);
+        if (LogDirectoryLayout.getLogDirectory(logFile).equals(logFile.getAbsoluteFile().getParentFile())) {
+            return logFileName;
+        }
+        String month = LogDirectoryLayout.getMonth(logFileName);
+        return month.substring(0, 4) + sourceSeparator + month.substring(4) + sourceSeparator + logFileName;
     }
 
     protected void executeCommand(Commandline command) throws CruiseControlException {
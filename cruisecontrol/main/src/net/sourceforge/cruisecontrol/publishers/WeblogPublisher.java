@@ -59,6 +59,7 @@ import javax.xml.transform.stream.StreamSource;
 
 import net.sourceforge.cruisecontrol.CruiseControlException;
 import net.sourceforge.cruisecontrol.Publisher;
+import net.sourceforge.cruisecontrol.util.LogDirectoryLayout;
 import net.sourceforge.cruisecontrol.util.XMLLogHelper;
 
 import org.apache.log4j.Logger;
@@ -781,7 +782,7 @@ public class WeblogPublisher implements Publisher {
             if (logDir == null) {
                 logDir = getDefaultLogDir(projectName);
             }
-            inFile = new File(logDir, logFileName);
+            inFile = LogDirectoryLayout.locate(new File(logDir), logFileName);
             message = transform(inFile);
         } catch (Exception ex) {
             LOG.error("error transforming " + (inFile != null ? inFile.getAbsolutePath() : ""), ex);
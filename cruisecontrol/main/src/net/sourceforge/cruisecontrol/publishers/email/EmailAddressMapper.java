@@ -57,6 +57,13 @@ public class EmailAddressMapper extends EmailMapper {
     public void open() throws CruiseControlException {
     }
 
+    /*
+     * invoked after open with all the users about to be mapped, so that mappers
+     * can look them up at once. mapUser is still invoked for every user.
+     */
+    protected void prepare(final Set<String> users) throws CruiseControlException {
+    }
+
     /*
      * invoked after a set of users has been mapped.
      * this method can be invoked multiple times during instance lifetime
@@ -87,6 +94,7 @@ public class EmailAddressMapper extends EmailMapper {
     public final void mapUsers(final Set<String> users, final Set<String> mappedUsers) {
         try {
             open();
+            prepare(users);
 
             // iterate over all users
             for (Iterator userIterator = users.iterator(); userIterator.hasNext(); ) {
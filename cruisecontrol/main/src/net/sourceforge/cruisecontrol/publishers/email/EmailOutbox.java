@@ -0,0 +1,730 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.publishers.email;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Part;
+import javax.mail.SendFailedException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+
+import net.sourceforge.cruisecontrol.CruiseControlException;
+import net.sourceforge.cruisecontrol.util.IO;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Asynchronous, persistent outbox for the mail sent by the email publishers.
+ * <p>
+ * Messages handed to {@link #enqueue(MimeMessage)} are written to a spool directory and sent by a
+ * single background thread, so publishing never waits for the SMTP server. The thread reuses one
+ * SMTP connection for all the messages waiting in the queue (up to {@link #setMaxMessagesPerConnection(int)}),
+ * retries failed deliveries with an exponential backoff and merges the messages queued with a coalesce
+ * window and sent to the same recipients within the window into a single digest mail.
+ * Messages still in the spool directory when CruiseControl stops are sent after the next start.
+ * </p>
+ * <p>
+ * There is one outbox per spool directory and SMTP connection settings, shared by all the projects, see
+ * {@link #getInstance(File, Properties, String, String)}.
+ * </p>
+ */
+public final class EmailOutbox {
+    private static final Logger LOG = Logger.getLogger(EmailOutbox.class);
+
+    static final String SPOOL_SUFFIX = ".eml";
+    static final String FAILED_DIR = "failed";
+
+    private static final Map<String, EmailOutbox> OUTBOXES = new HashMap<String, EmailOutbox>();
+
+    private final File spoolDir;
+    private final Session session;
+    private final String userName;
+    private final String password;
+
+    /** guards all the fields below */
+    private final Object lock = new Object();
+    private final LinkedList<Pending> pending = new LinkedList<Pending>();
+    private long sequence;
+    private boolean running;
+    private boolean sending;
+    /** outbox that took over the queue after a password change, gets the messages still handed to this one */
+    private EmailOutbox successor;
+
+    private int maxMessagesPerConnection = 50;
+    private long initialRetryDelay = 30 * 1000L;
+    private long maxRetryDelay = 30 * 60 * 1000L;
+    private int maxAttempts = 10;
+
+    private long sentCount;
+    private long connectionCount;
+
+    /**
+     * @param spoolRoot directory holding the spool directories of all the outboxes
+     * @param mailProperties javamail properties describing the SMTP server
+     * @param userName SMTP user, may be null
+     * @param password SMTP password, may be null
+     * @return the outbox shared by all the publishers using the same spool directory and SMTP connection
+     * settings, started if it was not running yet
+     * @throws CruiseControlException if the spool directory can not be created
+     */
+    public static EmailOutbox getInstance(final File spoolRoot, final Properties mailProperties,
+                                          final String userName, final String password)
+            throws CruiseControlException {
+
+        // every SMTP setting and the user get their own spool directory, the password is left out of its name
+        final TreeSet<String> settings = new TreeSet<String>();
+        @SuppressWarnings("unchecked") // the names of Properties are Strings
+        final Enumeration<String> names = (Enumeration<String>) mailProperties.propertyNames();
+        while (names.hasMoreElements()) {
+            final String name = names.nextElement();
+            if (name.startsWith("mail.smtp.")) {
+                settings.add(name + "=" + mailProperties.getProperty(name));
+            }
+        }
+        settings.add("user=" + userName);
+        final String server = mailProperties.getProperty("mail.smtp.host") + "_"
+                + mailProperties.getProperty("mail.smtp.port", "25") + (userName == null ? "" : "_" + userName)
+                + "_" + Integer.toHexString(settings.toString().hashCode());
+        final File spoolDir = new File(spoolRoot, server.replaceAll("[^\\w.-]", "_"));
+
+        synchronized (OUTBOXES) {
+            final String key = spoolDir.getAbsolutePath();
+            final EmailOutbox current = OUTBOXES.get(key);
+            if (current != null && current.isRunning() && equal(password, current.password)) {
+                return current;
+            }
+            final EmailOutbox outbox;
+            if (current == null) {
+                outbox = new EmailOutbox(spoolDir, mailProperties, userName, password);
+            } else {
+                // the password was changed or the outbox was stopped: the new one takes over the queue instead of
+                // reading the spool directory again, which would send the messages the old one is still sending
+                outbox = new EmailOutbox(spoolDir, mailProperties, userName, password, false);
+                current.handOver(outbox);
+            }
+            outbox.start();
+            OUTBOXES.put(key, outbox);
+            return outbox;
+        }
+    }
+
+    private static boolean equal(final String a, final String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    EmailOutbox(final File spoolDir, final Properties mailProperties, final String userName,
+                final String password) throws CruiseControlException {
+        this(spoolDir, mailProperties, userName, password, true);
+    }
+
+    private EmailOutbox(final File spoolDir, final Properties mailProperties, final String userName,
+                        final String password, final boolean restore) throws CruiseControlException {
+        this.spoolDir = spoolDir;
+        // private copy, the default session would ignore the properties of every publisher but the first
+        final Properties properties = new Properties();
+        properties.putAll(mailProperties);
+        this.session = Session.getInstance(properties, null);
+        this.userName = userName;
+        this.password = password;
+
+        if (!spoolDir.isDirectory() && !spoolDir.mkdirs()) {
+            throw new CruiseControlException("Unable to create mail spool directory " + spoolDir.getAbsolutePath());
+        }
+        if (restore) {
+            restoreSpooledMessages();
+        }
+    }
+
+    /**
+     * Stops this outbox and moves its queue to the given one. The message currently being sent is finished by this
+     * outbox, a retry of it and every message still enqueued here go to the successor.
+     */
+    private void handOver(final EmailOutbox next) {
+        stop();
+        synchronized (lock) {
+            // always this lock first, the successor never takes ours
+            synchronized (next.lock) {
+                next.sequence = sequence;
+                next.maxMessagesPerConnection = maxMessagesPerConnection;
+                next.initialRetryDelay = initialRetryDelay;
+                next.maxRetryDelay = maxRetryDelay;
+                next.maxAttempts = maxAttempts;
+            }
+            successor = next;
+            for (final Pending entry : pending) {
+                next.queue(entry);
+            }
+            pending.clear();
+            lock.notifyAll();
+        }
+    }
+
+    private void queue(final Pending entry) {
+        synchronized (lock) {
+            if (successor != null) {
+                successor.queue(entry);
+                return;
+            }
+            pending.add(entry);
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Stores the message in the spool directory and wakes up the sender thread.
+     * @param message message to send, the recipients are taken from the message
+     * @throws CruiseControlException if the message can not be written to the spool directory
+     */
+    public void enqueue(final MimeMessage message) throws CruiseControlException {
+        enqueue(message, 0);
+    }
+
+    /**
+     * Stores the message in the spool directory and wakes up the sender thread.
+     * @param message message to send, the recipients are taken from the message
+     * @param coalesceWindow the message is held for this many milliseconds, and sent as one digest mail with the
+     * other messages held for the same recipients meanwhile, 0 sends it right away
+     * @throws CruiseControlException if the message can not be written to the spool directory
+     */
+    public void enqueue(final MimeMessage message, final long coalesceWindow) throws CruiseControlException {
+        final Pending entry;
+        synchronized (lock) {
+            entry = new Pending(new File(spoolDir, spoolName(++sequence, coalesceWindow)),
+                    System.currentTimeMillis(), coalesceWindow);
+        }
+        try {
+            message.saveChanges();
+            entry.recipients = recipientsKey(message);
+            spool(message, entry.file);
+        } catch (MessagingException e) {
+            throw new CruiseControlException("Unable to spool mail: " + e.getMessage(), e);
+        } catch (IOException e) {
+            throw new CruiseControlException("Unable to spool mail to " + entry.file.getAbsolutePath(), e);
+        }
+
+        queue(entry);
+        LOG.debug("Queued mail to " + entry.recipients + " as " + entry.file.getName());
+    }
+
+    boolean isRunning() {
+        synchronized (lock) {
+            return running;
+        }
+    }
+
+    /**
+     * Starts the sender thread.
+     */
+    void start() {
+        synchronized (lock) {
+            if (running) {
+                return;
+            }
+            running = true;
+        }
+        final Thread sender = new Thread(new Runnable() {
+            public void run() {
+                sendLoop();
+            }
+        }, "EmailOutbox " + spoolDir.getName());
+        sender.setDaemon(true);
+        sender.start();
+    }
+
+    /**
+     * Stops the sender thread once the message currently being sent is done. Queued messages stay in the
+     * spool directory.
+     */
+    public void stop() {
+        synchronized (lock) {
+            running = false;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * @param timeout maximum time to wait in milliseconds
+     * @return true if every queued message was sent (or given up) within the timeout
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean waitUntilEmpty(final long timeout) throws InterruptedException {
+        final long end = System.currentTimeMillis() + timeout;
+        synchronized (lock) {
+            while (!pending.isEmpty() || sending) {
+                final long remaining = end - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    return false;
+                }
+                lock.wait(remaining);
+            }
+            return true;
+        }
+    }
+
+    private void sendLoop() {
+        Transport transport = null;
+        int sentOnConnection = 0;
+        try {
+            while (true) {
+                final List<Pending> batch;
+                synchronized (lock) {
+                    sending = false;
+                    lock.notifyAll();
+                    if (!running) {
+                        // what is still queued stays spooled, or was handed over to the successor
+                        return;
+                    }
+                    batch = takeReady(System.currentTimeMillis());
+                    if (batch.isEmpty()) {
+                        // nothing to send now, don't keep the relay connection busy while waiting
+                        transport = close(transport);
+                        sentOnConnection = 0;
+                        if (pending.isEmpty()) {
+                            lock.wait();
+                        } else {
+                            lock.wait(Math.max(1, nextDue() - System.currentTimeMillis()));
+                        }
+                        continue;
+                    }
+                    sending = true;
+                }
+
+                for (final Delivery delivery : coalesce(batch)) {
+                    if (transport != null && sentOnConnection >= maxMessagesPerConnection) {
+                        transport = close(transport);
+                        sentOnConnection = 0;
+                    }
+                    try {
+                        if (transport == null) {
+                            transport = connect();
+                        }
+                        final MimeMessage message = delivery.getMessage();
+                        transport.sendMessage(message, message.getAllRecipients());
+                        sentOnConnection++;
+                        delivered(delivery);
+                    } catch (SendFailedException e) {
+                        // the server refused some recipients, retrying would not change its mind
+                        LOG.warn("Mail " + delivery + " rejected: " + e.getMessage(), e);
+                        giveUp(delivery.entries);
+                    } catch (MessagingException e) {
+                        LOG.warn("Error sending mail " + delivery + ": " + e.getMessage(), e);
+                        transport = close(transport);
+                        sentOnConnection = 0;
+                        retryLater(delivery.entries);
+                    } catch (IOException e) {
+                        LOG.error("Unable to read spooled mail " + delivery, e);
+                        giveUp(delivery.entries);
+                    } catch (RuntimeException e) {
+                        // a broken message must not stop the sender thread, the others still have to go out
+                        LOG.error("Unexpected error sending mail " + delivery, e);
+                        transport = close(transport);
+                        sentOnConnection = 0;
+                        giveUp(delivery.entries);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            LOG.info("EmailOutbox " + spoolDir.getName() + " interrupted, stopping");
+        } finally {
+            close(transport);
+            synchronized (lock) {
+                running = false;
+                sending = false;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /** Must hold the lock. */
+    private List<Pending> takeReady(final long now) {
+        final List<Pending> ready = new ArrayList<Pending>();
+        final Set<String> readyRecipients = new HashSet<String>();
+        for (final Iterator<Pending> i = pending.iterator(); i.hasNext();) {
+            final Pending entry = i.next();
+            if (entry.isDue(now)) {
+                i.remove();
+                ready.add(entry);
+                if (entry.coalesceWindow > 0) {
+                    readyRecipients.add(entry.recipients);
+                }
+            }
+        }
+        if (!readyRecipients.isEmpty()) {
+            // the rest of the window's mail to the same recipients goes out in the same digest
+            for (final Iterator<Pending> i = pending.iterator(); i.hasNext();) {
+                final Pending entry = i.next();
+                if (entry.attempts == 0 && entry.coalesceWindow > 0 && readyRecipients.contains(entry.recipients)) {
+                    i.remove();
+                    ready.add(entry);
+                }
+            }
+        }
+        return ready;
+    }
+
+    /** Must hold the lock. */
+    private long nextDue() {
+        long next = Long.MAX_VALUE;
+        for (final Pending entry : pending) {
+            next = Math.min(next, entry.dueAt());
+        }
+        return next;
+    }
+
+    private List<Delivery> coalesce(final List<Pending> batch) {
+        final List<Delivery> deliveries = new ArrayList<Delivery>();
+        final Map<String, Delivery> byRecipients = new LinkedHashMap<String, Delivery>();
+        for (final Pending entry : batch) {
+            final Delivery delivery = byRecipients.get(entry.recipients);
+            if (entry.coalesceWindow <= 0) {
+                deliveries.add(new Delivery(entry));
+            } else if (delivery == null) {
+                byRecipients.put(entry.recipients, new Delivery(entry));
+            } else {
+                delivery.entries.add(entry);
+            }
+        }
+        deliveries.addAll(byRecipients.values());
+        return deliveries;
+    }
+
+    private Transport connect() throws MessagingException {
+        final Transport transport = session.getTransport("smtp");
+        if (userName != null && password != null) {
+            transport.connect(session.getProperty("mail.smtp.host"), userName, password);
+        } else {
+            transport.connect();
+        }
+        synchronized (lock) {
+            connectionCount++;
+        }
+        return transport;
+    }
+
+    private static Transport close(final Transport transport) {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                LOG.debug("Ignored error closing SMTP connection: " + e.getMessage());
+            }
+        }
+        return null;
+    }
+
+    private void delivered(final Delivery delivery) {
+        for (final Pending entry : delivery.entries) {
+            if (!entry.file.delete()) {
+                LOG.warn("Unable to delete sent mail " + entry.file.getAbsolutePath());
+            }
+        }
+        synchronized (lock) {
+            sentCount += delivery.entries.size();
+        }
+        LOG.debug("Sent mail " + delivery);
+    }
+
+    private void retryLater(final List<Pending> entries) {
+        final long now = System.currentTimeMillis();
+        final List<Pending> exhausted = new ArrayList<Pending>();
+        synchronized (lock) {
+            for (final Pending entry : entries) {
+                entry.attempts++;
+                if (entry.attempts >= maxAttempts) {
+                    exhausted.add(entry);
+                } else {
+                    final long delay = Math.min(maxRetryDelay, initialRetryDelay << (entry.attempts - 1));
+                    entry.nextAttempt = now + delay;
+                    queue(entry);
+                }
+            }
+        }
+        if (!exhausted.isEmpty()) {
+            giveUp(exhausted);
+        }
+    }
+
+    private void giveUp(final List<Pending> entries) {
+        final File failedDir = new File(spoolDir, FAILED_DIR);
+        failedDir.mkdirs();
+        for (final Pending entry : entries) {
+            final File failed = new File(failedDir, entry.file.getName());
+            if (!entry.file.renameTo(failed)) {
+                entry.file.delete();
+            }
+            LOG.error("Giving up sending mail to " + entry.recipients + " after " + entry.attempts
+                    + " attempts, message kept in " + failed.getAbsolutePath());
+        }
+    }
+
+    private void restoreSpooledMessages() {
+        final File[] spooled = spoolDir.listFiles(new FileFilter() {
+            public boolean accept(final File file) {
+                return file.isFile() && file.getName().endsWith(SPOOL_SUFFIX);
+            }
+        });
+        if (spooled == null || spooled.length == 0) {
+            return;
+        }
+        // spool names sort in queue order
+        Arrays.sort(spooled);
+        for (final File file : spooled) {
+            try {
+                final Pending entry = new Pending(file, file.lastModified(), spooledCoalesceWindow(file));
+                entry.recipients = recipientsKey(load(file));
+                pending.add(entry);
+            } catch (Exception e) {
+                LOG.error("Ignoring unreadable spooled mail " + file.getAbsolutePath(), e);
+            }
+        }
+        LOG.info("Restored " + pending.size() + " unsent mails from " + spoolDir.getAbsolutePath());
+    }
+
+    private String spoolName(final long seq, final long coalesceWindow) {
+        // zero padded so the names sort in queue order, the coalesce window is kept for after a restart
+        return String.valueOf(System.currentTimeMillis()) + "-" + String.valueOf(1000000 + seq % 1000000).substring(1)
+                + "-" + coalesceWindow + SPOOL_SUFFIX;
+    }
+
+    private static long spooledCoalesceWindow(final File file) {
+        final String name = file.getName();
+        final String[] parts = name.substring(0, name.length() - SPOOL_SUFFIX.length()).split("-");
+        try {
+            return parts.length > 2 ? Math.max(0, Long.parseLong(parts[2])) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static void spool(final MimeMessage message, final File file) throws IOException, MessagingException {
+        final File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp));
+        try {
+            message.writeTo(out);
+        } finally {
+            IO.close(out);
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Unable to rename " + tmp.getAbsolutePath() + " to " + file.getName());
+        }
+    }
+
+    private MimeMessage load(final File file) throws IOException, MessagingException {
+        final InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            return new MimeMessage(session, in);
+        } finally {
+            IO.close(in);
+        }
+    }
+
+    private static String recipientsKey(final MimeMessage message) throws MessagingException {
+        final TreeSet<String> sorted = new TreeSet<String>();
+        final Address[] recipients = message.getAllRecipients();
+        if (recipients != null) {
+            for (final Address address : recipients) {
+                sorted.add(address.toString().toLowerCase());
+            }
+        }
+        return sorted.toString();
+    }
+
+    public void setMaxMessagesPerConnection(final int max) {
+        synchronized (lock) {
+            maxMessagesPerConnection = max;
+        }
+    }
+
+    /**
+     * @param initial delay before the first retry, doubled for every further attempt
+     * @param max maximum delay between two attempts
+     */
+    public void setRetryDelay(final long initial, final long max) {
+        synchronized (lock) {
+            initialRetryDelay = initial;
+            maxRetryDelay = max;
+        }
+    }
+
+    public void setMaxAttempts(final int max) {
+        synchronized (lock) {
+            maxAttempts = max;
+        }
+    }
+
+    /**
+     * @return number of messages waiting to be sent
+     */
+    public int getQueueSize() {
+        synchronized (lock) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * @return number of queued messages sent so far, coalesced messages count individually
+     */
+    public long getSentCount() {
+        synchronized (lock) {
+            return sentCount;
+        }
+    }
+
+    /**
+     * @return number of SMTP connections opened so far
+     */
+    public long getConnectionCount() {
+        synchronized (lock) {
+            return connectionCount;
+        }
+    }
+
+    File getSpoolDir() {
+        return spoolDir;
+    }
+
+    /** A spooled message waiting to be sent. */
+    private static final class Pending {
+        private final File file;
+        private final long queuedAt;
+        private final long coalesceWindow;
+        private String recipients;
+        private int attempts;
+        private long nextAttempt;
+
+        private Pending(final File file, final long queuedAt, final long coalesceWindow) {
+            this.file = file;
+            this.queuedAt = queuedAt;
+            this.coalesceWindow = coalesceWindow;
+        }
+
+        long dueAt() {
+            return Math.max(nextAttempt, attempts == 0 ? queuedAt + coalesceWindow : 0);
+        }
+
+        boolean isDue(final long now) {
+            return dueAt() <= now;
+        }
+    }
+
+    /** One or more spooled messages sent as a single mail. */
+    private final class Delivery {
+        private final List<Pending> entries = new ArrayList<Pending>();
+
+        private Delivery(final Pending first) {
+            entries.add(first);
+        }
+
+        MimeMessage getMessage() throws IOException, MessagingException {
+            final MimeMessage first = load(entries.get(0).file);
+            if (entries.size() == 1) {
+                return first;
+            }
+
+            // digest: a summary followed by every original message inlined as message/rfc822
+            final MimeMultipart digest = new MimeMultipart();
+            final StringBuilder summary = new StringBuilder();
+            final List<MimeMessage> messages = new ArrayList<MimeMessage>();
+            boolean important = false;
+            for (final Pending entry : entries) {
+                final MimeMessage message = entries.get(0) == entry ? first : load(entry.file);
+                messages.add(message);
+                summary.append(message.getSubject()).append('\n');
+                final String[] importance = message.getHeader("Importance");
+                important |= importance != null && "High".equals(importance[0]);
+            }
+            final MimeBodyPart summaryPart = new MimeBodyPart();
+            summaryPart.setText(summary.toString());
+            digest.addBodyPart(summaryPart);
+            for (final MimeMessage message : messages) {
+                final MimeBodyPart part = new MimeBodyPart();
+                part.setContent(message, "message/rfc822");
+                part.setDisposition(Part.INLINE);
+                digest.addBodyPart(part);
+            }
+
+            final MimeMessage combined = new MimeMessage(session);
+            final Address[] from = first.getFrom();
+            if (from != null && from.length > 0) {
+                combined.setFrom(from[0]);
+            }
+            combined.setRecipients(Message.RecipientType.TO, first.getRecipients(Message.RecipientType.TO));
+            combined.setRecipients(Message.RecipientType.CC, first.getRecipients(Message.RecipientType.CC));
+            combined.setSubject(first.getSubject() + " (+" + (entries.size() - 1) + " more)");
+            combined.setSentDate(new Date());
+            combined.addHeader("Importance", important ? "High" : "Normal");
+            combined.setContent(digest);
+            combined.saveChanges();
+            return combined;
+        }
+
+        public String toString() {
+            return entries.size() == 1 ? entries.get(0).file.getName()
+                    : entries.size() + " coalesced mails to " + entries.get(0).recipients;
+        }
+    }
+}
@@ -0,0 +1,412 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.publishers.email;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.InitialDirContext;
+import javax.naming.directory.SearchControls;
+import javax.naming.directory.SearchResult;
+
+import net.sourceforge.cruisecontrol.CruiseControlException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * User to email address lookups against one LDAP directory, shared by all the {@link LDAPMapper}s
+ * configured with the same directory and search settings.
+ * <p>
+ * Results, including users without an address, are cached for a limited time. Directory contexts are
+ * kept open between lookups in a small pool instead of being created for every mapped user, and when
+ * the search template is a simple <code>(attribute=?)</code> filter, all the users not in the cache are
+ * looked up with one <code>(|(attribute=a)(attribute=b)...)</code> search.
+ * </p>
+ */
+final class LDAPDirectory {
+    private static final Logger LOG = Logger.getLogger(LDAPDirectory.class);
+
+    private static final Map<String, LDAPDirectory> DIRECTORIES = new HashMap<String, LDAPDirectory>();
+
+    /** Search templates of the form (attr=?) can be combined into one search. */
+    private static final Pattern SIMPLE_TEMPLATE = Pattern.compile("\\(\\s*([\\w.;-]+)\\s*=\\s*\\?\\s*\\)");
+
+    private static final int MAX_IDLE_CONTEXTS = 4;
+    private static final int PURGE_THRESHOLD = 10000;
+
+    private final Hashtable<String, String> environment;
+    private final String rootDN;
+    private final String searchTmpl;
+    private final String searchAttr;
+    /** attribute holding the user name, null if the template can't be batched */
+    private final String keyAttr;
+    private final long ttl;
+    private final long negativeTtl;
+    private final int batchSize;
+
+    private final Map<String, CachedAddress> cache = new HashMap<String, CachedAddress>();
+    private final LinkedList<DirContext> idleContexts = new LinkedList<DirContext>();
+
+    private long hits;
+    private long misses;
+    private long searches;
+
+    static LDAPDirectory getInstance(final LDAPMapper mapper) {
+        final Hashtable<String, String> env = new Hashtable<String, String>();
+        env.put(Context.INITIAL_CONTEXT_FACTORY, mapper.getCtxFactory());
+        env.put(Context.PROVIDER_URL, mapper.getUrl());
+        if (mapper.getBindDN() != null && mapper.getBindPassword() != null) {
+            env.put(Context.SECURITY_PRINCIPAL, mapper.getBindDN());
+            env.put(Context.SECURITY_CREDENTIALS, mapper.getBindPassword());
+        }
+
+        final String key = env + "|" + mapper.getRootDN() + "|" + mapper.getSearchTmpl() + "|"
+                + mapper.getSearchAttr() + "|" + mapper.getCacheTTL() + "|" + mapper.getNegativeCacheTTL() + "|"
+                + mapper.getBatchSize();
+        synchronized (DIRECTORIES) {
+            LDAPDirectory directory = DIRECTORIES.get(key);
+            if (directory == null) {
+                directory = new LDAPDirectory(env, mapper.getRootDN(), mapper.getSearchTmpl(), mapper.getSearchAttr(),
+                        mapper.getCacheTTL() * 1000L, mapper.getNegativeCacheTTL() * 1000L, mapper.getBatchSize());
+                DIRECTORIES.put(key, directory);
+            }
+            return directory;
+        }
+    }
+
+    /**
+     * Closes all pooled contexts and forgets all cached addresses of all directories.
+     */
+    static void reset() {
+        synchronized (DIRECTORIES) {
+            for (final LDAPDirectory directory : DIRECTORIES.values()) {
+                directory.closeIdleContexts();
+            }
+            DIRECTORIES.clear();
+        }
+    }
+
+    LDAPDirectory(final Hashtable<String, String> environment, final String rootDN, final String searchTmpl,
+                  final String searchAttr, final long ttl, final long negativeTtl, final int batchSize) {
+        this.environment = environment;
+        this.rootDN = rootDN;
+        this.searchTmpl = searchTmpl;
+        this.searchAttr = searchAttr;
+        this.ttl = ttl;
+        this.negativeTtl = negativeTtl;
+        this.batchSize = batchSize;
+
+        final Matcher simple = SIMPLE_TEMPLATE.matcher(searchTmpl);
+        keyAttr = simple.matches() ? simple.group(1) : null;
+    }
+
+    /**
+     * @param users user names to look up
+     * @return address of every user found in the directory or the cache; users known to have no address
+     * are mapped to null, users which could not be looked up are missing
+     */
+    Map<String, String> lookup(final Collection<String> users) {
+        final Map<String, String> found = new HashMap<String, String>();
+        final List<String> missing = new ArrayList<String>();
+        final long now = System.currentTimeMillis();
+
+        synchronized (cache) {
+            for (final String user : users) {
+                final CachedAddress cached = cache.get(user);
+                if (cached != null && cached.expires > now) {
+                    hits++;
+                    found.put(user, cached.address);
+                } else {
+                    misses++;
+                    missing.add(user);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return found;
+        }
+
+        final Map<String, String> searched = new HashMap<String, String>();
+        try {
+            if (keyAttr != null) {
+                for (int i = 0; i < missing.size(); i += batchSize) {
+                    searchBatch(missing.subList(i, Math.min(missing.size(), i + batchSize)), searched);
+                }
+            } else {
+                for (final String user : missing) {
+                    searchOne(user, searched);
+                }
+            }
+        } catch (CruiseControlException e) {
+            LOG.error("LDAP lookup of " + missing + " failed: " + e.getMessage(), e);
+        }
+
+        synchronized (cache) {
+            for (final Map.Entry<String, String> result : searched.entrySet()) {
+                final String address = result.getValue();
+                cache.put(result.getKey(), new CachedAddress(address, now + (address == null ? negativeTtl : ttl)));
+            }
+            if (cache.size() > PURGE_THRESHOLD) {
+                purgeExpired(now);
+            }
+        }
+        found.putAll(searched);
+        return found;
+    }
+
+    private void searchBatch(final List<String> users, final Map<String, String> results)
+            throws CruiseControlException {
+
+        final StringBuilder filter = new StringBuilder();
+        if (users.size() > 1) {
+            filter.append("(|");
+        }
+        final Map<String, String> byKey = new HashMap<String, String>();
+        for (final String user : users) {
+            filter.append(applyTemplate(user));
+            byKey.put(user.toLowerCase(), user);
+        }
+        if (users.size() > 1) {
+            filter.append(')');
+        }
+
+        final List<Attributes> found = search(filter.toString(), new String[] {searchAttr, keyAttr});
+        final Map<String, String> addresses = new HashMap<String, String>();
+        for (final Attributes attrs : found) {
+            final String key = getValue(attrs, keyAttr);
+            final String address = getValue(attrs, searchAttr);
+            final String user = key == null ? null : byKey.get(key.toLowerCase());
+            if (user != null && address != null) {
+                addresses.put(user, address);
+            }
+        }
+        // only once the search succeeded, anything it did not find is cached as having no address
+        for (final String user : users) {
+            results.put(user, addresses.get(user));
+        }
+    }
+
+    private void searchOne(final String user, final Map<String, String> results) throws CruiseControlException {
+        String address = null;
+        for (final Attributes attrs : search(applyTemplate(user), new String[] {searchAttr})) {
+            final String value = getValue(attrs, searchAttr);
+            if (value != null) {
+                address = value;
+            }
+        }
+        results.put(user, address);
+    }
+
+    private List<Attributes> search(final String filter, final String[] attributes) throws CruiseControlException {
+        final SearchControls constraints = new SearchControls();
+        constraints.setSearchScope(SearchControls.SUBTREE_SCOPE);
+        constraints.setCountLimit(0);
+        constraints.setTimeLimit(0);
+        constraints.setReturningAttributes(attributes);
+
+        // a pooled context may have been dropped by the server, try once more with a fresh one
+        NamingException failure = null;
+        for (int attempt = 0; attempt < 2; attempt++) {
+            final DirContext ctx = borrowContext();
+            try {
+                synchronized (cache) {
+                    searches++;
+                }
+                final List<Attributes> results = new ArrayList<Attributes>();
+                final NamingEnumeration<SearchResult> ne = ctx.search(rootDN, filter, constraints);
+                try {
+                    while (ne.hasMore()) {
+                        results.add(ne.next().getAttributes());
+                    }
+                } finally {
+                    ne.close();
+                }
+                returnContext(ctx);
+                return results;
+            } catch (NamingException e) {
+                failure = e;
+                closeQuietly(ctx);
+            }
+        }
+        throw new CruiseControlException("LDAP search " + filter + " failed", failure);
+    }
+
+    private DirContext borrowContext() throws CruiseControlException {
+        synchronized (idleContexts) {
+            if (!idleContexts.isEmpty()) {
+                return idleContexts.removeFirst();
+            }
+        }
+        try {
+            final DirContext ctx = new InitialDirContext(new Hashtable<String, String>(environment));
+            LOG.debug("LDAPDirectory: InitialContext created.");
+            return ctx;
+        } catch (NamingException e) {
+            throw new CruiseControlException(e);
+        }
+    }
+
+    private void returnContext(final DirContext ctx) {
+        synchronized (idleContexts) {
+            if (idleContexts.size() < MAX_IDLE_CONTEXTS) {
+                idleContexts.addFirst(ctx);
+                return;
+            }
+        }
+        closeQuietly(ctx);
+    }
+
+    private void closeIdleContexts() {
+        synchronized (idleContexts) {
+            for (final DirContext ctx : idleContexts) {
+                closeQuietly(ctx);
+            }
+            idleContexts.clear();
+        }
+    }
+
+    private static void closeQuietly(final DirContext ctx) {
+        try {
+            ctx.close();
+            LOG.debug("LDAPDirectory: InitialContext closed.");
+        } catch (NamingException ignored) {
+            //Ignored
+        }
+    }
+
+    private String applyTemplate(final String user) {
+        final StringBuilder s = new StringBuilder(searchTmpl);
+        final int idx = s.indexOf("?");
+        s.replace(idx, idx + 1, escape(user));
+        return s.toString();
+    }
+
+    /**
+     * Escapes the characters with a special meaning in LDAP search filters (RFC 2254).
+     * @param value raw value
+     * @return value safe to use in a filter
+     */
+    static String escape(final String value) {
+        final StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    escaped.append("\\5c");
+                    break;
+                case '*':
+                    escaped.append("\\2a");
+                    break;
+                case '(':
+                    escaped.append("\\28");
+                    break;
+                case ')':
+                    escaped.append("\\29");
+                    break;
+                case '\0':
+                    escaped.append("\\00");
+                    break;
+                default:
+                    escaped.append(c);
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String getValue(final Attributes attrs, final String name) {
+        final Attribute attr = attrs.get(name);
+        if (attr == null) {
+            return null;
+        }
+        try {
+            final Object value = attr.get();
+            return value == null ? null : value.toString();
+        } catch (NamingException e) {
+            return null;
+        }
+    }
+
+    private void purgeExpired(final long now) {
+        for (final Iterator<CachedAddress> i = cache.values().iterator(); i.hasNext();) {
+            if (i.next().expires <= now) {
+                i.remove();
+            }
+        }
+    }
+
+    long getHits() {
+        synchronized (cache) {
+            return hits;
+        }
+    }
+
+    long getMisses() {
+        synchronized (cache) {
+            return misses;
+        }
+    }
+
+    long getSearches() {
+        synchronized (cache) {
+            return searches;
+        }
+    }
+
+    private static final class CachedAddress {
+        private final String address;
+        private final long expires;
+
+        private CachedAddress(final String address, final long expires) {
+            this.address = address;
+            this.expires = expires;
+        }
+    }
+}
@@ -41,15 +41,9 @@ import net.sourceforge.cruisecontrol.util.ValidationHelper;
 
 import org.apache.log4j.Logger;
 
-import javax.naming.Context;
-import javax.naming.NamingEnumeration;
-import javax.naming.directory.Attribute;
-import javax.naming.directory.Attributes;
-import javax.naming.directory.DirContext;
-import javax.naming.directory.InitialDirContext;
-import javax.naming.directory.SearchControls;
-import javax.naming.directory.SearchResult;
-import java.util.Hashtable;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * @author laineesa
@@ -65,7 +59,11 @@ public class LDAPMapper extends EmailAddressMapper {
     private String rootDN = null;
     private String searchTmpl = "(cn=?)";                           // commonly used default value
     private String searchAttr = "mail";                              // commonly used default value
-    private DirContext ctx = null;
+    private int cacheTTL = 3600;
+    private int negativeCacheTTL = 600;
+    private int batchSize = 50;
+    private LDAPDirectory directory = null;
+    private Map<String, String> prepared = null;
 
     /**
      *
@@ -130,6 +128,39 @@ public class LDAPMapper extends EmailAddressMapper {
         this.bindPassword = bindPassword;
     }
 
+    /**
+     * @param seconds how long a found address is remembered, default one hour
+     */
+    public void setCacheTTL(int seconds) {
+        this.cacheTTL = seconds;
+    }
+
+    public int getCacheTTL() {
+        return cacheTTL;
+    }
+
+    /**
+     * @param seconds how long a user without an address is remembered, default ten minutes
+     */
+    public void setNegativeCacheTTL(int seconds) {
+        this.negativeCacheTTL = seconds;
+    }
+
+    public int getNegativeCacheTTL() {
+        return negativeCacheTTL;
+    }
+
+    /**
+     * @param batchSize maximum number of users looked up in one search, default 50
+     */
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
     public void validate() throws CruiseControlException {
         ValidationHelper.assertIsSet(getUrl(), "url", this.getClass());
 
@@ -137,6 +168,12 @@ public class LDAPMapper extends EmailAddressMapper {
 
         ValidationHelper.assertIsDependentSet(getBindDN(), "bindDN", getBindPassword(), "bindPassword",
                 this.getClass());
+
+        ValidationHelper.assertTrue(getSearchTmpl() != null && getSearchTmpl().indexOf('?') >= 0,
+                "LDAPMapper searchTmpl must contain a '?' to be replaced by the user name.");
+        ValidationHelper.assertTrue(getCacheTTL() >= 0 && getNegativeCacheTTL() >= 0,
+                "LDAPMapper cacheTTL and negativeCacheTTL can not be negative.");
+        ValidationHelper.assertTrue(getBatchSize() > 0, "LDAPMapper batchSize must be positive.");
     }
 
     /*
@@ -144,62 +181,37 @@ public class LDAPMapper extends EmailAddressMapper {
      * @see net.sourceforge.cruisecontrol.publishers.email.EmailAddressMapper#open()
      */
     public void open() throws CruiseControlException {
-        final Hashtable<String, String> env = new Hashtable<String, String>();
-
-        env.put(Context.INITIAL_CONTEXT_FACTORY, ctxFactory);  // use jndi provider
-        env.put(Context.PROVIDER_URL, url);                    // the ldap url to connect to; e.g. "ldap://ca.com:389"
-        if (bindDN != null & bindPassword != null) {           // user allowed to read ldap
-            env.put(Context.SECURITY_PRINCIPAL, bindDN);       // password for ldapuser
-            env.put(Context.SECURITY_CREDENTIALS, bindPassword);
-        }
+        // the directory and its connections are shared by all mappers using the same settings
+        directory = LDAPDirectory.getInstance(this);
+    }
 
-        try {
-            ctx = new InitialDirContext(env);
-            LOG.debug("LDAPMapper: InitialContext created.");
-        } catch (Exception e) {
-            throw new CruiseControlException(e);
-        }
+    /*
+     * looks up all the users not already cached in one search
+     */
+    protected void prepare(final Set<String> users) {
+        prepared = directory.lookup(users);
     }
 
     public void close() {
-        if (ctx != null) {
-            try {
-                ctx.close();
-                LOG.debug("LDAPMapper: InitialContext closed.");
-            } catch (Exception ignored) {
-                //Ignored
-            }
-        }
+        prepared = null;
     }
 
     public String mapUser(final String user) {
-        final String[] searchAttrs = {searchAttr};
-        /* specify search constraints to search subtree */
-        final SearchControls constraints1 = new SearchControls();
-
-        constraints1.setSearchScope(SearchControls.SUBTREE_SCOPE);
-        constraints1.setCountLimit(0);
-        constraints1.setTimeLimit(0);
-
-        constraints1.setReturningAttributes(searchAttrs);
-
-        String email = null;
-        final StringBuilder s = new StringBuilder(searchTmpl);
-        final int idx = s.toString().indexOf("?");
-        s.replace(idx, idx + 1, user);
-        try {
-            final NamingEnumeration ne = ctx.search(rootDN, s.toString(), constraints1);
-            while (ne.hasMore()) {
-                final Object o = ne.next();
-                final Attributes attrs = ((SearchResult) o).getAttributes();
-                final Attribute emailAttr = attrs.get(searchAttr);
-                email = (String) emailAttr.get();
-            }
-        } catch (Exception e) {
-            e.printStackTrace();
+        final String email;
+        if (prepared != null && prepared.containsKey(user)) {
+            email = prepared.get(user);
+        } else {
+            email = directory.lookup(Collections.singleton(user)).get(user);
         }
         LOG.debug("LDAPMapper: Mapping " + user + " to " + email);
 
         return email;
     }
+
+    /*
+     * results are kept in the LDAPDirectory cache, which expires them after cachettl
+     */
+    public boolean cacheable() {
+        return false;
+    }
 }
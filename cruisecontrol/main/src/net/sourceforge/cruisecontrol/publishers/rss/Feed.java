@@ -38,7 +38,10 @@ package net.sourceforge.cruisecontrol.publishers.rss;
 
 import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
 
 import java.util.ArrayList;
@@ -52,6 +55,8 @@ import org.jdom.input.SAXBuilder;
 
 import org.apache.log4j.Logger;
 
+import net.sourceforge.cruisecontrol.util.IO;
+
 /**
  *  The feed class acts as a generic RSS Feed (there's no CruiseControl-specific
  *  functionality in this class).
@@ -72,6 +77,12 @@ public class Feed {
     private int maxLength = 20;
     private final List<Item> items = new ArrayList<Item>();
 
+    // Group commit state for writeTo(File): a request is satisfied by any write that started after it was made.
+    private final Object writeLock = new Object();
+    private long writesRequested;
+    private long writesCompleted;
+    private boolean writing;
+
     /**
      *  Constructor
      *
@@ -175,7 +186,7 @@ public class Feed {
 
     public void addItem(final Item item) {
         synchronized (this.items) {
-            if (this.items.size() == this.maxLength) {
+            while (!this.items.isEmpty() && this.items.size() >= this.maxLength) {
                 this.items.remove(this.items.size() - 1);
             }
             this.items.add(0, item);
@@ -211,7 +222,11 @@ public class Feed {
         br.write(this.channelLanguage);
         br.write("</language>\n");
 
-        for (final Item item : this.items) {
+        final List<Item> snapshot;
+        synchronized (this.items) {
+            snapshot = new ArrayList<Item>(this.items);
+        }
+        for (final Item item : snapshot) {
             //write each item...
             if (item != null) {
                 br.write(item.toXml());
@@ -221,4 +236,69 @@ public class Feed {
         br.write("</rss>\n");
         br.flush();
     }
+
+    /**
+     *  Writes the feed to the given file. The feed is written to a temporary file next to the target
+     *  and then renamed, so readers never see a partially written feed. Callers that arrive while
+     *  another write of this feed is in progress wait for it and are then served by a single
+     *  follow-up write, so several projects finishing together cost at most two writes.
+     *
+     *  @param file the file to publish the feed to.
+     *  @throws IOException if the feed could not be written.
+     */
+    public void writeTo(final File file) throws IOException {
+        final long requested;
+        synchronized (writeLock) {
+            requested = ++writesRequested;
+            try {
+                while (writing && writesCompleted < requested) {
+                    writeLock.wait();
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted waiting to write " + file.getPath());
+            }
+            if (writesCompleted >= requested) {
+                return;
+            }
+            writing = true;
+        }
+
+        long covered = requested;
+        boolean written = false;
+        try {
+            synchronized (writeLock) {
+                // every request made so far has already added its items
+                covered = writesRequested;
+            }
+            writeAtomically(file);
+            written = true;
+        } finally {
+            synchronized (writeLock) {
+                writing = false;
+                if (written && covered > writesCompleted) {
+                    writesCompleted = covered;
+                }
+                writeLock.notifyAll();
+            }
+        }
+    }
+
+    private void writeAtomically(final File file) throws IOException {
+        final File dir = file.getAbsoluteFile().getParentFile();
+        final File tmp = new File(dir, file.getName() + ".tmp");
+        final Writer out = new OutputStreamWriter(new FileOutputStream(tmp));
+        try {
+            write(out);
+        } finally {
+            IO.close(out);
+        }
+        if (!tmp.renameTo(file)) {
+            // some platforms will not rename over an existing file
+            file.delete();
+            if (!tmp.renameTo(file)) {
+                tmp.delete();
+                throw new IOException("Unable to rename " + tmp.getAbsolutePath() + " to " + file.getName());
+            }
+        }
+    }
 }
@@ -0,0 +1,112 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.report;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Headers of the versioned status protocol between a build loop and the dashboard.
+ * <p>
+ * Every post carries its version. A post that also carries a base version is a delta: it only holds the
+ * projects that changed since the base version and names the projects removed since then. A post without
+ * a base version is a full snapshot. The dashboard answers with the version it now holds for the build
+ * loop, or with {@link #NO_VERSION} when it could not apply a delta, in which case the build loop sends a
+ * full snapshot next. Dashboards that do not answer at all only ever get uncompressed full snapshots.
+ * </p>
+ */
+public final class BuildLoopStatusProtocol {
+    public static final String HEADER_VERSION = "X-CruiseControl-Status-Version";
+
+    public static final String HEADER_BASE_VERSION = "X-CruiseControl-Status-Base";
+
+    public static final String HEADER_REMOVED = "X-CruiseControl-Status-Removed";
+
+    public static final String HEADER_ACK = "X-CruiseControl-Status-Ack";
+
+    public static final long NO_VERSION = -1;
+
+    private static final String ENCODING = "UTF-8";
+
+    private BuildLoopStatusProtocol() {
+    }
+
+    public static long parseVersion(final String value) {
+        if (value == null || value.trim().length() == 0) {
+            return NO_VERSION;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return NO_VERSION;
+        }
+    }
+
+    public static String encodeNames(final Collection<String> names) {
+        final StringBuilder encoded = new StringBuilder();
+        for (final String name : names) {
+            if (encoded.length() > 0) {
+                encoded.append(',');
+            }
+            try {
+                encoded.append(URLEncoder.encode(name, ENCODING));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+        }
+        return encoded.toString();
+    }
+
+    public static List<String> decodeNames(final String encoded) {
+        final List<String> names = new ArrayList<String>();
+        if (encoded == null || encoded.length() == 0) {
+            return names;
+        }
+        for (final String name : encoded.split(",")) {
+            try {
+                names.add(URLDecoder.decode(name, ENCODING));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+        }
+        return names;
+    }
+}
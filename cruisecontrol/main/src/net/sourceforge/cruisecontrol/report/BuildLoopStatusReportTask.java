@@ -36,17 +36,37 @@
  ********************************************************************************/
 package net.sourceforge.cruisecontrol.report;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.TimerTask;
+import java.util.zip.GZIPOutputStream;
 
+import net.sourceforge.cruisecontrol.BuildLoopInformation;
 import net.sourceforge.cruisecontrol.BuildLoopInformationBuilder;
+import net.sourceforge.cruisecontrol.Modification;
+import net.sourceforge.cruisecontrol.BuildLoopInformation.JmxInfo;
+import net.sourceforge.cruisecontrol.BuildLoopInformation.ProjectInfo;
+import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.methods.ByteArrayRequestEntity;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
 import org.apache.log4j.Logger;
 
 
 
+/**
+ * Posts the build loop status to the dashboard. Once the dashboard acknowledges a post, only the projects
+ * whose status, build start time or modifications changed are sent, gzipped, until the next periodic full
+ * snapshot. See {@link BuildLoopStatusProtocol}.
+ */
 public class BuildLoopStatusReportTask extends TimerTask {
+    public static final int DEFAULT_FULL_SNAPSHOT_INTERVAL = 60;
+
     private BuildLoopInformationBuilder builder;
 
     private static final Logger LOGGER = Logger.getLogger(BuildLoopStatusReportTask.class);
@@ -59,16 +79,36 @@ public class BuildLoopStatusReportTask extends TimerTask {
 
     private String response;
 
+    private final int fullSnapshotInterval;
+
+    private long version;
+
+    private long acknowledged = BuildLoopStatusProtocol.NO_VERSION;
+
+    private int deltasSinceSnapshot;
+
+    private Map<String, String> sentFingerprints = new HashMap<String, String>();
+
+    private String sentServer;
+
+    private JmxInfo sentJmxInfo;
+
     public BuildLoopStatusReportTask(BuildLoopInformationBuilder builder, String url) {
         this(builder, url, new HttpClient(), 3000);
     }
 
     public BuildLoopStatusReportTask(BuildLoopInformationBuilder builder, String url, HttpClient http,
             int timeout) {
+        this(builder, url, http, timeout, DEFAULT_FULL_SNAPSHOT_INTERVAL);
+    }
+
+    public BuildLoopStatusReportTask(BuildLoopInformationBuilder builder, String url, HttpClient http,
+            int timeout, int fullSnapshotInterval) {
         this.builder = builder;
         this.url = url;
         this.http = http;
         this.http.getParams().setSoTimeout(timeout);
+        this.fullSnapshotInterval = fullSnapshotInterval;
     }
 
     public void run() {
@@ -85,9 +125,54 @@ public class BuildLoopStatusReportTask extends TimerTask {
 
     public void run(PostMethod postMethod) {
         try {
-            this.sent = builder.buildBuildLoopInformation().toXml();
-            postMethod.setRequestEntity(new StringRequestEntity(sent));
+            final BuildLoopInformation info = builder.buildBuildLoopInformation();
+            final Map<String, String> fingerprints = fingerprints(info.getProjects());
+            final long next = version + 1;
+            postMethod.addRequestHeader(BuildLoopStatusProtocol.HEADER_VERSION, String.valueOf(next));
+            if (canSendDelta(info)) {
+                final List<ProjectInfo> changed = new ArrayList<ProjectInfo>();
+                for (final ProjectInfo project : info.getProjects()) {
+                    if (!fingerprints.get(project.getName()).equals(sentFingerprints.get(project.getName()))) {
+                        changed.add(project);
+                    }
+                }
+                final List<String> removed = new ArrayList<String>();
+                for (final String name : sentFingerprints.keySet()) {
+                    if (!fingerprints.containsKey(name)) {
+                        removed.add(name);
+                    }
+                }
+                this.sent = new BuildLoopInformation(changed.toArray(new ProjectInfo[changed.size()]),
+                        info.getJmxInfo(), info.getServerName(), info.getTimestamp()).toXml();
+                postMethod.addRequestHeader(BuildLoopStatusProtocol.HEADER_BASE_VERSION, String.valueOf(version));
+                if (!removed.isEmpty()) {
+                    postMethod.addRequestHeader(BuildLoopStatusProtocol.HEADER_REMOVED,
+                            BuildLoopStatusProtocol.encodeNames(removed));
+                }
+                postMethod.addRequestHeader("Content-Encoding", "gzip");
+                postMethod.setRequestEntity(new ByteArrayRequestEntity(gzip(sent), "text/xml; charset=UTF-8"));
+                deltasSinceSnapshot++;
+            } else {
+                this.sent = info.toXml();
+                if (acknowledged == BuildLoopStatusProtocol.NO_VERSION) {
+                    postMethod.setRequestEntity(new StringRequestEntity(sent));
+                } else {
+                    postMethod.addRequestHeader("Content-Encoding", "gzip");
+                    postMethod.setRequestEntity(new ByteArrayRequestEntity(gzip(sent), "text/xml; charset=UTF-8"));
+                }
+                deltasSinceSnapshot = 0;
+            }
+            version = next;
+            sentFingerprints = fingerprints;
+            sentServer = info.getServerName();
+            sentJmxInfo = info.getJmxInfo();
+            acknowledged = BuildLoopStatusProtocol.NO_VERSION;
+
             http.executeMethod(postMethod);
+            final Header ack = postMethod.getResponseHeader(BuildLoopStatusProtocol.HEADER_ACK);
+            if (ack != null) {
+                acknowledged = BuildLoopStatusProtocol.parseVersion(ack.getValue());
+            }
             this.response = new String(postMethod.getResponseBody());
         } catch (Exception e) {
             LOGGER.warn("Failed to reach dashboard instance : " + this.url
@@ -96,4 +181,65 @@ public class BuildLoopStatusReportTask extends TimerTask {
             postMethod.releaseConnection();
         }
     }
+
+    /**
+     * A delta is only sent on top of the version the dashboard acknowledged last, and only for the same
+     * build loop identity, so anything lost on either side is repaired by the next full snapshot.
+     */
+    private boolean canSendDelta(final BuildLoopInformation info) {
+        return acknowledged != BuildLoopStatusProtocol.NO_VERSION
+                && acknowledged == version
+                && deltasSinceSnapshot < fullSnapshotInterval
+                && info.getProjects() != null
+                && equal(sentServer, info.getServerName())
+                && equal(sentJmxInfo, info.getJmxInfo());
+    }
+
+    private static boolean equal(final Object first, final Object second) {
+        return first == null ? second == null : first.equals(second);
+    }
+
+    private static Map<String, String> fingerprints(final ProjectInfo[] projects) {
+        final Map<String, String> fingerprints = new HashMap<String, String>();
+        if (projects != null) {
+            for (final ProjectInfo project : projects) {
+                fingerprints.put(project.getName(), fingerprint(project));
+            }
+        }
+        return fingerprints;
+    }
+
+    private static String fingerprint(final ProjectInfo project) {
+        final StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append(project.getStatus()).append('\n').append(project.getBuildStartTime());
+        @SuppressWarnings("unchecked") // ProjectInfo keeps its modifications in a raw list
+        final List<Object> modifications = project.getModifications();
+        if (modifications != null) {
+            for (final Object each : modifications) {
+                fingerprint.append('\n');
+                if (each instanceof Modification) {
+                    final Modification modification = (Modification) each;
+                    fingerprint.append(modification.type).append(' ').append(modification.revision).append(' ')
+                            .append(modification.userName).append(' ')
+                            .append(modification.modifiedTime == null ? 0 : modification.modifiedTime.getTime())
+                            .append(' ').append(modification.files.size()).append(' ')
+                            .append(modification.comment);
+                } else {
+                    fingerprint.append(each);
+                }
+            }
+        }
+        return fingerprint.toString();
+    }
+
+    private static byte[] gzip(final String content) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final GZIPOutputStream out = new GZIPOutputStream(bytes);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
 }
@@ -55,6 +55,7 @@ import net.sourceforge.cruisecontrol.gendoc.annotations.DescriptionFile;
 import net.sourceforge.cruisecontrol.gendoc.annotations.Optional;
 import net.sourceforge.cruisecontrol.gendoc.annotations.Required;
 import net.sourceforge.cruisecontrol.util.DateUtil;
+import net.sourceforge.cruisecontrol.util.LogDirectoryLayout;
 import net.sourceforge.cruisecontrol.util.ValidationHelper;
 import net.sourceforge.cruisecontrol.util.XMLLogHelper;
 
@@ -173,7 +174,7 @@ public class BuildStatus implements SourceControl {
         }
 
         try {
-            File[] newLogs = logDirectory.listFiles(new FilenameFilter() {
+            File[] newLogs = LogDirectoryLayout.listLogFiles(logDirectory, filename, null, new FilenameFilter() {
                 public boolean accept(File dir, String name) {
                     return name.compareTo(filename) > 0 && Log.wasSuccessfulBuild(name);
                 }
@@ -222,7 +223,7 @@ public class BuildStatus implements SourceControl {
 
     private void vetoIfFailing(File logDirectory) {
         NewestLogfileFilter filter = new NewestLogfileFilter();
-        logDirectory.listFiles(filter);
+        LogDirectoryLayout.findLatest(logDirectory, filter);
         String mostRecentLogfileName = filter.mostRecent;
         if (mostRecentLogfileName != null && !Log.wasSuccessfulBuild(mostRecentLogfileName)) {
             throw new VetoException("most recent build failed: " + mostRecentLogfileName);
@@ -372,6 +372,8 @@ public class CMSynergyModification extends Modification {
      */
     public final class ModifiedObject extends Modification.ModifiedFile {
 
+        private static final long serialVersionUID = 4373105482731266538L;
+
         // Let's not deal with possible null values
         public String name = "";
         public String version = "";
@@ -0,0 +1,610 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Content addressed store for published build artifacts. Every distinct file content is kept once
+ * below {@link #STORE_DIR} in the artifacts root, and the per build copies are hard links to it, so
+ * artifacts that do not change between builds take no additional space. Each timestamp directory
+ * gets a {@link #MANIFEST} listing the content it references; {@link #collectGarbage()} removes
+ * stored content no longer referenced by any manifest once old timestamp directories are deleted.
+ * <p>
+ * Stored content and so all the links to it are made read-only. Content modified in place anyway is noticed
+ * by its size or modification time and its hash when it is next published and stored again; the builds
+ * already linked to it keep the modified content.
+ * </p>
+ * <p>
+ * Hard links need a Java 7 runtime and a file system supporting them. Otherwise files are copied
+ * with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)} and the
+ * store is not used.
+ * </p>
+ * Stores are shared per artifacts root, see {@link #getInstance(File)}.
+ */
+public final class ArtifactStore {
+
+    private static final Logger LOG = Logger.getLogger(ArtifactStore.class);
+
+    /** Name of the directory holding the stored content, below the artifacts root. */
+    public static final String STORE_DIR = ".artifactstore";
+
+    /** Name of the manifest written into each timestamp directory. */
+    public static final String MANIFEST = ".artifactstore-manifest";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Coarsest file timestamp resolution to expect, in milliseconds (FAT keeps 2 seconds). A file modified this
+     * close to the time it was hashed is hashed again, even if its size and modification time did not change.
+     */
+    private static final long MTIME_RESOLUTION = 2000;
+
+    private static final Map<String, ArtifactStore> STORES = new HashMap<String, ArtifactStore>();
+
+    // java.nio.file is looked up reflectively so the build stays on the Java 5 API
+    private static final Method TO_PATH;
+    private static final Method CREATE_LINK;
+    private static final Method SET_WRITABLE;
+
+    static {
+        Method toPath = null;
+        Method createLink = null;
+        Method setWritable = null;
+        try {
+            final Class< ? > pathClass = Class.forName("java.nio.file.Path");
+            final Class< ? > filesClass = Class.forName("java.nio.file.Files");
+            toPath = File.class.getMethod("toPath");
+            createLink = filesClass.getMethod("createLink", pathClass, pathClass);
+            setWritable = File.class.getMethod("setWritable", boolean.class);
+        } catch (Exception e) {
+            LOG.debug("Hard links are not supported by this runtime, artifacts will be copied");
+        }
+        TO_PATH = toPath;
+        CREATE_LINK = createLink;
+        SET_WRITABLE = setWritable;
+    }
+
+    private final File root;
+    private final File storeDir;
+    private final Map<String, Fingerprint> fingerprints = new HashMap<String, Fingerprint>();
+    private final Map<String, Integer> inFlight = new HashMap<String, Integer>();
+    private final Map<String, long[]> intactBlobs = new HashMap<String, long[]>();
+    private Boolean linking;
+
+    private int storedCount;
+    private int linkedCount;
+    private int copiedCount;
+
+    private ArtifactStore(final File root) {
+        this.root = root;
+        this.storeDir = new File(root, STORE_DIR);
+    }
+
+    /**
+     * @param root the artifacts root, i.e. the directory holding the timestamp directories.
+     * @return the store shared by everyone publishing below the given root.
+     */
+    public static ArtifactStore getInstance(final File root) {
+        File canonical;
+        try {
+            canonical = root.getCanonicalFile();
+        } catch (IOException e) {
+            canonical = root.getAbsoluteFile();
+        }
+        synchronized (STORES) {
+            ArtifactStore store = STORES.get(canonical.getPath());
+            if (store == null) {
+                store = new ArtifactStore(canonical);
+                STORES.put(canonical.getPath(), store);
+            }
+            return store;
+        }
+    }
+
+    /**
+     * @param root an artifacts root.
+     * @return true if artifacts have been published with deduplication below the given root.
+     */
+    public static boolean exists(final File root) {
+        return new File(root, STORE_DIR).isDirectory();
+    }
+
+    /**
+     * Publishes a file or directory tree.
+     * @param source the file or directory to publish.
+     * @param destination the file or directory to create; existing files are replaced.
+     * @param timestampDir the timestamp directory below the root the destination belongs to.
+     * @param threads number of files to publish in parallel.
+     * @throws IOException if publishing fails.
+     */
+    public void publish(final File source, final File destination, final File timestampDir, final int threads)
+            throws IOException {
+
+        final List<File[]> pairs = new ArrayList<File[]>();
+        collect(source, destination, pairs);
+
+        if (!isLinkingSupported()) {
+            runAll(pairs, threads, new FileTask() {
+                public String run(final File from, final File to) throws IOException {
+                    prepareTarget(to);
+                    copy(from, to);
+                    countCopied();
+                    return null;
+                }
+            });
+            return;
+        }
+
+        final List<String> hashes = new ArrayList<String>();
+        try {
+            final List<String> results = runAll(pairs, threads, new FileTask() {
+                public String run(final File from, final File to) throws IOException {
+                    final String hash = fingerprint(from);
+                    acquire(hash);
+                    synchronized (hashes) {
+                        hashes.add(hash);
+                    }
+                    final File blob = store(hash, from);
+                    prepareTarget(to);
+                    if (link(to, blob)) {
+                        countLinked();
+                    } else {
+                        copy(blob, to);
+                        countCopied();
+                    }
+                    return hash;
+                }
+            });
+            writeManifest(timestampDir, pairs, results);
+        } finally {
+            synchronized (this) {
+                for (final String hash : hashes) {
+                    release(hash);
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes a published file or directory tree, including the read-only files linked to stored content.
+     * @param file the file or directory to delete.
+     */
+    public static void deleteTree(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                deleteTree(child);
+            }
+        }
+        deleteFile(file);
+    }
+
+    /**
+     * Removes stored content that is not referenced by the manifest of any timestamp directory.
+     * @return the number of stored files removed.
+     * @throws IOException if a manifest cannot be read.
+     */
+    public synchronized int collectGarbage() throws IOException {
+        if (!storeDir.isDirectory()) {
+            return 0;
+        }
+
+        final Set<String> live = new HashSet<String>(inFlight.keySet());
+        final File[] dirs = root.listFiles();
+        for (final File dir : dirs) {
+            final File manifest = new File(dir, MANIFEST);
+            if (!dir.equals(storeDir) && manifest.isFile()) {
+                readManifest(manifest, live);
+            }
+        }
+
+        int removed = 0;
+        final File[] buckets = storeDir.listFiles();
+        for (final File bucket : buckets) {
+            if (!bucket.isDirectory()) {
+                continue;
+            }
+            final File[] blobs = bucket.listFiles();
+            for (final File blob : blobs) {
+                if (!live.contains(blob.getName()) && deleteFile(blob)) {
+                    removed++;
+                }
+            }
+            // only succeeds once the bucket is empty
+            bucket.delete();
+        }
+        LOG.debug("Removed " + removed + " unreferenced artifacts from " + storeDir.getAbsolutePath());
+        return removed;
+    }
+
+    /** @return number of distinct contents added to the store. */
+    public synchronized int getStoredCount() {
+        return storedCount;
+    }
+
+    /** @return number of published files that are links to stored content. */
+    public synchronized int getLinkedCount() {
+        return linkedCount;
+    }
+
+    /** @return number of published files that had to be copied. */
+    public synchronized int getCopiedCount() {
+        return copiedCount;
+    }
+
+    /**
+     * @return true if published files are linked to the store, false if they are copied.
+     */
+    public synchronized boolean isLinkingSupported() {
+        if (linking == null) {
+            linking = Boolean.valueOf(probeLinking());
+        }
+        return linking.booleanValue();
+    }
+
+    private boolean probeLinking() {
+        if (CREATE_LINK == null) {
+            return false;
+        }
+        storeDir.mkdirs();
+        final File probe = new File(storeDir, ".probe");
+        final File probeLink = new File(storeDir, ".probe-link");
+        try {
+            new FileOutputStream(probe).close();
+            return link(probeLink, probe);
+        } catch (IOException e) {
+            return false;
+        } finally {
+            probeLink.delete();
+            probe.delete();
+        }
+    }
+
+    private static void collect(final File source, final File destination, final List<File[]> pairs) {
+        if (source.isDirectory()) {
+            final File[] children = source.listFiles();
+            for (final File child : children) {
+                collect(child, new File(destination, child.getName()), pairs);
+            }
+            destination.mkdirs();
+        } else {
+            pairs.add(new File[] {source, destination});
+        }
+    }
+
+    private interface FileTask {
+        String run(File from, File to) throws IOException;
+    }
+
+    private static List<String> runAll(final List<File[]> pairs, final int threads, final FileTask task)
+            throws IOException {
+
+        final List<String> results = new ArrayList<String>(pairs.size());
+        if (threads <= 1 || pairs.size() <= 1) {
+            for (final File[] pair : pairs) {
+                results.add(task.run(pair[0], pair[1]));
+            }
+            return results;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, pairs.size()));
+        try {
+            final List<Future<String>> futures = new ArrayList<Future<String>>(pairs.size());
+            for (final File[] pair : pairs) {
+                futures.add(executor.submit(new Callable<String>() {
+                    public String call() throws IOException {
+                        return task.run(pair[0], pair[1]);
+                    }
+                }));
+            }
+            for (final Future<String> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            throw new IOException("Interrupted while publishing artifacts");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void prepareTarget(final File to) throws IOException {
+        final File parent = to.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Unable to create directory " + parent.getAbsolutePath());
+        }
+        if (to.exists() && !deleteFile(to)) {
+            throw new IOException("Unable to replace " + to.getAbsolutePath());
+        }
+    }
+
+    /** Deletes a file, also where read-only files can not be deleted. */
+    private static boolean deleteFile(final File file) {
+        return file.delete() || (makeWritable(file) && file.delete());
+    }
+
+    static boolean makeWritable(final File file) {
+        try {
+            return SET_WRITABLE != null && ((Boolean) SET_WRITABLE.invoke(file, Boolean.TRUE)).booleanValue();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private File store(final String hash, final File source) throws IOException {
+        final File bucket = new File(storeDir, hash.substring(0, 2));
+        final File blob = new File(bucket, hash);
+        if (isIntact(hash, blob)) {
+            return blob;
+        }
+
+        bucket.mkdirs();
+        final File tmp = new File(bucket, hash + "." + Thread.currentThread().getId() + ".tmp");
+        copy(source, tmp);
+        synchronized (this) {
+            if (isIntact(hash, blob)) {
+                tmp.delete();
+                return blob;
+            }
+            if (blob.exists()) {
+                LOG.warn("Stored artifact " + blob.getAbsolutePath() + " was modified in place, which changed"
+                        + " every build linked to it; storing its content again");
+                deleteFile(blob);
+            }
+            if (!tmp.renameTo(blob)) {
+                tmp.delete();
+                throw new IOException("Unable to rename " + tmp.getAbsolutePath() + " to " + blob.getName());
+            }
+            blob.setReadOnly();
+            rememberIntact(hash, blob);
+            storedCount++;
+        }
+        return blob;
+    }
+
+    /**
+     * A stored file may have been modified through one of the links to it. It is trusted while its size and
+     * modification time are those it had when it was stored or last hashed, else it is hashed again.
+     */
+    private boolean isIntact(final String hash, final File blob) throws IOException {
+        if (!blob.isFile()) {
+            return false;
+        }
+        synchronized (intactBlobs) {
+            final long[] stamp = intactBlobs.get(hash);
+            if (stamp != null && stamp[0] == blob.length() && stamp[1] == blob.lastModified()) {
+                return true;
+            }
+        }
+        if (!hash.equals(hash(blob))) {
+            return false;
+        }
+        rememberIntact(hash, blob);
+        return true;
+    }
+
+    private void rememberIntact(final String hash, final File blob) {
+        synchronized (intactBlobs) {
+            intactBlobs.put(hash, new long[] {blob.length(), blob.lastModified()});
+        }
+    }
+
+    private static boolean link(final File link, final File existing) {
+        try {
+            CREATE_LINK.invoke(null, TO_PATH.invoke(link), TO_PATH.invoke(existing));
+            return true;
+        } catch (Exception e) {
+            LOG.debug("Unable to link " + link.getAbsolutePath() + " to " + existing.getAbsolutePath(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Copies a file using the channel transfer of the platform.
+     * @param from the file to copy.
+     * @param to the file to create.
+     * @throws IOException if copying fails.
+     */
+    static void copy(final File from, final File to) throws IOException {
+        final FileInputStream in = new FileInputStream(from);
+        try {
+            final FileOutputStream out = new FileOutputStream(to);
+            try {
+                final FileChannel source = in.getChannel();
+                final FileChannel target = out.getChannel();
+                final long size = source.size();
+                long position = 0;
+                while (position < size) {
+                    position += source.transferTo(position, size - position, target);
+                }
+            } finally {
+                IO.close(out);
+            }
+        } finally {
+            IO.close(in);
+        }
+        to.setLastModified(from.lastModified());
+    }
+
+    private String fingerprint(final File file) throws IOException {
+        final String path = file.getAbsolutePath();
+        final long scanned = System.currentTimeMillis();
+        final long length = file.length();
+        final long modified = file.lastModified();
+        synchronized (fingerprints) {
+            final Fingerprint known = fingerprints.get(path);
+            // a file changed within the timestamp resolution of the last scan may keep its size and mtime
+            if (known != null && known.length == length && known.modified == modified
+                    && known.scanned - modified > MTIME_RESOLUTION) {
+                return known.hash;
+            }
+        }
+        final String hash = hash(file);
+        synchronized (fingerprints) {
+            fingerprints.put(path, new Fingerprint(length, modified, scanned, hash));
+        }
+        return hash;
+    }
+
+    static String hash(final File file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+        final InputStream in = new FileInputStream(file);
+        try {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            IO.close(in);
+        }
+
+        final byte[] bytes = digest.digest();
+        final StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (final byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16));
+            hex.append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    private synchronized void acquire(final String hash) {
+        final Integer count = inFlight.get(hash);
+        inFlight.put(hash, count == null ? 1 : count + 1);
+    }
+
+    private void release(final String hash) {
+        final Integer count = inFlight.get(hash);
+        if (count == null || count <= 1) {
+            inFlight.remove(hash);
+        } else {
+            inFlight.put(hash, count - 1);
+        }
+    }
+
+    private synchronized void countLinked() {
+        linkedCount++;
+    }
+
+    private synchronized void countCopied() {
+        copiedCount++;
+    }
+
+    private synchronized void writeManifest(final File timestampDir, final List<File[]> pairs,
+                                            final List<String> hashes) throws IOException {
+        timestampDir.mkdirs();
+        final String prefix = timestampDir.getAbsolutePath() + File.separator;
+        final Writer out = new FileWriter(new File(timestampDir, MANIFEST), true);
+        try {
+            for (int i = 0; i < pairs.size(); i++) {
+                String path = pairs.get(i)[1].getAbsolutePath();
+                if (path.startsWith(prefix)) {
+                    path = path.substring(prefix.length());
+                }
+                out.write(hashes.get(i) + " " + path + "\n");
+            }
+        } finally {
+            IO.close(out);
+        }
+    }
+
+    private static void readManifest(final File manifest, final Set<String> live) throws IOException {
+        final BufferedReader in = new BufferedReader(new FileReader(manifest));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                final int space = line.indexOf(' ');
+                if (space > 0) {
+                    live.add(line.substring(0, space));
+                }
+            }
+        } finally {
+            IO.close(in);
+        }
+    }
+
+    private static final class Fingerprint {
+        private final long length;
+        private final long modified;
+        /** when the file was hashed */
+        private final long scanned;
+        private final String hash;
+
+        private Fingerprint(final long length, final long modified, final long scanned, final String hash) {
+            this.length = length;
+            this.modified = modified;
+            this.scanned = scanned;
+            this.hash = hash;
+        }
+    }
+}
@@ -38,10 +38,12 @@ package net.sourceforge.cruisecontrol.util;
 
 import net.sourceforge.cruisecontrol.LiveOutputReader;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.FileOutputStream;
 import java.io.FileNotFoundException;
@@ -64,6 +66,21 @@ public class BuildOutputLogger implements StreamConsumer, LiveOutputReader, Seri
     private String id;
     /** Counter used to change the id after data reset. */
     private long resetCount;
+    /** Where the last read of complete lines ended, so reading later lines need not skip the earlier ones. */
+    private transient volatile ReadPosition lastRead;
+
+    /** The start of a line in the data file, valid for the logger id it was read with. */
+    private static final class ReadPosition {
+        private final String id;
+        private final int line;
+        private final long offset;
+
+        private ReadPosition(final String id, final int line, final long offset) {
+            this.id = id;
+            this.line = line;
+            this.offset = offset;
+        }
+    }
 
     public BuildOutputLogger(File outputFile) {
         data = outputFile;
@@ -74,6 +91,7 @@ public class BuildOutputLogger implements StreamConsumer, LiveOutputReader, Seri
     public void clear() {
         if (noDataFile()) { return; }
         data.delete();
+        lastRead = null;
 
         // reset ID after data file is cleared.
         // Allows clients to read from beginning if readUptoMaxLines() was called before a reset.
@@ -138,31 +156,87 @@ public class BuildOutputLogger implements StreamConsumer, LiveOutputReader, Seri
     }
 
     private List<String> loadFile(final int firstLine) {
+        final String readId = id;
+        final ReadPosition start = lastRead;
+        final boolean isResumed = start != null && start.id.equals(readId) && start.line <= firstLine
+                && start.offset <= data.length();
         try {
-            final BufferedReader reader = new BufferedReader(new FileReader(data));
+            final InputStream in = new BufferedInputStream(new FileInputStream(data));
             try {
-                skipLines(reader, firstLine);
-                return readUptoMaxLines(reader);
+                int line = 0;
+                long offset = 0;
+                if (isResumed) {
+                    skipBytes(in, start.offset);
+                    line = start.line;
+                    offset = start.offset;
+                }
+                final List<String> result = new ArrayList<String>();
+                final ByteArrayOutputStream lineBytes = new ByteArrayOutputStream();
+                while (result.size() < MAX_LINES) {
+                    final int length = readLine(in, lineBytes);
+                    if (length == 0) {
+                        break;
+                    }
+                    final boolean isComplete = lineBytes.size() < length;
+                    if (line >= firstLine) {
+                        result.add(lineBytes.toString());
+                    }
+                    if (!isComplete) {
+                        // still being written, read it again next time
+                        break;
+                    }
+                    line++;
+                    offset += length;
+                }
+                lastRead = new ReadPosition(readId, line, offset);
+                return result;
             } finally {
-                reader.close();
+                in.close();
             }
         } catch (IOException e) {
             return new ArrayList<String>();
         }
     }
 
-    private List<String> readUptoMaxLines(BufferedReader reader) throws IOException {
-        List<String> result = new ArrayList<String>();
-        String line = reader.readLine();
-        while (line != null && result.size() < MAX_LINES) {
-            result.add(line);
-            line = reader.readLine();
+    /**
+     * Reads up to and including the next line feed, the way the lines were written by {@link #consumeLine(String)}.
+     * @param in stream to read from
+     * @param lineBytes receives the line, without line feed or carriage return
+     * @return the number of bytes read, 0 at the end of the stream
+     */
+    private static int readLine(final InputStream in, final ByteArrayOutputStream lineBytes) throws IOException {
+        lineBytes.reset();
+        int length = 0;
+        boolean isCarriageReturn = false;
+        int c;
+        while ((c = in.read()) != -1) {
+            length++;
+            if (c == '\n') {
+                return length;
+            }
+            if (isCarriageReturn) {
+                lineBytes.write('\r');
+            }
+            isCarriageReturn = (c == '\r');
+            if (!isCarriageReturn) {
+                lineBytes.write(c);
+            }
         }
-        return result;
+        if (isCarriageReturn) {
+            lineBytes.write('\r');
+        }
+        return length;
     }
 
-    private void skipLines(final BufferedReader inFile, final int numToSkip) throws IOException {
-        for (int i = 0; i < numToSkip; i++) { inFile.readLine(); }
+    private static void skipBytes(final InputStream in, final long count) throws IOException {
+        long remaining = count;
+        while (remaining > 0) {
+            final long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                throw new IOException("Output file is shorter than expected");
+            }
+            remaining -= skipped;
+        }
     }
 
     private boolean noDataFile() {
@@ -0,0 +1,268 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.util;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Knows where build logs live below a project's log directory. Logs are either kept directly in the log
+ * directory or, with the sharded layout, in a <code>yyyy/MM</code> subdirectory for the month of the build,
+ * so that no single directory has to be listed in full. The methods here find logs in either layout, and in
+ * a mix of both while a log directory is being migrated.
+ */
+public final class LogDirectoryLayout {
+    private static final int YEAR_START = "log".length();
+    private static final int MONTH_START = YEAR_START + 4;
+    private static final int MONTH_END = MONTH_START + 2;
+
+    private LogDirectoryLayout() {
+    }
+
+    /**
+     * @param logFileName name of a log file, like <code>log20080401120000.xml</code>
+     * @return the month of the build as yyyyMM, or null if the name is not the name of a log file.
+     */
+    public static String getMonth(final String logFileName) {
+        if (logFileName == null || !logFileName.startsWith("log") || logFileName.length() < MONTH_END) {
+            return null;
+        }
+        final String month = logFileName.substring(YEAR_START, MONTH_END);
+        return isDigits(month, month.length()) ? month : null;
+    }
+
+    /**
+     * @param logDir the log directory of a project
+     * @param logFileName name of a log file
+     * @return the directory the log file belongs in with the sharded layout.
+     * @throws IllegalArgumentException if the name is not the name of a log file.
+     */
+    public static File getShardDirectory(final File logDir, final String logFileName) {
+        final String month = getMonth(logFileName);
+        if (month == null) {
+            throw new IllegalArgumentException("Not a log file name: " + logFileName);
+        }
+        return new File(new File(logDir, month.substring(0, 4)), month.substring(4));
+    }
+
+    /**
+     * @param name name of a directory entry
+     * @return true if the name is that of a year directory of the sharded layout.
+     */
+    public static boolean isYearDirectoryName(final String name) {
+        return isDigits(name, 4);
+    }
+
+    /**
+     * @param name name of a directory entry
+     * @return true if the name is that of a month directory of the sharded layout.
+     */
+    public static boolean isMonthDirectoryName(final String name) {
+        return isDigits(name, 2);
+    }
+
+    /**
+     * Finds a log file in either layout. Only looks at the files it could be, no directory is listed.
+     * @param logDir the log directory of a project
+     * @param logFileName name of a log file
+     * @return the log file in its shard directory if it exists there, else the file directly in the log directory.
+     */
+    public static File locate(final File logDir, final String logFileName) {
+        if (getMonth(logFileName) != null) {
+            final File sharded = new File(getShardDirectory(logDir, logFileName), logFileName);
+            if (sharded.exists()) {
+                return sharded;
+            }
+        }
+        return new File(logDir, logFileName);
+    }
+
+    /**
+     * @param logFile a log file
+     * @return the log directory of the project the log file belongs to.
+     */
+    public static File getLogDirectory(final File logFile) {
+        final File parent = logFile.getAbsoluteFile().getParentFile();
+        final File year = parent.getParentFile();
+        final String month = getMonth(logFile.getName());
+        if (month != null && year != null && year.getParentFile() != null
+                && parent.getName().equals(month.substring(4)) && year.getName().equals(month.substring(0, 4))) {
+            return year.getParentFile();
+        }
+        return parent;
+    }
+
+    /**
+     * Lists the files of both layouts accepted by the filter, like {@link File#listFiles(FilenameFilter)}.
+     * @param logDir the log directory of a project
+     * @param filter decides which files to list, is passed the directory the file is in
+     * @return the accepted files, or null if the log directory can not be listed.
+     */
+    public static File[] listLogFiles(final File logDir, final FilenameFilter filter) {
+        return listLogFiles(logDir, null, null, filter);
+    }
+
+    /**
+     * Lists the files of both layouts accepted by the filter, leaving out shard directories of months outside
+     * the given range without listing them.
+     * @param logDir the log directory of a project
+     * @param from name of the log file of the first month to list, or null to start with the oldest
+     * @param to name of the log file of the last month to list, or null to end with the newest
+     * @param filter decides which files to list, is passed the directory the file is in
+     * @return the accepted files, or null if the log directory can not be listed.
+     */
+    public static File[] listLogFiles(final File logDir, final String from, final String to,
+                                      final FilenameFilter filter) {
+        final List<String> years = new ArrayList<String>();
+        final List<File> files = listFlat(logDir, filter, years);
+        if (files == null) {
+            return null;
+        }
+        final String fromMonth = getMonth(from);
+        final String toMonth = getMonth(to);
+        for (final String year : years) {
+            if ((fromMonth != null && year.compareTo(fromMonth.substring(0, 4)) < 0)
+                    || (toMonth != null && year.compareTo(toMonth.substring(0, 4)) > 0)) {
+                continue;
+            }
+            for (final String month : listMonths(new File(logDir, year))) {
+                final String key = year + month;
+                if ((fromMonth == null || key.compareTo(fromMonth) >= 0)
+                        && (toMonth == null || key.compareTo(toMonth) <= 0)) {
+                    final File shard = new File(new File(logDir, year), month);
+                    final File[] shardFiles = shard.listFiles(filter);
+                    if (shardFiles != null) {
+                        files.addAll(Arrays.asList(shardFiles));
+                    }
+                }
+            }
+        }
+        return files.toArray(new File[files.size()]);
+    }
+
+    /**
+     * Finds the accepted log file with the greatest name, which as log file names start with the build time is
+     * the latest. Only the newest shard directory with an accepted file is listed.
+     * @param logDir the log directory of a project
+     * @param filter decides which files to consider, is passed the directory the file is in
+     * @return the latest accepted log file, or null if there is none.
+     */
+    public static File findLatest(final File logDir, final FilenameFilter filter) {
+        final List<String> years = new ArrayList<String>();
+        final List<File> flat = listFlat(logDir, filter, years);
+        if (flat == null) {
+            return null;
+        }
+        File latest = latest(flat);
+        Collections.reverse(years);
+        for (final String year : years) {
+            final List<String> months = listMonths(new File(logDir, year));
+            Collections.reverse(months);
+            for (final String month : months) {
+                final File[] shardFiles = new File(new File(logDir, year), month).listFiles(filter);
+                if (shardFiles != null && shardFiles.length > 0) {
+                    final File shardLatest = latest(Arrays.asList(shardFiles));
+                    return latest == null || shardLatest.getName().compareTo(latest.getName()) > 0
+                            ? shardLatest : latest;
+                }
+            }
+        }
+        return latest;
+    }
+
+    /**
+     * Lists the log directory itself once, collecting the accepted files and the names of year directories.
+     */
+    private static List<File> listFlat(final File logDir, final FilenameFilter filter, final List<String> years) {
+        final String[] names = logDir.list();
+        if (names == null) {
+            return null;
+        }
+        final List<File> files = new ArrayList<File>();
+        for (final String name : names) {
+            if (isYearDirectoryName(name)) {
+                if (new File(logDir, name).isDirectory()) {
+                    years.add(name);
+                }
+            } else if (filter.accept(logDir, name)) {
+                files.add(new File(logDir, name));
+            }
+        }
+        Collections.sort(years);
+        return files;
+    }
+
+    private static List<String> listMonths(final File yearDir) {
+        final List<String> months = new ArrayList<String>();
+        final String[] names = yearDir.list();
+        if (names != null) {
+            for (final String name : names) {
+                if (isMonthDirectoryName(name)) {
+                    months.add(name);
+                }
+            }
+            Collections.sort(months);
+        }
+        return months;
+    }
+
+    private static File latest(final List<File> files) {
+        File latest = null;
+        for (final File file : files) {
+            if (latest == null || file.getName().compareTo(latest.getName()) > 0) {
+                latest = file;
+            }
+        }
+        return latest;
+    }
+
+    private static boolean isDigits(final String name, final int length) {
+        if (name == null || name.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,164 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.util;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Moves the build logs kept directly in a log directory into the shard directories of the sharded layout,
+ * see {@link LogDirectoryLayout}. Logs are moved one by one, oldest first, so readers find every log in one
+ * layout or the other at any time and a migration that is stopped can simply be started again.
+ * <p>
+ * Can be run from the command line with the log directories to migrate as arguments, and is started in the
+ * background by a log with the sharded layout that finds logs left in the old layout.
+ * </p>
+ */
+public class LogDirectoryMigrator implements Runnable {
+    private static final Logger LOG = Logger.getLogger(LogDirectoryMigrator.class);
+
+    private static final Set<File> RUNNING = new HashSet<File>();
+
+    private static final FilenameFilter LOG_FILTER = new FilenameFilter() {
+        public boolean accept(final File dir, final String name) {
+            return LogDirectoryLayout.getMonth(name) != null
+                    && (name.endsWith(".xml") || name.endsWith(".xml.gz"));
+        }
+    };
+
+    private final File logDir;
+
+    private int moved;
+
+    public LogDirectoryMigrator(final File logDir) {
+        this.logDir = logDir;
+    }
+
+    /**
+     * @param logDir the log directory of a project
+     * @return true if there are logs directly in the log directory.
+     */
+    public static boolean hasUnmigratedLogs(final File logDir) {
+        final String[] names = logDir.list(LOG_FILTER);
+        return names != null && names.length > 0;
+    }
+
+    /**
+     * Starts migrating the given log directory in a low priority daemon thread, unless it is already being
+     * migrated.
+     * @param logDir the log directory of a project
+     * @return true if a migration was started.
+     */
+    public static boolean startInBackground(final File logDir) {
+        final File key = logDir.getAbsoluteFile();
+        synchronized (RUNNING) {
+            if (!RUNNING.add(key)) {
+                return false;
+            }
+        }
+        final Thread migration = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    new LogDirectoryMigrator(key).run();
+                } finally {
+                    synchronized (RUNNING) {
+                        RUNNING.remove(key);
+                    }
+                }
+            }
+        }, "LogDirectoryMigrator " + key.getName());
+        migration.setDaemon(true);
+        migration.setPriority(Thread.MIN_PRIORITY);
+        migration.start();
+        return true;
+    }
+
+    public void run() {
+        final String[] names = logDir.list(LOG_FILTER);
+        if (names == null) {
+            LOG.warn("Unable to list log directory " + logDir.getAbsolutePath());
+            return;
+        }
+        Arrays.sort(names);
+        LOG.info("Moving " + names.length + " logs of " + logDir.getAbsolutePath() + " into the sharded layout");
+        for (final String name : names) {
+            migrate(name);
+        }
+        LOG.info("Moved " + moved + " logs of " + logDir.getAbsolutePath() + " into the sharded layout");
+    }
+
+    private void migrate(final String name) {
+        final File log = new File(logDir, name);
+        final File shard = LogDirectoryLayout.getShardDirectory(logDir, name);
+        if (!shard.isDirectory() && !Util.doMkDirs(shard)) {
+            LOG.warn("Unable to create log directory " + shard.getAbsolutePath());
+            return;
+        }
+        final File target = new File(shard, name);
+        if (target.exists()) {
+            LOG.warn("Not moving " + log.getAbsolutePath() + ", " + target.getAbsolutePath() + " already exists");
+        } else if (log.renameTo(target)) {
+            moved++;
+        } else if (log.exists()) {
+            LOG.warn("Unable to move " + log.getAbsolutePath() + " to " + target.getAbsolutePath());
+        }
+    }
+
+    /**
+     * @return the number of logs moved so far.
+     */
+    public int getMovedCount() {
+        return moved;
+    }
+
+    public static void main(final String[] args) {
+        if (args.length == 0) {
+            System.err.println("Usage: " + LogDirectoryMigrator.class.getName() + " <logdir>...");
+            return;
+        }
+        for (final String arg : args) {
+            final LogDirectoryMigrator migrator = new LogDirectoryMigrator(new File(arg));
+            migrator.run();
+            System.out.println("Moved " + migrator.getMovedCount() + " logs of " + arg);
+        }
+    }
+}
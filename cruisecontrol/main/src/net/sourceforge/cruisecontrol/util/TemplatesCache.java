@@ -0,0 +1,377 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stream.StreamSource;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Shared cache of compiled XSL stylesheets.
+ * <p>
+ * Compiling a stylesheet (and everything it includes or imports) usually costs more than the
+ * transformation itself, so the compiled {@link Templates} are kept keyed by the stylesheet URL.
+ * Each entry remembers the last modified time of the stylesheet and of every stylesheet pulled
+ * in through <code>xsl:include</code>/<code>xsl:import</code>; when any of them changes the entry
+ * is recompiled on next use. Stylesheets that are not files are checked at most once per
+ * {@link #CHECK_INTERVAL} for each entry, as that may mean a request to a server. The number of entries
+ * is bounded, least recently used entries are evicted first.
+ * </p>
+ * <p>
+ * {@link Templates} are thread safe, so the same instance is handed out to all callers; a new
+ * {@link Transformer} must still be created for each transformation.
+ * </p>
+ */
+public final class TemplatesCache {
+    private static final Logger LOG = Logger.getLogger(TemplatesCache.class);
+
+    public static final int DEFAULT_MAX_SIZE = 32;
+
+    /** Milliseconds a compiled stylesheet is used before stylesheets that are not files are checked again. */
+    public static final long CHECK_INTERVAL = 2000;
+
+    private static final String SAXON_VERSION_WARNING = "http://saxon.sf.net/feature/version-warning";
+
+    private static final TemplatesCache INSTANCE = new TemplatesCache(DEFAULT_MAX_SIZE);
+
+    /** TransformerFactory is not thread safe, all compilations synchronize on it. */
+    private final TransformerFactory factory;
+    private final Map<String, Entry> entries;
+    private int maxSize;
+
+    private long hits;
+    private long misses;
+    private long reloads;
+    private long evictions;
+
+    public static TemplatesCache getInstance() {
+        return INSTANCE;
+    }
+
+    public TemplatesCache(final int maxSize) {
+        this(TransformerFactory.newInstance(), maxSize);
+    }
+
+    TemplatesCache(final TransformerFactory factory, final int maxSize) {
+        this.factory = factory;
+        try {
+            factory.setAttribute(SAXON_VERSION_WARNING, Boolean.FALSE);
+        } catch (IllegalArgumentException iaex) {
+            LOG.debug("could not silence Saxon XSLT 2.0 warning, processor is probably not saxon: "
+                    + iaex.getMessage());
+        }
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive, was " + maxSize);
+        }
+        this.maxSize = maxSize;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(final Map.Entry<String, Entry> eldest) {
+                if (size() > TemplatesCache.this.maxSize) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param xsl stylesheet file
+     * @return compiled stylesheet, compiled now if not cached or changed since it was cached
+     * @throws TransformerException if the stylesheet can not be compiled
+     */
+    public Templates getTemplates(final File xsl) throws TransformerException {
+        try {
+            return getTemplates(xsl.getAbsoluteFile().toURI().toURL());
+        } catch (MalformedURLException e) {
+            throw new TransformerConfigurationException("Invalid stylesheet location " + xsl, e);
+        }
+    }
+
+    /**
+     * @param xsl stylesheet location
+     * @return compiled stylesheet, compiled now if not cached or changed since it was cached
+     * @throws TransformerException if the stylesheet can not be compiled
+     */
+    public Templates getTemplates(final URL xsl) throws TransformerException {
+        final String key = xsl.toExternalForm();
+
+        Entry entry = lookup(key);
+        if (entry != null && entry.isCurrent(System.currentTimeMillis())) {
+            recordHit();
+            return entry.templates;
+        }
+
+        synchronized (factory) {
+            // another thread may have compiled it while we waited
+            entry = lookup(key);
+            if (entry != null && entry.isCurrent(System.currentTimeMillis())) {
+                recordHit();
+                return entry.templates;
+            }
+
+            final Entry compiled = compile(xsl);
+            synchronized (this) {
+                if (entry == null) {
+                    misses++;
+                } else {
+                    LOG.info("Stylesheet " + key + " changed, reloading");
+                    reloads++;
+                }
+                entries.put(key, compiled);
+            }
+            return compiled.templates;
+        }
+    }
+
+    /**
+     * Convenience method for callers needing a single transformation.
+     * @param xsl stylesheet file
+     * @return new transformer created from the cached stylesheet
+     * @throws TransformerException if the stylesheet can not be compiled
+     */
+    public Transformer newTransformer(final File xsl) throws TransformerException {
+        return getTemplates(xsl).newTransformer();
+    }
+
+    /**
+     * Convenience method for callers needing a single transformation.
+     * @param xsl stylesheet location
+     * @return new transformer created from the cached stylesheet
+     * @throws TransformerException if the stylesheet can not be compiled
+     */
+    public Transformer newTransformer(final URL xsl) throws TransformerException {
+        return getTemplates(xsl).newTransformer();
+    }
+
+    private synchronized Entry lookup(final String key) {
+        return entries.get(key);
+    }
+
+    private synchronized void recordHit() {
+        hits++;
+    }
+
+    /** Must be called while holding the factory lock. */
+    private Entry compile(final URL xsl) throws TransformerException {
+        final Map<String, Long> dependencies = new HashMap<String, Long>();
+        dependencies.put(xsl.toExternalForm(), new Long(lastModified(xsl)));
+
+        final URIResolver previous = factory.getURIResolver();
+        factory.setURIResolver(new DependencyRecorder(dependencies));
+        try {
+            LOG.debug("Compiling stylesheet " + xsl);
+            final Templates templates = factory.newTemplates(new StreamSource(xsl.toExternalForm()));
+            return new Entry(templates, dependencies);
+        } finally {
+            factory.setURIResolver(previous);
+        }
+    }
+
+    static long lastModified(final URL url) {
+        if ("file".equals(url.getProtocol())) {
+            try {
+                return new File(url.toURI()).lastModified();
+            } catch (URISyntaxException e) {
+                return new File(url.getPath()).lastModified();
+            } catch (IllegalArgumentException e) {
+                return new File(url.getPath()).lastModified();
+            }
+        }
+        if ("jar".equals(url.getProtocol())) {
+            // an entry changes with its jar, which can be checked without opening it
+            final int separator = url.getPath().indexOf("!/");
+            if (separator >= 0) {
+                try {
+                    return lastModified(new URL(url.getPath().substring(0, separator)));
+                } catch (MalformedURLException e) {
+                    return 0;
+                }
+            }
+        }
+        try {
+            final URLConnection connection = url.openConnection();
+            connection.setUseCaches(false);
+            if (connection instanceof HttpURLConnection) {
+                ((HttpURLConnection) connection).setRequestMethod("HEAD");
+            }
+            try {
+                return connection.getLastModified();
+            } finally {
+                if (connection instanceof HttpURLConnection) {
+                    ((HttpURLConnection) connection).disconnect();
+                }
+            }
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @param maxSize maximum number of compiled stylesheets to keep, must be positive
+     */
+    public synchronized void setMaxSize(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("maxSize must be positive, was " + maxSize);
+        }
+        this.maxSize = maxSize;
+        while (entries.size() > maxSize) {
+            entries.remove(entries.keySet().iterator().next());
+            evictions++;
+        }
+    }
+
+    /**
+     * @return number of lookups served with a current compiled stylesheet
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getReloads() {
+        return reloads;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    /**
+     * Drops all compiled stylesheets, the statistics are kept.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        reloads = 0;
+        evictions = 0;
+    }
+
+    private static final class Entry {
+        private final Templates templates;
+        private final Map<String, Long> dependencies;
+        private volatile long checked = System.currentTimeMillis();
+
+        private Entry(final Templates templates, final Map<String, Long> dependencies) {
+            this.templates = templates;
+            this.dependencies = dependencies;
+        }
+
+        /**
+         * Files are checked every time, other stylesheets only once the check interval has passed.
+         */
+        boolean isCurrent(final long now) {
+            final boolean checkAll = now - checked >= CHECK_INTERVAL;
+            for (final Map.Entry<String, Long> dependency : dependencies.entrySet()) {
+                try {
+                    final URL url = new URL(dependency.getKey());
+                    if (!checkAll && !"file".equals(url.getProtocol())) {
+                        continue;
+                    }
+                    if (lastModified(url) != dependency.getValue().longValue()) {
+                        return false;
+                    }
+                } catch (MalformedURLException e) {
+                    return false;
+                }
+            }
+            if (checkAll) {
+                checked = now;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Resolves included and imported stylesheets the same way the processor would,
+     * remembering their last modified time.
+     */
+    private static final class DependencyRecorder implements URIResolver {
+        private final Map<String, Long> dependencies;
+
+        private DependencyRecorder(final Map<String, Long> dependencies) {
+            this.dependencies = dependencies;
+        }
+
+        public Source resolve(final String href, final String base) throws TransformerException {
+            final URL url;
+            try {
+                url = base == null ? new URL(href) : new URL(new URL(base), href);
+            } catch (MalformedURLException e) {
+                // let the processor apply its default resolution
+                return null;
+            }
+            dependencies.put(url.toExternalForm(), new Long(lastModified(url)));
+            return new StreamSource(url.toExternalForm());
+        }
+    }
+}
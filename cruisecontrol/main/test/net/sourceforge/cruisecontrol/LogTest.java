@@ -50,6 +50,7 @@ import net.sourceforge.cruisecontrol.logmanipulators.GZIPManipulator;
 import net.sourceforge.cruisecontrol.testutil.TestUtil;
 import net.sourceforge.cruisecontrol.testutil.TestUtil.FilesToDelete;
 import net.sourceforge.cruisecontrol.util.DateUtil;
+import net.sourceforge.cruisecontrol.util.LogDirectoryMigrator;
 
 import org.jdom.CDATA;
 import org.jdom.Element;
@@ -391,6 +392,40 @@ public class LogTest extends TestCase {
         assertEquals("There must be two log files", 2, labels.size());
     }
 
+    public void testShardedLogIsWrittenIntoMonthDirectory() throws Exception {
+        final Calendar date = Calendar.getInstance();
+        date.set(2007, Calendar.MARCH, 4, 12, 0, 0);
+        final Date flatDate = date.getTime();
+        getWrittenTestLog(getName(), flatDate);
+
+        final Log log = new Log();
+        log.setProjectName(getName());
+        log.setDir(LOG_DIR);
+        log.setSharded(true);
+        log.validate();
+        log.addContent(getBuildLogInfo());
+        log.addContent(new Element("build"));
+        log.addContent(new Element("modifications"));
+        date.set(2008, Calendar.APRIL, 5, 12, 0, 0);
+        log.writeLogFile(date.getTime());
+
+        final String shardedName = "log" + DateUtil.getFormattedTime(date.getTime()) + "L.xml";
+        final File shardedFile = new File(LOG_DIR, "2008" + File.separator + "04" + File.separator + shardedName);
+        assertTrue(shardedFile.isFile());
+        assertFalse(new File(LOG_DIR, shardedName).exists());
+
+        final List<String> labels = log.getLogLabels();
+        assertEquals(2, labels.size());
+        assertTrue(labels.contains(shardedName));
+        assertEquals(shardedFile.getAbsoluteFile(), log.getFileFromLabel(shardedName).getAbsoluteFile());
+
+        // the log started moving the flat log in the background, finish that here
+        new LogDirectoryMigrator(new File(LOG_DIR)).run();
+        final String flatName = "log" + DateUtil.getFormattedTime(flatDate) + "L.xml";
+        assertFalse(new File(LOG_DIR, flatName).exists());
+        assertTrue(new File(LOG_DIR, "2007" + File.separator + "03" + File.separator + flatName).isFile());
+        assertTrue(log.getLogLabels().contains(flatName));
+    }
 
     private void assertBackupsHelper(final Log log,
                                      final int expectedLength, final int expectedXML, final int expectedGZIP) {
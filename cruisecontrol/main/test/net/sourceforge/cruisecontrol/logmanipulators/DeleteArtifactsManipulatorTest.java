@@ -8,7 +8,9 @@ import java.util.Calendar;
 import java.text.SimpleDateFormat;
 
 import net.sourceforge.cruisecontrol.testutil.TestUtil;
+import net.sourceforge.cruisecontrol.util.ArtifactStore;
 import net.sourceforge.cruisecontrol.util.DateUtil;
+import net.sourceforge.cruisecontrol.util.IO;
 
 /**
  * @author Dan Rollo
@@ -89,4 +91,18 @@ public class DeleteArtifactsManipulatorTest extends TestCase {
                 tempProjectLog.exists());
     }
 
+    public void testDeleteRemovesUnreferencedStoredArtifacts() throws Exception {
+        final File source = new File(tempProjectLogDir.getParentFile(), "artifact.jar");
+        IO.write(source, "artifact");
+        final ArtifactStore store = ArtifactStore.getInstance(tempProjectLogDir);
+        store.publish(source, new File(tempArtifactsDir, source.getName()), tempArtifactsDir, 1);
+        if (!store.isLinkingSupported()) {
+            return;
+        }
+
+        final File storeDir = new File(tempProjectLogDir, ArtifactStore.STORE_DIR);
+        instance.execute(tempProjectLogDir.getAbsolutePath());
+        assertTrue(storeDir.isDirectory());
+        assertEquals(0, storeDir.list().length);
+    }
 }
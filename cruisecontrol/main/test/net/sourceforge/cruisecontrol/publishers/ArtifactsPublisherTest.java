@@ -189,4 +189,44 @@ public class ArtifactsPublisherTest extends TestCase {
         assertTrue((!withMoving) == new File(tempFile.getAbsolutePath()).exists()); // source
         assertTrue(new File(temporaryDir, tempFile.getName()).exists()); // destination
     }
+
+    public void testValidateDeduplicate() throws CruiseControlException {
+        publisher.setDest("foo");
+        publisher.setDir("bar");
+        publisher.setDeduplicate(true);
+        publisher.validate();
+
+        publisher.setMoveInsteadOfCopy(true);
+        try {
+            publisher.validate();
+            fail();
+        } catch (CruiseControlException expected) {
+            assertNotNull(expected);
+        }
+
+        publisher.setMoveInsteadOfCopy(false);
+        publisher.setThreads(0);
+        try {
+            publisher.validate();
+            fail();
+        } catch (CruiseControlException expected) {
+            assertNotNull(expected);
+        }
+    }
+
+    public void testPublishToStore() throws CruiseControlException {
+        final File dest = new File(temporaryDir, "deduplicated");
+        filesToDelete.add(dest);
+        publisher.setDest(dest.getAbsolutePath());
+        publisher.setFile(tempFile.getAbsolutePath());
+        publisher.setSubdirectory("sub");
+        publisher.setDeduplicate(true);
+
+        final String timestamp = "20040102030405";
+        publisher.publishToStore(new File(dest, timestamp), publisher.getDestinationDirectory(timestamp));
+
+        assertTrue(new File(dest, timestamp + File.separatorChar + "sub" + File.separatorChar
+                + tempFile.getName()).isFile());
+        assertTrue(tempFile.exists());
+    }
 }
@@ -57,8 +57,11 @@ import net.sourceforge.cruisecontrol.publishers.EmailPublisher.Alert;
 import net.sourceforge.cruisecontrol.publishers.EmailPublisher.Always;
 import net.sourceforge.cruisecontrol.publishers.EmailPublisher.Ignore;
 import net.sourceforge.cruisecontrol.publishers.email.DropLetterEmailAddressMapper;
+import net.sourceforge.cruisecontrol.publishers.email.EmailOutbox;
+import net.sourceforge.cruisecontrol.publishers.email.MockSmtpServer;
 import net.sourceforge.cruisecontrol.publishers.email.PropertiesMapper;
 import net.sourceforge.cruisecontrol.testutil.TestUtil;
+import net.sourceforge.cruisecontrol.util.IO;
 import net.sourceforge.cruisecontrol.util.XMLLogHelper;
 
 import org.jdom.Element;
@@ -171,6 +174,47 @@ public class EmailPublisherTest extends TestCase {
         publisher.validate();
     }
 
+    public void testValidateOutboxDir() throws CruiseControlException {
+        final EmailPublisher publisher = new MockEmailPublisher();
+        publisher.setReturnAddress("returnaddress");
+        publisher.setOutboxDir("outbox");
+        try {
+            publisher.validate();
+            fail("outboxdir should require mailhost");
+        } catch (CruiseControlException expected) {
+        }
+
+        publisher.setMailHost("mailhost");
+        publisher.validate();
+
+        publisher.setCoalesceWindow(-1);
+        try {
+            publisher.validate();
+            fail("coalescewindow can not be negative");
+        } catch (CruiseControlException expected) {
+        }
+    }
+
+    public void testSendMailThroughOutbox() throws Exception {
+        final MockSmtpServer server = new MockSmtpServer();
+        final File outboxDir = new File(TestUtil.getTargetDir(), "EmailPublisherTest-outbox");
+        try {
+            emailPublisher.setMailHost("localhost");
+            emailPublisher.setMailPort(String.valueOf(server.getPort()));
+            emailPublisher.setOutboxDir(outboxDir.getAbsolutePath());
+
+            assertTrue(emailPublisher.sendMail("user@host.com", "queued", "message", false));
+
+            final EmailOutbox outbox = emailPublisher.getOutbox();
+            assertTrue(outbox.waitUntilEmpty(10000));
+            outbox.stop();
+            assertEquals(1, server.getMessages().size());
+        } finally {
+            server.stop();
+            IO.delete(outboxDir);
+        }
+    }
+
     public void testEmailValidator() {
         assertTrue(emailPublisher.isValid("jerome@coffeebreaks.org"));
         assertFalse(emailPublisher.isValid("jerome@coffeebreaks."));
@@ -38,7 +38,10 @@ package net.sourceforge.cruisecontrol.publishers;
 
 import junit.framework.TestCase;
 import net.sourceforge.cruisecontrol.CruiseControlException;
+import net.sourceforge.cruisecontrol.testutil.TestUtil;
+import net.sourceforge.cruisecontrol.testutil.TestUtil.FilesToDelete;
 import net.sourceforge.cruisecontrol.util.Commandline;
+import net.sourceforge.cruisecontrol.util.IO;
 
 import java.io.File;
 
@@ -47,6 +50,7 @@ import org.jdom.Element;
 public class SCPPublisherTest extends TestCase {
 
     private SCPPublisher publisher;
+    private final FilesToDelete filesToDelete = new FilesToDelete();
 
     protected void setUp() throws Exception {
         publisher = new SCPPublisher();
@@ -54,6 +58,7 @@ public class SCPPublisherTest extends TestCase {
 
     protected void tearDown() throws Exception {
         publisher = null;
+        filesToDelete.delete();
     }
 
     public void testIfFileNotSetShouldGetLatestLogNameEachTime() throws CruiseControlException {
@@ -167,6 +172,35 @@ public class SCPPublisherTest extends TestCase {
             publisher.createCommandline("filename").toString());
     }
 
+    public void testShouldPublishShardedLogFromItsMonthDirectory() throws Exception {
+        final File logDir = new File(TestUtil.getTargetDir(), "SCPPublisherTest");
+        filesToDelete.add(logDir);
+        final File shardDir = new File(new File(logDir, "2008"), "04");
+        assertTrue(shardDir.mkdirs());
+        IO.write(new File(shardDir, "log20080401120000.xml"), "<cruisecontrol/>");
+        IO.write(new File(logDir, "log20080402120000.xml"), "<cruisecontrol/>");
+
+        assertEquals("2008" + File.separator + "04" + File.separator + "log20080401120000.xml",
+            publisher.getLogFileName(log(logDir, "log20080401120000.xml")));
+        assertEquals("log20080402120000.xml", publisher.getLogFileName(log(logDir, "log20080402120000.xml")));
+    }
+
+    private static Element log(File logDir, String logFileName) {
+        Element info = new Element("info");
+        info.addContent(property("logdir", logDir.getAbsolutePath()));
+        info.addContent(property("logfile", logFileName));
+        Element log = new Element("cruisecontrol");
+        log.addContent(info);
+        return log;
+    }
+
+    private static Element property(String name, String value) {
+        Element property = new Element("property");
+        property.setAttribute("name", name);
+        property.setAttribute("value", value);
+        return property;
+    }
+
     private class TestSCPPublisher extends SCPPublisher {
         private boolean getLogFileNameWasCalled = false;
 
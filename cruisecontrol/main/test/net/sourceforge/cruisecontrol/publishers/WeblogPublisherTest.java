@@ -423,6 +423,18 @@ public class WeblogPublisherTest extends TestCase {
         assertEquals("Testing", buf.toString());
     }
 
+    public void testCreateMessageTransformsShardedLog() throws Exception {
+        final File logDir = createTempDir();
+        final File shardDir = new File(new File(logDir, "2008"), "04");
+        Util.doMkDirs(shardDir);
+        filesToDelete.add(new File(logDir, "2008"));
+        IO.write(new File(shardDir, "log20080401120000.xml"), "<?xml version='1.0'?><just>Testing</just>");
+        publisher.setLogDir(logDir.getAbsolutePath());
+        publisher.setXSLFile(createTempXslFile().getAbsolutePath());
+
+        assertEquals("Testing", publisher.createMessage("project", "log20080401120000.xml"));
+    }
+
     private File createTempXslFile() throws IOException, CruiseControlException {
         File f = createTempFile();
         StringBuilder buf = new StringBuilder();
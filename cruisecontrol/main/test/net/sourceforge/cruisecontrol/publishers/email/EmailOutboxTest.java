@@ -0,0 +1,267 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.publishers.email;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import javax.mail.Message;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+import junit.framework.TestCase;
+import net.sourceforge.cruisecontrol.testutil.TestUtil;
+import net.sourceforge.cruisecontrol.util.IO;
+
+public class EmailOutboxTest extends TestCase {
+
+    private static final long TIMEOUT = 10 * 1000L;
+
+    private MockSmtpServer server;
+    private File spoolDir;
+    private EmailOutbox outbox;
+
+    protected void setUp() throws Exception {
+        server = new MockSmtpServer();
+        spoolDir = new File(TestUtil.getTargetDir(), "EmailOutboxTest");
+        IO.delete(spoolDir);
+    }
+
+    protected void tearDown() throws Exception {
+        if (outbox != null) {
+            outbox.stop();
+        }
+        server.stop();
+        IO.delete(spoolDir);
+    }
+
+    public void testShouldSendQueuedMessagesOverOneConnection() throws Exception {
+        outbox = createOutbox();
+        outbox.enqueue(createMessage("a@example.com", "first"));
+        outbox.enqueue(createMessage("b@example.com", "second"));
+        outbox.enqueue(createMessage("c@example.com", "third"));
+        outbox.start();
+
+        assertTrue(outbox.waitUntilEmpty(TIMEOUT));
+        assertEquals(3, server.getMessages().size());
+        assertEquals(1, server.getConnections());
+        assertEquals(3, outbox.getSentCount());
+        assertEquals(0, spoolDir.list().length);
+    }
+
+    public void testShouldReconnectAfterMaxMessagesPerConnection() throws Exception {
+        outbox = createOutbox();
+        outbox.setMaxMessagesPerConnection(2);
+        for (int i = 0; i < 5; i++) {
+            outbox.enqueue(createMessage("a" + i + "@example.com", "message " + i));
+        }
+        outbox.start();
+
+        assertTrue(outbox.waitUntilEmpty(TIMEOUT));
+        assertEquals(5, server.getMessages().size());
+        assertEquals(3, server.getConnections());
+    }
+
+    public void testShouldRetryWhenServerUnavailable() throws Exception {
+        server.refuseConnections(2);
+        outbox = createOutbox();
+        outbox.setRetryDelay(10, 100);
+        outbox.start();
+        outbox.enqueue(createMessage("a@example.com", "retried"));
+
+        assertTrue(outbox.waitUntilEmpty(TIMEOUT));
+        assertEquals(1, server.getMessages().size());
+        assertEquals(3, server.getConnections());
+    }
+
+    public void testShouldGiveUpAfterMaxAttempts() throws Exception {
+        server.refuseConnections(10);
+        outbox = createOutbox();
+        outbox.setRetryDelay(10, 10);
+        outbox.setMaxAttempts(2);
+        outbox.start();
+        outbox.enqueue(createMessage("a@example.com", "undeliverable"));
+
+        assertTrue(outbox.waitUntilEmpty(TIMEOUT));
+        assertEquals(0, server.getMessages().size());
+        assertEquals(1, new File(spoolDir, EmailOutbox.FAILED_DIR).list().length);
+    }
+
+    public void testShouldSendMessagesSpooledBeforeRestart() throws Exception {
+        outbox = createOutbox();
+        outbox.enqueue(createMessage("a@example.com", "survivor"));
+        outbox.stop();
+
+        outbox = createOutbox();
+        assertEquals(1, outbox.getQueueSize());
+        outbox.start();
+
+        assertTrue(outbox.waitUntilEmpty(TIMEOUT));
+        final List<String> messages = server.getMessages();
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0).indexOf("Subject: survivor") >= 0);
+    }
+
+    public void testShouldCoalesceMessagesToSameRecipients() throws Exception {
+        outbox = createOutbox();
+        outbox.enqueue(createMessage("team@example.com", "project one broken"), 200);
+        outbox.enqueue(createMessage("team@example.com", "project two broken"), 200);
+        outbox.enqueue(createMessage("other@example.com", "project three broken"), 200);
+        outbox.start();
+
+        assertTrue(outbox.waitUntilEmpty(TIMEOUT));
+        final List<String> messages = server.getMessages();
+        assertEquals(2, messages.size());
+        assertEquals(3, outbox.getSentCount());
+
+        final String digest = messages.get(0);
+        assertTrue(digest, digest.indexOf("Subject: project one broken (+1 more)") >= 0);
+        assertTrue(digest, digest.indexOf("Subject: project two broken") >= 0);
+    }
+
+    public void testShouldOnlyHoldMessagesQueuedWithCoalesceWindow() throws Exception {
+        outbox = createOutbox();
+        outbox.start();
+        outbox.enqueue(createMessage("team@example.com", "held"), 60 * 1000L);
+        outbox.enqueue(createMessage("team@example.com", "not held"));
+
+        final long end = System.currentTimeMillis() + TIMEOUT;
+        while (server.getMessages().isEmpty() && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        final List<String> messages = server.getMessages();
+        assertEquals(1, messages.size());
+        assertTrue(messages.get(0).indexOf("Subject: not held") >= 0);
+        assertEquals(1, outbox.getQueueSize());
+    }
+
+    public void testShouldCoalesceMessagesWithoutSender() throws Exception {
+        outbox = createOutbox();
+        final MimeMessage anonymous = createMessage("team@example.com", "no sender");
+        anonymous.removeHeader("From");
+        outbox.enqueue(anonymous, 200);
+        outbox.enqueue(createMessage("team@example.com", "second"), 200);
+        outbox.start();
+
+        assertTrue(outbox.waitUntilEmpty(TIMEOUT));
+        assertEquals(1, server.getMessages().size());
+        assertEquals(2, outbox.getSentCount());
+    }
+
+    public void testShouldShareOutboxOnlyBetweenSameConnectionSettings() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("mail.smtp.host", "localhost");
+        properties.setProperty("mail.smtp.port", String.valueOf(server.getPort()));
+        final Properties ssl = new Properties();
+        ssl.putAll(properties);
+        ssl.setProperty("mail.smtp.socketFactory.class", "javax.net.ssl.SSLSocketFactory");
+
+        final List<EmailOutbox> outboxes = new ArrayList<EmailOutbox>();
+        try {
+            final EmailOutbox shared = EmailOutbox.getInstance(spoolDir, properties, "user", "secret");
+            outboxes.add(shared);
+            assertSame(shared, EmailOutbox.getInstance(spoolDir, properties, "user", "secret"));
+
+            outboxes.add(EmailOutbox.getInstance(spoolDir, properties, "other", "secret"));
+            outboxes.add(EmailOutbox.getInstance(spoolDir, ssl, "user", "secret"));
+            assertNotSame(shared, outboxes.get(1));
+            assertNotSame(shared, outboxes.get(2));
+
+            // a changed password replaces the outbox, which then sends the mail spooled by the old one
+            final EmailOutbox changed = EmailOutbox.getInstance(spoolDir, properties, "user", "changed");
+            outboxes.add(changed);
+            assertNotSame(shared, changed);
+            assertFalse(shared.isRunning());
+            assertEquals(shared.getSpoolDir(), changed.getSpoolDir());
+        } finally {
+            for (final EmailOutbox created : outboxes) {
+                created.stop();
+            }
+        }
+    }
+
+    public void testShouldSendQueuedMessagesOnceAfterPasswordChange() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("mail.smtp.host", "localhost");
+        properties.setProperty("mail.smtp.port", String.valueOf(server.getPort()));
+
+        final EmailOutbox old = EmailOutbox.getInstance(spoolDir, properties, "user", "secret");
+        EmailOutbox changed = null;
+        try {
+            for (int i = 0; i < 3; i++) {
+                old.enqueue(createMessage("a" + i + "@example.com", "held " + i), 500);
+            }
+            changed = EmailOutbox.getInstance(spoolDir, properties, "user", "changed");
+            assertEquals(0, old.getQueueSize());
+            assertEquals(3, changed.getQueueSize());
+
+            // a publisher still holding the old outbox hands its mail to the new one
+            old.enqueue(createMessage("b@example.com", "late"));
+
+            assertTrue(changed.waitUntilEmpty(TIMEOUT));
+            assertTrue(old.waitUntilEmpty(TIMEOUT));
+            assertEquals(4, server.getMessages().size());
+            assertEquals(4, changed.getSentCount());
+            assertEquals(0, old.getSentCount());
+            assertEquals(0, changed.getSpoolDir().list().length);
+        } finally {
+            old.stop();
+            if (changed != null) {
+                changed.stop();
+            }
+        }
+    }
+
+    private EmailOutbox createOutbox() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("mail.smtp.host", "localhost");
+        properties.setProperty("mail.smtp.port", String.valueOf(server.getPort()));
+        return new EmailOutbox(spoolDir, properties, null, null);
+    }
+
+    private static MimeMessage createMessage(final String to, final String subject) throws Exception {
+        final MimeMessage message = new MimeMessage(Session.getInstance(new Properties(), null));
+        message.setFrom(new InternetAddress("cruise@example.com"));
+        message.setRecipients(Message.RecipientType.TO, InternetAddress.parse(to));
+        message.setSubject(subject);
+        message.setText("body of " + subject);
+        return message;
+    }
+}
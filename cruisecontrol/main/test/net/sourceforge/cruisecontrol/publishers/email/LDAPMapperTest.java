@@ -0,0 +1,158 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.publishers.email;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+import net.sourceforge.cruisecontrol.CruiseControlException;
+
+public class LDAPMapperTest extends TestCase {
+
+    protected void setUp() throws Exception {
+        LDAPDirectory.reset();
+        MockLDAPContextFactory.reset();
+        MockLDAPContextFactory.addEntry("alice", "alice@example.com");
+        MockLDAPContextFactory.addEntry("bob", "bob@example.com");
+    }
+
+    protected void tearDown() throws Exception {
+        LDAPDirectory.reset();
+    }
+
+    public void testValidate() throws CruiseControlException {
+        final LDAPMapper mapper = createMapper();
+        mapper.validate();
+
+        mapper.setSearchTmpl("(cn=user)");
+        try {
+            mapper.validate();
+            fail("searchTmpl without ? should be rejected");
+        } catch (CruiseControlException expected) {
+        }
+    }
+
+    public void testShouldLookUpAllUsersInOneSearch() {
+        final Set<String> mapped = map(createMapper(), "alice", "bob", "carol");
+
+        assertTrue(mapped.contains("alice@example.com"));
+        assertTrue(mapped.contains("bob@example.com"));
+        // unmapped users are passed through by the helper, not by the mapper
+        assertFalse(mapped.contains("carol"));
+        assertEquals(1, MockLDAPContextFactory.getFilters().size());
+        final String filter = MockLDAPContextFactory.getFilters().get(0);
+        assertTrue(filter, filter.startsWith("(|"));
+    }
+
+    public void testShouldCacheFoundAndMissingUsersAcrossMappers() {
+        map(createMapper(), "alice", "carol");
+        final Set<String> mapped = map(createMapper(), "alice", "carol");
+
+        assertTrue(mapped.contains("alice@example.com"));
+        assertEquals(1, MockLDAPContextFactory.getFilters().size());
+    }
+
+    public void testShouldExpireCachedResults() throws Exception {
+        final LDAPMapper mapper = createMapper();
+        mapper.setNegativeCacheTTL(0);
+        map(mapper, "alice", "carol");
+        map(mapper, "alice", "carol");
+
+        assertEquals(2, MockLDAPContextFactory.getFilters().size());
+        assertEquals("(cn=carol)", MockLDAPContextFactory.getFilters().get(1));
+    }
+
+    public void testShouldNotCacheUsersOfFailedSearch() {
+        // the batch and then each user are searched, every search is retried once with a fresh context
+        MockLDAPContextFactory.failSearches(6);
+        assertTrue(map(createMapper(), "alice", "carol").isEmpty());
+        assertEquals(6, MockLDAPContextFactory.getFilters().size());
+
+        final Set<String> mapped = map(createMapper(), "alice", "carol");
+
+        assertTrue(mapped.contains("alice@example.com"));
+        assertEquals(7, MockLDAPContextFactory.getFilters().size());
+    }
+
+    public void testShouldSplitLargeLookupsIntoBatches() {
+        final LDAPMapper mapper = createMapper();
+        mapper.setBatchSize(2);
+        map(mapper, "alice", "bob", "carol", "dave", "eve");
+
+        assertEquals(3, MockLDAPContextFactory.getFilters().size());
+    }
+
+    public void testShouldReuseDirectoryContext() {
+        map(createMapper(), "alice");
+        map(createMapper(), "bob");
+
+        assertEquals(1, MockLDAPContextFactory.getContextsCreated());
+        assertEquals(1, MockLDAPContextFactory.getContextsOpen());
+    }
+
+    public void testShouldSearchUsersOneByOneForComplexTemplates() {
+        final LDAPMapper mapper = createMapper();
+        mapper.setSearchTmpl("(&(objectClass=person)(cn=?))");
+        final Set<String> mapped = map(mapper, "alice", "bob");
+
+        assertEquals(2, mapped.size());
+        assertEquals(2, MockLDAPContextFactory.getFilters().size());
+    }
+
+    public void testShouldEscapeFilterValues() {
+        assertEquals("a\\2a\\28b\\29\\5c", LDAPDirectory.escape("a*(b)\\"));
+    }
+
+    private static LDAPMapper createMapper() {
+        final LDAPMapper mapper = new LDAPMapper();
+        mapper.setUrl("ldap://localhost:389");
+        mapper.setRootDN("dc=example,dc=com");
+        mapper.setCtxfactory(MockLDAPContextFactory.class.getName());
+        return mapper;
+    }
+
+    private static Set<String> map(final LDAPMapper mapper, final String... users) {
+        final Set<String> toMap = new HashSet<String>();
+        for (final String user : users) {
+            toMap.add(user);
+        }
+        final Set<String> mapped = new HashSet<String>();
+        mapper.mapUsers(toMap, mapped);
+        return mapped;
+    }
+}
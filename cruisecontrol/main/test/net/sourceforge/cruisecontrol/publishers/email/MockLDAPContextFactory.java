@@ -0,0 +1,165 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.publishers.email;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.naming.Context;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.BasicAttributes;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.SearchResult;
+import javax.naming.spi.InitialContextFactory;
+
+/**
+ * In-memory stand-in for an LDAP directory, usable as the ctxfactory of an LDAPMapper.
+ * Understands search filters made of (cn=value) terms, optionally or-ed together.
+ */
+public class MockLDAPContextFactory implements InitialContextFactory {
+
+    private static final Pattern TERM = Pattern.compile("\\(cn=([^)]*)\\)");
+
+    private static final Map<String, String> ENTRIES = new HashMap<String, String>();
+    private static final List<String> FILTERS = new ArrayList<String>();
+    private static int contextsCreated;
+    private static int contextsOpen;
+    private static int failingSearches;
+
+    public static synchronized void reset() {
+        ENTRIES.clear();
+        FILTERS.clear();
+        contextsCreated = 0;
+        contextsOpen = 0;
+        failingSearches = 0;
+    }
+
+    /** @param count number of searches to fail, from the next one on */
+    public static synchronized void failSearches(final int count) {
+        failingSearches = count;
+    }
+
+    public static synchronized void addEntry(final String cn, final String mail) {
+        ENTRIES.put(cn, mail);
+    }
+
+    public static synchronized List<String> getFilters() {
+        return new ArrayList<String>(FILTERS);
+    }
+
+    public static synchronized int getContextsCreated() {
+        return contextsCreated;
+    }
+
+    public static synchronized int getContextsOpen() {
+        return contextsOpen;
+    }
+
+    public Context getInitialContext(final Hashtable< ? , ? > environment) throws NamingException {
+        synchronized (MockLDAPContextFactory.class) {
+            contextsCreated++;
+            contextsOpen++;
+        }
+        return (Context) Proxy.newProxyInstance(getClass().getClassLoader(), new Class[] {DirContext.class},
+                new InvocationHandler() {
+                    public Object invoke(final Object proxy, final Method method, final Object[] args)
+                            throws NamingException {
+                        if ("search".equals(method.getName()) && args.length == 3 && args[1] instanceof String) {
+                            return search((String) args[1]);
+                        } else if ("close".equals(method.getName())) {
+                            synchronized (MockLDAPContextFactory.class) {
+                                contextsOpen--;
+                            }
+                            return null;
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private static synchronized NamingEnumeration<SearchResult> search(final String filter)
+            throws NamingException {
+        FILTERS.add(filter);
+        if (failingSearches > 0) {
+            failingSearches--;
+            throw new NamingException("search failed");
+        }
+        final List<SearchResult> results = new ArrayList<SearchResult>();
+        final Matcher term = TERM.matcher(filter);
+        while (term.find()) {
+            final String cn = term.group(1);
+            final String mail = ENTRIES.get(cn);
+            if (mail != null) {
+                final BasicAttributes attributes = new BasicAttributes(true);
+                attributes.put("cn", cn);
+                attributes.put("mail", mail);
+                results.add(new SearchResult("cn=" + cn, null, attributes));
+            }
+        }
+        final Iterator<SearchResult> iterator = results.iterator();
+        return new NamingEnumeration<SearchResult>() {
+            public boolean hasMore() {
+                return iterator.hasNext();
+            }
+
+            public SearchResult next() {
+                return iterator.next();
+            }
+
+            public boolean hasMoreElements() {
+                return iterator.hasNext();
+            }
+
+            public SearchResult nextElement() {
+                return iterator.next();
+            }
+
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,154 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.publishers.email;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Minimal in-process SMTP server recording the messages it receives.
+ */
+public class MockSmtpServer implements Runnable {
+
+    private final ServerSocket serverSocket;
+    private final List<String> messages = new ArrayList<String>();
+    private int connections;
+    private int connectionsToRefuse;
+    private volatile boolean running = true;
+
+    public MockSmtpServer() throws IOException {
+        serverSocket = new ServerSocket(0);
+        final Thread thread = new Thread(this, "MockSmtpServer");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    public synchronized List<String> getMessages() {
+        return new ArrayList<String>(messages);
+    }
+
+    public synchronized int getConnections() {
+        return connections;
+    }
+
+    /**
+     * @param count number of next connections answered with a temporary failure
+     */
+    public synchronized void refuseConnections(final int count) {
+        connectionsToRefuse = count;
+    }
+
+    public void stop() throws IOException {
+        running = false;
+        serverSocket.close();
+    }
+
+    public void run() {
+        while (running) {
+            try {
+                final Socket socket = serverSocket.accept();
+                final Thread handler = new Thread(new Runnable() {
+                    public void run() {
+                        handle(socket);
+                    }
+                }, "MockSmtpServer connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                // stopped
+            }
+        }
+    }
+
+    private void handle(final Socket socket) {
+        try {
+            final BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+            final OutputStream out = socket.getOutputStream();
+            synchronized (this) {
+                connections++;
+                if (connectionsToRefuse > 0) {
+                    connectionsToRefuse--;
+                    reply(out, "421 try again later");
+                    return;
+                }
+            }
+            reply(out, "220 localhost MockSmtpServer");
+            String line;
+            while ((line = in.readLine()) != null) {
+                final String command = line.toUpperCase();
+                if (command.startsWith("DATA")) {
+                    reply(out, "354 go ahead");
+                    final StringBuilder data = new StringBuilder();
+                    while ((line = in.readLine()) != null && !".".equals(line)) {
+                        data.append(line).append('\n');
+                    }
+                    synchronized (this) {
+                        messages.add(data.toString());
+                    }
+                    reply(out, "250 queued");
+                } else if (command.startsWith("QUIT")) {
+                    reply(out, "221 bye");
+                    return;
+                } else {
+                    reply(out, "250 ok");
+                }
+            }
+        } catch (IOException e) {
+            // connection dropped
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static void reply(final OutputStream out, final String line) throws IOException {
+        out.write((line + "\r\n").getBytes("US-ASCII"));
+        out.flush();
+    }
+}
@@ -41,6 +41,7 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.InputStream;
+import java.util.Date;
 
 import junit.framework.TestCase;
 import net.sourceforge.cruisecontrol.testutil.TestUtil.FilesToDelete;
@@ -139,4 +140,62 @@ public class FeedTest extends TestCase {
             IO.close(fw);
         }
     }
-}
\ No newline at end of file
+
+    public void testAddItemTrimsToMaxLength() {
+        Feed feed = new Feed(tempFile);
+        feed.setMaxLength(3);
+        Item newest = new Item();
+        feed.addItem(newest);
+
+        assertEquals(3, feed.getItems().size());
+        assertSame(newest, feed.getItems().get(0));
+    }
+
+    public void testWriteToReplacesFile() throws Exception {
+        Feed feed = new Feed(tempFile);
+        Item item = new Item();
+        item.setTitle("newest");
+        item.setPublishDate(new Date());
+        feed.addItem(item);
+
+        feed.writeTo(tempFile);
+
+        assertFalse(new File(tempFile.getPath() + ".tmp").exists());
+        Feed reread = new Feed(tempFile);
+        assertEquals(12, reread.getItems().size());
+        assertEquals("http://MyMachine.MyDomain.com/cruisecontrol/", reread.getLink());
+    }
+
+    public void testConcurrentWritesToSameFile() throws Exception {
+        final Feed feed = new Feed(tempFile);
+        feed.setMaxLength(100);
+        final int threadCount = 8;
+        final Exception[] failures = new Exception[threadCount];
+        final Thread[] threads = new Thread[threadCount];
+        for (int i = 0; i < threadCount; i++) {
+            final int index = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        Item item = new Item();
+                        item.setTitle("item " + index);
+                        item.setPublishDate(new Date());
+                        feed.addItem(item);
+                        feed.writeTo(tempFile);
+                    } catch (Exception e) {
+                        failures[index] = e;
+                    }
+                }
+            };
+        }
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].start();
+        }
+        for (int i = 0; i < threadCount; i++) {
+            threads[i].join();
+            assertNull(failures[i]);
+        }
+
+        assertEquals(11 + threadCount, new Feed(tempFile).getItems().size());
+    }
+}
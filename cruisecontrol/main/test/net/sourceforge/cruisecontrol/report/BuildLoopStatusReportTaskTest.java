@@ -36,11 +36,25 @@
  ********************************************************************************/
 package net.sourceforge.cruisecontrol.report;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 import junit.framework.TestCase;
 import net.sourceforge.cruisecontrol.BuildLoopInformation;
 import net.sourceforge.cruisecontrol.BuildLoopInformationBuilder;
+import net.sourceforge.cruisecontrol.BuildLoopInformation.JmxInfo;
+import net.sourceforge.cruisecontrol.BuildLoopInformation.ProjectInfo;
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
@@ -48,12 +62,28 @@ import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.RequestEntity;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
+import org.jdom.Element;
+import org.jdom.JDOMException;
+import org.jdom.input.SAXBuilder;
 
 public class BuildLoopStatusReportTaskTest extends TestCase {
     private boolean methodExecutedInHttpClient = false;
 
     private static boolean methodExecutedInBLIP = false;
 
+    private DashboardStandIn dashboard;
+
+    private ProjectInfo[] projects;
+
+    protected void setUp() throws Exception {
+        dashboard = new DashboardStandIn();
+        projects = new ProjectInfo[] {new ProjectInfo("one", "waiting", ""), new ProjectInfo("two", "waiting", "")};
+    }
+
+    protected void tearDown() throws Exception {
+        dashboard.stop();
+    }
+
     public void testShouldPostInformationToRemoteAddress() throws Exception {
         HttpClient http = new HttpClient() {
             public int executeMethod(HttpMethod method) throws IOException, HttpException {
@@ -87,4 +117,211 @@ public class BuildLoopStatusReportTaskTest extends TestCase {
         assertTrue(methodExecutedInHttpClient);
         assertTrue(methodExecutedInBLIP);
     }
+
+    public void testShouldSendOnlyChangedProjectsOnceDashboardAcknowledges() throws Exception {
+        BuildLoopStatusReportTask task = newTask(10);
+
+        task.run();
+        Post first = dashboard.lastPost();
+        assertFalse(first.gzipped);
+        assertEquals(BuildLoopStatusProtocol.NO_VERSION, first.baseVersion);
+        assertEquals(2, first.projects.size());
+
+        task.run();
+        Post unchanged = dashboard.lastPost();
+        assertTrue(unchanged.gzipped);
+        assertEquals(first.version, unchanged.baseVersion);
+        assertEquals(0, unchanged.projects.size());
+
+        projects[1] = new ProjectInfo("two", "now building", "2008-01-01T00:00:00");
+        task.run();
+        Post changed = dashboard.lastPost();
+        assertEquals(unchanged.version, changed.baseVersion);
+        assertEquals(1, changed.projects.size());
+        assertEquals("now building", changed.projects.get(0).getChildText("status"));
+    }
+
+    public void testShouldNameRemovedProjectsInDelta() throws Exception {
+        BuildLoopStatusReportTask task = newTask(10);
+        task.run();
+
+        projects = new ProjectInfo[] {projects[1]};
+        task.run();
+
+        Post delta = dashboard.lastPost();
+        assertEquals(0, delta.projects.size());
+        assertEquals(1, delta.removed.size());
+        assertEquals("one", delta.removed.get(0));
+    }
+
+    public void testShouldSendFullSnapshotPeriodically() throws Exception {
+        BuildLoopStatusReportTask task = newTask(2);
+        for (int i = 0; i < 4; i++) {
+            task.run();
+        }
+        assertEquals(4, dashboard.posts.size());
+        assertEquals(BuildLoopStatusProtocol.NO_VERSION, dashboard.posts.get(0).baseVersion);
+        assertTrue(dashboard.posts.get(1).baseVersion != BuildLoopStatusProtocol.NO_VERSION);
+        assertTrue(dashboard.posts.get(2).baseVersion != BuildLoopStatusProtocol.NO_VERSION);
+        assertEquals(BuildLoopStatusProtocol.NO_VERSION, dashboard.posts.get(3).baseVersion);
+        assertEquals(2, dashboard.posts.get(3).projects.size());
+        assertTrue(dashboard.posts.get(3).gzipped);
+    }
+
+    public void testShouldResendFullSnapshotWhenDashboardRejectsDelta() throws Exception {
+        BuildLoopStatusReportTask task = newTask(10);
+        task.run();
+        dashboard.forget();
+        task.run();
+        assertTrue(dashboard.lastPost().baseVersion != BuildLoopStatusProtocol.NO_VERSION);
+
+        task.run();
+        assertEquals(BuildLoopStatusProtocol.NO_VERSION, dashboard.lastPost().baseVersion);
+        assertEquals(2, dashboard.lastPost().projects.size());
+    }
+
+    public void testShouldKeepSendingUncompressedSnapshotsToDashboardWithoutDeltaSupport() throws Exception {
+        dashboard.acknowledge = false;
+        BuildLoopStatusReportTask task = newTask(10);
+        task.run();
+        task.run();
+
+        assertEquals(2, dashboard.posts.size());
+        for (Post post : dashboard.posts) {
+            assertFalse(post.gzipped);
+            assertEquals(BuildLoopStatusProtocol.NO_VERSION, post.baseVersion);
+            assertEquals(2, post.projects.size());
+        }
+    }
+
+    private BuildLoopStatusReportTask newTask(int fullSnapshotInterval) {
+        BuildLoopInformationBuilder builder = new BuildLoopInformationBuilder(null) {
+            public BuildLoopInformation buildBuildLoopInformation() {
+                return new BuildLoopInformation(projects, new JmxInfo("server1"), "server1", "now");
+            }
+        };
+        return new BuildLoopStatusReportTask(builder, dashboard.url(), new HttpClient(), 2000, fullSnapshotInterval);
+    }
+
+    private static class Post {
+        private long version;
+        private long baseVersion;
+        private List<String> removed;
+        private boolean gzipped;
+        private List<Element> projects;
+    }
+
+    /**
+     * Minimal in-process HTTP server playing the dashboard side of the status protocol.
+     */
+    private static class DashboardStandIn implements Runnable {
+        private final ServerSocket server;
+        private final List<Post> posts = new ArrayList<Post>();
+        private volatile boolean acknowledge = true;
+        private long held = BuildLoopStatusProtocol.NO_VERSION;
+
+        DashboardStandIn() throws IOException {
+            server = new ServerSocket(0);
+            Thread thread = new Thread(this, "dashboard stand-in");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        String url() {
+            return "http://localhost:" + server.getLocalPort() + "/dashboard/buildloop/listener";
+        }
+
+        synchronized Post lastPost() {
+            return posts.get(posts.size() - 1);
+        }
+
+        synchronized void forget() {
+            held = BuildLoopStatusProtocol.NO_VERSION;
+        }
+
+        void stop() throws IOException {
+            server.close();
+        }
+
+        public void run() {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    try {
+                        handle(socket.getInputStream(), socket.getOutputStream());
+                    } finally {
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    // closed
+                }
+            }
+        }
+
+        private void handle(InputStream in, OutputStream out) throws IOException {
+            Map<String, String> headers = new HashMap<String, String>();
+            readLine(in);
+            for (String line = readLine(in); line.length() > 0; line = readLine(in)) {
+                int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+            byte[] body = new byte[Integer.parseInt(headers.get("content-length"))];
+            for (int read = 0; read < body.length;) {
+                read += in.read(body, read, body.length - read);
+            }
+            Post post = new Post();
+            post.gzipped = "gzip".equals(headers.get("content-encoding"));
+            InputStream content = new ByteArrayInputStream(body);
+            if (post.gzipped) {
+                content = new GZIPInputStream(content);
+            }
+            ByteArrayOutputStream xml = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            for (int read = content.read(buffer); read > 0; read = content.read(buffer)) {
+                xml.write(buffer, 0, read);
+            }
+            post.projects = projectsIn(xml.toString(post.gzipped ? "UTF-8" : "ISO-8859-1"));
+            post.version = BuildLoopStatusProtocol.parseVersion(
+                    headers.get(BuildLoopStatusProtocol.HEADER_VERSION.toLowerCase()));
+            post.baseVersion = BuildLoopStatusProtocol.parseVersion(
+                    headers.get(BuildLoopStatusProtocol.HEADER_BASE_VERSION.toLowerCase()));
+            post.removed = BuildLoopStatusProtocol.decodeNames(
+                    headers.get(BuildLoopStatusProtocol.HEADER_REMOVED.toLowerCase()));
+
+            String ack = "";
+            synchronized (this) {
+                posts.add(post);
+                if (post.baseVersion == BuildLoopStatusProtocol.NO_VERSION || post.baseVersion == held) {
+                    held = post.version;
+                } else {
+                    held = BuildLoopStatusProtocol.NO_VERSION;
+                }
+                if (acknowledge) {
+                    ack = BuildLoopStatusProtocol.HEADER_ACK + ": " + held + "\r\n";
+                }
+            }
+            out.write(("HTTP/1.1 200 OK\r\n" + ack + "Content-Length: 0\r\nConnection: close\r\n\r\n")
+                    .getBytes("ISO-8859-1"));
+            out.flush();
+        }
+
+        private List<Element> projectsIn(String xml) throws IOException {
+            try {
+                Element projects = new SAXBuilder().build(new StringReader(xml)).getRootElement().getChild("projects");
+                return projects.getChildren("project");
+            } catch (JDOMException e) {
+                throw new IOException(e.getMessage());
+            }
+        }
+
+        private String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int c = in.read(); c != -1 && c != '\n'; c = in.read()) {
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+    }
 }
@@ -225,4 +225,40 @@ public class BuildStatusTest extends TestCase {
 
         buildStatus.getModifications(twoDaysAgo, null);
     }
+
+    public void testShardedLogDirectory() throws Exception {
+        final File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        final File logDir = new File(tempDir, "buildstatustest" + System.currentTimeMillis());
+        filesToDelete.add(logDir);
+        final Calendar calendar = Calendar.getInstance();
+        calendar.set(2008, Calendar.MARCH, 31, 12, 0, 0);
+        final Date lastBuild = calendar.getTime();
+        calendar.add(Calendar.DATE, 1);
+        final Date nextMonth = calendar.getTime();
+        createLog(logDir, "2008/02", Log.formatLogFileName(DateUtil.parseFormattedTime("20080201120000", "")));
+        createLog(logDir, "", Log.formatLogFileName(DateUtil.parseFormattedTime("20080331110000", ""), "good.1"));
+        final String newLog = Log.formatLogFileName(nextMonth);
+        createLog(logDir, "2008/04", newLog);
+
+        buildStatus.setLogDir(logDir.getAbsolutePath());
+        buildStatus.setVetoIfFailing(true);
+        try {
+            buildStatus.getModifications(lastBuild, null);
+            fail("build should abort if last build is failing");
+        } catch (RuntimeException e) {
+            assertEquals("most recent build failed: " + newLog, e.getMessage());
+        }
+
+        buildStatus.setVetoIfFailing(false);
+        createLog(logDir, "2008/04", Log.formatLogFileName(nextMonth, "good.2"));
+        final List modifications = buildStatus.getModifications(lastBuild, null);
+        assertEquals(1, modifications.size());
+        assertEquals("good.2", buildStatus.getProperties().get(BuildStatus.MOST_RECENT_LOGLABEL_KEY));
+    }
+
+    private static void createLog(final File logDir, final String shard, final String name) throws Exception {
+        final File dir = new File(logDir, shard);
+        dir.mkdirs();
+        new File(dir, name).createNewFile();
+    }
 }
@@ -0,0 +1,162 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.util;
+
+import java.io.File;
+
+import junit.framework.TestCase;
+import net.sourceforge.cruisecontrol.testutil.TestUtil.FilesToDelete;
+
+public class ArtifactStoreTest extends TestCase {
+
+    private final FilesToDelete filesToDelete = new FilesToDelete();
+    private File source;
+    private File root;
+
+    protected void setUp() throws Exception {
+        final File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        final File testDir = new File(tempDir, "artifactstoretest" + System.currentTimeMillis());
+        filesToDelete.add(testDir);
+        source = new File(testDir, "source");
+        root = new File(testDir, "artifacts");
+        IO.write(new File(source, "app.jar"), "jar contents");
+        IO.write(new File(source, "docs/index.html"), "<html/>");
+        IO.write(new File(source, "docs/copy.html"), "<html/>");
+    }
+
+    protected void tearDown() throws Exception {
+        filesToDelete.delete();
+    }
+
+    public void testPublishesDirectoryTree() throws Exception {
+        final ArtifactStore store = ArtifactStore.getInstance(root);
+        final File build = new File(root, "20090101120000");
+        store.publish(source, build, build, 2);
+
+        assertEquals("jar contents", read(new File(build, "app.jar")));
+        assertEquals("<html/>", read(new File(build, "docs/index.html")));
+        assertEquals("<html/>", read(new File(build, "docs/copy.html")));
+        if (store.isLinkingSupported()) {
+            assertEquals(2, store.getStoredCount());
+            assertEquals(3, store.getLinkedCount());
+            assertTrue(new File(build, ArtifactStore.MANIFEST).isFile());
+        } else {
+            assertEquals(3, store.getCopiedCount());
+        }
+    }
+
+    public void testUnchangedArtifactsAreNotStoredAgain() throws Exception {
+        final ArtifactStore store = ArtifactStore.getInstance(root);
+        if (!store.isLinkingSupported()) {
+            return;
+        }
+        store.publish(source, new File(root, "20090101120000"), new File(root, "20090101120000"), 1);
+        IO.write(new File(source, "app.jar"), "new jar contents");
+        store.publish(source, new File(root, "20090102120000"), new File(root, "20090102120000"), 1);
+
+        assertEquals(3, store.getStoredCount());
+        assertEquals("jar contents", read(new File(root, "20090101120000/app.jar")));
+        assertEquals("new jar contents", read(new File(root, "20090102120000/app.jar")));
+    }
+
+    public void testArtifactRewrittenWithinTimestampResolutionIsHashedAgain() throws Exception {
+        final ArtifactStore store = ArtifactStore.getInstance(root);
+        if (!store.isLinkingSupported()) {
+            return;
+        }
+        final File jar = new File(source, "app.jar");
+        final long modified = jar.lastModified();
+        store.publish(source, new File(root, "20090101120000"), new File(root, "20090101120000"), 1);
+        // same size and, as on a coarse grained filesystem, the same modification time
+        IO.write(jar, "jar CONTENTS");
+        jar.setLastModified(modified);
+        store.publish(source, new File(root, "20090102120000"), new File(root, "20090102120000"), 1);
+
+        assertEquals("jar contents", read(new File(root, "20090101120000/app.jar")));
+        assertEquals("jar CONTENTS", read(new File(root, "20090102120000/app.jar")));
+    }
+
+    public void testArtifactModifiedInPlaceIsNotLinkedAgain() throws Exception {
+        final ArtifactStore store = ArtifactStore.getInstance(root);
+        if (!store.isLinkingSupported()) {
+            return;
+        }
+        store.publish(source, new File(root, "20090101120000"), new File(root, "20090101120000"), 1);
+        final File published = new File(root, "20090101120000/app.jar");
+        // published artifacts are read-only, as if a later publisher forced the edit anyway
+        ArtifactStore.makeWritable(published);
+        IO.write(published, "jar CONTENTS");
+        store.publish(source, new File(root, "20090102120000"), new File(root, "20090102120000"), 1);
+
+        assertEquals("jar contents", read(new File(root, "20090102120000/app.jar")));
+        assertEquals(3, store.getStoredCount());
+    }
+
+    public void testCollectGarbageKeepsReferencedContent() throws Exception {
+        final ArtifactStore store = ArtifactStore.getInstance(root);
+        if (!store.isLinkingSupported()) {
+            return;
+        }
+        final File oldBuild = new File(root, "20090101120000");
+        final File newBuild = new File(root, "20090102120000");
+        store.publish(source, oldBuild, oldBuild, 1);
+        IO.write(new File(source, "app.jar"), "new jar contents");
+        store.publish(source, newBuild, newBuild, 1);
+
+        assertEquals(0, store.collectGarbage());
+        IO.delete(oldBuild);
+        assertEquals(1, store.collectGarbage());
+        assertEquals("<html/>", read(new File(newBuild, "docs/index.html")));
+
+        IO.delete(newBuild);
+        assertEquals(2, store.collectGarbage());
+    }
+
+    public void testSharedPerRoot() {
+        assertSame(ArtifactStore.getInstance(root), ArtifactStore.getInstance(new File(root, "../artifacts")));
+    }
+
+    public void testHash() throws Exception {
+        assertEquals(40, ArtifactStore.hash(new File(source, "app.jar")).length());
+        assertEquals(ArtifactStore.hash(new File(source, "docs/index.html")),
+                ArtifactStore.hash(new File(source, "docs/copy.html")));
+    }
+
+    private static String read(final File file) throws Exception {
+        return IO.readLines(file).get(0);
+    }
+}
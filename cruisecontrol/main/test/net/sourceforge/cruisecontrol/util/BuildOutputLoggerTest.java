@@ -138,6 +138,28 @@ public class BuildOutputLoggerTest extends TestCase {
 
     }
 
+    public void testShouldRetrieveLinesAppendedAfterLastRead() throws Exception {
+        final File file = prepareBufferFile(3);
+        final BuildOutputLogger logger = new BuildOutputLogger(file);
+        assertEquals(3, logger.retrieveLines(0).length);
+
+        final FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write("4\r\n\n6 partial".getBytes());
+        } finally {
+            out.close();
+        }
+        final String[] lines = logger.retrieveLines(3);
+        assertEquals(3, lines.length);
+        assertEquals("4", lines[0]);
+        assertEquals("", lines[1]);
+        assertEquals("6 partial", lines[2]);
+
+        logger.consumeLine(" done");
+        assertEquals("6 partial done", logger.retrieveLines(5)[0]);
+        assertEquals("Earlier lines are still read", "2", logger.retrieveLines(1)[0]);
+    }
+
     public void testShouldRetrieveNothingAfterClearingBuffer() throws Exception {
         final BuildOutputLogger logger = new BuildOutputLogger(prepareBufferFile(6));
 
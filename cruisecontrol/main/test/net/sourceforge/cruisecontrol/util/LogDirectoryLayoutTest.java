@@ -0,0 +1,157 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.util;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sourceforge.cruisecontrol.testutil.TestUtil.FilesToDelete;
+
+public class LogDirectoryLayoutTest extends TestCase {
+
+    private static final FilenameFilter LOGS = new FilenameFilter() {
+        public boolean accept(final File dir, final String name) {
+            return name.startsWith("log") && name.endsWith(".xml");
+        }
+    };
+
+    private final FilesToDelete filesToDelete = new FilesToDelete();
+    private File logDir;
+
+    protected void setUp() throws Exception {
+        final File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        logDir = new File(tempDir, "logdirectorylayouttest" + System.currentTimeMillis());
+        filesToDelete.add(logDir);
+        IO.write(new File(logDir, "log20061231120000.xml"), "<cruisecontrol/>");
+        IO.write(new File(logDir, "log20070115120000Lbuild.1.xml"), "<cruisecontrol/>");
+        IO.write(new File(logDir, "2007/02/log20070201120000Lbuild.2.xml"), "<cruisecontrol/>");
+        IO.write(new File(logDir, "2007/03/log20070301120000.xml"), "<cruisecontrol/>");
+        IO.write(new File(logDir, "2008/01/log20080101120000Lbuild.3.xml"), "<cruisecontrol/>");
+        IO.write(new File(logDir, "2008/01/notalog.txt"), "");
+        Util.doMkDirs(new File(logDir, "2008/02"));
+    }
+
+    protected void tearDown() throws Exception {
+        filesToDelete.delete();
+    }
+
+    public void testShardDirectoryIsYearAndMonthOfBuild() {
+        assertEquals("200702", LogDirectoryLayout.getMonth("log20070201120000Lbuild.2.xml"));
+        assertNull(LogDirectoryLayout.getMonth("notalog.txt"));
+        assertEquals(new File(new File(logDir, "2007"), "02"),
+                LogDirectoryLayout.getShardDirectory(logDir, "log20070201120000Lbuild.2.xml"));
+        try {
+            LogDirectoryLayout.getShardDirectory(logDir, "notalog.txt");
+            fail("names that are no log file names should fail");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    public void testLocatesLogsInEitherLayout() {
+        assertEquals(new File(logDir, "2007/02/log20070201120000Lbuild.2.xml"),
+                LogDirectoryLayout.locate(logDir, "log20070201120000Lbuild.2.xml"));
+        assertEquals(new File(logDir, "log20070115120000Lbuild.1.xml"),
+                LogDirectoryLayout.locate(logDir, "log20070115120000Lbuild.1.xml"));
+        assertEquals(new File(logDir, "log20090101120000.xml"),
+                LogDirectoryLayout.locate(logDir, "log20090101120000.xml"));
+    }
+
+    public void testFindsProjectLogDirectoryOfLogFile() {
+        assertEquals(logDir.getAbsoluteFile(), LogDirectoryLayout.getLogDirectory(
+                new File(logDir, "2007/02/log20070201120000Lbuild.2.xml")));
+        assertEquals(logDir.getAbsoluteFile(), LogDirectoryLayout.getLogDirectory(
+                new File(logDir, "log20070115120000Lbuild.1.xml")));
+    }
+
+    public void testListsLogsOfBothLayouts() {
+        assertEquals(Arrays.asList(new String[] {
+            "log20061231120000.xml", "log20070115120000Lbuild.1.xml", "log20070201120000Lbuild.2.xml",
+            "log20070301120000.xml", "log20080101120000Lbuild.3.xml" }),
+                names(LogDirectoryLayout.listLogFiles(logDir, LOGS)));
+        assertNull(LogDirectoryLayout.listLogFiles(new File(logDir, "missing"), LOGS));
+    }
+
+    public void testListsOnlyShardsOfMonthsInRange() {
+        assertEquals(Arrays.asList(new String[] {
+            "log20061231120000.xml", "log20070115120000Lbuild.1.xml", "log20070301120000.xml" }),
+                names(LogDirectoryLayout.listLogFiles(logDir, "log20070301000000.xml", "log20071231000000.xml",
+                        new FilenameFilter() {
+                            public boolean accept(final File dir, final String name) {
+                                // the flat directory is always listed, shards of other months are not
+                                assertFalse(dir.getName().equals("02") || dir.getName().equals("01"));
+                                return LOGS.accept(dir, name);
+                            }
+                        })));
+    }
+
+    public void testFindsLatestLogInNewestShardWithMatches() {
+        assertEquals("log20080101120000Lbuild.3.xml", LogDirectoryLayout.findLatest(logDir, LOGS).getName());
+        assertEquals("log20070301120000.xml", LogDirectoryLayout.findLatest(logDir, new FilenameFilter() {
+            public boolean accept(final File dir, final String name) {
+                return LOGS.accept(dir, name) && name.indexOf('L') < 0;
+            }
+        }).getName());
+        assertNull(LogDirectoryLayout.findLatest(logDir, new FilenameFilter() {
+            public boolean accept(final File dir, final String name) {
+                return false;
+            }
+        }));
+    }
+
+    public void testMigratorMovesFlatLogsIntoShards() {
+        final LogDirectoryMigrator migrator = new LogDirectoryMigrator(logDir);
+        assertTrue(LogDirectoryMigrator.hasUnmigratedLogs(logDir));
+        migrator.run();
+        assertEquals(2, migrator.getMovedCount());
+        assertFalse(LogDirectoryMigrator.hasUnmigratedLogs(logDir));
+        assertTrue(new File(logDir, "2006/12/log20061231120000.xml").isFile());
+        assertTrue(new File(logDir, "2007/01/log20070115120000Lbuild.1.xml").isFile());
+        assertEquals(5, LogDirectoryLayout.listLogFiles(logDir, LOGS).length);
+    }
+
+    private static List<String> names(final File[] files) {
+        final String[] names = new String[files.length];
+        for (int i = 0; i < files.length; i++) {
+            names[i] = files[i].getName();
+        }
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+}
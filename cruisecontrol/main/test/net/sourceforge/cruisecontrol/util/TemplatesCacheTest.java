@@ -0,0 +1,190 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.stream.StreamResult;
+import javax.xml.transform.stream.StreamSource;
+
+import junit.framework.TestCase;
+import net.sourceforge.cruisecontrol.CruiseControlException;
+import net.sourceforge.cruisecontrol.testutil.TestUtil;
+import net.sourceforge.cruisecontrol.testutil.TestUtil.FilesToDelete;
+
+public class TemplatesCacheTest extends TestCase {
+
+    private final FilesToDelete filesToDelete = new FilesToDelete();
+    private TemplatesCache cache;
+
+    protected void setUp() throws Exception {
+        cache = new TemplatesCache(2);
+    }
+
+    protected void tearDown() throws Exception {
+        filesToDelete.delete();
+    }
+
+    public void testShouldCompileStylesheetOnlyOnce() throws Exception {
+        final File xsl = writeStylesheet("one", "first");
+
+        final Templates templates = cache.getTemplates(xsl);
+        assertSame(templates, cache.getTemplates(xsl));
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getSize());
+        assertEquals("first", transform(templates));
+    }
+
+    public void testShouldReloadChangedStylesheet() throws Exception {
+        final File xsl = writeStylesheet("one", "first");
+        final Templates first = cache.getTemplates(xsl);
+
+        writeStylesheet("one", "second");
+        xsl.setLastModified(xsl.lastModified() + 2000);
+
+        final Templates second = cache.getTemplates(xsl);
+        assertNotSame(first, second);
+        assertEquals("second", transform(second));
+        assertEquals(1, cache.getReloads());
+    }
+
+    public void testShouldReloadWhenIncludedStylesheetChanges() throws Exception {
+        final File included = writeStylesheet("included", "first");
+        final File xsl = stylesheetFile("including");
+        IO.write(xsl, "<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\">"
+                + "<xsl:include href=\"" + included.getName() + "\"/>"
+                + "</xsl:stylesheet>");
+        assertEquals("first", transform(cache.getTemplates(xsl)));
+
+        writeStylesheet("included", "second");
+        included.setLastModified(included.lastModified() + 2000);
+
+        assertEquals("second", transform(cache.getTemplates(xsl)));
+        assertEquals(1, cache.getReloads());
+    }
+
+    public void testShouldTakeModificationTimeOfJarEntryFromJar() throws Exception {
+        final File jar = stylesheetFile("jar");
+        IO.write(jar, "not opened");
+        jar.setLastModified(1234000L);
+
+        final URL entry = new URL("jar:" + jar.toURI().toURL() + "!/stylesheet.xsl");
+        assertEquals(1234000L, TemplatesCache.lastModified(entry));
+    }
+
+    public void testShouldCheckStylesheetThatIsNoFileOnlyOncePerInterval() throws Exception {
+        final File jar = stylesheetFile("jarred.jar");
+        final JarOutputStream out = new JarOutputStream(new FileOutputStream(jar));
+        try {
+            out.putNextEntry(new JarEntry("jarred.xsl"));
+            out.write(stylesheet("first").getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        final URL entry = new URL("jar:" + jar.toURI().toURL() + "!/jarred.xsl");
+        final Templates first = cache.getTemplates(entry);
+
+        jar.setLastModified(jar.lastModified() + 2000);
+        assertSame(first, cache.getTemplates(entry));
+        assertEquals(0, cache.getReloads());
+    }
+
+    public void testShouldEvictLeastRecentlyUsed() throws Exception {
+        final File one = writeStylesheet("one", "1");
+        final File two = writeStylesheet("two", "2");
+        final File three = writeStylesheet("three", "3");
+
+        final Templates first = cache.getTemplates(one);
+        cache.getTemplates(two);
+        cache.getTemplates(one);
+        cache.getTemplates(three);
+
+        assertEquals(2, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+        assertSame(first, cache.getTemplates(one));
+        assertEquals(3, cache.getMisses());
+    }
+
+    public void testShouldShrinkWhenMaxSizeReduced() throws Exception {
+        cache.getTemplates(writeStylesheet("one", "1"));
+        cache.getTemplates(writeStylesheet("two", "2"));
+
+        cache.setMaxSize(1);
+        assertEquals(1, cache.getSize());
+        assertEquals(1, cache.getEvictions());
+
+        try {
+            cache.setMaxSize(0);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private File writeStylesheet(final String name, final String output) throws CruiseControlException {
+        final File xsl = stylesheetFile(name);
+        IO.write(xsl, stylesheet(output));
+        return xsl;
+    }
+
+    private static String stylesheet(final String output) {
+        return "<xsl:stylesheet xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" version=\"1.0\">"
+                + "<xsl:output method=\"text\"/>"
+                + "<xsl:template match=\"/\">" + output + "</xsl:template>"
+                + "</xsl:stylesheet>";
+    }
+
+    private File stylesheetFile(final String name) {
+        final File file = new File(TestUtil.getTargetDir(), "TemplatesCacheTest-" + name + ".xsl");
+        filesToDelete.add(file);
+        return file;
+    }
+
+    private static String transform(final Templates templates) throws Exception {
+        final StringWriter out = new StringWriter();
+        templates.newTransformer().transform(new StreamSource(new StringReader("<cruisecontrol/>")),
+                new StreamResult(out));
+        return out.toString();
+    }
+}
@@ -47,6 +47,7 @@ import java.util.Map;
 import net.sourceforge.cruisecontrol.Modification;
 import net.sourceforge.cruisecontrol.dashboard.utils.CCDateFormatter;
 import net.sourceforge.cruisecontrol.dashboard.utils.TimeConverter;
+import net.sourceforge.cruisecontrol.util.LogDirectoryLayout;
 
 import org.apache.commons.lang.StringUtils;
 import org.joda.time.DateTime;
@@ -102,7 +103,7 @@ public class BuildDetail implements Comparable, Build {
     }
 
     public File getLogFolder() {
-        return getLogFile().getParentFile();
+        return LogDirectoryLayout.getLogDirectory(getLogFile());
     }
 
     public List getTestSuites() {
@@ -93,6 +93,21 @@ public class BuildSummary implements Build {
         this.buildLogFile = new LogFile(buildLogFilename);
     }
 
+    /**
+     * Copies a summary, so the copy's live status can be updated without changing the original.
+     * @param other the summary to copy
+     */
+    public BuildSummary(BuildSummary other) {
+        this.buildLogFile = other.buildLogFile;
+        this.projectName = other.projectName;
+        this.buildingSince = other.buildingSince;
+        this.propertiesFromLogContent = new HashMap(other.propertiesFromLogContent);
+        this.previousBuildResult = other.previousBuildResult;
+        this.currentStatus = other.currentStatus;
+        this.serverName = other.serverName;
+        this.timeConverter = other.timeConverter;
+    }
+
     /**
      * Used for mocking out the timeConverter.
      * @param timeConverter
@@ -148,6 +163,14 @@ public class BuildSummary implements Build {
          }
     }
 
+    /**
+     * Sets the duration when it is already known, so the log need not be read for it.
+     * @param duration the build duration as found in the log
+     */
+    public void updateDuration(String duration) {
+        propertiesFromLogContent.put("duration", duration);
+    }
+
     public String getDuration() {
         try {
             if (!propertiesFromLogContent.containsKey("duration")) {
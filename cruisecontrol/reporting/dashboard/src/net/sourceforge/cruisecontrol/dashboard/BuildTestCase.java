@@ -36,8 +36,11 @@
  ********************************************************************************/
 package net.sourceforge.cruisecontrol.dashboard;
 
+import java.io.Serializable;
+
+public class BuildTestCase implements Serializable {
+    private static final long serialVersionUID = 1L;
 
-public class BuildTestCase {
     private String name;
     private String duration;
     private String classname;
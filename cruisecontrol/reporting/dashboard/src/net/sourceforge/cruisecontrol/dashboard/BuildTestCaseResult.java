@@ -36,13 +36,30 @@
  ********************************************************************************/
 package net.sourceforge.cruisecontrol.dashboard;
 
+import java.io.Serializable;
 
-public final class BuildTestCaseResult {
+public final class BuildTestCaseResult implements Serializable {
 
-    private BuildTestCaseResult() {
+    private static final long serialVersionUID = 1L;
+
+    private final int code;
+
+    private BuildTestCaseResult(int code) {
+        this.code = code;
     }
 
-    public static final BuildTestCaseResult FAILED = new BuildTestCaseResult();
-    public static final BuildTestCaseResult ERROR = new BuildTestCaseResult();
-    public static final BuildTestCaseResult PASSED = new BuildTestCaseResult();
+    public static final BuildTestCaseResult FAILED = new BuildTestCaseResult(0);
+    public static final BuildTestCaseResult ERROR = new BuildTestCaseResult(1);
+    public static final BuildTestCaseResult PASSED = new BuildTestCaseResult(2);
+
+    private Object readResolve() {
+        switch (code) {
+            case 0:
+                return FAILED;
+            case 1:
+                return ERROR;
+            default:
+                return PASSED;
+        }
+    }
 }
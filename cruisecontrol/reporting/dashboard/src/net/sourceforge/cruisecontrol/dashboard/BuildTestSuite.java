@@ -36,12 +36,15 @@
  ********************************************************************************/
 package net.sourceforge.cruisecontrol.dashboard;
 
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
-public class BuildTestSuite {
+public class BuildTestSuite implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private float duration;
 
     private String name;
@@ -0,0 +1,567 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.repository;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import net.sourceforge.cruisecontrol.dashboard.LogFile;
+import net.sourceforge.cruisecontrol.dashboard.saxhandler.BuildHistoryExtractor;
+import net.sourceforge.cruisecontrol.util.LogDirectoryLayout;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Index of the build logs of one project, kept sorted by build time so that the history queries of
+ * the dashboard are binary searches or range scans instead of listing and sorting the log directory.
+ * <p>
+ * The index notices new and removed logs by the modification time of the log directory and, for logs
+ * kept in the sharded <code>yyyy/MM</code> layout, of its year and month directories. Only directories
+ * that changed are listed again. It is persisted to a small file below {@link #getIndexDirectory()} so a
+ * restarted dashboard does not need to list the directories either. Duration and test counts are read from a log
+ * the first time they are asked for and are kept in the index from then on.
+ * </p>
+ */
+public class BuildHistoryIndex {
+    /** System property naming the directory the index files are stored in. */
+    public static final String INDEX_DIR_PROPERTY = "dashboard.historyindex.dir";
+
+    private static final Logger LOGGER = Logger.getLogger(BuildHistoryIndex.class);
+
+    private static final String HEADER = "# cruisecontrol build history 2";
+
+    private static final String DIR_PREFIX = "#dir\t";
+
+    private static final Pattern LOG_PATTERN =
+            Pattern.compile("^log(\\d{14})(L(.*))?\\.xml(\\.gz)?$");
+
+    // modification times this close to the scan may still change within the same clock tick
+    private static final long RACY_INTERVAL = 2000;
+
+    private static final Comparator ORDER = new Comparator() {
+        public int compare(Object first, Object second) {
+            Entry one = (Entry) first;
+            Entry other = (Entry) second;
+            if (one.timestamp != other.timestamp) {
+                return one.timestamp < other.timestamp ? -1 : 1;
+            }
+            return one.fileName.compareTo(other.fileName);
+        }
+    };
+
+    private final File projectDir;
+
+    private final File indexFile;
+
+    private final List all = new ArrayList();
+
+    private final List passed = new ArrayList();
+
+    private final List failed = new ArrayList();
+
+    // directory path relative to the project directory -> modification time when it was last listed
+    private final Map knownDirs = new HashMap();
+
+    private boolean loaded;
+
+    public BuildHistoryIndex(File projectDir) {
+        this(projectDir, getIndexDirectory());
+    }
+
+    public BuildHistoryIndex(File projectDir, File indexDir) {
+        this.projectDir = projectDir;
+        this.indexFile = indexDir == null ? null : new File(indexDir, projectDir.getName() + "-"
+                + Integer.toHexString(projectDir.getAbsolutePath().hashCode()) + ".history");
+    }
+
+    /**
+     * @return the directory index files are stored in, or null if indexes should not be persisted.
+     */
+    public static File getIndexDirectory() {
+        String dir = System.getProperty(INDEX_DIR_PROPERTY);
+        if (dir == null) {
+            return new File(System.getProperty("java.io.tmpdir"), "cruisecontrol-dashboard-history");
+        }
+        return dir.trim().length() == 0 ? null : new File(dir);
+    }
+
+    /**
+     * Brings the index up to date with the log directory. Only lists the directories that changed
+     * since the last refresh.
+     */
+    public synchronized void refresh() {
+        if (!loaded) {
+            loaded = true;
+            load();
+        }
+        if (rescan()) {
+            save();
+        }
+    }
+
+    public synchronized int size() {
+        return all.size();
+    }
+
+    /**
+     * @return the latest entries, newest first.
+     */
+    public synchronized List getLatest(int max) {
+        return newestFirst(all, max);
+    }
+
+    /**
+     * @return the latest successful builds, newest first.
+     */
+    public synchronized List getLatestPassed(int max) {
+        return newestFirst(passed, max);
+    }
+
+    public synchronized Entry getLatest() {
+        return all.isEmpty() ? null : (Entry) all.get(all.size() - 1);
+    }
+
+    public synchronized Entry getOldest() {
+        return all.isEmpty() ? null : (Entry) all.get(0);
+    }
+
+    /**
+     * @param timestamp build time as yyyyMMddHHmmss.
+     * @return the builds strictly after the given time, oldest first.
+     */
+    public synchronized List getAfter(long timestamp) {
+        return new ArrayList(all.subList(lowerBound(all, timestamp + 1), all.size()));
+    }
+
+    /**
+     * @param timestamp build time as yyyyMMddHHmmss.
+     * @param hasPassed whether to look for successful or failed builds.
+     * @return the latest build with the given result strictly before the given time, or null.
+     */
+    public synchronized Entry getLastBefore(long timestamp, boolean hasPassed) {
+        List entries = hasPassed ? passed : failed;
+        int index = lowerBound(entries, timestamp) - 1;
+        return index >= 0 ? (Entry) entries.get(index) : null;
+    }
+
+    /**
+     * @param timestamp build time as yyyyMMddHHmmss.
+     * @param hasPassed whether to look for successful or failed builds.
+     * @return the earliest build with the given result strictly after the given time, or null.
+     */
+    public synchronized Entry getFirstAfter(long timestamp, boolean hasPassed) {
+        List entries = hasPassed ? passed : failed;
+        int index = lowerBound(entries, timestamp + 1);
+        return index < entries.size() ? (Entry) entries.get(index) : null;
+    }
+
+    /**
+     * Makes sure duration and test counts of the given entries are known, reading the logs that have
+     * not been read before.
+     */
+    public void loadDetails(List entries) {
+        boolean changed = false;
+        for (Iterator iter = entries.iterator(); iter.hasNext();) {
+            Entry entry = (Entry) iter.next();
+            synchronized (entry) {
+                if (entry.duration == null) {
+                    entry.readDetails(projectDir);
+                    changed = true;
+                }
+            }
+        }
+        if (changed) {
+            synchronized (this) {
+                save();
+            }
+        }
+    }
+
+    private static List newestFirst(List entries, int max) {
+        int size = Math.min(entries.size(), max);
+        List result = new ArrayList(size);
+        for (int i = entries.size() - 1; result.size() < size; i--) {
+            result.add(entries.get(i));
+        }
+        return result;
+    }
+
+    private static int lowerBound(List entries, long timestamp) {
+        int low = 0;
+        int high = entries.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (((Entry) entries.get(middle)).timestamp < timestamp) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private boolean rescan() {
+        Map stamps = new HashMap();
+        Set listed = new HashSet();
+        List found = new ArrayList();
+        long now = System.currentTimeMillis();
+        LinkedList pending = new LinkedList();
+        pending.add("");
+        while (!pending.isEmpty()) {
+            String dirPath = (String) pending.removeFirst();
+            File dir = dirPath.length() == 0 ? projectDir : new File(projectDir, dirPath);
+            long modified = dir.lastModified();
+            Long known = (Long) knownDirs.get(dirPath);
+            if (modified != 0 && known != null && known.longValue() == modified) {
+                stamps.put(dirPath, known);
+                pending.addAll(knownSubdirectories(dirPath));
+                continue;
+            }
+            String[] names = dir.list();
+            if (names == null) {
+                continue;
+            }
+            stamps.put(dirPath, new Long(now - modified < RACY_INTERVAL ? -1 : modified));
+            listed.add(dirPath);
+            int depth = dirPath.length() == 0 ? 0 : dirPath.indexOf('/') < 0 ? 1 : 2;
+            String prefix = depth == 0 ? "" : dirPath + "/";
+            for (int i = 0; i < names.length; i++) {
+                boolean shard = depth == 0 ? LogDirectoryLayout.isYearDirectoryName(names[i])
+                        : depth == 1 && LogDirectoryLayout.isMonthDirectoryName(names[i]);
+                if (shard && new File(dir, names[i]).isDirectory()) {
+                    pending.add(prefix + names[i]);
+                } else if (depth != 1) {
+                    found.add(prefix + names[i]);
+                }
+            }
+        }
+        boolean stampsChanged = !stamps.equals(knownDirs);
+        knownDirs.clear();
+        knownDirs.putAll(stamps);
+        return update(found, listed, stamps.keySet()) || stampsChanged;
+    }
+
+    private List knownSubdirectories(String dirPath) {
+        String prefix = dirPath.length() == 0 ? "" : dirPath + "/";
+        List subdirectories = new ArrayList();
+        for (Iterator iter = knownDirs.keySet().iterator(); iter.hasNext();) {
+            String path = (String) iter.next();
+            if (path.length() > prefix.length() && path.startsWith(prefix)
+                    && path.indexOf('/', prefix.length()) < 0) {
+                subdirectories.add(path);
+            }
+        }
+        return subdirectories;
+    }
+
+    /**
+     * Replaces the entries of the listed directories by the logs found in them and drops the entries of
+     * directories that no longer exist.
+     */
+    private boolean update(List found, Set listed, Set existing) {
+        Set present = new HashSet();
+        List added = new ArrayList();
+        Map known = new HashMap();
+        for (Iterator iter = all.iterator(); iter.hasNext();) {
+            Entry entry = (Entry) iter.next();
+            known.put(entry.path, entry);
+        }
+        for (Iterator iter = found.iterator(); iter.hasNext();) {
+            String path = (String) iter.next();
+            if (known.containsKey(path)) {
+                present.add(path);
+            } else {
+                Entry entry = Entry.parse(path);
+                if (entry != null) {
+                    added.add(entry);
+                }
+            }
+        }
+        boolean removed = false;
+        for (Iterator iter = all.iterator(); iter.hasNext();) {
+            Entry entry = (Entry) iter.next();
+            String dirPath = entry.getDirectoryPath();
+            if (!existing.contains(dirPath) || (listed.contains(dirPath) && !present.contains(entry.path))) {
+                iter.remove();
+                removed = true;
+            }
+        }
+        if (!removed && added.isEmpty()) {
+            return false;
+        }
+        Collections.sort(added, ORDER);
+        boolean appended = all.isEmpty() || added.isEmpty()
+                || ORDER.compare(all.get(all.size() - 1), added.get(0)) < 0;
+        all.addAll(added);
+        if (!appended) {
+            Collections.sort(all, ORDER);
+        }
+        passed.clear();
+        failed.clear();
+        for (Iterator iter = all.iterator(); iter.hasNext();) {
+            Entry entry = (Entry) iter.next();
+            (entry.hasPassed ? passed : failed).add(entry);
+        }
+        return true;
+    }
+
+    private void clear() {
+        all.clear();
+        passed.clear();
+        failed.clear();
+    }
+
+    private void load() {
+        if (indexFile == null || !indexFile.isFile()) {
+            return;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(indexFile));
+            String header = reader.readLine();
+            if (header == null || !header.equals(HEADER)) {
+                return;
+            }
+            Map dirs = new HashMap();
+            List entries = new ArrayList();
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(DIR_PREFIX)) {
+                    int separator = line.lastIndexOf('\t');
+                    dirs.put(line.substring(DIR_PREFIX.length(), separator),
+                            Long.valueOf(line.substring(separator + 1)));
+                    continue;
+                }
+                Entry entry = Entry.fromLine(line);
+                if (entry != null) {
+                    entries.add(entry);
+                }
+            }
+            Collections.sort(entries, ORDER);
+            clear();
+            for (Iterator iter = entries.iterator(); iter.hasNext();) {
+                Entry entry = (Entry) iter.next();
+                all.add(entry);
+                (entry.hasPassed ? passed : failed).add(entry);
+            }
+            knownDirs.clear();
+            knownDirs.putAll(dirs);
+        } catch (Exception e) {
+            LOGGER.warn("Ignoring unreadable build history index " + indexFile.getAbsolutePath(), e);
+            clear();
+            knownDirs.clear();
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+    }
+
+    private void save() {
+        if (indexFile == null) {
+            return;
+        }
+        File dir = indexFile.getParentFile();
+        File tmp = new File(dir, indexFile.getName() + ".tmp");
+        BufferedWriter writer = null;
+        try {
+            dir.mkdirs();
+            writer = new BufferedWriter(new FileWriter(tmp));
+            writer.write(HEADER);
+            writer.newLine();
+            // the directory times of the last listings, so a restart can tell which changed since
+            for (Iterator iter = knownDirs.entrySet().iterator(); iter.hasNext();) {
+                Map.Entry known = (Map.Entry) iter.next();
+                writer.write(DIR_PREFIX + known.getKey() + "\t" + known.getValue());
+                writer.newLine();
+            }
+            for (Iterator iter = all.iterator(); iter.hasNext();) {
+                writer.write(((Entry) iter.next()).toLine());
+                writer.newLine();
+            }
+            writer.close();
+            writer = null;
+            indexFile.delete();
+            if (!tmp.renameTo(indexFile)) {
+                LOGGER.warn("Unable to write build history index " + indexFile.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Unable to write build history index " + indexFile.getAbsolutePath(), e);
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+    }
+
+    /**
+     * One build log. Time, label and result come from the log file name, duration and test counts
+     * from the log itself.
+     */
+    public static final class Entry {
+        // relative to the project directory, with '/' before the file name of a log in a shard directory
+        private final String path;
+
+        private final String fileName;
+
+        private final long timestamp;
+
+        private final String label;
+
+        private final boolean hasPassed;
+
+        private String duration;
+
+        private int tests = -1;
+
+        private int failures = -1;
+
+        private Entry(String path, long timestamp, String label, boolean hasPassed) {
+            this.path = path;
+            this.fileName = path.substring(path.lastIndexOf('/') + 1);
+            this.timestamp = timestamp;
+            this.label = label;
+            this.hasPassed = hasPassed;
+        }
+
+        static Entry parse(String path) {
+            Matcher matcher = LOG_PATTERN.matcher(path.substring(path.lastIndexOf('/') + 1));
+            if (!matcher.matches()) {
+                return null;
+            }
+            boolean passed = matcher.group(2) != null;
+            return new Entry(path, Long.parseLong(matcher.group(1)), passed ? matcher.group(3) : "", passed);
+        }
+
+        static Entry fromLine(String line) {
+            String[] fields = line.split("\t");
+            Entry entry = parse(fields[0]);
+            if (entry != null && fields.length == 4) {
+                entry.duration = fields[1];
+                entry.tests = Integer.parseInt(fields[2]);
+                entry.failures = Integer.parseInt(fields[3]);
+            }
+            return entry;
+        }
+
+        String toLine() {
+            synchronized (this) {
+                if (duration == null) {
+                    return path;
+                }
+                return path + "\t" + duration + "\t" + tests + "\t" + failures;
+            }
+        }
+
+        void readDetails(File projectDir) {
+            BuildHistoryExtractor extractor = new BuildHistoryExtractor();
+            try {
+                LogFile log = new LogFile(projectDir, path);
+                InputStream in = log.getInputStream();
+                try {
+                    SAXParserFactory.newInstance().newSAXParser().parse(in, extractor);
+                } finally {
+                    IOUtils.closeQuietly(in);
+                }
+            } catch (Exception e) {
+                LOGGER.warn("Unable to read build details from " + fileName, e);
+            }
+            Map details = new HashMap();
+            extractor.report(details);
+            duration = ((String) details.get("duration")).replace('\t', ' ');
+            tests = ((Integer) details.get("tests")).intValue();
+            failures = ((Integer) details.get("failures")).intValue();
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        public File getFile(File projectDir) {
+            return new File(projectDir, path);
+        }
+
+        String getDirectoryPath() {
+            int separator = path.lastIndexOf('/');
+            return separator < 0 ? "" : path.substring(0, separator);
+        }
+
+        /** @return build time as yyyyMMddHHmmss. */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        public boolean hasPassed() {
+            return hasPassed;
+        }
+
+        /** @return the build duration, or null if the log has not been read yet. */
+        public synchronized String getDuration() {
+            return duration;
+        }
+
+        /** @return number of tests run, or -1 if the log has not been read yet. */
+        public synchronized int getTestCount() {
+            return tests;
+        }
+
+        /** @return number of failed tests, or -1 if the log has not been read yet. */
+        public synchronized int getFailureCount() {
+            return failures;
+        }
+    }
+}
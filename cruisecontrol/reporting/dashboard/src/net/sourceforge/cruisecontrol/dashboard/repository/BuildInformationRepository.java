@@ -1,5 +1,6 @@
 package net.sourceforge.cruisecontrol.dashboard.repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.io.IOException;
 
@@ -9,6 +10,25 @@ import net.sourceforge.cruisecontrol.BuildLoopInformation.ProjectInfo;
 public interface BuildInformationRepository {
     void saveOrUpdate(BuildLoopInformation information);
 
+    /**
+     * Replaces everything known about the build loop with a full snapshot of it.
+     * @param information the build loop and all of its projects
+     * @param version the status version of the snapshot
+     */
+    void saveSnapshot(BuildLoopInformation information, long version);
+
+    /**
+     * Applies the changes a build loop reported since <code>baseVersion</code>.
+     * @param delta the build loop with only its changed projects
+     * @param baseVersion the version the delta was computed against
+     * @param version the version the build loop is at after the delta
+     * @param removedProjects names of projects the build loop no longer has
+     * @return false if the repository does not hold <code>baseVersion</code> for the build loop, in which
+     * case nothing was changed and a full snapshot is needed
+     */
+    boolean applyDelta(BuildLoopInformation delta, long baseVersion, long version,
+                       Collection<String> removedProjects);
+
     ProjectInfo getProjectInfo(String projectName);
 
     ClosableProjectMBeanConnection getJmxConnection(String projectName) throws IOException;
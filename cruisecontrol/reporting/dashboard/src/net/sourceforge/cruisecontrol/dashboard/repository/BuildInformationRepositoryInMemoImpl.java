@@ -3,45 +3,52 @@ package net.sourceforge.cruisecontrol.dashboard.repository;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-import javax.management.remote.JMXConnector;
 import javax.management.remote.JMXServiceURL;
 
 import net.sourceforge.cruisecontrol.BuildLoopInformation;
 import net.sourceforge.cruisecontrol.BuildLoopInformation.ProjectInfo;
 import net.sourceforge.cruisecontrol.dashboard.service.JMXConnectorFactory;
+import net.sourceforge.cruisecontrol.report.BuildLoopStatusProtocol;
 
 public class BuildInformationRepositoryInMemoImpl implements BuildInformationRepository {
-    private final Map<String, ProjectInfo> data = new HashMap<String, ProjectInfo>();
+    private final Map<String, ProjectInfo> data = new ConcurrentHashMap<String, ProjectInfo>();
 
-    private final JMXConnectorFactory jmxConnectorFactory;
+    private final JmxConnectionPool jmxConnectionPool;
 
-    private final Map<String, BuildLoopInformation> info = new HashMap<String, BuildLoopInformation>();
+    private final ConcurrentMap<String, BuildLoopState> buildLoops = new ConcurrentHashMap<String, BuildLoopState>();
+
+    private final Map<String, BuildLoopInformation> info = new ConcurrentHashMap<String, BuildLoopInformation>();
 
     public BuildInformationRepositoryInMemoImpl() {
         this(new JMXConnectorFactory());
     }
 
     BuildInformationRepositoryInMemoImpl(JMXConnectorFactory jmxConnectorFactory) {
-        this.jmxConnectorFactory = jmxConnectorFactory;
+        this(new JmxConnectionPool(jmxConnectorFactory));
+    }
+
+    BuildInformationRepositoryInMemoImpl(JmxConnectionPool jmxConnectionPool) {
+        this.jmxConnectionPool = jmxConnectionPool;
     }
 
     public ProjectInfo getProjectInfo(String projectName) {
         return data.get(projectName);
     }
 
-    public synchronized ClosableProjectMBeanConnection getJmxConnection(final String projectName) throws IOException {
+    public ClosableProjectMBeanConnection getJmxConnection(final String projectName) throws IOException {
         if (!knowAboutProject(projectName)) {
             return null;
         }
-        final JMXConnector jmxConnector
-                = jmxConnectorFactory.connect(jmxServiceUrl(projectName), environment(projectName));
-        return new ClosableProjectMBeanConnectionImpl(jmxConnector);
+        return jmxConnectionPool.checkout(jmxServiceUrl(projectName), environment(projectName));
     }
 
     public List<ProjectInfo> getProjectInfos() {
@@ -53,41 +60,81 @@ public class BuildInformationRepositoryInMemoImpl implements BuildInformationRep
     }
 
     public void saveOrUpdate(final BuildLoopInformation buildLoopInfo) {
-        final ProjectInfo[] projects = buildLoopInfo.getProjects();
-        filterDiscontinuedProjects(buildLoopInfo, projects);
-        for (final ProjectInfo projectInfo : projects) {
-            data.put(projectInfo.getName(), projectInfo);
-            info.put(projectInfo.getName(), buildLoopInfo);
+        saveSnapshot(buildLoopInfo, BuildLoopStatusProtocol.NO_VERSION);
+    }
+
+    public void saveSnapshot(final BuildLoopInformation buildLoopInfo, final long version) {
+        final BuildLoopState state = stateOf(buildLoopInfo.getUuid());
+        synchronized (state) {
+            final Set<String> current = new HashSet<String>();
+            final ProjectInfo[] projects = buildLoopInfo.getProjects();
+            if (projects != null) {
+                for (final ProjectInfo projectInfo : projects) {
+                    current.add(projectInfo.getName());
+                    save(buildLoopInfo, projectInfo);
+                }
+            }
+            for (final String name : state.projects) {
+                if (!current.contains(name)) {
+                    removeIfOwnedBy(buildLoopInfo, name);
+                }
+            }
+            state.projects = current;
+            state.version = version;
         }
     }
 
-    private void filterDiscontinuedProjects(final BuildLoopInformation updatedInfo, final ProjectInfo[] projects) {
-        final Set<String> currentProjectNames = new HashSet<String>(data.keySet());
-        for (final String name : currentProjectNames) {
-            final BuildLoopInformation currentInfo = info.get(name);
-            if (isSameBuildLoop(updatedInfo, currentInfo) && isMissing(name, projects)) {
-                info.remove(name);
-                data.remove(name);
+    public boolean applyDelta(final BuildLoopInformation delta, final long baseVersion, final long version,
+                              final Collection<String> removedProjects) {
+        final BuildLoopState state = buildLoops.get(delta.getUuid());
+        if (state == null) {
+            return false;
+        }
+        synchronized (state) {
+            if (state.version == BuildLoopStatusProtocol.NO_VERSION || state.version != baseVersion) {
+                return false;
+            }
+            for (final String name : removedProjects) {
+                removeIfOwnedBy(delta, name);
+                state.projects.remove(name);
+            }
+            for (final ProjectInfo projectInfo : delta.getProjects()) {
+                save(delta, projectInfo);
+                state.projects.add(projectInfo.getName());
             }
+            state.version = version;
+            return true;
         }
     }
 
-    private boolean isSameBuildLoop(final BuildLoopInformation buildLoopInfo,
-                                    final BuildLoopInformation currentBuildLoop) {
-        return currentBuildLoop.getUuid().equals(buildLoopInfo.getUuid());
+    private void save(final BuildLoopInformation buildLoopInfo, final ProjectInfo projectInfo) {
+        data.put(projectInfo.getName(), projectInfo);
+        info.put(projectInfo.getName(), buildLoopInfo);
     }
 
-    private boolean isMissing(final String projectName, final ProjectInfo[] projects) {
-        for (final ProjectInfo project : projects) {
-            if (project.getName().equals(projectName)) {
-                return false;
+    private void removeIfOwnedBy(final BuildLoopInformation buildLoopInfo, final String projectName) {
+        final BuildLoopInformation currentInfo = info.get(projectName);
+        if (currentInfo != null && currentInfo.getUuid().equals(buildLoopInfo.getUuid())) {
+            info.remove(projectName);
+            data.remove(projectName);
+        }
+    }
+
+    private BuildLoopState stateOf(final String uuid) {
+        BuildLoopState state = buildLoops.get(uuid);
+        if (state == null) {
+            final BuildLoopState created = new BuildLoopState();
+            state = buildLoops.putIfAbsent(uuid, created);
+            if (state == null) {
+                state = created;
             }
         }
-        return true;
+        return state;
     }
 
     public void removeAll() {
         data.clear();
+        buildLoops.clear();
     }
 
     public int size() {
@@ -122,4 +169,17 @@ public class BuildInformationRepositoryInMemoImpl implements BuildInformationRep
     public boolean hasBuildLoopInfoFor(final String projectName) {
         return data.containsKey(projectName);
     }
+
+    /**
+     * The projects a build loop reported last and the status version they correspond to, so that a
+     * snapshot only has to look at that build loop's projects and a delta can be checked against its base.
+     */
+    private static final class BuildLoopState {
+        private long version = BuildLoopStatusProtocol.NO_VERSION;
+
+        private Set<String> projects = new HashSet<String>();
+
+        private BuildLoopState() {
+        }
+    }
 }
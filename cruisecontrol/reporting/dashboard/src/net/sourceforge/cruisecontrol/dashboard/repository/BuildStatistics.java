@@ -0,0 +1,221 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.repository;
+
+import java.util.Arrays;
+
+import net.sourceforge.cruisecontrol.dashboard.utils.CCDateFormatter;
+
+/**
+ * Running aggregates of the builds of one project: pass and fail counts, time to fix and the results
+ * and durations of the latest builds. Builds are added one at a time as they finish, oldest first, so
+ * nothing is recomputed from the build logs.
+ * <p>
+ * The time to fix of a broken project is the time from its first failed build to its next successful one.
+ * Not thread safe.
+ * </p>
+ */
+public class BuildStatistics {
+    private static final int PERCENTILE = 95;
+
+    private static final int PERCENTAGE = 100;
+
+    private final boolean[] latestResults;
+
+    // seconds, -1 where unknown
+    private final int[] latestDurations;
+
+    private int latestCount;
+
+    private int next;
+
+    private int passed;
+
+    private int failed;
+
+    private long lastTimestamp = -1;
+
+    private long brokenSince = -1;
+
+    private int fixes;
+
+    private long totalFixMillis;
+
+    private long lastFixMillis = -1;
+
+    /**
+     * @param window the number of latest builds whose results and durations are kept.
+     */
+    public BuildStatistics(int window) {
+        latestResults = new boolean[window];
+        latestDurations = new int[window];
+    }
+
+    /**
+     * @param timestamp build time as yyyyMMddHHmmss, not before the time of the builds added before.
+     * @param hasPassed whether the build was successful.
+     * @param durationSeconds the build duration, or -1 if unknown.
+     */
+    public void add(long timestamp, boolean hasPassed, int durationSeconds) {
+        if (hasPassed) {
+            passed++;
+            if (brokenSince >= 0) {
+                lastFixMillis = toMillis(timestamp) - brokenSince;
+                totalFixMillis += lastFixMillis;
+                fixes++;
+                brokenSince = -1;
+            }
+        } else {
+            failed++;
+            if (brokenSince < 0) {
+                brokenSince = toMillis(timestamp);
+            }
+        }
+        lastTimestamp = timestamp;
+        if (latestResults.length > 0) {
+            latestResults[next] = hasPassed;
+            latestDurations[next] = durationSeconds;
+            next = (next + 1) % latestResults.length;
+            latestCount = Math.min(latestCount + 1, latestResults.length);
+        }
+    }
+
+    private static long toMillis(long timestamp) {
+        return CCDateFormatter.format(String.valueOf(timestamp), "yyyyMMddHHmmss").getMillis();
+    }
+
+    public int getWindow() {
+        return latestResults.length;
+    }
+
+    /** @return build time of the latest build added as yyyyMMddHHmmss, or -1 if none was added. */
+    public long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    public int getPassed() {
+        return passed;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    /** @return time of the first failed build since the last successful one in milliseconds, or -1. */
+    public long getBrokenSince() {
+        return brokenSince;
+    }
+
+    /** @return number of times the project was fixed after it broke. */
+    public int getFixes() {
+        return fixes;
+    }
+
+    public long getTotalFixMillis() {
+        return totalFixMillis;
+    }
+
+    /** @return time it took to fix the project the last time it broke, or -1 if it never was. */
+    public long getLastFixMillis() {
+        return lastFixMillis;
+    }
+
+    /** @return the number of builds among the latest ones, at most the window. */
+    public int countLatest(int max) {
+        return Math.min(max, latestCount);
+    }
+
+    /** @return the number of successful builds among the latest ones. */
+    public int countLatestPassed(int max) {
+        int count = 0;
+        for (int i = 0, size = countLatest(max); i < size; i++) {
+            if (latestResults[latest(i)]) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** @return the known durations of the latest builds in seconds, newest first. */
+    public int[] getLatestDurations(int max) {
+        int size = countLatest(max);
+        int[] durations = new int[size];
+        int known = 0;
+        for (int i = 0; i < size; i++) {
+            int duration = latestDurations[latest(i)];
+            if (duration >= 0) {
+                durations[known++] = duration;
+            }
+        }
+        int[] trimmed = new int[known];
+        System.arraycopy(durations, 0, trimmed, 0, known);
+        return trimmed;
+    }
+
+    // ring buffer position of the i-th latest build
+    private int latest(int i) {
+        return (next - 1 - i + 2 * latestResults.length) % latestResults.length;
+    }
+
+    /** @return the rounded percentage of passed builds, 0 if there are no builds. */
+    public static int rate(int passedBuilds, int builds) {
+        return builds == 0 ? 0 : Math.round(passedBuilds * (float) PERCENTAGE / builds);
+    }
+
+    /** @return the rounded mean, 0 if there are no values. */
+    public static long mean(int[] values) {
+        if (values.length == 0) {
+            return 0;
+        }
+        long sum = 0;
+        for (int i = 0; i < values.length; i++) {
+            sum += values[i];
+        }
+        return Math.round((double) sum / values.length);
+    }
+
+    /** @return the 95th percentile by nearest rank, 0 if there are no values. */
+    public static int percentile95(int[] values) {
+        if (values.length == 0) {
+            return 0;
+        }
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int rank = (int) Math.ceil(PERCENTILE * sorted.length / (double) PERCENTAGE);
+        return sorted[Math.max(0, rank - 1)];
+    }
+}
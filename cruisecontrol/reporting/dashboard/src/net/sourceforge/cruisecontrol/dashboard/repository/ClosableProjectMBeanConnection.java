@@ -7,4 +7,9 @@ public interface ClosableProjectMBeanConnection {
     MBeanServerConnection getMBeanServerConnection();
 
     void close() throws IOException;
+
+    /**
+     * Drops a connection that failed, so that it is not handed out again.
+     */
+    void invalidate();
 }
@@ -30,4 +30,12 @@ public final class ClosableProjectMBeanConnectionImpl implements ClosableProject
     public void close() throws IOException {
         jmxConnector.close();
     }
+
+    public void invalidate() {
+        try {
+            jmxConnector.close();
+        } catch (IOException ignored) {
+            // the connection is broken anyway
+        }
+    }
 }
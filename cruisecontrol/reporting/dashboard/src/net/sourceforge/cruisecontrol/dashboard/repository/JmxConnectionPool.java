@@ -0,0 +1,367 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.repository;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXServiceURL;
+
+import net.sourceforge.cruisecontrol.dashboard.service.JMXConnectorFactory;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps long-lived JMX connections to the build loops, one pool of idle connectors per build loop JMX
+ * service URL. Checking out and returning a connection never blocks other callers; an idle connector
+ * is pinged before being handed out again once it has been unused for a while, and connectors idle
+ * longer than the idle timeout are closed. The connection churn and latency counters are logged at INFO
+ * level every {@link #STATISTICS_INTERVAL}.
+ */
+public class JmxConnectionPool {
+    private static final Logger LOGGER = Logger.getLogger(JmxConnectionPool.class);
+
+    public static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000L;
+
+    public static final long DEFAULT_VALIDATION_INTERVAL = 30 * 1000L;
+
+    public static final int DEFAULT_MAX_IDLE = 4;
+
+    public static final long STATISTICS_INTERVAL = 10 * 60 * 1000L;
+
+    private final JMXConnectorFactory jmxConnectorFactory;
+
+    private final ConcurrentMap<JMXServiceURL, ConcurrentLinkedQueue<PooledConnection>> idle
+            = new ConcurrentHashMap<JMXServiceURL, ConcurrentLinkedQueue<PooledConnection>>();
+
+    private final long idleTimeout;
+
+    private final long validationInterval;
+
+    private final int maxIdle;
+
+    private final AtomicLong lastSweep = new AtomicLong(System.currentTimeMillis());
+
+    private final AtomicLong lastStatistics = new AtomicLong(System.currentTimeMillis());
+
+    private final AtomicLong checkouts = new AtomicLong();
+    private final AtomicLong reused = new AtomicLong();
+    private final AtomicLong opened = new AtomicLong();
+    private final AtomicLong closed = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+    private final AtomicLong broken = new AtomicLong();
+    private final AtomicLong connectFailures = new AtomicLong();
+    private final AtomicLong connectTime = new AtomicLong();
+    private final AtomicLong maxConnectTime = new AtomicLong();
+    private final AtomicLong checkoutTime = new AtomicLong();
+
+    public JmxConnectionPool(final JMXConnectorFactory jmxConnectorFactory) {
+        this(jmxConnectorFactory, DEFAULT_IDLE_TIMEOUT, DEFAULT_VALIDATION_INTERVAL, DEFAULT_MAX_IDLE);
+    }
+
+    public JmxConnectionPool(final JMXConnectorFactory jmxConnectorFactory, final long idleTimeout,
+                             final long validationInterval, final int maxIdle) {
+        this.jmxConnectorFactory = jmxConnectorFactory;
+        this.idleTimeout = idleTimeout;
+        this.validationInterval = validationInterval;
+        this.maxIdle = maxIdle;
+    }
+
+    /**
+     * Hands out a healthy connection to the build loop behind the given service URL, reusing an idle one
+     * when possible. Closing the returned connection gives it back to the pool; callers that saw it fail
+     * should call {@link ClosableProjectMBeanConnection#invalidate()} instead so it is not reused.
+     * @param serviceUrl the JMX service URL of the build loop
+     * @param environment the environment used when a new connector has to be opened
+     * @return a connection that is checked out to the caller
+     * @throws IOException if no connection could be established
+     */
+    public ClosableProjectMBeanConnection checkout(final JMXServiceURL serviceUrl, final Map environment)
+            throws IOException {
+        final long start = System.nanoTime();
+        checkouts.incrementAndGet();
+        final long now = System.currentTimeMillis();
+        sweepIfDue(now);
+        logStatisticsIfDue(now);
+
+        final ConcurrentLinkedQueue<PooledConnection> queue = queueFor(serviceUrl);
+        PooledConnection connection;
+        while ((connection = queue.poll()) != null) {
+            if (now - connection.lastUsed > idleTimeout) {
+                evicted.incrementAndGet();
+                discard(connection);
+            } else if (now - connection.lastUsed > validationInterval && !connection.isHealthy()) {
+                broken.incrementAndGet();
+                discard(connection);
+            } else {
+                reused.incrementAndGet();
+                connection.checkedOut.set(true);
+                checkoutTime.addAndGet(System.nanoTime() - start);
+                return connection;
+            }
+        }
+        connection = open(serviceUrl, environment);
+        checkoutTime.addAndGet(System.nanoTime() - start);
+        return connection;
+    }
+
+    private PooledConnection open(final JMXServiceURL serviceUrl, final Map environment) throws IOException {
+        final long start = System.nanoTime();
+        final JMXConnector connector;
+        try {
+            connector = jmxConnectorFactory.connect(serviceUrl, environment);
+        } catch (IOException e) {
+            connectFailures.incrementAndGet();
+            throw e;
+        }
+        final long elapsed = (System.nanoTime() - start) / 1000000L;
+        connectTime.addAndGet(elapsed);
+        long max = maxConnectTime.get();
+        while (elapsed > max && !maxConnectTime.compareAndSet(max, elapsed)) {
+            max = maxConnectTime.get();
+        }
+        opened.incrementAndGet();
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Opened JMX connection to " + serviceUrl + " in " + elapsed + " ms");
+        }
+        try {
+            return new PooledConnection(serviceUrl, connector);
+        } catch (IOException e) {
+            closeQuietly(connector);
+            throw e;
+        }
+    }
+
+    private ConcurrentLinkedQueue<PooledConnection> queueFor(final JMXServiceURL serviceUrl) {
+        ConcurrentLinkedQueue<PooledConnection> queue = idle.get(serviceUrl);
+        if (queue == null) {
+            final ConcurrentLinkedQueue<PooledConnection> created = new ConcurrentLinkedQueue<PooledConnection>();
+            queue = idle.putIfAbsent(serviceUrl, created);
+            if (queue == null) {
+                queue = created;
+            }
+        }
+        return queue;
+    }
+
+    private void release(final PooledConnection connection) {
+        connection.lastUsed = System.currentTimeMillis();
+        final ConcurrentLinkedQueue<PooledConnection> queue = queueFor(connection.serviceUrl);
+        if (queue.size() < maxIdle) {
+            queue.offer(connection);
+        } else {
+            discard(connection);
+        }
+    }
+
+    private void discard(final PooledConnection connection) {
+        closed.incrementAndGet();
+        closeQuietly(connection.connector);
+    }
+
+    private void closeQuietly(final JMXConnector connector) {
+        try {
+            connector.close();
+        } catch (Exception e) {
+            LOGGER.debug("Failed to close JMX connection", e);
+        }
+    }
+
+    /**
+     * Closes idle connectors of every build loop, including ones that are no longer polled, at most
+     * once per validation interval. Only the caller that wins the race for the sweep does the work.
+     */
+    private void sweepIfDue(final long now) {
+        final long last = lastSweep.get();
+        if (now - last < validationInterval || !lastSweep.compareAndSet(last, now)) {
+            return;
+        }
+        for (final Iterator<ConcurrentLinkedQueue<PooledConnection>> queues = idle.values().iterator();
+             queues.hasNext();) {
+            final ConcurrentLinkedQueue<PooledConnection> queue = queues.next();
+            for (final Iterator<PooledConnection> connections = queue.iterator(); connections.hasNext();) {
+                final PooledConnection connection = connections.next();
+                if (now - connection.lastUsed > idleTimeout && queue.remove(connection)) {
+                    evicted.incrementAndGet();
+                    discard(connection);
+                }
+            }
+        }
+    }
+
+    /**
+     * Logs the pool counters at most once per {@link #STATISTICS_INTERVAL}, by the caller that wins the race.
+     * @param now the current time
+     * @return true if this call logged them
+     */
+    boolean logStatisticsIfDue(final long now) {
+        final long last = lastStatistics.get();
+        if (now - last < STATISTICS_INTERVAL || !lastStatistics.compareAndSet(last, now)) {
+            return false;
+        }
+        LOGGER.info(this);
+        return true;
+    }
+
+    /**
+     * Closes every idle connection. Connections still checked out go back to the pool when their callers
+     * close them.
+     */
+    public void closeAll() {
+        for (final ConcurrentLinkedQueue<PooledConnection> queue : idle.values()) {
+            PooledConnection connection;
+            while ((connection = queue.poll()) != null) {
+                discard(connection);
+            }
+        }
+    }
+
+    public int getIdleCount() {
+        int count = 0;
+        for (final ConcurrentLinkedQueue<PooledConnection> queue : idle.values()) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+    public long getCheckoutCount() {
+        return checkouts.get();
+    }
+
+    public long getReusedCount() {
+        return reused.get();
+    }
+
+    public long getOpenedCount() {
+        return opened.get();
+    }
+
+    public long getClosedCount() {
+        return closed.get();
+    }
+
+    public long getEvictedCount() {
+        return evicted.get();
+    }
+
+    public long getBrokenCount() {
+        return broken.get();
+    }
+
+    public long getConnectFailureCount() {
+        return connectFailures.get();
+    }
+
+    /**
+     * @return the average time in milliseconds it took to open a new connector, 0 if none was opened
+     */
+    public long getAverageConnectTime() {
+        final long count = opened.get();
+        return count == 0 ? 0 : connectTime.get() / count;
+    }
+
+    public long getMaxConnectTime() {
+        return maxConnectTime.get();
+    }
+
+    /**
+     * @return the average time in microseconds a checkout took, including any connect it caused
+     */
+    public long getAverageCheckoutTime() {
+        final long count = checkouts.get();
+        return count == 0 ? 0 : checkoutTime.get() / count / 1000L;
+    }
+
+    public String toString() {
+        return "JmxConnectionPool[checkouts=" + getCheckoutCount() + ", reused=" + getReusedCount()
+                + ", opened=" + getOpenedCount() + ", closed=" + getClosedCount()
+                + ", evicted=" + getEvictedCount() + ", broken=" + getBrokenCount()
+                + ", connectFailures=" + getConnectFailureCount() + ", idle=" + getIdleCount()
+                + ", avgConnectMs=" + getAverageConnectTime() + ", maxConnectMs=" + getMaxConnectTime()
+                + ", avgCheckoutMicros=" + getAverageCheckoutTime() + "]";
+    }
+
+    private final class PooledConnection implements ClosableProjectMBeanConnection {
+        private final JMXServiceURL serviceUrl;
+        private final JMXConnector connector;
+        private final MBeanServerConnection mBeanServerConnection;
+        private final AtomicBoolean checkedOut = new AtomicBoolean(true);
+        private volatile long lastUsed = System.currentTimeMillis();
+
+        private PooledConnection(final JMXServiceURL serviceUrl, final JMXConnector connector) throws IOException {
+            this.serviceUrl = serviceUrl;
+            this.connector = connector;
+            this.mBeanServerConnection = connector.getMBeanServerConnection();
+        }
+
+        public MBeanServerConnection getMBeanServerConnection() {
+            return mBeanServerConnection;
+        }
+
+        public void close() {
+            if (checkedOut.compareAndSet(true, false)) {
+                release(this);
+            }
+        }
+
+        public void invalidate() {
+            if (checkedOut.compareAndSet(true, false)) {
+                broken.incrementAndGet();
+                discard(this);
+            }
+        }
+
+        private boolean isHealthy() {
+            try {
+                connector.getConnectionId();
+                mBeanServerConnection.getMBeanCount();
+                return true;
+            } catch (Exception e) {
+                LOGGER.debug("Dropping broken JMX connection to " + serviceUrl, e);
+                return false;
+            }
+        }
+    }
+}
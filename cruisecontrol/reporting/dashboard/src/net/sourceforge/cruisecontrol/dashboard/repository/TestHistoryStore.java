@@ -0,0 +1,703 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.repository;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Results of every test over the latest builds of one project, kept compact enough that history,
+ * flip rate and duration queries over thousands of builds are answered from memory.
+ * <p>
+ * Test names are interned to ids. Each build is one column: the sorted ids of the tests it ran, their
+ * durations in milliseconds and a bitset of the ones that failed. Builds are added as their logs are
+ * read and appended to a binary file next to the {@link BuildHistoryIndex} files, so the logs are read
+ * only once. Only the latest builds are kept; the file is rewritten when it holds too many dropped ones.
+ * </p>
+ */
+public class TestHistoryStore {
+    public static final int DEFAULT_MAX_BUILDS = 1000;
+
+    private static final Logger LOGGER = Logger.getLogger(TestHistoryStore.class);
+
+    private static final String HEADER = "cruisecontrol test history";
+
+    private static final int VERSION = 1;
+
+    private static final byte NAME_RECORD = 'N';
+
+    private static final byte BUILD_RECORD = 'B';
+
+    private static final Comparator<TestStats> BY_AVERAGE_DURATION = new Comparator<TestStats>() {
+        public int compare(TestStats one, TestStats other) {
+            if (one.getAverageMillis() != other.getAverageMillis()) {
+                return one.getAverageMillis() > other.getAverageMillis() ? -1 : 1;
+            }
+            return one.getName().compareTo(other.getName());
+        }
+    };
+
+    private static final Comparator<TestStats> BY_FLIP_RATE = new Comparator<TestStats>() {
+        public int compare(TestStats one, TestStats other) {
+            if (one.getFlipRate() != other.getFlipRate()) {
+                return one.getFlipRate() > other.getFlipRate() ? -1 : 1;
+            }
+            if (one.getFlips() != other.getFlips()) {
+                return one.getFlips() > other.getFlips() ? -1 : 1;
+            }
+            return one.getName().compareTo(other.getName());
+        }
+    };
+
+    private final File storeFile;
+
+    private final int maxBuilds;
+
+    private final List<String> names = new ArrayList<String>();
+
+    private final Map<String, Integer> ids = new HashMap<String, Integer>();
+
+    /** Oldest first. */
+    private final List<BuildColumn> builds = new ArrayList<BuildColumn>();
+
+    private final Set<String> fileNames = new HashSet<String>();
+
+    private int persistedNames;
+
+    private int buildRecords;
+
+    private boolean loaded;
+
+    public TestHistoryStore(File projectDir, int maxBuilds) {
+        this(projectDir, BuildHistoryIndex.getIndexDirectory(), maxBuilds);
+    }
+
+    public TestHistoryStore(File projectDir, File storeDir, int maxBuilds) {
+        this.storeFile = storeDir == null ? null : new File(storeDir, projectDir.getName() + "-"
+                + Integer.toHexString(projectDir.getAbsolutePath().hashCode()) + ".tests");
+        this.maxBuilds = Math.max(1, maxBuilds);
+    }
+
+    public int getMaxBuilds() {
+        return maxBuilds;
+    }
+
+    public synchronized int getBuildCount() {
+        ensureLoaded();
+        return builds.size();
+    }
+
+    public synchronized int getTestCount() {
+        ensureLoaded();
+        return names.size();
+    }
+
+    /**
+     * @return whether the results of the given log are in the store.
+     */
+    public synchronized boolean contains(String fileName) {
+        ensureLoaded();
+        return fileNames.contains(fileName);
+    }
+
+    /**
+     * Adds the test results of one build. Builds may be added in any order.
+     *
+     * @param fileName name of the build log.
+     * @param timestamp build time as yyyyMMddHHmmss.
+     * @param tests names of the tests run.
+     * @param durations duration of each test in milliseconds.
+     * @param failed positions of the tests that failed or errored.
+     */
+    public synchronized void add(String fileName, long timestamp, List<String> tests, int[] durations,
+                                 BitSet failed) {
+        ensureLoaded();
+        if (fileNames.contains(fileName)) {
+            return;
+        }
+        int[] testIds = new int[tests.size()];
+        for (int i = 0; i < testIds.length; i++) {
+            testIds[i] = intern(tests.get(i));
+        }
+        BuildColumn build = BuildColumn.create(fileName, timestamp, testIds, durations, failed);
+        insert(build);
+        append(build);
+        prune();
+    }
+
+    /**
+     * @return the runs of the given test, newest first. Builds that did not run the test are left out.
+     */
+    public synchronized List<TestRun> getHistory(String test, int max) {
+        ensureLoaded();
+        Integer id = ids.get(test);
+        List<TestRun> runs = new ArrayList<TestRun>();
+        if (id == null) {
+            return runs;
+        }
+        for (int i = builds.size() - 1; i >= 0 && runs.size() < max; i--) {
+            TestRun run = builds.get(i).getRun(test, id.intValue());
+            if (run != null) {
+                runs.add(run);
+            }
+        }
+        return runs;
+    }
+
+    /**
+     * @return the first failed run of the failures the test ended with, or null if its latest run passed.
+     */
+    public synchronized TestRun getFailingSince(String test) {
+        ensureLoaded();
+        Integer id = ids.get(test);
+        TestRun since = null;
+        for (int i = builds.size() - 1; id != null && i >= 0; i--) {
+            TestRun run = builds.get(i).getRun(test, id.intValue());
+            if (run == null) {
+                continue;
+            }
+            if (!run.hasFailed()) {
+                break;
+            }
+            since = run;
+        }
+        return since;
+    }
+
+    /**
+     * @return the tests with the longest average duration over the given number of latest builds.
+     */
+    public synchronized List<TestStats> getSlowest(int lastBuilds, int max) {
+        List<TestStats> stats = getStats(lastBuilds);
+        Collections.sort(stats, BY_AVERAGE_DURATION);
+        return stats.subList(0, Math.min(max, stats.size()));
+    }
+
+    /**
+     * @return the tests that changed between passing and failing most often, relative to the number of
+     * times they ran, over the given number of latest builds. Tests that never changed are left out.
+     */
+    public synchronized List<TestStats> getFlaky(int lastBuilds, int max) {
+        List<TestStats> stats = getStats(lastBuilds);
+        List<TestStats> flaky = new ArrayList<TestStats>();
+        for (TestStats stat : stats) {
+            if (stat.getFlips() > 0) {
+                flaky.add(stat);
+            }
+        }
+        Collections.sort(flaky, BY_FLIP_RATE);
+        return flaky.subList(0, Math.min(max, flaky.size()));
+    }
+
+    /**
+     * @return statistics of every test run in the given number of latest builds.
+     */
+    public synchronized List<TestStats> getStats(int lastBuilds) {
+        ensureLoaded();
+        int count = names.size();
+        int[] runs = new int[count];
+        int[] failures = new int[count];
+        int[] flips = new int[count];
+        long[] totalMillis = new long[count];
+        int[] maxMillis = new int[count];
+        BitSet lastFailed = new BitSet(count);
+        for (int b = Math.max(0, builds.size() - lastBuilds); b < builds.size(); b++) {
+            BuildColumn build = builds.get(b);
+            for (int i = 0; i < build.testIds.length; i++) {
+                int id = build.testIds[i];
+                boolean failed = build.failed.get(i);
+                if (runs[id] > 0 && failed != lastFailed.get(id)) {
+                    flips[id]++;
+                }
+                lastFailed.set(id, failed);
+                runs[id]++;
+                if (failed) {
+                    failures[id]++;
+                }
+                totalMillis[id] += build.durations[i];
+                maxMillis[id] = Math.max(maxMillis[id], build.durations[i]);
+            }
+        }
+        List<TestStats> stats = new ArrayList<TestStats>();
+        for (int id = 0; id < count; id++) {
+            if (runs[id] > 0) {
+                stats.add(new TestStats(names.get(id), runs[id], failures[id], flips[id],
+                        totalMillis[id] / runs[id], maxMillis[id], lastFailed.get(id)));
+            }
+        }
+        return stats;
+    }
+
+    private int intern(String test) {
+        Integer id = ids.get(test);
+        if (id == null) {
+            id = Integer.valueOf(names.size());
+            names.add(test);
+            ids.put(test, id);
+        }
+        return id.intValue();
+    }
+
+    private void insert(BuildColumn build) {
+        int low = 0;
+        int high = builds.size();
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            BuildColumn other = builds.get(middle);
+            if (other.timestamp < build.timestamp
+                    || (other.timestamp == build.timestamp && other.fileName.compareTo(build.fileName) < 0)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        builds.add(low, build);
+        fileNames.add(build.fileName);
+    }
+
+    private void prune() {
+        while (builds.size() > maxBuilds) {
+            fileNames.remove(builds.remove(0).fileName);
+        }
+        if (buildRecords > 2 * maxBuilds) {
+            rewrite();
+        }
+    }
+
+    private void ensureLoaded() {
+        if (loaded) {
+            return;
+        }
+        loaded = true;
+        if (storeFile == null || !storeFile.isFile()) {
+            return;
+        }
+        DataInputStream in = null;
+        boolean complete = false;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(storeFile)));
+            if (!HEADER.equals(in.readUTF()) || in.readInt() != VERSION) {
+                LOGGER.warn("Replacing test history of unknown format " + storeFile.getAbsolutePath());
+                in.close();
+                storeFile.delete();
+                return;
+            }
+            persistedNames = 0;
+            buildRecords = 0;
+            int type;
+            while ((type = in.read()) != -1) {
+                if (type == NAME_RECORD) {
+                    intern(in.readUTF());
+                    persistedNames++;
+                } else if (type == BUILD_RECORD) {
+                    BuildColumn build = BuildColumn.read(in);
+                    buildRecords++;
+                    if (!fileNames.contains(build.fileName)) {
+                        insert(build);
+                    }
+                } else {
+                    throw new IOException("Unknown record type " + type);
+                }
+            }
+            complete = true;
+        } catch (EOFException e) {
+            LOGGER.warn("Test history " + storeFile.getAbsolutePath() + " was cut short, keeping what was read");
+        } catch (IOException e) {
+            LOGGER.warn("Ignoring unreadable test history " + storeFile.getAbsolutePath(), e);
+            names.clear();
+            ids.clear();
+            builds.clear();
+            fileNames.clear();
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+        persistedNames = names.size();
+        while (builds.size() > maxBuilds) {
+            fileNames.remove(builds.remove(0).fileName);
+        }
+        if (!complete || buildRecords > 2 * maxBuilds) {
+            rewrite();
+        }
+    }
+
+    private void append(BuildColumn build) {
+        if (storeFile == null) {
+            return;
+        }
+        boolean created = !storeFile.isFile();
+        DataOutputStream out = null;
+        try {
+            storeFile.getParentFile().mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(storeFile, true)));
+            if (created) {
+                writeHeader(out);
+                persistedNames = 0;
+                buildRecords = 0;
+            }
+            writeNames(out);
+            out.writeByte(BUILD_RECORD);
+            build.write(out);
+            buildRecords++;
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            LOGGER.warn("Unable to write test history " + storeFile.getAbsolutePath(), e);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    /**
+     * Writes the names and builds in memory to a new file, dropping the builds no longer kept.
+     */
+    private void rewrite() {
+        if (storeFile == null) {
+            return;
+        }
+        File tmp = new File(storeFile.getParentFile(), storeFile.getName() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            storeFile.getParentFile().mkdirs();
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            writeHeader(out);
+            persistedNames = 0;
+            writeNames(out);
+            for (BuildColumn build : builds) {
+                out.writeByte(BUILD_RECORD);
+                build.write(out);
+            }
+            out.close();
+            out = null;
+            storeFile.delete();
+            if (!tmp.renameTo(storeFile)) {
+                LOGGER.warn("Unable to write test history " + storeFile.getAbsolutePath());
+            }
+            buildRecords = builds.size();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to write test history " + storeFile.getAbsolutePath(), e);
+        } finally {
+            IOUtils.closeQuietly(out);
+        }
+    }
+
+    private static void writeHeader(DataOutputStream out) throws IOException {
+        out.writeUTF(HEADER);
+        out.writeInt(VERSION);
+    }
+
+    private void writeNames(DataOutputStream out) throws IOException {
+        for (; persistedNames < names.size(); persistedNames++) {
+            out.writeByte(NAME_RECORD);
+            out.writeUTF(names.get(persistedNames));
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            out.writeByte((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.writeByte(remaining);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed number in test history");
+    }
+
+    /**
+     * The test results of one build. Test ids are sorted, durations and the failed bits are by position.
+     */
+    private static final class BuildColumn {
+        private final String fileName;
+
+        private final long timestamp;
+
+        private final int[] testIds;
+
+        private final int[] durations;
+
+        private final BitSet failed;
+
+        private BuildColumn(String fileName, long timestamp, int[] testIds, int[] durations, BitSet failed) {
+            this.fileName = fileName;
+            this.timestamp = timestamp;
+            this.testIds = testIds;
+            this.durations = durations;
+            this.failed = failed;
+        }
+
+        /**
+         * Sorts the results by test id. A test run more than once counts once, failed if any run failed.
+         */
+        static BuildColumn create(String fileName, long timestamp, int[] ids, int[] durations, BitSet failed) {
+            long[] keyed = new long[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                keyed[i] = ((long) ids[i] << 32) | i;
+            }
+            Arrays.sort(keyed);
+            int[] sortedIds = new int[ids.length];
+            int[] sortedDurations = new int[ids.length];
+            BitSet sortedFailed = new BitSet();
+            int size = 0;
+            for (int i = 0; i < keyed.length; i++) {
+                int id = (int) (keyed[i] >>> 32);
+                int position = (int) keyed[i];
+                if (size > 0 && sortedIds[size - 1] == id) {
+                    if (failed.get(position)) {
+                        sortedFailed.set(size - 1);
+                    }
+                    continue;
+                }
+                sortedIds[size] = id;
+                sortedDurations[size] = position < durations.length ? Math.max(0, durations[position]) : 0;
+                if (failed.get(position)) {
+                    sortedFailed.set(size);
+                }
+                size++;
+            }
+            return new BuildColumn(fileName, timestamp, trim(sortedIds, size), trim(sortedDurations, size),
+                    sortedFailed);
+        }
+
+        private static int[] trim(int[] values, int size) {
+            if (values.length == size) {
+                return values;
+            }
+            int[] trimmed = new int[size];
+            System.arraycopy(values, 0, trimmed, 0, size);
+            return trimmed;
+        }
+
+        TestRun getRun(String test, int id) {
+            int position = Arrays.binarySearch(testIds, id);
+            if (position < 0) {
+                return null;
+            }
+            return new TestRun(test, fileName, timestamp, failed.get(position), durations[position]);
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeUTF(fileName);
+            out.writeLong(timestamp);
+            writeVarInt(out, testIds.length);
+            int previous = 0;
+            for (int i = 0; i < testIds.length; i++) {
+                writeVarInt(out, testIds[i] - previous);
+                previous = testIds[i];
+                writeVarInt(out, durations[i]);
+            }
+            writeVarInt(out, failed.cardinality());
+            for (int i = failed.nextSetBit(0); i >= 0; i = failed.nextSetBit(i + 1)) {
+                writeVarInt(out, i);
+            }
+        }
+
+        static BuildColumn read(DataInputStream in) throws IOException {
+            String fileName = in.readUTF();
+            long timestamp = in.readLong();
+            int size = readVarInt(in);
+            int[] testIds = new int[size];
+            int[] durations = new int[size];
+            int previous = 0;
+            for (int i = 0; i < size; i++) {
+                previous += readVarInt(in);
+                testIds[i] = previous;
+                durations[i] = readVarInt(in);
+            }
+            BitSet failed = new BitSet();
+            int failures = readVarInt(in);
+            for (int i = 0; i < failures; i++) {
+                failed.set(readVarInt(in));
+            }
+            return new BuildColumn(fileName, timestamp, testIds, durations, failed);
+        }
+    }
+
+    /**
+     * One run of a test.
+     */
+    public static final class TestRun {
+        private final String test;
+
+        private final String fileName;
+
+        private final long timestamp;
+
+        private final boolean failed;
+
+        private final int durationMillis;
+
+        TestRun(String test, String fileName, long timestamp, boolean failed, int durationMillis) {
+            this.test = test;
+            this.fileName = fileName;
+            this.timestamp = timestamp;
+            this.failed = failed;
+            this.durationMillis = durationMillis;
+        }
+
+        public String getTest() {
+            return test;
+        }
+
+        public String getFileName() {
+            return fileName;
+        }
+
+        /** @return build time as yyyyMMddHHmmss. */
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public boolean hasFailed() {
+            return failed;
+        }
+
+        public int getDurationMillis() {
+            return durationMillis;
+        }
+
+        public String getDuration() {
+            return formatSeconds(durationMillis);
+        }
+    }
+
+    /**
+     * Figures of one test over a range of builds.
+     */
+    public static final class TestStats {
+        private final String name;
+
+        private final int runs;
+
+        private final int failures;
+
+        private final int flips;
+
+        private final long averageMillis;
+
+        private final int maxMillis;
+
+        private final boolean lastFailed;
+
+        TestStats(String name, int runs, int failures, int flips, long averageMillis, int maxMillis,
+                  boolean lastFailed) {
+            this.name = name;
+            this.runs = runs;
+            this.failures = failures;
+            this.flips = flips;
+            this.averageMillis = averageMillis;
+            this.maxMillis = maxMillis;
+            this.lastFailed = lastFailed;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public int getRuns() {
+            return runs;
+        }
+
+        public int getFailures() {
+            return failures;
+        }
+
+        /** @return how often the result changed between passed and failed from one run to the next. */
+        public int getFlips() {
+            return flips;
+        }
+
+        /** @return flips relative to the number of times the result could have changed, 0 to 1. */
+        public double getFlipRate() {
+            return runs < 2 ? 0 : (double) flips / (runs - 1);
+        }
+
+        public int getFlipPercentage() {
+            return (int) Math.round(getFlipRate() * 100);
+        }
+
+        public long getAverageMillis() {
+            return averageMillis;
+        }
+
+        public String getAverageDuration() {
+            return formatSeconds(averageMillis);
+        }
+
+        public String getMaxDuration() {
+            return formatSeconds(maxMillis);
+        }
+
+        public boolean hasLastFailed() {
+            return lastFailed;
+        }
+    }
+
+    private static String formatSeconds(long millis) {
+        String fraction = String.valueOf(1000 + millis % 1000).substring(1);
+        return millis / 1000 + "." + fraction;
+    }
+}
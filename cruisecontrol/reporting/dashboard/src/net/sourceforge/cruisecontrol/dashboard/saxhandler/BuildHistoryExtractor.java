@@ -0,0 +1,35 @@
+package net.sourceforge.cruisecontrol.dashboard.saxhandler;
+
+import java.util.Map;
+
+import org.apache.commons.lang.math.NumberUtils;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+/**
+ * Extracts the figures kept in the build history index: the build duration and the number of
+ * tests and failing tests (failures and errors) over all test suites.
+ */
+public class BuildHistoryExtractor extends SAXBasedExtractor {
+    private String duration = "";
+
+    private int tests;
+
+    private int failures;
+
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+        if ("build".equals(qName)) {
+            duration = getAttribute(attributes, "time");
+        } else if ("testsuite".equals(qName)) {
+            tests += NumberUtils.toInt(getAttribute(attributes, "tests"));
+            failures += NumberUtils.toInt(getAttribute(attributes, "failures"))
+                    + NumberUtils.toInt(getAttribute(attributes, "errors"));
+        }
+    }
+
+    public void report(Map resultSet) {
+        resultSet.put("duration", duration);
+        resultSet.put("tests", new Integer(tests));
+        resultSet.put("failures", new Integer(failures));
+    }
+}
@@ -0,0 +1,66 @@
+package net.sourceforge.cruisecontrol.dashboard.saxhandler;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.lang.math.NumberUtils;
+import org.xml.sax.Attributes;
+import org.xml.sax.SAXException;
+
+/**
+ * Extracts what the test history store keeps of a build: the name, duration and result of every test
+ * case. Tests are named by their suite and test name, e.g. <code>net.foo.BarTest.testBaz</code>.
+ * Reports the names as "tests", the durations in milliseconds as "durations" and the positions of
+ * failed and errored tests as "failed".
+ */
+public class TestHistoryExtractor extends SAXBasedExtractor {
+    private final List tests = new ArrayList();
+
+    private int[] durations = new int[64];
+
+    private final BitSet failed = new BitSet();
+
+    private String suite = "";
+
+    private boolean readingTestCase;
+
+    public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException {
+        if ("testsuite".equals(qName)) {
+            suite = getAttribute(attributes, "name");
+        } else if ("testcase".equals(qName)) {
+            readingTestCase = true;
+            String name = getAttribute(attributes, "name");
+            if (durations.length == tests.size()) {
+                int[] grown = new int[durations.length * 2];
+                System.arraycopy(durations, 0, grown, 0, durations.length);
+                durations = grown;
+            }
+            durations[tests.size()] = toMillis(getAttribute(attributes, "time"));
+            tests.add(suite.length() == 0 ? name : suite + "." + name);
+        } else if (readingTestCase && ("failure".equals(qName) || "error".equals(qName))) {
+            failed.set(tests.size() - 1);
+        }
+    }
+
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        if ("testcase".equals(qName)) {
+            readingTestCase = false;
+        } else if ("testsuite".equals(qName)) {
+            suite = "";
+        }
+    }
+
+    private static int toMillis(String seconds) {
+        return (int) Math.round(NumberUtils.toDouble(seconds.replace(',', '.')) * 1000);
+    }
+
+    public void report(Map resultSet) {
+        int[] trimmed = new int[tests.size()];
+        System.arraycopy(durations, 0, trimmed, 0, trimmed.length);
+        resultSet.put("tests", tests);
+        resultSet.put("durations", trimmed);
+        resultSet.put("failed", failed);
+    }
+}
@@ -0,0 +1,281 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import net.sourceforge.cruisecontrol.dashboard.LogFile;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Cache of the properties parsed from build logs, keyed by log path, length and modification time.
+ * The cache is bounded by the total size of the cached logs and evicts the least recently used
+ * entries. Concurrent requests for the same log wait for a single parse. Parsed properties can also
+ * be kept on disk, see {@link #PERSISTENCE_DIR_PROPERTY}.
+ */
+public class BuildDetailCache {
+    /** System property naming the directory parsed logs are kept in; not kept on disk if not set. */
+    public static final String PERSISTENCE_DIR_PROPERTY = "dashboard.builddetailcache.dir";
+
+    public static final long DEFAULT_MAX_WEIGHT = 64L * 1024 * 1024;
+
+    private static final Logger LOGGER = Logger.getLogger(BuildDetailCache.class);
+
+    // compressed logs parse into much more than their size on disk
+    private static final int COMPRESSION_FACTOR = 8;
+
+    /**
+     * Parses the properties of a log on a cache miss.
+     */
+    public interface LogParser {
+        Map parse(LogFile logFile) throws Exception;
+    }
+
+    private final LinkedHashMap entries = new LinkedHashMap(16, 0.75f, true);
+
+    private final Map loading = new HashMap();
+
+    private final long maxWeight;
+
+    private final File persistenceDir;
+
+    private long weight;
+
+    private int hits;
+
+    private int misses;
+
+    public BuildDetailCache() {
+        this(DEFAULT_MAX_WEIGHT, getPersistenceDirectory());
+    }
+
+    public BuildDetailCache(long maxWeight, File persistenceDir) {
+        this.maxWeight = maxWeight;
+        this.persistenceDir = persistenceDir;
+    }
+
+    static File getPersistenceDirectory() {
+        String dir = System.getProperty(PERSISTENCE_DIR_PROPERTY);
+        return dir == null || dir.trim().length() == 0 ? null : new File(dir);
+    }
+
+    /**
+     * @return the unmodifiable properties of the given log, parsed by the given parser unless cached.
+     */
+    public Map get(final LogFile logFile, final LogParser parser) throws Exception {
+        final String path = logFile.getAbsolutePath();
+        final long length = logFile.length();
+        final long modified = logFile.lastModified();
+
+        FutureTask task;
+        boolean owner = false;
+        synchronized (this) {
+            Entry entry = (Entry) entries.get(path);
+            if (entry != null && entry.length == length && entry.modified == modified) {
+                hits++;
+                return entry.properties;
+            }
+            task = (FutureTask) loading.get(path);
+            if (task == null) {
+                misses++;
+                task = new FutureTask(new Callable() {
+                    public Object call() throws Exception {
+                        return load(logFile, path, length, modified, parser);
+                    }
+                });
+                loading.put(path, task);
+                owner = true;
+            }
+        }
+
+        if (owner) {
+            try {
+                task.run();
+            } finally {
+                synchronized (this) {
+                    loading.remove(path);
+                }
+            }
+        }
+        try {
+            return (Map) task.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw (Error) e.getCause();
+        }
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized int getHits() {
+        return hits;
+    }
+
+    public synchronized int getMisses() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    private Map load(LogFile logFile, String path, long length, long modified, LogParser parser)
+            throws Exception {
+        File persisted = persistedFile(path);
+        Map properties = readPersisted(persisted, path, length, modified);
+        if (properties == null) {
+            properties = Collections.unmodifiableMap(parser.parse(logFile));
+            writePersisted(persisted, path, length, modified, properties);
+        }
+
+        long entryWeight = logFile.getName().endsWith(".gz") ? length * COMPRESSION_FACTOR : length;
+        synchronized (this) {
+            Entry previous = (Entry) entries.remove(path);
+            if (previous != null) {
+                weight -= previous.weight;
+            }
+            if (entryWeight <= maxWeight) {
+                entries.put(path, new Entry(length, modified, entryWeight, properties));
+                weight += entryWeight;
+                evict();
+            }
+        }
+        return properties;
+    }
+
+    private void evict() {
+        for (Iterator iter = entries.values().iterator(); weight > maxWeight && iter.hasNext();) {
+            Entry eldest = (Entry) iter.next();
+            weight -= eldest.weight;
+            iter.remove();
+        }
+    }
+
+    private File persistedFile(String path) {
+        if (persistenceDir == null) {
+            return null;
+        }
+        return new File(persistenceDir, Integer.toHexString(path.hashCode()) + ".builddetail");
+    }
+
+    private Map readPersisted(File persisted, String path, long length, long modified) {
+        if (persisted == null || !persisted.isFile()) {
+            return null;
+        }
+        ObjectInputStream in = null;
+        try {
+            in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(persisted)));
+            if (!path.equals(in.readUTF()) || in.readLong() != length || in.readLong() != modified) {
+                return null;
+            }
+            return Collections.unmodifiableMap((Map) in.readObject());
+        } catch (Exception e) {
+            LOGGER.debug("Ignoring unreadable cached build details " + persisted.getAbsolutePath(), e);
+            return null;
+        } finally {
+            IOUtils.closeQuietly(in);
+        }
+    }
+
+    private void writePersisted(File persisted, String path, long length, long modified, Map properties) {
+        if (persisted == null) {
+            return;
+        }
+        File tmp = new File(persisted.getParentFile(), persisted.getName() + "." + Thread.currentThread().getId());
+        ObjectOutputStream out = null;
+        try {
+            persistenceDir.mkdirs();
+            out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeUTF(path);
+            out.writeLong(length);
+            out.writeLong(modified);
+            out.writeObject(new HashMap(properties));
+            out.close();
+            out = null;
+            persisted.delete();
+            tmp.renameTo(persisted);
+        } catch (IOException e) {
+            LOGGER.debug("Unable to keep build details of " + path + " on disk", e);
+        } finally {
+            IOUtils.closeQuietly(out);
+            tmp.delete();
+        }
+    }
+
+    private static final class Entry {
+        private final long length;
+
+        private final long modified;
+
+        private final long weight;
+
+        private final Map properties;
+
+        private Entry(long length, long modified, long weight, Map properties) {
+            this.length = length;
+            this.modified = modified;
+            this.weight = weight;
+            this.properties = properties;
+        }
+    }
+}
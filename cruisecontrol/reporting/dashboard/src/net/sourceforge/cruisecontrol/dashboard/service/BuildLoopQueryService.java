@@ -101,15 +101,11 @@ public class BuildLoopQueryService {
             throw new RuntimeException("Force build is disabled");
         }
         try {
-            final ClosableProjectMBeanConnection closableProjectMBeanConnection = getJMXConnection(projectName);
-            try {
-                closableProjectMBeanConnection.getMBeanServerConnection()
-                        .invoke(getObjectName(projectName), JMXCOMMAND_BUILD, null, null);
-            } finally {
-                if (closableProjectMBeanConnection != null) {
-                    closableProjectMBeanConnection.close();
+            invoke(projectName, new JmxCall() {
+                public Object call(MBeanServerConnection connection, ObjectName objectName) throws Exception {
+                    return connection.invoke(objectName, JMXCOMMAND_BUILD, null, null);
                 }
-            }
+            }, false);
         } catch (Exception e) {
             LOGGER.error("Could not force build on", e);
             throw e;
@@ -139,17 +135,12 @@ public class BuildLoopQueryService {
 
     public String[] getBuildOutput(final String projectName, final int firstLine) {
         try {
-            final ClosableProjectMBeanConnection closableProjectMBeanConnection = getJMXConnection(projectName);
-            try {
-                final MBeanServerConnection jmxConnection = closableProjectMBeanConnection.getMBeanServerConnection();
-                return (String[]) jmxConnection.invoke(getObjectName(projectName),
-                        JMXCOMMAND_BUILD_OUTPUT, new Object[] {new Integer(firstLine)},
-                        new String[] {Integer.class.getName()});
-            } finally {
-                if (closableProjectMBeanConnection != null) {
-                    closableProjectMBeanConnection.close();
+            return (String[]) invoke(projectName, new JmxCall() {
+                public Object call(MBeanServerConnection connection, ObjectName objectName) throws Exception {
+                    return connection.invoke(objectName, JMXCOMMAND_BUILD_OUTPUT,
+                            new Object[] {new Integer(firstLine)}, new String[] {Integer.class.getName()});
                 }
-            }
+            }, true);
         } catch (Exception e) {
             LOGGER.error("Problem getting build output", e);
             return new String[] {" - Unable to connect to build loop at " + getServerName(projectName)};
@@ -158,15 +149,11 @@ public class BuildLoopQueryService {
 
     public String getLiveOutputID(final String projectName) {
         try {
-            final ClosableProjectMBeanConnection closableProjectMBeanConnection = getJMXConnection(projectName);
-            try {
-                final MBeanServerConnection jmxConnection = closableProjectMBeanConnection.getMBeanServerConnection();
-                return (String) jmxConnection.getAttribute(getObjectName(projectName), JMXCOMMAND_OUTPUT_ID);
-            } finally {
-                if (closableProjectMBeanConnection != null) {
-                    closableProjectMBeanConnection.close();
+            return (String) invoke(projectName, new JmxCall() {
+                public Object call(MBeanServerConnection connection, ObjectName objectName) throws Exception {
+                    return connection.getAttribute(objectName, JMXCOMMAND_OUTPUT_ID);
                 }
-            }
+            }, true);
         } catch (Exception e) {
             LOGGER.error("Problem getting output ID", e);
             return " - Unable to connect to build loop at " + getServerName(projectName);
@@ -184,6 +171,41 @@ public class BuildLoopQueryService {
         return buildInformationRepository.getJmxConnection(projectName);
     }
 
+    /**
+     * Runs a call against the project MBean on a pooled connection. A connection that fails with an
+     * IOException is dropped; read-only calls are then retried once on a fresh connection, since a pooled
+     * connection may have gone stale when its build loop restarted.
+     */
+    private Object invoke(final String projectName, final JmxCall call, final boolean retry) throws Exception {
+        final ObjectName objectName = getObjectName(projectName);
+        for (int attempt = 1;; attempt++) {
+            final ClosableProjectMBeanConnection connection = getJMXConnection(projectName);
+            if (connection == null) {
+                throw new IOException("No JMX connection available for project " + projectName);
+            }
+            final Object result;
+            try {
+                result = call.call(connection.getMBeanServerConnection(), objectName);
+            } catch (IOException e) {
+                connection.invalidate();
+                if (!retry || attempt >= 2) {
+                    throw e;
+                }
+                LOGGER.debug("Retrying JMX call on a new connection to " + projectName, e);
+                continue;
+            } catch (Exception e) {
+                connection.close();
+                throw e;
+            }
+            connection.close();
+            return result;
+        }
+    }
+
+    private interface JmxCall {
+        Object call(MBeanServerConnection connection, ObjectName objectName) throws Exception;
+    }
+
     public Projects getProjects() {
         final List<ProjectInfo> list = buildInformationRepository.getProjectInfos();
         int i = 0;
@@ -50,6 +50,7 @@ import net.sourceforge.cruisecontrol.dashboard.saxhandler.StackTraceExtractor;
 import net.sourceforge.cruisecontrol.dashboard.saxhandler.TestSuiteExtractor;
 import net.sourceforge.cruisecontrol.dashboard.utils.functors.BuildSummariesFilters;
 import net.sourceforge.cruisecontrol.dashboard.utils.functors.SpecificLogFileFilter;
+import net.sourceforge.cruisecontrol.util.LogDirectoryLayout;
 import org.apache.log4j.Logger;
 
 import javax.xml.parsers.SAXParser;
@@ -64,12 +65,36 @@ import java.util.Map;
 public class BuildService {
     private static final Logger LOGGER = Logger.getLogger(BuildService.class);
 
+    private static final ThreadLocal SAX_PARSERS = new ThreadLocal() {
+        protected Object initialValue() {
+            try {
+                return SAXParserFactory.newInstance().newSAXParser();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    };
+
     private final ConfigurationService configuration;
     private final BuildLoopQueryService queryService;
+    private final BuildDetailCache cache;
+
+    final BuildDetailCache.LogParser logParser = new BuildDetailCache.LogParser() {
+        public Map parse(LogFile logFile) throws Exception {
+            Map properties = new HashMap();
+            parseLogFile(logFile, properties);
+            return properties;
+        }
+    };
 
     public BuildService(ConfigurationService configuration, BuildLoopQueryService queryService) {
+        this(configuration, queryService, new BuildDetailCache());
+    }
+
+    BuildService(ConfigurationService configuration, BuildLoopQueryService queryService, BuildDetailCache cache) {
         this.configuration = configuration;
         this.queryService = queryService;
+        this.cache = cache;
     }
 
     public BuildLiveDetail getActiveBuild(final String projectName, PreviousResult previousResult) {
@@ -93,14 +118,16 @@ public class BuildService {
 
     private LogFile getBuildFile(String projectName, final String yyyyMMddssHHmmss) {
         File logRoot = configuration.getLogRoot(projectName);
-        File[] files = logRoot.listFiles(new SpecificLogFileFilter(yyyyMMddssHHmmss));
-        return new LogFile(logRoot, files[0].getName());
+        // only the shard directory of the build's month is listed besides the project directory
+        String logName = "log" + yyyyMMddssHHmmss;
+        File[] files = LogDirectoryLayout.listLogFiles(logRoot, logName, logName,
+                new SpecificLogFileFilter(yyyyMMddssHHmmss));
+        return new LogFile(files[0].getPath());
     }
 
     BuildDetail createBuildFromFile(LogFile logFile) {
         try {
-            Map properties = new HashMap();
-            parseLogFile(logFile, properties);
+            Map properties = new HashMap(cache.get(logFile, logParser));
             properties.put("artifactfolder", getArtifactsRootDir((String) properties.get("projectname")));
             return new BuildDetail(logFile, properties);
         } catch (Exception e) {
@@ -118,11 +145,14 @@ public class BuildService {
 
     private void parse(InputStream logFileInputStream, CompositeExtractor compositeExtractor)
             throws Exception {
-        SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
+        SAXParser saxParser = (SAXParser) SAX_PARSERS.get();
         try {
             saxParser.parse(logFileInputStream, compositeExtractor);
         } catch (ShouldStopParsingException e) {
             LOGGER.debug("Intentionally throwing exception to stop parsing.");
+        } finally {
+            saxParser.reset();
+            logFileInputStream.close();
         }
     }
 
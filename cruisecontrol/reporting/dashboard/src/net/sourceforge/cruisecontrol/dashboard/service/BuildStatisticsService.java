@@ -0,0 +1,269 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.service;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.sourceforge.cruisecontrol.dashboard.repository.BuildHistoryIndex;
+import net.sourceforge.cruisecontrol.dashboard.repository.BuildStatistics;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps {@link BuildStatistics} per project up to date with the builds in its {@link BuildHistoryIndex}
+ * and puts them together with the figures over all projects. Only builds that finished since the last
+ * update are added, and only their logs are read for the durations. The result is shared between
+ * callers for the status snapshot interval, so frequent polling costs a map lookup.
+ */
+public class BuildStatisticsService {
+    /** System property with the comma separated numbers of latest builds the rolling figures cover. */
+    public static final String WINDOWS_PROPERTY = "dashboard.statistics.windows";
+
+    public static final String DEFAULT_WINDOWS = "10,50";
+
+    private static final Logger LOGGER = Logger.getLogger(BuildStatisticsService.class);
+
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+)\\s*(hour|minute|second)");
+
+    private static final int SECONDS_PER_MINUTE = 60;
+
+    private final ConfigurationService configuration;
+
+    private final HistoricalBuildSummariesService historicalBuildSummariesService;
+
+    private final int[] windows;
+
+    private final long interval;
+
+    private final Map<String, BuildStatistics> projects = new TreeMap<String, BuildStatistics>();
+
+    private Map<String, Object> statistics;
+
+    private long updated;
+
+    public BuildStatisticsService(ConfigurationService configuration,
+                                  HistoricalBuildSummariesService historicalBuildSummariesService) {
+        this(configuration, historicalBuildSummariesService, windows(System.getProperty(WINDOWS_PROPERTY)),
+                LatestBuildSummariesService.snapshotInterval() * 1000L);
+    }
+
+    BuildStatisticsService(ConfigurationService configuration,
+                           HistoricalBuildSummariesService historicalBuildSummariesService, int[] windows,
+                           long interval) {
+        this.configuration = configuration;
+        this.historicalBuildSummariesService = historicalBuildSummariesService;
+        this.windows = windows;
+        this.interval = interval;
+    }
+
+    static int[] windows(String value) {
+        if (value == null || value.trim().length() == 0) {
+            return windows(DEFAULT_WINDOWS);
+        }
+        String[] sizes = value.split(",");
+        int[] windows = new int[sizes.length];
+        try {
+            for (int i = 0; i < sizes.length; i++) {
+                windows[i] = Integer.parseInt(sizes[i].trim());
+                if (windows[i] < 1) {
+                    throw new NumberFormatException();
+                }
+            }
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Ignoring invalid " + WINDOWS_PROPERTY + ": " + value);
+            return windows(DEFAULT_WINDOWS);
+        }
+        Arrays.sort(windows);
+        return windows;
+    }
+
+    /**
+     * @return "all" to the figures over all projects and "projects" to the figures of each project by name.
+     * The maps returned must not be changed.
+     */
+    public synchronized Map<String, Object> getStatistics() {
+        long now = System.currentTimeMillis();
+        if (statistics == null || now - updated >= interval) {
+            if (update() || statistics == null) {
+                statistics = createStatistics();
+            }
+            updated = now;
+        }
+        return statistics;
+    }
+
+    private boolean update() {
+        File[] folders = configuration.getProjectDirectoriesFromFileSystem();
+        Set<String> names = new HashSet<String>();
+        boolean changed = false;
+        for (int i = 0; folders != null && i < folders.length; i++) {
+            names.add(folders[i].getName());
+            changed |= update(folders[i]);
+        }
+        changed |= projects.keySet().retainAll(names);
+        return changed;
+    }
+
+    private boolean update(File pjDir) {
+        BuildStatistics stats = projects.get(pjDir.getName());
+        if (stats == null) {
+            stats = new BuildStatistics(windows[windows.length - 1]);
+            projects.put(pjDir.getName(), stats);
+        }
+        BuildHistoryIndex index = historicalBuildSummariesService.getIndex(pjDir);
+        List added = index.getAfter(stats.getLastTimestamp());
+        if (added.isEmpty()) {
+            return false;
+        }
+        List inWindow = added.subList(Math.max(0, added.size() - stats.getWindow()), added.size());
+        index.loadDetails(inWindow);
+        for (Iterator iter = added.iterator(); iter.hasNext();) {
+            BuildHistoryIndex.Entry entry = (BuildHistoryIndex.Entry) iter.next();
+            stats.add(entry.getTimestamp(), entry.hasPassed(), toSeconds(entry.getDuration()));
+        }
+        return true;
+    }
+
+    /**
+     * @return the seconds of a duration like "1 minute(s) 5 second(s)" or "3 minutes 10 seconds", or -1
+     * if unknown.
+     */
+    static int toSeconds(String duration) {
+        if (duration == null) {
+            return -1;
+        }
+        Matcher matcher = DURATION_PART.matcher(duration);
+        int seconds = -1;
+        while (matcher.find()) {
+            int value = Integer.parseInt(matcher.group(1));
+            if ("hour".equals(matcher.group(2))) {
+                value *= SECONDS_PER_MINUTE * SECONDS_PER_MINUTE;
+            } else if ("minute".equals(matcher.group(2))) {
+                value *= SECONDS_PER_MINUTE;
+            }
+            seconds = Math.max(0, seconds) + value;
+        }
+        return seconds;
+    }
+
+    private Map<String, Object> createStatistics() {
+        Map<String, Object> byName = new LinkedHashMap<String, Object>();
+        for (Iterator<Map.Entry<String, BuildStatistics>> iter = projects.entrySet().iterator(); iter.hasNext();) {
+            Map.Entry<String, BuildStatistics> project = iter.next();
+            byName.put(project.getKey(), figures(new BuildStatistics[] {project.getValue()}, false));
+        }
+        Map<String, Object> result = new LinkedHashMap<String, Object>();
+        result.put("all", figures(projects.values().toArray(new BuildStatistics[projects.size()]), true));
+        result.put("projects", byName);
+        return result;
+    }
+
+    private Map<String, Object> figures(BuildStatistics[] stats, boolean overall) {
+        int passed = 0;
+        int failed = 0;
+        int fixes = 0;
+        long fixMillis = 0;
+        int broken = 0;
+        for (int i = 0; i < stats.length; i++) {
+            passed += stats[i].getPassed();
+            failed += stats[i].getFailed();
+            fixes += stats[i].getFixes();
+            fixMillis += stats[i].getTotalFixMillis();
+            if (stats[i].getBrokenSince() >= 0) {
+                broken++;
+            }
+        }
+        Map<String, Object> figures = new LinkedHashMap<String, Object>();
+        figures.put("passed", new Integer(passed));
+        figures.put("failed", new Integer(failed));
+        figures.put("success_rate", new Integer(BuildStatistics.rate(passed, passed + failed)));
+        figures.put("fixes", new Integer(fixes));
+        figures.put("mean_time_to_fix", new Long(fixes == 0 ? 0 : fixMillis / fixes / 1000));
+        if (overall) {
+            figures.put("broken", new Integer(broken));
+        } else {
+            long lastFixMillis = stats[0].getLastFixMillis();
+            figures.put("last_time_to_fix", new Long(lastFixMillis < 0 ? -1 : lastFixMillis / 1000));
+            figures.put("broken_since", new Long(stats[0].getBrokenSince()));
+        }
+        List<Map<String, Object>> rolling = new ArrayList<Map<String, Object>>();
+        for (int i = 0; i < windows.length; i++) {
+            rolling.add(window(stats, windows[i]));
+        }
+        figures.put("windows", rolling);
+        return figures;
+    }
+
+    private static Map<String, Object> window(BuildStatistics[] stats, int size) {
+        int builds = 0;
+        int passed = 0;
+        List<int[]> durations = new ArrayList<int[]>();
+        int count = 0;
+        for (int i = 0; i < stats.length; i++) {
+            builds += stats[i].countLatest(size);
+            passed += stats[i].countLatestPassed(size);
+            int[] latest = stats[i].getLatestDurations(size);
+            durations.add(latest);
+            count += latest.length;
+        }
+        int[] all = new int[count];
+        int offset = 0;
+        for (Iterator<int[]> iter = durations.iterator(); iter.hasNext();) {
+            int[] latest = iter.next();
+            System.arraycopy(latest, 0, all, offset, latest.length);
+            offset += latest.length;
+        }
+        Map<String, Object> window = new LinkedHashMap<String, Object>();
+        window.put("size", new Integer(size));
+        window.put("builds", new Integer(builds));
+        window.put("success_rate", new Integer(BuildStatistics.rate(passed, builds)));
+        window.put("mean_duration", new Long(BuildStatistics.mean(all)));
+        window.put("p95_duration", new Integer(BuildStatistics.percentile95(all)));
+        return window;
+    }
+}
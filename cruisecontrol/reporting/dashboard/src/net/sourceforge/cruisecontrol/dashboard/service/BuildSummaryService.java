@@ -39,6 +39,7 @@ package net.sourceforge.cruisecontrol.dashboard.service;
 import net.sourceforge.cruisecontrol.dashboard.BuildSummary;
 import net.sourceforge.cruisecontrol.dashboard.CurrentStatus;
 import net.sourceforge.cruisecontrol.dashboard.PreviousResult;
+import net.sourceforge.cruisecontrol.util.LogDirectoryLayout;
 
 import java.io.File;
 
@@ -59,7 +60,7 @@ public class BuildSummaryService {
             return null;
         }
         return new BuildSummary(
-            logFileXml.getParentFile().getName(),
+            LogDirectoryLayout.getLogDirectory(logFileXml).getName(),
             previousResult(logFileXml),
             logFileXml.getAbsolutePath()
         );
@@ -39,19 +39,23 @@ package net.sourceforge.cruisecontrol.dashboard.service;
 import net.sourceforge.cruisecontrol.dashboard.Build;
 import net.sourceforge.cruisecontrol.dashboard.BuildSummary;
 import net.sourceforge.cruisecontrol.dashboard.CurrentStatus;
+import net.sourceforge.cruisecontrol.dashboard.repository.BuildHistoryIndex;
+import net.sourceforge.cruisecontrol.dashboard.utils.CCDateFormatter;
 import net.sourceforge.cruisecontrol.dashboard.utils.TimeConverter;
-import net.sourceforge.cruisecontrol.dashboard.utils.functors.AlphabeticalDescOrderComparator;
-import net.sourceforge.cruisecontrol.dashboard.utils.functors.BuildSummariesFilters;
-import net.sourceforge.cruisecontrol.dashboard.utils.functors.ReportableFilter;
+import org.apache.commons.collections.CollectionUtils;
 import org.joda.time.DateTime;
 
 import java.io.File;
-import java.io.FilenameFilter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
 
 
 public class HistoricalBuildSummariesService {
@@ -59,13 +63,10 @@ public class HistoricalBuildSummariesService {
 
     private BuildSummaryService buildSummaryService;
 
-    private static final FilenameFilter CCLOG_FILTER = BuildSummariesFilters.cclogFilter();
-
-    private static final AlphabeticalDescOrderComparator LOG_FILE_DESC_COMPARATOR =
-            new AlphabeticalDescOrderComparator();
-
     private final ConfigurationService configuration;
 
+    private final Map indexes = new HashMap();
+
     public HistoricalBuildSummariesService(ConfigurationService configuration,
                                            BuildSummaryService buildSummaryService) {
         this.configuration = configuration;
@@ -74,7 +75,7 @@ public class HistoricalBuildSummariesService {
 
     public List getLastest25(String projectName) {
         File pjDir = configuration.getLogRoot(projectName);
-        List buildSummariesObjects = getBuildSummariesObject(getBuildSummariesFile(pjDir, CCLOG_FILTER, LIST_MAXIUM));
+        List buildSummariesObjects = getBuildSummariesObject(pjDir, getIndex(pjDir).getLatest(LIST_MAXIUM));
         for (int i = 0; i < buildSummariesObjects.size(); i++) {
             BuildSummary summary = (BuildSummary) buildSummariesObjects.get(i);
             summary.updateStatus(CurrentStatus.WAITING.getCruiseStatus());            
@@ -84,19 +85,19 @@ public class HistoricalBuildSummariesService {
 
     public BuildSummary getLatest(String projectName) {
         File pjDir = configuration.getLogRoot(projectName);
-        ReportableFilter latest = BuildSummariesFilters.lastFilter();
-        getBuildSummariesFile(pjDir, latest, 1);
-        File logFileXml = latest.report();
-        if (logFileXml == null) {
+        BuildHistoryIndex index = getIndex(pjDir);
+        BuildHistoryIndex.Entry latest = index.getLatest();
+        if (latest == null) {
             return buildSummaryService.createInactive(projectName);
         }
-        return buildSummaryService.createBuildSummary(logFileXml);
+        index.loadDetails(Collections.singletonList(latest));
+        return createBuildSummary(pjDir, latest);
     }
 
     public List getAllSucceed(String projectName) {
         File pjDir = configuration.getLogRoot(projectName);
-        List buildSummariesObjects = getBuildSummariesObject(getBuildSummariesFile(pjDir,
-                BuildSummariesFilters.succeedFilter(), Integer.MAX_VALUE));
+        List buildSummariesObjects = getBuildSummariesObject(pjDir,
+                getIndex(pjDir).getLatestPassed(Integer.MAX_VALUE));
         for (int i = 0; i < buildSummariesObjects.size(); i++) {
             BuildSummary summary = (BuildSummary) buildSummariesObjects.get(i);
             summary.updateStatus(CurrentStatus.WAITING.getCruiseStatus());
@@ -106,8 +107,7 @@ public class HistoricalBuildSummariesService {
 
     public List getAll(String projectName) {
         File pjDir = configuration.getLogRoot(projectName);
-        List buildSummariesObjects = getBuildSummariesObject(getBuildSummariesFile(pjDir,
-                CCLOG_FILTER, Integer.MAX_VALUE));
+        List buildSummariesObjects = getBuildSummariesObject(pjDir, getIndex(pjDir).getLatest(Integer.MAX_VALUE));
         for (int i = 0; i < buildSummariesObjects.size(); i++) {
             BuildSummary summary = (BuildSummary) buildSummariesObjects.get(i);
             summary.updateStatus(CurrentStatus.WAITING.getCruiseStatus());
@@ -117,41 +117,39 @@ public class HistoricalBuildSummariesService {
     }
 
     public Build getLastSucceed(String projectName, DateTime datetime) {
-        return filterBuildSummaries(projectName, BuildSummariesFilters.lastSucceedFilter(datetime));
+        File pjDir = configuration.getLogRoot(projectName);
+        return createBuildSummary(pjDir, getIndex(pjDir).getLastBefore(toTimestamp(datetime), true));
     }
 
     public BuildSummary getLastFailed(String projectName, DateTime datetime) {
-        return filterBuildSummaries(projectName, BuildSummariesFilters.lastFailedFilter(datetime));
-    }
-
-    private BuildSummary filterBuildSummaries(String projectName, ReportableFilter filter) {
         File pjDir = configuration.getLogRoot(projectName);
-        getBuildSummariesObject(getBuildSummariesFile(pjDir, filter, 1));
-        if (filter.report() == null) {
-            return null;
-        } else {
-            return buildSummaryService.createBuildSummary(filter.report());
-        }
+        return createBuildSummary(pjDir, getIndex(pjDir).getLastBefore(toTimestamp(datetime), false));
     }
 
     public Build getEaliestFailed(String projectName, DateTime datetime) {
-        Build lastSucceeded = getLastSucceed(projectName, datetime);
-        if (lastSucceeded == null) {
-            List summaries = getAll(projectName);
-            return summaries.size() == 0 ? null : (Build) summaries.get(summaries.size() - 1);
-        }
-        return filterBuildSummaries(projectName, BuildSummariesFilters.earliestFailedFilter(lastSucceeded
-                .getBuildDate()));
+        return getEarliestAfterLast(projectName, datetime, false);
     }
 
     public BuildSummary getEarliestSucceeded(String projectName, DateTime datetime) {
-        Build lastFailed = getLastFailed(projectName, datetime);
-        if (lastFailed == null) {
-            List summaries = getAll(projectName);
-            return summaries.size() == 0 ? null : (BuildSummary) summaries.get(summaries.size() - 1);
+        return getEarliestAfterLast(projectName, datetime, true);
+    }
+
+    /**
+     * @return the first build with the given result after the last build with the opposite result
+     * before the given time, or the oldest build if there was no such build.
+     */
+    private BuildSummary getEarliestAfterLast(String projectName, DateTime datetime, boolean hasPassed) {
+        File pjDir = configuration.getLogRoot(projectName);
+        BuildHistoryIndex index = getIndex(pjDir);
+        BuildHistoryIndex.Entry last = index.getLastBefore(toTimestamp(datetime), !hasPassed);
+        if (last == null) {
+            BuildSummary oldest = createBuildSummary(pjDir, index.getOldest());
+            if (oldest != null) {
+                oldest.updateStatus(CurrentStatus.WAITING.getCruiseStatus());
+            }
+            return oldest;
         }
-        return filterBuildSummaries(projectName, BuildSummariesFilters.earliestSucceededFilter(lastFailed
-                .getBuildDate()));
+        return createBuildSummary(pjDir, index.getFirstAfter(last.getTimestamp(), hasPassed));
     }
 
     public String getDurationFromLastSuccessfulBuild(String projectName, DateTime datetime) {
@@ -164,58 +162,89 @@ public class HistoricalBuildSummariesService {
     }
 
 
-    public List createDiscontinuedProjects() {
-        Collection discontinued = configuration.getDiscontinuedProjects();
-        List allSummaries = new ArrayList();
-        for (Iterator iter = discontinued.iterator(); iter.hasNext();) {
-            ReportableFilter latest = BuildSummariesFilters.lastFilter();
-            File folder = (File) iter.next();
-            getBuildSummariesFile(folder, latest, 1);
-            allSummaries.add(buildSummaryService.createDiscontinued(latest.report()));
+    /**
+     * Looks up the project directories once and creates one task per project that reads the summary of its
+     * latest build, so the caller can decide how to run them. Inactive projects come first, then active
+     * and discontinued ones.
+     *
+     * @return project name to the task creating the project's summary, without live status.
+     */
+    public Map<String, Callable<BuildSummary>> createProjectSummaryTasks() {
+        Collection inFileSystem = asList(configuration.getProjectDirectoriesFromFileSystem());
+        Collection inBuildLoop = asList(configuration.getProjectDirectoriesFromBuildloopRepository());
+        Map<String, Callable<BuildSummary>> tasks = new LinkedHashMap<String, Callable<BuildSummary>>();
+        for (Iterator iter = CollectionUtils.subtract(inBuildLoop, inFileSystem).iterator(); iter.hasNext();) {
+            final File folder = (File) iter.next();
+            tasks.put(folder.getName(), new Callable<BuildSummary>() {
+                public BuildSummary call() {
+                    return buildSummaryService.createInactive(folder.getName());
+                }
+            });
+        }
+        for (Iterator iter = CollectionUtils.intersection(inFileSystem, inBuildLoop).iterator(); iter.hasNext();) {
+            final File folder = (File) iter.next();
+            tasks.put(folder.getName(), new Callable<BuildSummary>() {
+                public BuildSummary call() {
+                    return buildSummaryService.createBuildSummary(getLatestLog(folder));
+                }
+            });
         }
-        return allSummaries;
+        for (Iterator iter = CollectionUtils.subtract(inFileSystem, inBuildLoop).iterator(); iter.hasNext();) {
+            final File folder = (File) iter.next();
+            tasks.put(folder.getName(), new Callable<BuildSummary>() {
+                public BuildSummary call() {
+                    return buildSummaryService.createDiscontinued(getLatestLog(folder));
+                }
+            });
+        }
+        return tasks;
     }
 
-    public List createActiveProjects() {
-        Collection actives = configuration.getActiveProjects();
-        List allSummaries = new ArrayList();
-        for (Iterator iter = actives.iterator(); iter.hasNext();) {
-            ReportableFilter latest = BuildSummariesFilters.lastFilter();
-            File folder = (File) iter.next();
-            getBuildSummariesFile(folder, latest, 1);
-            allSummaries.add(buildSummaryService.createBuildSummary(latest.report()));
-        }
-        return allSummaries;
+    private static Collection asList(File[] folders) {
+        return folders == null ? new ArrayList() : Arrays.asList(folders);
     }
 
-    public List createInactiveProjects() {
-        Collection inactives = configuration.getInactiveProjects();
-        List allSummaries = new ArrayList();
-        for (Iterator iter = inactives.iterator(); iter.hasNext();) {
-            File inactiveFolder = (File) iter.next();
-            allSummaries.add(buildSummaryService.createInactive(inactiveFolder.getName()));
+    /**
+     * @return the up to date build history index of the given project log directory.
+     */
+    BuildHistoryIndex getIndex(File pjDir) {
+        BuildHistoryIndex index;
+        synchronized (indexes) {
+            String key = pjDir.getAbsolutePath();
+            index = (BuildHistoryIndex) indexes.get(key);
+            if (index == null) {
+                index = new BuildHistoryIndex(pjDir);
+                indexes.put(key, index);
+            }
         }
-        return allSummaries;
+        index.refresh();
+        return index;
     }
 
-    private File[] getBuildSummariesFile(File pjDir, FilenameFilter logFilter, int maxium) {
-        String[] logFileNames = pjDir.list(logFilter);
-        if (logFileNames == null) {
-            return new File[]{};
+    private File getLatestLog(File pjDir) {
+        BuildHistoryIndex.Entry latest = getIndex(pjDir).getLatest();
+        return latest == null ? null : latest.getFile(pjDir);
+    }
+
+    private static long toTimestamp(DateTime datetime) {
+        return Long.parseLong(CCDateFormatter.yyyyMMddHHmmss(datetime));
+    }
+
+    private BuildSummary createBuildSummary(File pjDir, BuildHistoryIndex.Entry entry) {
+        if (entry == null) {
+            return null;
         }
-        Arrays.sort(logFileNames, LOG_FILE_DESC_COMPARATOR);
-        int size = Math.min(logFileNames.length, maxium);
-        File[] logFiles = new File[size];
-        for (int i = 0; i < logFiles.length; i++) {
-            logFiles[i] = new File(pjDir, logFileNames[i]);
+        BuildSummary summary = buildSummaryService.createBuildSummary(entry.getFile(pjDir));
+        if (summary != null && entry.getDuration() != null) {
+            summary.updateDuration(entry.getDuration());
         }
-        return logFiles;
+        return summary;
     }
 
-    private List getBuildSummariesObject(File[] buildSummariesFiles) {
+    private List getBuildSummariesObject(File pjDir, List entries) {
         List summaries = new ArrayList();
-        for (int i = 0; i < buildSummariesFiles.length; i++) {
-            final Build summary = buildSummaryService.createBuildSummary(buildSummariesFiles[i]);
+        for (int i = 0; i < entries.size(); i++) {
+            final Build summary = createBuildSummary(pjDir, (BuildHistoryIndex.Entry) entries.get(i));
             if (summary != null) {
                 summaries.add(summary);
             }
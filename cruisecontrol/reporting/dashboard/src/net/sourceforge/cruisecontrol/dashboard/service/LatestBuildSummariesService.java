@@ -7,17 +7,122 @@ import net.sourceforge.cruisecontrol.BuildLoopInformation;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
 
 public class LatestBuildSummariesService {
+    /** System property with the number of seconds the shared status snapshot is reused for. */
+    public static final String SNAPSHOT_INTERVAL_PROPERTY = "dashboard.statussnapshot.interval";
+
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 5;
+
+    /** System property with the number of threads reading project summaries, 1 reads them one after the other. */
+    public static final String THREADS_PROPERTY = "dashboard.summaries.threads";
+
+    /** System property with the number of seconds the project list waits for the summary of a project. */
+    public static final String TIMEOUT_PROPERTY = "dashboard.summaries.timeout";
+
+    public static final int DEFAULT_THREADS = 4;
+
+    public static final int DEFAULT_TIMEOUT = 5;
+
+    private static final Logger LOGGER = Logger.getLogger(LatestBuildSummariesService.class);
+
     private HistoricalBuildSummariesService historicalBuildSummariesService;
     private BuildLoopQueryService buildLoopQueryService;
 
+    private final long snapshotInterval = snapshotInterval() * 1000L;
+
+    private final ReentrantLock snapshotLock = new ReentrantLock();
+
+    private volatile StatusSnapshot snapshot;
+
+    private final ThreadPoolExecutor executor;
+
+    private final long timeout;
+
+    // summaries still being read, so a slow project is never read by more than one thread at a time
+    private final ConcurrentMap<String, Future<BuildSummary>> running =
+            new ConcurrentHashMap<String, Future<BuildSummary>>();
+
+    private final ConcurrentMap<String, BuildSummary> lastKnown = new ConcurrentHashMap<String, BuildSummary>();
+
     public LatestBuildSummariesService(HistoricalBuildSummariesService historicalBuildSummariesService,
                                        BuildLoopQueryService buildLoopQueryService) {
+        this(historicalBuildSummariesService, buildLoopQueryService,
+                intProperty(THREADS_PROPERTY, DEFAULT_THREADS),
+                TimeUnit.SECONDS.toMillis(Math.max(1, intProperty(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT))));
+    }
+
+    LatestBuildSummariesService(HistoricalBuildSummariesService historicalBuildSummariesService,
+                                BuildLoopQueryService buildLoopQueryService, int threads, long timeoutMillis) {
         this.historicalBuildSummariesService = historicalBuildSummariesService;
         this.buildLoopQueryService = buildLoopQueryService;
+        this.timeout = timeoutMillis;
+        this.executor = threads > 1
+                ? new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                        new SummaryThreadFactory())
+                : null;
+    }
+
+    /** @return the number of seconds the status snapshot is reused for. */
+    static long snapshotInterval() {
+        return intProperty(SNAPSHOT_INTERVAL_PROPERTY, DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Ignoring invalid " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * @return the latest build of every project as of at most the snapshot interval ago. Only one caller
+     * rebuilds an outdated snapshot; the others keep getting the outdated one meanwhile.
+     */
+    public StatusSnapshot getSnapshot() {
+        StatusSnapshot current = snapshot;
+        if (current != null && !current.isOlderThan(snapshotInterval)) {
+            return current;
+        }
+        if (current == null) {
+            snapshotLock.lock();
+        } else if (!snapshotLock.tryLock()) {
+            return current;
+        }
+        try {
+            current = snapshot;
+            if (current == null || current.isOlderThan(snapshotInterval)) {
+                current = new StatusSnapshot(getLatestOfProjects(), current);
+                snapshot = current;
+            }
+            return current;
+        } finally {
+            snapshotLock.unlock();
+        }
     }
 
     public BuildSummary getLatestProject(final String projectName) {
@@ -32,17 +137,33 @@ public class LatestBuildSummariesService {
         return buildSummary;
     }
 
+    /**
+     * Reads the summaries of all projects on a bounded pool of threads. A project whose summary is not read
+     * within the timeout is listed with its last known summary instead, or a placeholder if there is none yet,
+     * and its summary is read on in the background for the next call.
+     *
+     * @return the latest build of every project with its live status, sorted.
+     */
     public List getLatestOfProjects() {
-        final List<BuildSummary> allSummaries = new ArrayList<BuildSummary>();
         final Map<String, String> buildLiveStatuses = buildLoopQueryService.getAllProjectsStatus();
+        final Map<String, Future<BuildSummary>> futures = new LinkedHashMap<String, Future<BuildSummary>>();
+        for (final Map.Entry<String, Callable<BuildSummary>> task
+                : historicalBuildSummariesService.createProjectSummaryTasks().entrySet()) {
+            futures.put(task.getKey(), submit(task.getKey(), task.getValue()));
+        }
 
-        allSummaries.addAll(historicalBuildSummariesService.createInactiveProjects());
-        allSummaries.addAll(historicalBuildSummariesService.createActiveProjects());
-        allSummaries.addAll(historicalBuildSummariesService.createDiscontinuedProjects());
-        for (final BuildSummary buildSummary : allSummaries) {
-            if (!buildLiveStatuses.containsKey(buildSummary.getProjectName())) {
+        final long deadline = System.currentTimeMillis() + timeout;
+        final List<BuildSummary> allSummaries = new ArrayList<BuildSummary>();
+        for (final Map.Entry<String, Future<BuildSummary>> future : futures.entrySet()) {
+            final BuildSummary found = await(future.getKey(), future.getValue(), deadline);
+            if (found == null) {
                 continue;
-            } else {
+            }
+            // the summary read may be shared with other callers and kept as last known summary, and the
+            // summaries of published snapshots never change, so the live status goes on a copy
+            final BuildSummary buildSummary = new BuildSummary(found);
+            allSummaries.add(buildSummary);
+            if (buildLiveStatuses.containsKey(buildSummary.getProjectName())) {
                 buildSummary.updateStatus(buildLiveStatuses.get(buildSummary.getProjectName()));
                 if (CurrentStatus.BUILDING.equals(buildSummary.getCurrentStatus())) {
                     String time = buildLoopQueryService.getProjectInfo(
@@ -55,4 +176,56 @@ public class LatestBuildSummariesService {
         Collections.sort(allSummaries);
         return allSummaries;
     }
+
+    private Future<BuildSummary> submit(final String projectName, final Callable<BuildSummary> task) {
+        final FutureTask<BuildSummary> future = new FutureTask<BuildSummary>(new Callable<BuildSummary>() {
+            public BuildSummary call() throws Exception {
+                try {
+                    final BuildSummary summary = task.call();
+                    if (summary != null) {
+                        lastKnown.put(projectName, summary);
+                    }
+                    return summary;
+                } finally {
+                    running.remove(projectName);
+                }
+            }
+        });
+        if (executor == null) {
+            future.run();
+            return future;
+        }
+        final Future<BuildSummary> pending = running.putIfAbsent(projectName, future);
+        if (pending != null) {
+            return pending;
+        }
+        executor.execute(future);
+        return future;
+    }
+
+    private BuildSummary await(String projectName, Future<BuildSummary> future, long deadline) {
+        try {
+            return future.get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            final BuildSummary last = lastKnown.get(projectName);
+            LOGGER.warn("Summary of project " + projectName + " was not read within " + timeout
+                    + " ms, listing " + (last == null ? "a placeholder" : "its last known summary"));
+            return last == null ? new BuildSummary(projectName) : last;
+        } catch (ExecutionException e) {
+            LOGGER.error("Unable to read the summary of project " + projectName, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return lastKnown.get(projectName);
+    }
+
+    private static final class SummaryThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ProjectSummaryReader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -0,0 +1,228 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Immutable view of the latest build of every project, shared by all requests for the status feeds until
+ * the next refresh. Each feed format is rendered at most once per snapshot and served with an ETag and
+ * Last-Modified date, so polling clients that already have the content get a 304.
+ */
+public final class StatusSnapshot {
+    /** System property that turns off serving gzipped feeds when set to false. */
+    public static final String GZIP_PROPERTY = "dashboard.statussnapshot.gzip";
+
+    /**
+     * Renders one feed format from the build summaries of a snapshot.
+     */
+    public interface Renderer {
+        String render(List summaries) throws Exception;
+    }
+
+    private final List summaries;
+
+    private final long created;
+
+    private final ConcurrentMap<String, Body> bodies = new ConcurrentHashMap<String, Body>();
+
+    private final Map<String, Body> previousBodies;
+
+    /**
+     * @param summaries the latest build summary of every project, which must not be changed afterwards
+     * @param previous the snapshot this one replaces, if any, so that unchanged feeds keep their
+     * Last-Modified date
+     */
+    public StatusSnapshot(final List summaries, final StatusSnapshot previous) {
+        this.summaries = Collections.unmodifiableList(summaries);
+        this.created = System.currentTimeMillis();
+        this.previousBodies = previous == null ? Collections.<String, Body>emptyMap() : previous.bodies;
+    }
+
+    public List getSummaries() {
+        return summaries;
+    }
+
+    public boolean isOlderThan(final long millis) {
+        return System.currentTimeMillis() - created >= millis;
+    }
+
+    /**
+     * @param key identifies the format and anything else the rendered content depends on
+     * @param renderer renders the content if this snapshot has not rendered it for the key yet
+     * @return the rendered content
+     */
+    public Body render(final String key, final Renderer renderer) throws Exception {
+        Body body = bodies.get(key);
+        if (body == null) {
+            final byte[] content = renderer.render(summaries).getBytes("UTF-8");
+            final Body previous = previousBodies.get(key);
+            final Body rendered = previous != null && Arrays.equals(previous.content, content)
+                    ? previous : new Body(content, created);
+            body = bodies.putIfAbsent(key, rendered);
+            if (body == null) {
+                body = rendered;
+            }
+        }
+        return body;
+    }
+
+    /**
+     * Content rendered from a snapshot, with its validators and a lazily compressed copy.
+     */
+    public static final class Body {
+        private final byte[] content;
+
+        private final long lastModified;
+
+        private final String etag;
+
+        private volatile byte[] gzipped;
+
+        Body(final byte[] content, final long lastModified) {
+            this.content = content;
+            // HTTP dates only have a resolution of seconds
+            this.lastModified = lastModified / 1000 * 1000;
+            this.etag = digest(content);
+        }
+
+        public String getETag() {
+            return "\"" + etag + "\"";
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+
+        public String getContent() {
+            try {
+                return new String(content, "UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+        }
+
+        /**
+         * Writes the content, gzipped if allowed and accepted by the client, or just a 304 if the client
+         * already has it.
+         */
+        public void writeTo(final HttpServletRequest request, final HttpServletResponse response,
+                            final String contentType, final boolean allowGzip) throws IOException {
+            final String acceptEncoding = request.getHeader("Accept-Encoding");
+            final boolean gzip = allowGzip && acceptEncoding != null && acceptEncoding.indexOf("gzip") >= 0;
+            final String tag = "\"" + etag + (gzip ? "-gz" : "") + "\"";
+            response.setHeader("ETag", tag);
+            response.setDateHeader("Last-Modified", lastModified);
+            if (allowGzip) {
+                response.setHeader("Vary", "Accept-Encoding");
+            }
+            if (isNotModified(request, tag)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+            response.setContentType(contentType);
+            final byte[] bytes;
+            if (gzip) {
+                bytes = gzipped();
+                response.setHeader("Content-Encoding", "gzip");
+            } else {
+                bytes = content;
+            }
+            response.setContentLength(bytes.length);
+            response.getOutputStream().write(bytes);
+        }
+
+        private boolean isNotModified(final HttpServletRequest request, final String tag) {
+            final String ifNoneMatch = request.getHeader("If-None-Match");
+            if (ifNoneMatch != null) {
+                for (final String candidate : ifNoneMatch.split(",")) {
+                    final String trimmed = candidate.trim();
+                    if (trimmed.equals(tag) || trimmed.equals("*")) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            try {
+                final long ifModifiedSince = request.getDateHeader("If-Modified-Since");
+                return ifModifiedSince != -1 && ifModifiedSince >= lastModified;
+            } catch (IllegalArgumentException e) {
+                return false;
+            }
+        }
+
+        private byte[] gzipped() throws IOException {
+            byte[] compressed = gzipped;
+            if (compressed == null) {
+                final ByteArrayOutputStream bytes = new ByteArrayOutputStream(content.length / 4 + 64);
+                final GZIPOutputStream out = new GZIPOutputStream(bytes);
+                out.write(content);
+                out.close();
+                compressed = bytes.toByteArray();
+                gzipped = compressed;
+            }
+            return compressed;
+        }
+
+        private static String digest(final byte[] content) {
+            try {
+                final byte[] hash = MessageDigest.getInstance("MD5").digest(content);
+                final StringBuilder hex = new StringBuilder(hash.length * 2);
+                for (final byte b : hash) {
+                    hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+                }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e.getMessage());
+            }
+        }
+    }
+}
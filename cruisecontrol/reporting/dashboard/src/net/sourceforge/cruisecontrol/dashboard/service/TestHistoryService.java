@@ -0,0 +1,209 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.service;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import net.sourceforge.cruisecontrol.dashboard.LogFile;
+import net.sourceforge.cruisecontrol.dashboard.repository.BuildHistoryIndex;
+import net.sourceforge.cruisecontrol.dashboard.repository.TestHistoryStore;
+import net.sourceforge.cruisecontrol.dashboard.saxhandler.TestHistoryExtractor;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps a {@link TestHistoryStore} per project fed with the test results of its build logs. Logs not
+ * yet in a store are read in the background when the store is asked for, newest first, so a large
+ * existing history becomes available gradually while new builds show up right after they finish.
+ */
+public class TestHistoryService {
+    /** System property with the number of latest builds whose test results are kept per project. */
+    public static final String MAX_BUILDS_PROPERTY = "dashboard.testhistory.maxbuilds";
+
+    private static final Logger LOGGER = Logger.getLogger(TestHistoryService.class);
+
+    // logs modified this recently may still be being written
+    private static final long RACY_INTERVAL = 2000;
+
+    private final ConfigurationService configuration;
+
+    private final HistoricalBuildSummariesService historicalBuildSummariesService;
+
+    private final Executor executor;
+
+    private final int maxBuilds;
+
+    private final Map<String, TestHistoryStore> stores = new HashMap<String, TestHistoryStore>();
+
+    private final Set<String> scheduled = Collections.synchronizedSet(new HashSet<String>());
+
+    public TestHistoryService(ConfigurationService configuration,
+                              HistoricalBuildSummariesService historicalBuildSummariesService) {
+        this(configuration, historicalBuildSummariesService, new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new IngestThreadFactory()), maxBuilds());
+    }
+
+    TestHistoryService(ConfigurationService configuration,
+                       HistoricalBuildSummariesService historicalBuildSummariesService, Executor executor,
+                       int maxBuilds) {
+        this.configuration = configuration;
+        this.historicalBuildSummariesService = historicalBuildSummariesService;
+        this.executor = executor;
+        this.maxBuilds = maxBuilds;
+    }
+
+    private static int maxBuilds() {
+        String value = System.getProperty(MAX_BUILDS_PROPERTY);
+        if (value == null || value.trim().length() == 0) {
+            return TestHistoryStore.DEFAULT_MAX_BUILDS;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            LOGGER.warn("Ignoring invalid " + MAX_BUILDS_PROPERTY + ": " + value);
+            return TestHistoryStore.DEFAULT_MAX_BUILDS;
+        }
+    }
+
+    /**
+     * @return the test history of the project; logs not read yet are added in the background.
+     */
+    public TestHistoryStore getStore(String projectName) {
+        final File pjDir = configuration.getLogRoot(projectName);
+        final String key = pjDir.getAbsolutePath();
+        final TestHistoryStore store;
+        synchronized (stores) {
+            TestHistoryStore existing = stores.get(key);
+            if (existing == null) {
+                existing = new TestHistoryStore(pjDir, maxBuilds);
+                stores.put(key, existing);
+            }
+            store = existing;
+        }
+        if (getPendingCount(pjDir, store) > 0 && scheduled.add(key)) {
+            executor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        ingest(pjDir, store);
+                    } finally {
+                        scheduled.remove(key);
+                    }
+                }
+            });
+        }
+        return store;
+    }
+
+    /**
+     * @return the number of the latest logs of the project whose test results are not in its store yet.
+     */
+    public int getPendingCount(String projectName) {
+        return getPendingCount(configuration.getLogRoot(projectName), getStore(projectName));
+    }
+
+    private int getPendingCount(File pjDir, TestHistoryStore store) {
+        int pending = 0;
+        for (Iterator iter = latest(pjDir).iterator(); iter.hasNext();) {
+            if (!store.contains(((BuildHistoryIndex.Entry) iter.next()).getFileName())) {
+                pending++;
+            }
+        }
+        return pending;
+    }
+
+    private List latest(File pjDir) {
+        return historicalBuildSummariesService.getIndex(pjDir).getLatest(maxBuilds);
+    }
+
+    void ingest(File pjDir, TestHistoryStore store) {
+        long recent = System.currentTimeMillis() - RACY_INTERVAL;
+        for (Iterator iter = latest(pjDir).iterator(); iter.hasNext();) {
+            BuildHistoryIndex.Entry entry = (BuildHistoryIndex.Entry) iter.next();
+            File log = entry.getFile(pjDir);
+            if (store.contains(entry.getFileName()) || log.lastModified() > recent) {
+                continue;
+            }
+            Map results = read(pjDir, entry);
+            store.add(entry.getFileName(), entry.getTimestamp(), (List) results.get("tests"),
+                    (int[]) results.get("durations"), (BitSet) results.get("failed"));
+        }
+    }
+
+    private static Map read(File pjDir, BuildHistoryIndex.Entry entry) {
+        TestHistoryExtractor extractor = new TestHistoryExtractor();
+        try {
+            InputStream in = new LogFile(entry.getFile(pjDir).getPath()).getInputStream();
+            try {
+                SAXParserFactory.newInstance().newSAXParser().parse(in, extractor);
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        } catch (Exception e) {
+            // keep what was read, an unreadable log is not read again
+            LOGGER.warn("Unable to read test results from " + entry.getFileName(), e);
+        }
+        Map results = new HashMap();
+        extractor.report(results);
+        return results;
+    }
+
+    private static final class IngestThreadFactory implements ThreadFactory {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "TestHistoryIngest");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        }
+    }
+}
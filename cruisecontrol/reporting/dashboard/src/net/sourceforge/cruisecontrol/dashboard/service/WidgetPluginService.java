@@ -41,40 +41,219 @@ import net.sourceforge.cruisecontrol.dashboard.widgets.Widget;
 import org.apache.commons.lang.StringUtils;
 import org.apache.log4j.Logger;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+/**
+ * Renders the widgets configured in dashboard-config.xml into a build detail page.
+ * <p>
+ * Widgets are instantiated once per class and shared between requests. Their output is kept for the
+ * most recently shown builds keyed by widget, log file, modification time of the log file and web
+ * context path, so revisiting a build page does not parse the log again. Widgets of one page are
+ * rendered concurrently; a widget that fails or does not finish in time is logged and left out.
+ * </p>
+ */
 public class WidgetPluginService {
+    /** System property with the number of widget outputs kept, 0 disables caching. */
+    public static final String CACHE_SIZE_PROPERTY = "dashboard.widgets.cachesize";
+
+    /** System property with the number of threads rendering widgets, 1 renders them one after the other. */
+    public static final String THREADS_PROPERTY = "dashboard.widgets.threads";
+
+    /** System property with the number of seconds a page waits for its widgets. */
+    public static final String TIMEOUT_PROPERTY = "dashboard.widgets.timeout";
+
+    public static final int DEFAULT_CACHE_SIZE = 128;
+
+    public static final int DEFAULT_THREADS = 4;
+
+    public static final int DEFAULT_TIMEOUT = 60;
 
     private static Logger logger = Logger.getLogger(WidgetPluginService.class);
 
     private final DashboardXmlConfigService dashboardXmlConfigService;
 
+    private final ConcurrentMap<String, Widget> widgets = new ConcurrentHashMap<String, Widget>();
+
+    private final Map<String, Object> outputs;
+
+    private final int cacheSize;
+
+    private final long timeout;
+
+    private final ThreadPoolExecutor executor;
+
     public WidgetPluginService(DashboardXmlConfigService dashboardXmlConfigService) {
+        this(dashboardXmlConfigService, intProperty(CACHE_SIZE_PROPERTY, DEFAULT_CACHE_SIZE),
+                intProperty(THREADS_PROPERTY, DEFAULT_THREADS), intProperty(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT));
+    }
+
+    WidgetPluginService(DashboardXmlConfigService dashboardXmlConfigService, final int cacheSize,
+                        int threads, int timeoutSeconds) {
         this.dashboardXmlConfigService = dashboardXmlConfigService;
+        this.cacheSize = cacheSize;
+        this.timeout = TimeUnit.SECONDS.toMillis(Math.max(1, timeoutSeconds));
+        this.outputs = Collections.synchronizedMap(new LinkedHashMap<String, Object>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                return size() > cacheSize;
+            }
+        });
+        // no queue: when all threads are busy the requesting thread renders the widget itself
+        this.executor = threads > 1
+                ? new ThreadPoolExecutor(0, threads, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+                        new WidgetThreadFactory(), new ThreadPoolExecutor.CallerRunsPolicy())
+                : null;
+    }
+
+    private static int intProperty(String name, int defaultValue) {
+        String value = System.getProperty(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(0, Integer.parseInt(value.trim()));
+        } catch (NumberFormatException e) {
+            logger.warn("Ignoring invalid " + name + ": " + value);
+            return defaultValue;
+        }
     }
 
     public void mergePluginOutput(BuildDetail build, Map parameters) {
+        mergeParameters(build, parameters);
+        List<Widget> pageWidgets = new ArrayList<Widget>();
         Iterator iterator = dashboardXmlConfigService.getSubTabClassNames().iterator();
         while (iterator.hasNext()) {
             try {
-                assemblePlugin(build, parameters, (String) iterator.next());
+                Widget widget = getWidget((String) iterator.next());
+                if (widget != null) {
+                    pageWidgets.add(widget);
+                }
             } catch (Exception e) {
                 logger.error(e);
-                continue;
+            }
+        }
+        if (executor == null || pageWidgets.size() < 2) {
+            for (Widget widget : pageWidgets) {
+                try {
+                    build.addPluginOutput(widget.getDisplayName(), render(widget, parameters));
+                } catch (Exception e) {
+                    logger.error(e);
+                }
+            }
+            return;
+        }
+        renderConcurrently(build, parameters, pageWidgets);
+    }
+
+    private void renderConcurrently(BuildDetail build, final Map parameters, List<Widget> pageWidgets) {
+        List<Future<Object>> futures = new ArrayList<Future<Object>>(pageWidgets.size());
+        for (final Widget widget : pageWidgets) {
+            futures.add(executor.submit(new Callable<Object>() {
+                public Object call() throws Exception {
+                    return render(widget, new HashMap(parameters));
+                }
+            }));
+        }
+        long deadline = System.currentTimeMillis() + timeout;
+        for (int i = 0; i < pageWidgets.size(); i++) {
+            Widget widget = pageWidgets.get(i);
+            Future<Object> future = futures.get(i);
+            try {
+                long remaining = Math.max(0, deadline - System.currentTimeMillis());
+                build.addPluginOutput(widget.getDisplayName(), future.get(remaining, TimeUnit.MILLISECONDS));
+            } catch (TimeoutException e) {
+                future.cancel(true);
+                logger.error("Widget " + widget.getClass().getName() + " did not finish within "
+                        + timeout + " ms, leaving it out");
+            } catch (ExecutionException e) {
+                logger.error(e.getCause());
+            } catch (InterruptedException e) {
+                future.cancel(true);
+                Thread.currentThread().interrupt();
+                return;
             }
         }
     }
 
     void assemblePlugin(BuildDetail build, Map parameters, String line) throws Exception {
-        String className = line.trim();
-        if (className.startsWith("#") || StringUtils.isEmpty(className)) {
+        Widget widget = getWidget(line);
+        if (widget == null) {
             return;
         }
-        Class clazz = Class.forName(className);
-        Widget digesterService = (Widget) clazz.newInstance();
         mergeParameters(build, parameters);
-        build.addPluginOutput(digesterService.getDisplayName(), digesterService.getOutput(parameters));
+        build.addPluginOutput(widget.getDisplayName(), render(widget, parameters));
+    }
+
+    /**
+     * @return the shared instance of the widget class named on the line, null for comments and empty lines
+     */
+    Widget getWidget(String line) throws Exception {
+        String className = line.trim();
+        if (className.startsWith("#") || StringUtils.isEmpty(className)) {
+            return null;
+        }
+        Widget widget = widgets.get(className);
+        if (widget == null) {
+            // racing requests may each create one, only the first stays
+            Widget created = (Widget) Class.forName(className).newInstance();
+            widget = widgets.putIfAbsent(className, created);
+            if (widget == null) {
+                widget = created;
+            }
+        }
+        return widget;
+    }
+
+    private Object render(Widget widget, Map parameters) {
+        String key = cacheKey(widget, parameters);
+        if (key != null) {
+            Object output = outputs.get(key);
+            if (output != null) {
+                return output;
+            }
+        }
+        Object output = widget.getOutput(parameters);
+        if (key != null && output != null) {
+            outputs.put(key, output);
+        }
+        return output;
+    }
+
+    private String cacheKey(Widget widget, Map parameters) {
+        Object logFile = parameters.get(Widget.PARAM_BUILD_LOG_FILE);
+        if (cacheSize == 0 || !(logFile instanceof File)) {
+            return null;
+        }
+        File file = (File) logFile;
+        long lastModified = file.lastModified();
+        if (lastModified == 0L) {
+            return null;
+        }
+        return widget.getClass().getName() + '|' + file.getAbsolutePath() + '|' + lastModified + '|'
+                + file.length() + '|' + parameters.get(Widget.PARAM_WEB_CONTEXT_PATH);
+    }
+
+    int getCachedOutputCount() {
+        return outputs.size();
     }
 
     private void mergeParameters(BuildDetail build, Map parameters) {
@@ -93,4 +272,14 @@ public class WidgetPluginService {
         }
         return ccdir;
     }
+
+    private static final class WidgetThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "WidgetRenderer-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -3,6 +3,7 @@ package net.sourceforge.cruisecontrol.dashboard.utils;
 import java.io.File;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.net.URLEncoder;
 
 import org.apache.commons.lang.StringUtils;
 import org.springframework.util.Assert;
@@ -19,6 +20,14 @@ public final class DashboardUtils {
         }
     }
 
+    public static String encode(String param) {
+        try {
+            return URLEncoder.encode(param, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            return param;
+        }
+    }
+
     public static String[] urlToParams(String url) {
         String[] params = StringUtils.split(StringUtils.defaultString(url), '/');
         String[] decodedParams = new String[params.length];
@@ -39,13 +39,12 @@ package net.sourceforge.cruisecontrol.dashboard.utils.functors;
 import java.io.File;
 import java.io.FileFilter;
 
-import org.apache.commons.lang.ArrayUtils;
+import net.sourceforge.cruisecontrol.util.LogDirectoryLayout;
 
 public class CCProjectFolderFilter implements FileFilter {
     public boolean accept(File dirFile) {
         if (dirFile.isDirectory()) {
-            String[] files = dirFile.list(new CCLogFilter());
-            return !ArrayUtils.isEmpty(files);
+            return LogDirectoryLayout.findLatest(dirFile, new CCLogFilter()) != null;
         }
         return false;
     }
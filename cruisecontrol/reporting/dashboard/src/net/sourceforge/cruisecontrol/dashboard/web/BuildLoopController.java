@@ -1,10 +1,14 @@
 package net.sourceforge.cruisecontrol.dashboard.web;
 
+import java.io.IOException;
+import java.util.zip.GZIPInputStream;
+
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import net.sourceforge.cruisecontrol.BuildLoopInformation;
 import net.sourceforge.cruisecontrol.dashboard.repository.BuildInformationRepository;
+import net.sourceforge.cruisecontrol.report.BuildLoopStatusProtocol;
 import net.sourceforge.cruisecontrol.util.BuildInformationHelper;
 
 import org.apache.commons.io.IOUtils;
@@ -24,9 +28,30 @@ public class BuildLoopController extends AbstractController {
 
     protected ModelAndView handleRequestInternal(HttpServletRequest request, HttpServletResponse response)
             throws Exception {
-        String content = IOUtils.toString(request.getInputStream());
+        String content = readContent(request);
         BuildLoopInformation info = helper.toObject(content);
-        repository.saveOrUpdate(info);
+        String version = request.getHeader(BuildLoopStatusProtocol.HEADER_VERSION);
+        if (version == null) {
+            repository.saveOrUpdate(info);
+            return null;
+        }
+        long held = BuildLoopStatusProtocol.parseVersion(version);
+        long baseVersion =
+                BuildLoopStatusProtocol.parseVersion(request.getHeader(BuildLoopStatusProtocol.HEADER_BASE_VERSION));
+        if (baseVersion == BuildLoopStatusProtocol.NO_VERSION) {
+            repository.saveSnapshot(info, held);
+        } else if (!repository.applyDelta(info, baseVersion, held, BuildLoopStatusProtocol.decodeNames(
+                request.getHeader(BuildLoopStatusProtocol.HEADER_REMOVED)))) {
+            held = BuildLoopStatusProtocol.NO_VERSION;
+        }
+        response.setHeader(BuildLoopStatusProtocol.HEADER_ACK, String.valueOf(held));
         return null;
     }
+
+    private String readContent(HttpServletRequest request) throws IOException {
+        if ("gzip".equals(request.getHeader("Content-Encoding"))) {
+            return IOUtils.toString(new GZIPInputStream(request.getInputStream()), "UTF-8");
+        }
+        return IOUtils.toString(request.getInputStream());
+    }
 }
@@ -0,0 +1,80 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.web;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sourceforge.cruisecontrol.dashboard.service.BuildStatisticsService;
+import net.sourceforge.cruisecontrol.dashboard.web.view.JsonView;
+
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.Controller;
+
+/**
+ * Serves the build statistics as JSON for wallboards: of all projects, or of the one given by the
+ * "project" parameter.
+ */
+public class BuildStatisticsController implements Controller {
+    private final BuildStatisticsService statisticsService;
+
+    public BuildStatisticsController(BuildStatisticsService statisticsService) {
+        this.statisticsService = statisticsService;
+    }
+
+    public ModelAndView handleRequest(HttpServletRequest request, HttpServletResponse response) {
+        Map statistics = statisticsService.getStatistics();
+        String projectName = request.getParameter("project");
+        Map model = new HashMap();
+        if (projectName == null) {
+            model.put(JsonView.RENDER_DIRECT, statistics);
+        } else {
+            Object project = ((Map) statistics.get("projects")).get(projectName);
+            if (project == null) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                model.put("error", "Unknown project " + projectName);
+            } else {
+                model.put(JsonView.RENDER_DIRECT, project);
+            }
+        }
+        response.addHeader("Cache-Control", GetProjectBuildStatusController.CACHE_CONTROL);
+        return new ModelAndView(new JsonView(), model);
+    }
+}
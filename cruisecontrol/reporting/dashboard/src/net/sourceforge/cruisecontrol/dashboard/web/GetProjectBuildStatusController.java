@@ -72,7 +72,7 @@ public class GetProjectBuildStatusController implements Controller {
     public ModelAndView handleRequest(HttpServletRequest request, HttpServletResponse response) {
         Map buildInfo = new HashMap();
         try {
-            List projectsBuildSummaries = buildSummariesSerivce.getLatestOfProjects();
+            List projectsBuildSummaries = buildSummariesSerivce.getSnapshot().getSummaries();
             List buildSummaryCommands = uiService.transformWithLevel(projectsBuildSummaries);
             buildInfo.put(JsonView.RENDER_DIRECT, createBuildInfos(buildSummaryCommands));
         } catch (Exception e) {
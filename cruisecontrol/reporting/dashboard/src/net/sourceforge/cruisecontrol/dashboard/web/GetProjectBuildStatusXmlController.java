@@ -36,24 +36,30 @@
  ********************************************************************************/
 package net.sourceforge.cruisecontrol.dashboard.web;
 
+import net.sourceforge.cruisecontrol.dashboard.BuildSummary;
 import net.sourceforge.cruisecontrol.dashboard.service.BuildLoopQueryService;
 import net.sourceforge.cruisecontrol.dashboard.service.BuildSummaryUIService;
 import net.sourceforge.cruisecontrol.dashboard.service.LatestBuildSummariesService;
+import net.sourceforge.cruisecontrol.dashboard.service.StatusSnapshot;
 import org.apache.commons.lang.StringUtils;
 import org.springframework.web.servlet.ModelAndView;
 import org.springframework.web.servlet.mvc.multiaction.MultiActionController;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 public class GetProjectBuildStatusXmlController extends MultiActionController {
+    private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
     private LatestBuildSummariesService buildSummariesService;
 
     private final BuildSummaryUIService uiService;
 
+    private final boolean gzip = !"false".equalsIgnoreCase(System.getProperty(StatusSnapshot.GZIP_PROPERTY));
+
     public GetProjectBuildStatusXmlController(LatestBuildSummariesService buildSummarySerivce,
                                               BuildLoopQueryService buildLoopQueryService,
                                               BuildSummaryUIService uiService) {
@@ -64,40 +70,58 @@ public class GetProjectBuildStatusXmlController extends MultiActionController {
     }
 
     public ModelAndView cctray(HttpServletRequest req, HttpServletResponse resp) throws Exception {
-        resp.setContentType("text/xml");
-        PrintWriter writer = resp.getWriter();
-        writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-        writer.println("<Projects>");
-        writer.println(uiService.toXml(buildSummariesService.getLatestOfProjects(), getBaseURL(req), "cctray"));
-        writer.println("</Projects>");
+        final String baseUrl = getBaseURL(req);
+        StatusSnapshot.Body body = buildSummariesService.getSnapshot().render("cctray " + baseUrl,
+                new StatusSnapshot.Renderer() {
+                    public String render(List summaries) {
+                        StringBuffer xml = new StringBuffer();
+                        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>").append(LINE_SEPARATOR);
+                        xml.append("<Projects>").append(LINE_SEPARATOR);
+                        xml.append(uiService.toXml(summaries, baseUrl, "cctray")).append(LINE_SEPARATOR);
+                        xml.append("</Projects>").append(LINE_SEPARATOR);
+                        return xml.toString();
+                    }
+                });
+        body.writeTo(req, resp, "text/xml", gzip);
         return null;
     }
 
     public ModelAndView rss(HttpServletRequest req, HttpServletResponse resp) throws Exception {
-        PrintWriter writer = resp.getWriter();
-        resp.setContentType("text/xml");
-        writer.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
-        writer.println("<rss version=\"2.0\">");
-        writer.println("<channel>");
-        writer.println("  <title>CruiseControl Results</title>");
-        writer.print("  <link>");
-        writer.print(getBaseURL(req));
-        writer.println("</link>");
-        writer.println("  <description>Summary of the project build results.</description>");
-        writer.println("  <language>en-us</language>");
-        writer.println(uiService.toXml(getLatestSummariesForRSS(req), getBaseURL(req), "rss"));
-        writer.println("</channel>");
-        writer.println("</rss>");
+        final String baseUrl = getBaseURL(req);
+        final String projectName = req.getParameter("projectName");
+        StatusSnapshot.Body body = buildSummariesService.getSnapshot().render("rss " + baseUrl + " " + projectName,
+                new StatusSnapshot.Renderer() {
+                    public String render(List summaries) {
+                        StringBuffer xml = new StringBuffer();
+                        xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>").append(LINE_SEPARATOR);
+                        xml.append("<rss version=\"2.0\">").append(LINE_SEPARATOR);
+                        xml.append("<channel>").append(LINE_SEPARATOR);
+                        xml.append("  <title>CruiseControl Results</title>").append(LINE_SEPARATOR);
+                        xml.append("  <link>").append(baseUrl).append("</link>").append(LINE_SEPARATOR);
+                        xml.append("  <description>Summary of the project build results.</description>")
+                                .append(LINE_SEPARATOR);
+                        xml.append("  <language>en-us</language>").append(LINE_SEPARATOR);
+                        xml.append(uiService.toXml(getLatestSummariesForRSS(summaries, projectName), baseUrl, "rss"))
+                                .append(LINE_SEPARATOR);
+                        xml.append("</channel>").append(LINE_SEPARATOR);
+                        xml.append("</rss>").append(LINE_SEPARATOR);
+                        return xml.toString();
+                    }
+                });
+        body.writeTo(req, resp, "text/xml", gzip);
         return null;
     }
 
-    private List getLatestSummariesForRSS(HttpServletRequest req) throws Exception {
-        String projectName = req.getParameter("projectName");
+    private List getLatestSummariesForRSS(List summaries, String projectName) {
+        if (StringUtils.isEmpty(projectName)) {
+            return summaries;
+        }
         List result = new ArrayList();
-        if (StringUtils.isNotEmpty(projectName)) {
-            result.add(buildSummariesService.getLatestProject(projectName));
-        } else {
-            result.addAll(buildSummariesService.getLatestOfProjects());
+        for (Iterator iter = summaries.iterator(); iter.hasNext();) {
+            BuildSummary summary = (BuildSummary) iter.next();
+            if (projectName.equals(summary.getProjectName())) {
+                result.add(summary);
+            }
         }
         return result;
     }
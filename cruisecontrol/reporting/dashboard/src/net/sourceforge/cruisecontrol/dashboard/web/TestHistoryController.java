@@ -0,0 +1,104 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.web;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sourceforge.cruisecontrol.dashboard.repository.TestHistoryStore;
+import net.sourceforge.cruisecontrol.dashboard.service.TestHistoryService;
+import net.sourceforge.cruisecontrol.dashboard.utils.DashboardUtils;
+
+import org.springframework.web.bind.ServletRequestUtils;
+import org.springframework.web.servlet.ModelAndView;
+
+public class TestHistoryController extends BaseMultiActionController {
+    private static final int LIST_MAXIMUM = 25;
+
+    private static final int RUNS_MAXIMUM = 200;
+
+    private final TestHistoryService testHistoryService;
+
+    public TestHistoryController(TestHistoryService testHistoryService) {
+        this.testHistoryService = testHistoryService;
+        this.setSupportedMethods(new String[] {"GET"});
+    }
+
+    /**
+     * Flakiest and slowest tests over the latest builds, optionally limited by the "builds" parameter.
+     */
+    public ModelAndView summary(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        String projectName = getProjectName(request);
+        TestHistoryStore store = testHistoryService.getStore(projectName);
+        int builds = ServletRequestUtils.getIntParameter(request, "builds", store.getMaxBuilds());
+        Map model = createModel(projectName, store);
+        model.put("builds", new Integer(Math.min(builds, store.getBuildCount())));
+        model.put("flakyTests", store.getFlaky(builds, LIST_MAXIMUM));
+        model.put("slowestTests", store.getSlowest(builds, LIST_MAXIMUM));
+        return new ModelAndView("page_test_history", model);
+    }
+
+    /**
+     * Runs of the test named by the "test" parameter, newest first.
+     */
+    public ModelAndView history(HttpServletRequest request, HttpServletResponse response) throws Exception {
+        String projectName = getProjectName(request);
+        String test = ServletRequestUtils.getRequiredStringParameter(request, "test");
+        TestHistoryStore store = testHistoryService.getStore(projectName);
+        Map model = createModel(projectName, store);
+        model.put("test", test);
+        model.put("runs", store.getHistory(test, RUNS_MAXIMUM));
+        model.put("failingSince", store.getFailingSince(test));
+        return new ModelAndView("page_test_runs", model);
+    }
+
+    private Map createModel(String projectName, TestHistoryStore store) {
+        Map model = new HashMap();
+        model.put("projectName", projectName);
+        model.put("buildCount", new Integer(store.getBuildCount()));
+        model.put("pending", new Integer(testHistoryService.getPendingCount(projectName)));
+        return model;
+    }
+
+    private String getProjectName(HttpServletRequest request) {
+        String[] url = DashboardUtils.urlToParams(request.getRequestURI());
+        return DashboardUtils.decode(url[url.length - 1]);
+    }
+}
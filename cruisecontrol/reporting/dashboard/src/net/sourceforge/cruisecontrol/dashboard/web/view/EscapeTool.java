@@ -1,6 +1,6 @@
 /********************************************************************************
  * CruiseControl, a Continuous Integration Toolkit
- * Copyright (c) 2003, ThoughtWorks, Inc.
+ * Copyright (c) 2007, ThoughtWorks, Inc.
  * 200 E. Randolph, 25th Floor
  * Chicago, IL 60601 USA
  * All rights reserved.
@@ -34,22 +34,19 @@
  * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
  * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
  ********************************************************************************/
-package net.sourceforge.cruisecontrol.taglib;
+package net.sourceforge.cruisecontrol.dashboard.web.view;
 
-import net.sourceforge.cruisecontrol.BuildInfo;
-
-import java.io.Serializable;
-import java.util.Comparator;
+import net.sourceforge.cruisecontrol.dashboard.utils.DashboardUtils;
 
 /**
- *
- * @author <a href="mailto:robertdw@users.sourceforge.net">Robert Watkins</a>
+ * The velocity escape tool, with url escaping for values put in a query string.
  */
-class ReversedComparator implements Comparator<BuildInfo>, Serializable {
-
-    private static final long serialVersionUID = 2363169859096285465L;
+public class EscapeTool extends org.apache.velocity.tools.generic.EscapeTool {
 
-    public int compare(final BuildInfo o1, final BuildInfo o2) {
-        return o2.compareTo(o1);
+    public String url(Object param) {
+        if (param == null) {
+            return null;
+        }
+        return DashboardUtils.encode(String.valueOf(param));
     }
 }
@@ -24,18 +24,13 @@ import org.xml.sax.SAXException;
 
 public class ErrorsAndWarningsMessagesWidget implements Widget {
 
-    private final SAXBasedExtractor extractor;
-
-    public ErrorsAndWarningsMessagesWidget() {
-        this(new CompositeExtractor(Arrays.asList(handlers())));
-    }
-
-    private static SAXBasedExtractor[] handlers() {
-        return new SAXBasedExtractor[] {new BuildMessageExtractor(), new StackTraceExtractor()};
-    }
-
-    ErrorsAndWarningsMessagesWidget(final SAXBasedExtractor extractor) {
-        this.extractor = extractor;
+    /**
+     * Extractors collect state while parsing, so each output gets its own; the widget instance itself is
+     * shared between requests.
+     */
+    private static SAXBasedExtractor newExtractor() {
+        return new CompositeExtractor(Arrays.asList(
+                new SAXBasedExtractor[] {new BuildMessageExtractor(), new StackTraceExtractor()}));
     }
 
     public String getDisplayName() {
@@ -44,7 +39,8 @@ public class ErrorsAndWarningsMessagesWidget implements Widget {
 
     public Object getOutput(final Map parameters) {
         try {
-            parseLogfile(parameters);
+            final SAXBasedExtractor extractor = newExtractor();
+            parseLogfile(parameters, extractor);
             final HashMap props = new HashMap();
             extractor.report(props);
             return parseMessage(props);
@@ -54,7 +50,8 @@ public class ErrorsAndWarningsMessagesWidget implements Widget {
         }
     }
 
-    private void parseLogfile(final Map parameters) throws ParserConfigurationException, SAXException, IOException {
+    private void parseLogfile(final Map parameters, final SAXBasedExtractor extractor)
+            throws ParserConfigurationException, SAXException, IOException {
         final SAXParser saxParser = SAXParserFactory.newInstance().newSAXParser();
         final LogFile logFile = (LogFile) parameters.get(Widget.PARAM_BUILD_LOG_FILE);
         saxParser.parse(logFile.getInputStream(), extractor);
@@ -54,6 +54,9 @@ import java.util.Map;
  *
  * &lt;p&gt; In order to enable your service in the system, go to the root directory of cruisecontrol,
  * and simply add/edit widgets.cfg to include the class name. e.g. com.foo.Class &lt;p&gt;
+ *
+ * &lt;p&gt; One instance of each widget is shared by all requests, so getOutput may be called
+ * concurrently and must not keep state between calls. Output is reused until the build log changes. &lt;p&gt;
  * &lt;/pre&gt;
  */
 
@@ -0,0 +1,189 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.repository;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sourceforge.cruisecontrol.dashboard.testhelpers.FilesystemUtils;
+
+import org.apache.commons.io.FileUtils;
+
+public class BuildHistoryIndexTest extends TestCase {
+
+    private static final long AN_HOUR_AGO = System.currentTimeMillis() - 60 * 60 * 1000;
+
+    private File projectDirectory;
+
+    private File indexDirectory;
+
+    private BuildHistoryIndex index;
+
+    protected void setUp() throws Exception {
+        projectDirectory = FilesystemUtils.createDirectory("historyProject");
+        indexDirectory = FilesystemUtils.createDirectory("historyIndex");
+        FilesystemUtils.createFile("log20060704155710Lbuild.1.xml.gz", projectDirectory);
+        FilesystemUtils.createFile("log20060704155720.xml", projectDirectory);
+        FilesystemUtils.createFile("log20060704155730.xml", projectDirectory);
+        FilesystemUtils.createFile("log20060704155740Lbuild.2.xml", projectDirectory);
+        FilesystemUtils.createFile("nonmatching_file.xml", projectDirectory);
+        index = new BuildHistoryIndex(projectDirectory, indexDirectory);
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(projectDirectory);
+        FileUtils.deleteDirectory(indexDirectory);
+    }
+
+    public void testShouldListLatestBuildsNewestFirst() {
+        index.refresh();
+        assertEquals(4, index.size());
+        List latest = index.getLatest(3);
+        assertEquals(3, latest.size());
+        assertEquals("log20060704155740Lbuild.2.xml", entry(latest, 0).getFileName());
+        assertEquals("log20060704155720.xml", entry(latest, 2).getFileName());
+        assertEquals("build.2", entry(latest, 0).getLabel());
+        assertEquals("log20060704155710Lbuild.1.xml.gz", index.getOldest().getFileName());
+        assertEquals(2, index.getLatestPassed(Integer.MAX_VALUE).size());
+    }
+
+    public void testShouldFindNearestBuildsByResult() {
+        index.refresh();
+        assertEquals("log20060704155710Lbuild.1.xml.gz", index.getLastBefore(20060704155740L, true).getFileName());
+        assertNull(index.getLastBefore(20060704155710L, true));
+        assertEquals("log20060704155730.xml", index.getLastBefore(20060704155800L, false).getFileName());
+        assertEquals("log20060704155720.xml", index.getFirstAfter(20060704155710L, false).getFileName());
+        assertEquals("log20060704155740Lbuild.2.xml", index.getFirstAfter(20060704155710L, true).getFileName());
+        assertNull(index.getFirstAfter(20060704155740L, true));
+    }
+
+    public void testShouldPickUpAddedAndRemovedLogs() throws Exception {
+        index.refresh();
+        FilesystemUtils.createFile("log20060704155750Lbuild.3.xml", projectDirectory);
+        new File(projectDirectory, "log20060704155710Lbuild.1.xml.gz").delete();
+        projectDirectory.setLastModified(AN_HOUR_AGO);
+
+        index.refresh();
+        assertEquals(4, index.size());
+        assertEquals("log20060704155750Lbuild.3.xml", index.getLatest().getFileName());
+        assertEquals("log20060704155720.xml", index.getOldest().getFileName());
+    }
+
+    public void testShouldRestorePersistedIndexWithoutListingUnchangedDirectory() throws Exception {
+        projectDirectory.setLastModified(AN_HOUR_AGO);
+        index.refresh();
+
+        // not noticed as the directory looks unchanged, which proves it is not listed again
+        FilesystemUtils.createFile("log20060704155750Lbuild.3.xml", projectDirectory);
+        projectDirectory.setLastModified(AN_HOUR_AGO);
+        BuildHistoryIndex restored = new BuildHistoryIndex(projectDirectory, indexDirectory);
+        restored.refresh();
+        assertEquals(4, restored.size());
+
+        projectDirectory.setLastModified(System.currentTimeMillis());
+        restored.refresh();
+        assertEquals(5, restored.size());
+    }
+
+    public void testShouldReadAndKeepBuildDetails() throws Exception {
+        File log = new File(projectDirectory, "log20060704155750Lbuild.3.xml");
+        FileUtils.writeStringToFile(log, "<cruisecontrol><build time=\"1 minute(s) 2 second(s)\">"
+                + "<testsuite tests=\"5\" failures=\"1\" errors=\"1\"/><testsuite tests=\"3\"/>"
+                + "</build></cruisecontrol>", "UTF-8");
+        projectDirectory.setLastModified(AN_HOUR_AGO);
+        index.refresh();
+
+        BuildHistoryIndex.Entry latest = index.getLatest();
+        assertNull(latest.getDuration());
+        index.loadDetails(Collections.singletonList(latest));
+        assertEquals("1 minute(s) 2 second(s)", latest.getDuration());
+        assertEquals(8, latest.getTestCount());
+        assertEquals(2, latest.getFailureCount());
+
+        log.delete();
+        projectDirectory.setLastModified(AN_HOUR_AGO);
+        BuildHistoryIndex restored = new BuildHistoryIndex(projectDirectory, indexDirectory);
+        restored.refresh();
+        assertEquals("1 minute(s) 2 second(s)", restored.getLatest().getDuration());
+        assertEquals(8, restored.getLatest().getTestCount());
+    }
+
+    public void testShouldIndexShardedLogsAndOnlyListChangedShards() throws Exception {
+        File august = new File(projectDirectory, "2006/08");
+        File september = new File(projectDirectory, "2006/09");
+        august.mkdirs();
+        september.mkdirs();
+        FilesystemUtils.createFile("log20060801120000Lbuild.3.xml", august);
+        FilesystemUtils.createFile("log20060901120000.xml", september);
+        FilesystemUtils.createFile("notalog.txt", september);
+        age(new File[] {projectDirectory, august.getParentFile(), august, september});
+        index.refresh();
+        assertEquals(6, index.size());
+        assertEquals(new File(september, "log20060901120000.xml"), index.getLatest().getFile(projectDirectory));
+        assertEquals("log20060801120000Lbuild.3.xml", index.getLastBefore(20060901120000L, true).getFileName());
+
+        // only september looks changed, so the new log in august is not noticed yet
+        FilesystemUtils.createFile("log20060802120000Lbuild.4.xml", august);
+        FilesystemUtils.createFile("log20060902120000Lbuild.5.xml", september);
+        age(new File[] {august});
+        index.refresh();
+        assertEquals(7, index.size());
+        assertEquals("build.5", index.getLatest().getLabel());
+
+        BuildHistoryIndex restored = new BuildHistoryIndex(projectDirectory, indexDirectory);
+        restored.refresh();
+        assertEquals(7, restored.size());
+        assertEquals(new File(august, "log20060801120000Lbuild.3.xml"),
+                restored.getLastBefore(20060802000000L, true).getFile(projectDirectory));
+
+        FileUtils.deleteDirectory(august.getParentFile());
+        restored.refresh();
+        assertEquals(4, restored.size());
+    }
+
+    private static void age(File[] directories) {
+        for (int i = 0; i < directories.length; i++) {
+            directories[i].setLastModified(AN_HOUR_AGO);
+        }
+    }
+
+    private static BuildHistoryIndex.Entry entry(List entries, int index) {
+        return (BuildHistoryIndex.Entry) entries.get(index);
+    }
+}
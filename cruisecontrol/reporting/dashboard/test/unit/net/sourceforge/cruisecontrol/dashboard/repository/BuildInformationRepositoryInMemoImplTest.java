@@ -3,6 +3,7 @@ package net.sourceforge.cruisecontrol.dashboard.repository;
 import net.sourceforge.cruisecontrol.BuildLoopInformation;
 import net.sourceforge.cruisecontrol.dashboard.service.JMXConnectorFactory;
 import net.sourceforge.cruisecontrol.BuildLoopInformation.ProjectInfo;
+import net.sourceforge.cruisecontrol.report.BuildLoopStatusProtocol;
 
 import javax.management.remote.JMXServiceURL;
 import javax.management.remote.JMXConnector;
@@ -11,6 +12,8 @@ import javax.management.MBeanServerConnection;
 import org.jmock.cglib.MockObjectTestCase;
 import org.jmock.Mock;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Map;
 import java.util.HashMap;
 import java.net.MalformedURLException;
@@ -100,6 +103,47 @@ public class BuildInformationRepositoryInMemoImplTest extends MockObjectTestCase
         assertFalse("Project should be unknown", repository.hasBuildLoopInfoFor("unknown_project"));
     }
 
+    public void testShouldRemoveProjectsMissingFromSnapshot() throws Exception {
+        save(new String[] {"project1", "project2"});
+        save(new String[] {"project2"});
+        assertFalse(repository.hasBuildLoopInfoFor("project1"));
+        assertTrue(repository.hasBuildLoopInfoFor("project2"));
+    }
+
+    public void testShouldApplyDeltaOnTopOfVersionItWasComputedAgainst() throws Exception {
+        repository.saveSnapshot(buildLoop(new String[] {"project1", "project2"}, "waiting"), 1);
+
+        assertTrue(repository.applyDelta(buildLoop(new String[] {"project2"}, "now building"), 1, 2,
+                Arrays.asList(new String[] {"project1"})));
+
+        assertEquals(1, repository.size());
+        assertFalse(repository.hasBuildLoopInfoFor("project1"));
+        assertEquals("now building", repository.getProjectInfo("project2").getStatus());
+    }
+
+    public void testShouldRejectDeltaForUnknownBaseVersion() throws Exception {
+        repository.saveSnapshot(buildLoop(new String[] {"project1"}, "waiting"), 3);
+
+        assertFalse(repository.applyDelta(buildLoop(new String[] {"project1"}, "now building"), 2, 4,
+                Collections.<String>emptyList()));
+        assertEquals("waiting", repository.getProjectInfo("project1").getStatus());
+    }
+
+    public void testShouldRejectDeltaAfterUnversionedUpdate() throws Exception {
+        save(new String[] {"project1"});
+        assertFalse(repository.applyDelta(buildLoop(new String[] {"project1"}, "now building"),
+                BuildLoopStatusProtocol.NO_VERSION, 1, Collections.<String>emptyList()));
+    }
+
+    private BuildLoopInformation buildLoop(String[] projectNames, String status) {
+        ProjectInfo[] projectInfos = new ProjectInfo[projectNames.length];
+        for (int i = 0; i < projectNames.length; i++) {
+            projectInfos[i] = new ProjectInfo(projectNames[i], status, null);
+        }
+        return new BuildLoopInformation(projectInfos, (BuildLoopInformation.JmxInfo) jmxInfoMock.proxy(),
+                SERVER_NAME, null);
+    }
+
     private JMXServiceURL jmxServiceUrl(String rmiUrl) throws MalformedURLException {
         return new JMXServiceURL("service:jmx:" + rmiUrl + "/jndi/jrmp");
     }
@@ -0,0 +1,94 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.repository;
+
+import junit.framework.TestCase;
+
+public class BuildStatisticsTest extends TestCase {
+
+    public void testShouldCountResultsAndKeepOnlyLatestBuilds() {
+        BuildStatistics stats = new BuildStatistics(3);
+        stats.add(20080101120000L, true, 10);
+        stats.add(20080101130000L, false, 20);
+        stats.add(20080101140000L, true, -1);
+        stats.add(20080101150000L, true, 40);
+
+        assertEquals(3, stats.getPassed());
+        assertEquals(1, stats.getFailed());
+        assertEquals(20080101150000L, stats.getLastTimestamp());
+        assertEquals(3, stats.countLatest(10));
+        assertEquals(2, stats.countLatestPassed(10));
+        assertEquals(1, stats.countLatestPassed(1));
+        int[] durations = stats.getLatestDurations(3);
+        assertEquals(2, durations.length);
+        assertEquals(40, durations[0]);
+        assertEquals(20, durations[1]);
+    }
+
+    public void testShouldMeasureTimeFromFirstFailureToNextSuccess() {
+        BuildStatistics stats = new BuildStatistics(10);
+        stats.add(20080101120000L, true, 0);
+        stats.add(20080101130000L, false, 0);
+        assertTrue(stats.getBrokenSince() > 0);
+        stats.add(20080101131000L, false, 0);
+        stats.add(20080101140000L, true, 0);
+
+        assertEquals(-1, stats.getBrokenSince());
+        assertEquals(1, stats.getFixes());
+        assertEquals(60 * 60 * 1000L, stats.getLastFixMillis());
+
+        stats.add(20080101150000L, false, 0);
+        stats.add(20080101153000L, true, 0);
+        assertEquals(2, stats.getFixes());
+        assertEquals(30 * 60 * 1000L, stats.getLastFixMillis());
+        assertEquals(90 * 60 * 1000L, stats.getTotalFixMillis());
+    }
+
+    public void testShouldComputeRateMeanAndPercentile() {
+        assertEquals(0, BuildStatistics.rate(0, 0));
+        assertEquals(67, BuildStatistics.rate(2, 3));
+        assertEquals(0, BuildStatistics.mean(new int[0]));
+        assertEquals(3, BuildStatistics.mean(new int[] {2, 3, 4}));
+        assertEquals(0, BuildStatistics.percentile95(new int[0]));
+        int[] values = new int[100];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = 100 - i;
+        }
+        assertEquals(95, BuildStatistics.percentile95(values));
+        assertEquals(7, BuildStatistics.percentile95(new int[] {7, 1, 3}));
+    }
+}
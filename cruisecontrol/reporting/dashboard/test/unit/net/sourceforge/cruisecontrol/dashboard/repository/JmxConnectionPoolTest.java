@@ -0,0 +1,208 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.repository;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.MBeanServerConnection;
+import javax.management.remote.JMXConnector;
+import javax.management.remote.JMXServiceURL;
+
+import net.sourceforge.cruisecontrol.dashboard.service.JMXConnectorFactory;
+
+import org.jmock.Mock;
+import org.jmock.cglib.MockObjectTestCase;
+
+public class JmxConnectionPoolTest extends MockObjectTestCase {
+    private Mock connectorFactory;
+
+    private JMXServiceURL serviceUrl;
+
+    private final Map environment = new HashMap();
+
+    protected void setUp() throws Exception {
+        connectorFactory = mock(JMXConnectorFactory.class);
+        serviceUrl = new JMXServiceURL("service:jmx:rmi://server1:1099/jndi/jrmp");
+    }
+
+    private JmxConnectionPool pool(long idleTimeout, long validationInterval, int maxIdle) {
+        return new JmxConnectionPool((JMXConnectorFactory) connectorFactory.proxy(), idleTimeout,
+                validationInterval, maxIdle);
+    }
+
+    private Mock connector() {
+        Mock connector = mock(JMXConnector.class);
+        connector.stubs().method("getMBeanServerConnection")
+                .will(returnValue(mock(MBeanServerConnection.class).proxy()));
+        return connector;
+    }
+
+    public void testShouldReuseConnectionReturnedToThePool() throws Exception {
+        Mock connector = connector();
+        connector.expects(never()).method("close");
+        connectorFactory.expects(once()).method("connect").with(eq(serviceUrl), eq(environment))
+                .will(returnValue(connector.proxy()));
+        JmxConnectionPool pool = pool(60000, 60000, 2);
+
+        ClosableProjectMBeanConnection first = pool.checkout(serviceUrl, environment);
+        first.close();
+        ClosableProjectMBeanConnection second = pool.checkout(serviceUrl, environment);
+
+        assertSame(first, second);
+        assertEquals(2, pool.getCheckoutCount());
+        assertEquals(1, pool.getOpenedCount());
+        assertEquals(1, pool.getReusedCount());
+    }
+
+    public void testShouldLogStatisticsOncePerInterval() throws Exception {
+        JmxConnectionPool pool = pool(60000, 60000, 2);
+        long now = System.currentTimeMillis();
+
+        assertFalse(pool.logStatisticsIfDue(now));
+        assertTrue(pool.logStatisticsIfDue(now + JmxConnectionPool.STATISTICS_INTERVAL));
+        assertFalse(pool.logStatisticsIfDue(now + JmxConnectionPool.STATISTICS_INTERVAL + 1000));
+    }
+
+    public void testShouldIgnoreSecondCloseOfTheSameConnection() throws Exception {
+        connectorFactory.expects(once()).method("connect").will(returnValue(connector().proxy()));
+        JmxConnectionPool pool = pool(60000, 60000, 2);
+
+        ClosableProjectMBeanConnection connection = pool.checkout(serviceUrl, environment);
+        connection.close();
+        connection.close();
+
+        assertEquals(1, pool.getIdleCount());
+    }
+
+    public void testShouldOpenNewConnectionWhenPreviousOneWasInvalidated() throws Exception {
+        Mock broken = connector();
+        broken.expects(once()).method("close");
+        Mock fresh = connector();
+        connectorFactory.expects(once()).method("connect").will(returnValue(broken.proxy()))
+                .id("first");
+        connectorFactory.expects(once()).method("connect").after("first").will(returnValue(fresh.proxy()));
+        JmxConnectionPool pool = pool(60000, 60000, 2);
+
+        ClosableProjectMBeanConnection first = pool.checkout(serviceUrl, environment);
+        first.invalidate();
+        ClosableProjectMBeanConnection second = pool.checkout(serviceUrl, environment);
+
+        assertNotSame(first, second);
+        assertEquals(2, pool.getOpenedCount());
+        assertEquals(1, pool.getBrokenCount());
+        assertEquals(1, pool.getClosedCount());
+    }
+
+    public void testShouldDropIdleConnectionThatFailsHealthCheck() throws Exception {
+        Mock stale = connector();
+        stale.expects(once()).method("getConnectionId").will(throwException(new IOException("gone")));
+        stale.expects(once()).method("close");
+        connectorFactory.expects(once()).method("connect").will(returnValue(stale.proxy())).id("first");
+        connectorFactory.expects(once()).method("connect").after("first")
+                .will(returnValue(connector().proxy()));
+        JmxConnectionPool pool = pool(60000, -1, 2);
+
+        pool.checkout(serviceUrl, environment).close();
+        pool.checkout(serviceUrl, environment);
+
+        assertEquals(1, pool.getBrokenCount());
+        assertEquals(0, pool.getReusedCount());
+    }
+
+    public void testShouldEvictConnectionsIdleLongerThanTimeout() throws Exception {
+        Mock idle = connector();
+        idle.expects(once()).method("close");
+        connectorFactory.expects(once()).method("connect").will(returnValue(idle.proxy())).id("first");
+        connectorFactory.expects(once()).method("connect").after("first")
+                .will(returnValue(connector().proxy()));
+        JmxConnectionPool pool = pool(-1, 60000, 2);
+
+        pool.checkout(serviceUrl, environment).close();
+        pool.checkout(serviceUrl, environment);
+
+        assertEquals(1, pool.getEvictedCount());
+        assertEquals(2, pool.getOpenedCount());
+    }
+
+    public void testShouldCloseConnectionsBeyondMaxIdle() throws Exception {
+        Mock kept = connector();
+        kept.expects(never()).method("close");
+        Mock surplus = connector();
+        surplus.expects(once()).method("close");
+        connectorFactory.expects(once()).method("connect").will(returnValue(kept.proxy())).id("first");
+        connectorFactory.expects(once()).method("connect").after("first").will(returnValue(surplus.proxy()));
+        JmxConnectionPool pool = pool(60000, 60000, 1);
+
+        ClosableProjectMBeanConnection first = pool.checkout(serviceUrl, environment);
+        ClosableProjectMBeanConnection second = pool.checkout(serviceUrl, environment);
+        first.close();
+        second.close();
+
+        assertEquals(1, pool.getIdleCount());
+        assertEquals(1, pool.getClosedCount());
+    }
+
+    public void testShouldKeepSeparatePoolsPerBuildLoop() throws Exception {
+        JMXServiceURL otherUrl = new JMXServiceURL("service:jmx:rmi://server2:1099/jndi/jrmp");
+        connectorFactory.expects(once()).method("connect").with(eq(serviceUrl), ANYTHING)
+                .will(returnValue(connector().proxy()));
+        connectorFactory.expects(once()).method("connect").with(eq(otherUrl), ANYTHING)
+                .will(returnValue(connector().proxy()));
+        JmxConnectionPool pool = pool(60000, 60000, 2);
+
+        pool.checkout(serviceUrl, environment).close();
+        pool.checkout(otherUrl, environment).close();
+
+        assertEquals(2, pool.getOpenedCount());
+        assertEquals(2, pool.getIdleCount());
+    }
+
+    public void testShouldCountFailedConnects() throws Exception {
+        connectorFactory.expects(once()).method("connect").will(throwException(new IOException("refused")));
+        JmxConnectionPool pool = pool(60000, 60000, 2);
+        try {
+            pool.checkout(serviceUrl, environment);
+            fail();
+        } catch (IOException expected) {
+            assertEquals("refused", expected.getMessage());
+        }
+        assertEquals(1, pool.getConnectFailureCount());
+        assertEquals(0, pool.getOpenedCount());
+    }
+}
@@ -0,0 +1,175 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.repository;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sourceforge.cruisecontrol.dashboard.testhelpers.FilesystemUtils;
+
+import org.apache.commons.io.FileUtils;
+
+public class TestHistoryStoreTest extends TestCase {
+
+    private static final List TESTS = Arrays.asList(new String[] {"FooTest.testA", "FooTest.testB", "BarTest.testC"});
+
+    private File projectDirectory;
+
+    private File storeDirectory;
+
+    private TestHistoryStore store;
+
+    protected void setUp() throws Exception {
+        projectDirectory = FilesystemUtils.createDirectory("testHistoryProject");
+        storeDirectory = FilesystemUtils.createDirectory("testHistoryStore");
+        store = new TestHistoryStore(projectDirectory, storeDirectory, 100);
+        // testB fails in builds 2 and 3, testC flips every build
+        add(store, 1, new int[] {10, 20, 3000}, new int[] {});
+        add(store, 2, new int[] {10, 25, 3000}, new int[] {1, 2});
+        add(store, 3, new int[] {10, 30, 1000}, new int[] {1});
+        add(store, 4, new int[] {10, 40, 2000}, new int[] {2});
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(projectDirectory);
+        FileUtils.deleteDirectory(storeDirectory);
+    }
+
+    private static void add(TestHistoryStore store, int build, int[] durations, int[] failures) {
+        BitSet failed = new BitSet();
+        for (int i = 0; i < failures.length; i++) {
+            failed.set(failures[i]);
+        }
+        store.add("log2008010100000" + build + ".xml", 20080101000000L + build, TESTS, durations, failed);
+    }
+
+    public void testShouldListRunsOfOneTestNewestFirst() {
+        List runs = store.getHistory("FooTest.testB", 10);
+        assertEquals(4, runs.size());
+        assertEquals("log20080101000004.xml", run(runs, 0).getFileName());
+        assertFalse(run(runs, 0).hasFailed());
+        assertTrue(run(runs, 1).hasFailed());
+        assertEquals("0.030", run(runs, 1).getDuration());
+        assertEquals(2, store.getHistory("FooTest.testB", 2).size());
+        assertTrue(store.getHistory("NoSuchTest.test", 10).isEmpty());
+    }
+
+    public void testShouldTellWhenTestStartedFailing() {
+        assertNull(store.getFailingSince("FooTest.testB"));
+        add(store, 5, new int[] {10, 40, 2000}, new int[] {0, 2});
+        add(store, 6, new int[] {10, 40, 2000}, new int[] {0, 2});
+        assertEquals(20080101000005L, store.getFailingSince("FooTest.testA").getTimestamp());
+        assertEquals(20080101000004L, store.getFailingSince("BarTest.testC").getTimestamp());
+    }
+
+    public void testShouldRankTestsByFlipRate() {
+        List flaky = store.getFlaky(100, 10);
+        assertEquals(2, flaky.size());
+        assertEquals("BarTest.testC", stats(flaky, 0).getName());
+        assertEquals(3, stats(flaky, 0).getFlips());
+        assertEquals(100, stats(flaky, 0).getFlipPercentage());
+        assertEquals("FooTest.testB", stats(flaky, 1).getName());
+        assertEquals(2, stats(flaky, 1).getFailures());
+
+        List latestTwo = store.getFlaky(2, 10);
+        assertEquals(2, latestTwo.size());
+        assertEquals(1, stats(latestTwo, 1).getFlips());
+    }
+
+    public void testShouldRankTestsByAverageDuration() {
+        List slowest = store.getSlowest(100, 2);
+        assertEquals(2, slowest.size());
+        assertEquals("BarTest.testC", stats(slowest, 0).getName());
+        assertEquals("2.250", stats(slowest, 0).getAverageDuration());
+        assertEquals("3.000", stats(slowest, 0).getMaxDuration());
+        assertEquals("FooTest.testB", stats(slowest, 1).getName());
+    }
+
+    public void testShouldKeepBuildsAddedOutOfOrderSorted() {
+        add(store, 0, new int[] {10, 20, 30}, new int[] {0});
+        assertEquals(5, store.getBuildCount());
+        List runs = store.getHistory("FooTest.testA", 10);
+        assertEquals("log20080101000000.xml", run(runs, 4).getFileName());
+        assertTrue(run(runs, 4).hasFailed());
+    }
+
+    public void testShouldKeepOnlyLatestBuilds() {
+        TestHistoryStore small = new TestHistoryStore(projectDirectory, null, 2);
+        for (int build = 1; build <= 4; build++) {
+            add(small, build, new int[] {1, 2, 3}, new int[] {});
+        }
+        assertEquals(2, small.getBuildCount());
+        assertTrue(small.contains("log20080101000004.xml"));
+        assertFalse(small.contains("log20080101000001.xml"));
+    }
+
+    public void testShouldRestoreStoredBuilds() {
+        TestHistoryStore restored = new TestHistoryStore(projectDirectory, storeDirectory, 100);
+        assertEquals(4, restored.getBuildCount());
+        assertEquals(3, restored.getTestCount());
+        assertTrue(restored.contains("log20080101000002.xml"));
+        assertEquals("BarTest.testC", stats(restored.getFlaky(100, 10), 0).getName());
+        assertEquals(20, run(restored.getHistory("FooTest.testB", 10), 3).getDurationMillis());
+
+        add(restored, 5, new int[] {10, 40, 2000}, new int[] {});
+        assertEquals(5, new TestHistoryStore(projectDirectory, storeDirectory, 100).getBuildCount());
+    }
+
+    public void testShouldKeepWhatWasReadFromTruncatedFile() throws Exception {
+        File file = storeDirectory.listFiles()[0];
+        FileOutputStream out = new FileOutputStream(file, true);
+        out.write(new byte[] {'B', 0, 20, 'l', 'o', 'g'});
+        out.close();
+
+        TestHistoryStore restored = new TestHistoryStore(projectDirectory, storeDirectory, 100);
+        assertEquals(4, restored.getBuildCount());
+        add(restored, 5, new int[] {10, 40, 2000}, new int[] {});
+        assertEquals(5, new TestHistoryStore(projectDirectory, storeDirectory, 100).getBuildCount());
+    }
+
+    private static TestHistoryStore.TestRun run(List runs, int index) {
+        return (TestHistoryStore.TestRun) runs.get(index);
+    }
+
+    private static TestHistoryStore.TestStats stats(List stats, int index) {
+        return (TestHistoryStore.TestStats) stats.get(index);
+    }
+}
@@ -0,0 +1,169 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.service;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.sourceforge.cruisecontrol.dashboard.BuildTestCase;
+import net.sourceforge.cruisecontrol.dashboard.BuildTestCaseResult;
+import net.sourceforge.cruisecontrol.dashboard.BuildTestSuite;
+import net.sourceforge.cruisecontrol.dashboard.LogFile;
+import net.sourceforge.cruisecontrol.dashboard.testhelpers.DataUtils;
+import net.sourceforge.cruisecontrol.dashboard.testhelpers.FilesystemUtils;
+
+import org.apache.commons.io.FileUtils;
+
+public class BuildDetailCacheTest extends TestCase {
+
+    private File logDirectory;
+
+    private LogFile log;
+
+    private CountingParser parser;
+
+    protected void setUp() throws Exception {
+        logDirectory = FilesystemUtils.createDirectory("buildDetailCache");
+        log = new LogFile(logDirectory, "log20060704155710Lbuild.1.xml");
+        FileUtils.writeStringToFile(log, "<cruisecontrol/>", "UTF-8");
+        parser = new CountingParser();
+    }
+
+    protected void tearDown() throws Exception {
+        FileUtils.deleteDirectory(logDirectory);
+    }
+
+    public void testShouldParseUnchangedLogOnlyOnce() throws Exception {
+        BuildDetailCache cache = new BuildDetailCache(1024, null);
+        Map first = cache.get(log, parser);
+        Map second = cache.get(log, parser);
+
+        assertSame(first, second);
+        assertEquals(1, parser.count);
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    public void testShouldParseAgainWhenLogChanges() throws Exception {
+        BuildDetailCache cache = new BuildDetailCache(1024, null);
+        cache.get(log, parser);
+        FileUtils.writeStringToFile(log, "<cruisecontrol></cruisecontrol>", "UTF-8");
+        cache.get(log, parser);
+
+        assertEquals(2, parser.count);
+        assertEquals(1, cache.size());
+    }
+
+    public void testShouldEvictLeastRecentlyUsedLogsBeyondMaximumWeight() throws Exception {
+        BuildDetailCache cache = new BuildDetailCache(2 * log.length(), null);
+        LogFile second = new LogFile(logDirectory, "log20060704155720.xml");
+        LogFile third = new LogFile(logDirectory, "log20060704155730.xml");
+        FileUtils.copyFile(log, second);
+        FileUtils.copyFile(log, third);
+
+        cache.get(log, parser);
+        cache.get(second, parser);
+        cache.get(log, parser);
+        cache.get(third, parser);
+
+        assertEquals(2, cache.size());
+        assertEquals(2 * log.length(), cache.getWeight());
+        cache.get(log, parser);
+        assertEquals(3, parser.count);
+        cache.get(second, parser);
+        assertEquals(4, parser.count);
+    }
+
+    public void testShouldParseOnceForConcurrentRequests() throws Exception {
+        final BuildDetailCache cache = new BuildDetailCache(1024, null);
+        parser.delay = 200;
+        Thread[] threads = new Thread[10];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        cache.get(log, parser);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i].join();
+        }
+        assertEquals(1, parser.count);
+    }
+
+    public void testShouldKeepParsedBuildOnDisk() throws Exception {
+        File persistenceDir = FilesystemUtils.createDirectory("buildDetailCachePersisted");
+        try {
+            LogFile failedBuild = DataUtils.getFailedBuildLbuildAsFile();
+            BuildService service = new BuildService(null, null, null);
+            new BuildDetailCache(1024, persistenceDir).get(failedBuild, service.logParser);
+
+            Map restored = new BuildDetailCache(1024, persistenceDir).get(failedBuild, parser);
+            assertEquals(0, parser.count);
+            assertEquals("project1", restored.get("projectname"));
+            BuildTestSuite suite = (BuildTestSuite) ((List) restored.get("testsuites")).get(0);
+            BuildTestCase failingTest = (BuildTestCase) suite.getFailingTestCases().get(0);
+            assertSame(BuildTestCaseResult.FAILED, failingTest.getResult());
+        } finally {
+            FileUtils.deleteDirectory(persistenceDir);
+        }
+    }
+
+    private static class CountingParser implements BuildDetailCache.LogParser {
+        private int count;
+
+        private long delay;
+
+        public Map parse(LogFile logFile) throws Exception {
+            synchronized (this) {
+                count++;
+            }
+            Thread.sleep(delay);
+            Map properties = new HashMap();
+            properties.put("projectname", "project");
+            return properties;
+        }
+    }
+}
@@ -48,7 +48,9 @@ import net.sourceforge.cruisecontrol.dashboard.testhelpers.jmxstub.MBeanServerCo
 import org.jmock.Mock;
 import org.jmock.cglib.MockObjectTestCase;
 
+import javax.management.MBeanServerConnection;
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
@@ -121,6 +123,41 @@ public class BuildLoopQueryServiceTest extends MockObjectTestCase {
         assertEquals("LiveOutputID", outputID);
     }
 
+    public void testShouldRetryReadOnlyCallOnNewConnectionWhenPooledOneIsStale() throws Exception {
+        Mock staleConnection = mock(ClosableProjectMBeanConnection.class);
+        Mock broken = mock(MBeanServerConnection.class);
+        broken.expects(once()).method("getAttribute").will(throwException(new IOException("connection reset")));
+        staleConnection.expects(once()).method("getMBeanServerConnection").will(returnValue(broken.proxy()));
+        staleConnection.expects(once()).method("invalidate");
+        staleConnection.expects(never()).method("close");
+        repository.expects(once()).method("getJmxConnection").will(returnValue(staleConnection.proxy()))
+                .id("stale");
+        repository.expects(once()).method("getJmxConnection").after("stale")
+                .will(returnValue(closableProjectMBeanConnection.proxy()));
+        closableProjectMBeanConnection.expects(once()).method("getMBeanServerConnection").
+                will(returnValue(new MBeanServerConnectionOutputIDStub()));
+        closableProjectMBeanConnection.expects(once()).method("close");
+
+        assertEquals("LiveOutputID", buildLoopQueryService.getLiveOutputID(PROJECT_NAME));
+    }
+
+    public void testShouldNotRetryForceBuildOnFailedConnection() throws Exception {
+        envService.expects(atLeastOnce()).method("isForceBuildEnabled").will(returnValue(true));
+        Mock broken = mock(MBeanServerConnection.class);
+        broken.expects(once()).method("invoke").will(throwException(new IOException("connection reset")));
+        repository.expects(once()).method("getJmxConnection")
+                .will(returnValue(closableProjectMBeanConnection.proxy()));
+        closableProjectMBeanConnection.expects(once()).method("getMBeanServerConnection").
+                will(returnValue(broken.proxy()));
+        closableProjectMBeanConnection.expects(once()).method("invalidate");
+        try {
+            buildLoopQueryService.forceBuild(PROJECT_NAME);
+            fail();
+        } catch (IOException expected) {
+            assertEquals("connection reset", expected.getMessage());
+        }
+    }
+
     public void testShouldReturnStatusMapKeyedOnProjectName() throws Exception {
         Mock buildloopinfoMock =
                 mock(
@@ -0,0 +1,152 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.service;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import net.sourceforge.cruisecontrol.dashboard.repository.BuildHistoryIndex;
+import net.sourceforge.cruisecontrol.dashboard.testhelpers.DataUtils;
+import net.sourceforge.cruisecontrol.dashboard.testhelpers.FilesystemUtils;
+
+import org.apache.commons.io.FileUtils;
+import org.jmock.Mock;
+import org.jmock.cglib.MockObjectTestCase;
+
+public class BuildStatisticsServiceTest extends MockObjectTestCase {
+
+    private static final long AN_HOUR_AGO = System.currentTimeMillis() - 60 * 60 * 1000;
+
+    private File logRoot;
+
+    private File projectDirectory;
+
+    private File indexDirectory;
+
+    private BuildStatisticsService service;
+
+    private int copied;
+
+    protected void setUp() throws Exception {
+        logRoot = FilesystemUtils.createDirectory("buildStatisticsServiceLogs");
+        projectDirectory = new File(logRoot, "project1");
+        projectDirectory.mkdir();
+        indexDirectory = FilesystemUtils.createDirectory("buildStatisticsServiceIndex");
+        System.setProperty(BuildHistoryIndex.INDEX_DIR_PROPERTY, indexDirectory.getAbsolutePath());
+        copyLog(DataUtils.getPassingBuildLbuildAsFile(), "log20051209122103Lbuild.489.xml");
+        copyLog(DataUtils.getFailedBuildLbuildAsFile(), "log20051209122104.xml");
+
+        Mock configurationMock = mock(ConfigurationService.class, new Class[]{EnvironmentService.class,
+                DashboardXmlConfigService.class, BuildLoopQueryService.class}, new Object[]{null, null, null});
+        configurationMock.stubs().method("getProjectDirectoriesFromFileSystem")
+                .will(returnValue(new File[] {projectDirectory}));
+        ConfigurationService configuration = (ConfigurationService) configurationMock.proxy();
+        service = new BuildStatisticsService(configuration,
+                new HistoricalBuildSummariesService(configuration, new BuildSummaryService()), new int[] {1, 10}, 0);
+    }
+
+    private void copyLog(File log, String name) throws Exception {
+        File copy = new File(projectDirectory, name);
+        FileUtils.copyFile(log, copy);
+        copy.setLastModified(AN_HOUR_AGO);
+        // a new modification time each time, so the index lists the directory again
+        projectDirectory.setLastModified(AN_HOUR_AGO + 1000 * copied++);
+    }
+
+    protected void tearDown() throws Exception {
+        System.getProperties().remove(BuildHistoryIndex.INDEX_DIR_PROPERTY);
+        FileUtils.deleteDirectory(logRoot);
+        FileUtils.deleteDirectory(indexDirectory);
+    }
+
+    public void testShouldSumUpBuildsOfProjects() throws Exception {
+        Map project = (Map) ((Map) service.getStatistics().get("projects")).get("project1");
+        assertEquals(new Integer(1), project.get("passed"));
+        assertEquals(new Integer(1), project.get("failed"));
+        assertEquals(new Integer(50), project.get("success_rate"));
+        assertTrue(((Long) project.get("broken_since")).longValue() > 0);
+
+        List windows = (List) project.get("windows");
+        Map latest = (Map) windows.get(0);
+        assertEquals(new Integer(1), latest.get("builds"));
+        assertEquals(new Integer(0), latest.get("success_rate"));
+        Map ten = (Map) windows.get(1);
+        assertEquals(new Integer(2), ten.get("builds"));
+        assertEquals(new Long(190), ten.get("mean_duration"));
+        assertEquals(new Integer(190), ten.get("p95_duration"));
+
+        Map all = (Map) service.getStatistics().get("all");
+        assertEquals(new Integer(1), all.get("broken"));
+        assertEquals(new Integer(2), ((Map) ((List) all.get("windows")).get(1)).get("builds"));
+    }
+
+    public void testShouldReportNeverFixedProject() throws Exception {
+        Map project = (Map) ((Map) service.getStatistics().get("projects")).get("project1");
+        assertEquals(new Integer(0), project.get("fixes"));
+        assertEquals(new Long(-1), project.get("last_time_to_fix"));
+    }
+
+    public void testShouldOnlyAddNewBuilds() throws Exception {
+        Map before = service.getStatistics();
+        assertSame(before, service.getStatistics());
+
+        copyLog(DataUtils.getPassingBuildLbuildAsFile(), "log20051209122105Lbuild.490.xml");
+        Map project = (Map) ((Map) service.getStatistics().get("projects")).get("project1");
+        assertEquals(new Integer(2), project.get("passed"));
+        assertEquals(new Integer(1), project.get("failed"));
+        assertEquals(new Integer(1), project.get("fixes"));
+        assertEquals(new Long(1), project.get("last_time_to_fix"));
+        assertEquals(new Long(-1), project.get("broken_since"));
+    }
+
+    public void testShouldReadDurationsInSeconds() {
+        assertEquals(190, BuildStatisticsService.toSeconds("3 minutes 10 seconds"));
+        assertEquals(65, BuildStatisticsService.toSeconds("1 minute(s) 5 second(s)"));
+        assertEquals(3600, BuildStatisticsService.toSeconds("1 hour(s) 0 minute(s) 0 second(s)"));
+        assertEquals(-1, BuildStatisticsService.toSeconds(""));
+        assertEquals(-1, BuildStatisticsService.toSeconds(null));
+    }
+
+    public void testShouldFallBackToDefaultWindows() {
+        assertEquals(2, BuildStatisticsService.windows(null).length);
+        assertEquals(2, BuildStatisticsService.windows("5,x").length);
+        int[] windows = BuildStatisticsService.windows("20, 5, 100");
+        assertEquals(5, windows[0]);
+        assertEquals(100, windows[2]);
+    }
+}
@@ -9,9 +9,13 @@ import org.jmock.Mock;
 import org.jmock.cglib.MockObjectTestCase;
 import org.joda.time.DateTime;
 
-import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class LatestBuildSummariesServiceTest extends MockObjectTestCase {
     private Mock mockHistoricalBuildSummaries;
@@ -51,25 +55,15 @@ public class LatestBuildSummariesServiceTest extends MockObjectTestCase {
     public void testShouldBeAbleToReturnAllLastestBuildOfProjects() {
         BuildSummary inactivebs = new BuildSummary("projec1");
         inactivebs.updateStatus(CurrentStatus.WAITING.getCruiseStatus());
-        List inactives = new ArrayList();
-        inactives.add(inactivebs);
 
         BuildSummary activebs = new BuildSummary("projec2");
         activebs.updateStatus(CurrentStatus.WAITING.getCruiseStatus());
-        List actives = new ArrayList();
-        actives.add(activebs);
-
 
         BuildSummary discontinuedbs = new BuildSummary("projec3");
         discontinuedbs.updateStatus(CurrentStatus.DISCONTINUED.getCruiseStatus());
-        List discontinueds = new ArrayList();
-        discontinueds.add(discontinuedbs);
-
 
-        mockHistoricalBuildSummaries.expects(once()).method("createInactiveProjects").will(returnValue(inactives));
-        mockHistoricalBuildSummaries.expects(once()).method("createActiveProjects").will(returnValue(actives));
-        mockHistoricalBuildSummaries.expects(once()).method("createDiscontinuedProjects")
-                .will(returnValue(discontinueds));
+        mockHistoricalBuildSummaries.expects(once()).method("createProjectSummaryTasks").will(
+                returnValue(tasks(new BuildSummary[] {discontinuedbs, inactivebs, activebs})));
 
         mockBuildLoopQueryService.expects(atLeastOnce()).method("getAllProjectsStatus").will(
                 returnValue(
@@ -94,12 +88,43 @@ public class LatestBuildSummariesServiceTest extends MockObjectTestCase {
         assertEquals(3, allLatestOfProjects.size());
         assertEquals("localhost", ((BuildSummary) allLatestOfProjects.get(0)).getServerName());
         //should be sorted by name
-        assertEquals(inactivebs, allLatestOfProjects.get(0));
-        assertEquals(CurrentStatus.BUILDING, inactivebs.getCurrentStatus());
+        BuildSummary first = (BuildSummary) allLatestOfProjects.get(0);
+        assertEquals(inactivebs.getProjectName(), first.getProjectName());
+        assertEquals(CurrentStatus.BUILDING, first.getCurrentStatus());
         DateTime dateTime = CCDateFormatter.iso8601("2007-09-08T12:13:11");
-        assertEquals(dateTime, inactivebs.getBuildingSince());
-        assertEquals(activebs, allLatestOfProjects.get(1));
-        assertEquals(discontinuedbs, allLatestOfProjects.get(2));
+        assertEquals(dateTime, first.getBuildingSince());
+        assertEquals(activebs.getProjectName(), ((BuildSummary) allLatestOfProjects.get(1)).getProjectName());
+        assertEquals(discontinuedbs.getProjectName(), ((BuildSummary) allLatestOfProjects.get(2)).getProjectName());
+    }
+
+    public void testShouldApplyLiveStatusToCopyOfSummaryRead() {
+        BuildSummary bs = new BuildSummary("project1");
+        bs.updateStatus(CurrentStatus.WAITING.getCruiseStatus());
+        mockHistoricalBuildSummaries.expects(once()).method("createProjectSummaryTasks")
+                .will(returnValue(tasks(new BuildSummary[] {bs})));
+        HashMap statuses = new HashMap();
+        statuses.put("project1", CurrentStatus.PAUSED.getCruiseStatus());
+        mockBuildLoopQueryService.expects(once()).method("getAllProjectsStatus").will(returnValue(statuses));
+        mockBuildLoopQueryService.expects(once()).method("getServerName").will(returnValue("localhost"));
+
+        BuildSummary listed = (BuildSummary) latestBuildSummariesService.getLatestOfProjects().get(0);
+
+        assertNotSame(bs, listed);
+        assertEquals(CurrentStatus.PAUSED, listed.getCurrentStatus());
+        assertEquals("localhost", listed.getServerName());
+        assertEquals(CurrentStatus.WAITING, bs.getCurrentStatus());
+        assertEquals("N/A", bs.getServerName());
+    }
+
+    public void testShouldShareSnapshotBetweenCallers() {
+        mockHistoricalBuildSummaries.expects(once()).method("createProjectSummaryTasks")
+                .will(returnValue(new LinkedHashMap()));
+        mockBuildLoopQueryService.expects(once()).method("getAllProjectsStatus").will(returnValue(new HashMap()));
+
+        StatusSnapshot snapshot = latestBuildSummariesService.getSnapshot();
+
+        assertSame(snapshot, latestBuildSummariesService.getSnapshot());
+        assertEquals(0, snapshot.getSummaries().size());
     }
 
     public void testShouldBeAbleToReturnLatestBuildOfProjects() {
@@ -127,13 +152,9 @@ public class LatestBuildSummariesServiceTest extends MockObjectTestCase {
     public void testShouldNotChangeDefaultStatusWhenThereIsNoSuchProjectInLiveStatus() throws Exception {
         BuildSummary inactivebs = new BuildSummary("projec1");
         inactivebs.updateStatus(CurrentStatus.WAITING.getCruiseStatus());
-        List inactives = new ArrayList();
-        inactives.add(inactivebs);
 
-        mockHistoricalBuildSummaries.expects(once()).method("createInactiveProjects").will(returnValue(inactives));
-        mockHistoricalBuildSummaries.expects(once()).method("createActiveProjects").will(returnValue(new ArrayList()));
-        mockHistoricalBuildSummaries.expects(once()).method("createDiscontinuedProjects")
-                .will(returnValue(new ArrayList()));
+        mockHistoricalBuildSummaries.expects(once()).method("createProjectSummaryTasks")
+                .will(returnValue(tasks(new BuildSummary[] {inactivebs})));
 
         mockBuildLoopQueryService.expects(atLeastOnce()).method("getAllProjectsStatus").will(
                 returnValue(
@@ -149,4 +170,89 @@ public class LatestBuildSummariesServiceTest extends MockObjectTestCase {
         latestBuildSummariesService.getLatestOfProjects();
         assertEquals(CurrentStatus.WAITING, inactivebs.getCurrentStatus());
     }
+
+    public void testShouldListLastKnownSummaryOfProjectThatMissesDeadline() throws Exception {
+        latestBuildSummariesService = new LatestBuildSummariesService(
+                (HistoricalBuildSummariesService) mockHistoricalBuildSummaries.proxy(),
+                (BuildLoopQueryService) mockBuildLoopQueryService.proxy(), 2, 200);
+        BuildSummary fast = new BuildSummary("fast");
+        BuildSummary lastKnownSlow = new BuildSummary("slow");
+        lastKnownSlow.setServerName("last known");
+        final BuildSummary newSlow = new BuildSummary("slow");
+        newSlow.setServerName("new");
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger slowReads = new AtomicInteger();
+        Map blocking = tasks(new BuildSummary[] {fast});
+        blocking.put("slow", new Callable() {
+            public Object call() throws Exception {
+                slowReads.incrementAndGet();
+                release.await();
+                return newSlow;
+            }
+        });
+        mockHistoricalBuildSummaries.expects(once()).method("createProjectSummaryTasks")
+                .will(returnValue(tasks(new BuildSummary[] {fast, lastKnownSlow})));
+        mockBuildLoopQueryService.expects(atLeastOnce()).method("getAllProjectsStatus")
+                .will(returnValue(new HashMap()));
+        assertEquals(2, latestBuildSummariesService.getLatestOfProjects().size());
+
+        mockHistoricalBuildSummaries.expects(atLeastOnce()).method("createProjectSummaryTasks")
+                .will(returnValue(blocking));
+        List summaries = latestBuildSummariesService.getLatestOfProjects();
+        assertEquals(2, summaries.size());
+        assertEquals("last known", ((BuildSummary) summaries.get(1)).getServerName());
+
+        // still being read, so it is not read a second time
+        assertEquals("last known", serverName(latestBuildSummariesService.getLatestOfProjects().get(1)));
+        assertEquals(1, slowReads.get());
+
+        release.countDown();
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!"new".equals(serverName(latestBuildSummariesService.getLatestOfProjects().get(1)))) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    public void testShouldListPlaceholderOfProjectThatMissesFirstDeadline() throws Exception {
+        latestBuildSummariesService = new LatestBuildSummariesService(
+                (HistoricalBuildSummariesService) mockHistoricalBuildSummaries.proxy(),
+                (BuildLoopQueryService) mockBuildLoopQueryService.proxy(), 2, 200);
+        final CountDownLatch release = new CountDownLatch(1);
+        Map blocking = new LinkedHashMap();
+        blocking.put("slow", new Callable() {
+            public Object call() throws Exception {
+                release.await();
+                return new BuildSummary("slow");
+            }
+        });
+        mockHistoricalBuildSummaries.expects(once()).method("createProjectSummaryTasks")
+                .will(returnValue(blocking));
+        mockBuildLoopQueryService.expects(once()).method("getAllProjectsStatus").will(returnValue(new HashMap()));
+
+        try {
+            List summaries = latestBuildSummariesService.getLatestOfProjects();
+            assertEquals(1, summaries.size());
+            assertEquals("slow", ((BuildSummary) summaries.get(0)).getProjectName());
+        } finally {
+            release.countDown();
+        }
+    }
+
+    private static String serverName(Object summary) {
+        return ((BuildSummary) summary).getServerName();
+    }
+
+    private static Map tasks(BuildSummary[] summaries) {
+        Map tasks = new LinkedHashMap();
+        for (int i = 0; i < summaries.length; i++) {
+            final BuildSummary summary = summaries[i];
+            tasks.put(summary.getProjectName(), new Callable() {
+                public Object call() {
+                    return summary;
+                }
+            });
+        }
+        return tasks;
+    }
 }
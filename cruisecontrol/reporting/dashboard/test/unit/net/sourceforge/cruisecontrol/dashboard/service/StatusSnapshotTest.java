@@ -0,0 +1,124 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.service;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+public class StatusSnapshotTest extends TestCase {
+    private int renderings;
+
+    private StatusSnapshot.Renderer renderer(final String content) {
+        return new StatusSnapshot.Renderer() {
+            public String render(List summaries) {
+                renderings++;
+                return content;
+            }
+        };
+    }
+
+    public void testShouldRenderEachKeyOnce() throws Exception {
+        StatusSnapshot snapshot = new StatusSnapshot(new ArrayList(), null);
+        StatusSnapshot.Body first = snapshot.render("cctray", renderer("<Projects/>"));
+        StatusSnapshot.Body second = snapshot.render("cctray", renderer("<Projects/>"));
+        snapshot.render("rss", renderer("<rss/>"));
+
+        assertSame(first, second);
+        assertEquals("<Projects/>", first.getContent());
+        assertEquals(2, renderings);
+    }
+
+    public void testShouldKeepValidatorsOfUnchangedContentAcrossSnapshots() throws Exception {
+        StatusSnapshot previous = new StatusSnapshot(new ArrayList(), null);
+        StatusSnapshot.Body before = previous.render("cctray", renderer("<Projects/>"));
+        Thread.sleep(1100);
+
+        StatusSnapshot.Body unchanged =
+                new StatusSnapshot(new ArrayList(), previous).render("cctray", renderer("<Projects/>"));
+        StatusSnapshot.Body changed =
+                new StatusSnapshot(new ArrayList(), previous).render("cctray", renderer("<Projects></Projects>"));
+
+        assertEquals(before.getETag(), unchanged.getETag());
+        assertEquals(before.getLastModified(), unchanged.getLastModified());
+        assertFalse(before.getETag().equals(changed.getETag()));
+        assertTrue(changed.getLastModified() > before.getLastModified());
+    }
+
+    public void testShouldAnswerNotModifiedSinceLastModified() throws Exception {
+        StatusSnapshot.Body body = new StatusSnapshot(new ArrayList(), null).render("cctray", renderer("<a/>"));
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/dashboard/cctray.xml");
+        request.addHeader("If-Modified-Since", new Date(body.getLastModified()));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        body.writeTo(request, response, "text/xml", true);
+
+        assertEquals(304, response.getStatus());
+    }
+
+    public void testShouldServeContentWhenETagDoesNotMatch() throws Exception {
+        StatusSnapshot.Body body = new StatusSnapshot(new ArrayList(), null).render("cctray", renderer("<a/>"));
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/dashboard/cctray.xml");
+        request.addHeader("If-None-Match", "\"stale\"");
+        request.addHeader("If-Modified-Since", new Date(body.getLastModified()));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        body.writeTo(request, response, "text/xml", true);
+
+        assertEquals(200, response.getStatus());
+        assertEquals("<a/>", response.getContentAsString());
+        assertEquals(body.getETag(), response.getHeader("ETag"));
+        assertEquals(4, response.getContentLength());
+    }
+
+    public void testShouldNotGzipWhenDisabled() throws Exception {
+        StatusSnapshot.Body body = new StatusSnapshot(new ArrayList(), null).render("cctray", renderer("<a/>"));
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/dashboard/cctray.xml");
+        request.addHeader("Accept-Encoding", "gzip");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+
+        body.writeTo(request, response, "text/xml", false);
+
+        assertNull(response.getHeader("Content-Encoding"));
+        assertEquals("<a/>", response.getContentAsString());
+    }
+}
@@ -0,0 +1,137 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.service;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import net.sourceforge.cruisecontrol.dashboard.repository.BuildHistoryIndex;
+import net.sourceforge.cruisecontrol.dashboard.repository.TestHistoryStore;
+import net.sourceforge.cruisecontrol.dashboard.testhelpers.DataUtils;
+import net.sourceforge.cruisecontrol.dashboard.testhelpers.FilesystemUtils;
+
+import org.apache.commons.io.FileUtils;
+import org.jmock.Mock;
+import org.jmock.cglib.MockObjectTestCase;
+
+public class TestHistoryServiceTest extends MockObjectTestCase {
+
+    private static final String TEST = "net.sourceforge.cruisecontrol.sampleproject.connectfour.PlayingStandTest"
+            + ".testFourConnected";
+
+    private static final long AN_HOUR_AGO = System.currentTimeMillis() - 60 * 60 * 1000;
+
+    private File projectDirectory;
+
+    private File storeDirectory;
+
+    private TestHistoryService service;
+
+    private int executed;
+
+    protected void setUp() throws Exception {
+        projectDirectory = FilesystemUtils.createDirectory("testHistoryServiceProject");
+        storeDirectory = FilesystemUtils.createDirectory("testHistoryServiceStore");
+        System.setProperty(BuildHistoryIndex.INDEX_DIR_PROPERTY, storeDirectory.getAbsolutePath());
+        copyLog(DataUtils.getPassingBuildLbuildAsFile());
+        copyLog(DataUtils.getFailedBuildLbuildAsFile());
+
+        Mock configurationMock = mock(ConfigurationService.class, new Class[]{EnvironmentService.class,
+                DashboardXmlConfigService.class, BuildLoopQueryService.class}, new Object[]{null, null, null});
+        configurationMock.expects(atLeastOnce()).method("getLogRoot").will(returnValue(projectDirectory));
+        ConfigurationService configuration = (ConfigurationService) configurationMock.proxy();
+        Executor inline = new Executor() {
+            public void execute(Runnable command) {
+                executed++;
+                command.run();
+            }
+        };
+        service = new TestHistoryService(configuration,
+                new HistoricalBuildSummariesService(configuration, new BuildSummaryService()), inline, 10);
+    }
+
+    private void copyLog(File log) throws Exception {
+        File copy = new File(projectDirectory, log.getName());
+        FileUtils.copyFile(log, copy);
+        copy.setLastModified(AN_HOUR_AGO);
+    }
+
+    protected void tearDown() throws Exception {
+        System.getProperties().remove(BuildHistoryIndex.INDEX_DIR_PROPERTY);
+        FileUtils.deleteDirectory(projectDirectory);
+        FileUtils.deleteDirectory(storeDirectory);
+    }
+
+    public void testShouldReadLogsNotInStore() throws Exception {
+        TestHistoryStore store = service.getStore("project1");
+        assertEquals(2, store.getBuildCount());
+        assertEquals(0, service.getPendingCount("project1"));
+
+        List runs = store.getHistory(TEST, 10);
+        assertEquals(2, runs.size());
+        TestHistoryStore.TestRun latest = (TestHistoryStore.TestRun) runs.get(0);
+        assertTrue(latest.hasFailed());
+        assertEquals(16, latest.getDurationMillis());
+        assertEquals(latest.getTimestamp(), store.getFailingSince(TEST).getTimestamp());
+    }
+
+    public void testShouldOnlyReadNewLogsAgain() throws Exception {
+        service.getStore("project1");
+        service.getStore("project1");
+        assertEquals(1, executed);
+
+        File log = DataUtils.getPassingBuildLbuildAsFile();
+        File newer = new File(projectDirectory, "log20051209122105Lbuild.490.xml");
+        FileUtils.copyFile(log, newer);
+        newer.setLastModified(AN_HOUR_AGO);
+        projectDirectory.setLastModified(AN_HOUR_AGO);
+
+        TestHistoryStore store = service.getStore("project1");
+        assertEquals(2, executed);
+        assertEquals(3, store.getBuildCount());
+        assertNull(store.getFailingSince(TEST));
+    }
+
+    public void testShouldLeaveLogsStillBeingWrittenForLater() throws Exception {
+        new File(projectDirectory, DataUtils.getFailedBuildLbuildAsFile().getName())
+                .setLastModified(System.currentTimeMillis());
+        TestHistoryStore store = service.getStore("project1");
+        assertEquals(1, store.getBuildCount());
+        assertEquals(1, service.getPendingCount("project1"));
+    }
+}
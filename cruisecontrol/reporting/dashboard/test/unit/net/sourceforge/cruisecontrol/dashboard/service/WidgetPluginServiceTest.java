@@ -37,16 +37,21 @@
 package net.sourceforge.cruisecontrol.dashboard.service;
 
 import net.sourceforge.cruisecontrol.dashboard.BuildDetail;
+import net.sourceforge.cruisecontrol.dashboard.LogFile;
 import net.sourceforge.cruisecontrol.dashboard.testhelpers.DataUtils;
+import net.sourceforge.cruisecontrol.dashboard.widgets.Widget;
 import org.apache.commons.lang.StringUtils;
 import org.jmock.Mock;
 import org.jmock.cglib.MockObjectTestCase;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WidgetPluginServiceTest extends MockObjectTestCase {
 
@@ -56,7 +61,13 @@ public class WidgetPluginServiceTest extends MockObjectTestCase {
 
     private Mock dashboardConfigMock;
 
+    private static final String COUNTING = CountingWidget.class.getName();
+
+    private static final String OTHER = OtherWidget.class.getName();
+
     protected void setUp() throws Exception {
+        CountingWidget.INSTANCES.set(0);
+        CountingWidget.CALLS.set(0);
         dashboardConfigMock =
                 mock(
                         DashboardXmlConfigService.class, new Class[]{DashboardConfigFileFactory.class},
@@ -107,4 +118,93 @@ public class WidgetPluginServiceTest extends MockObjectTestCase {
             fail();
         }
     }
+
+    public void testShouldCreateEachWidgetOnlyOnce() throws Exception {
+        dashboardConfigMock.expects(atLeastOnce()).method("getSubTabClassNames")
+                .will(returnValue(Arrays.asList(new String[]{COUNTING})));
+        service.mergePluginOutput(buildDetail, new HashMap());
+        service.mergePluginOutput(new BuildDetail(DataUtils.getPassingBuildLbuildAsFile()), new HashMap());
+        assertEquals(1, CountingWidget.INSTANCES.get());
+        assertSame(service.getWidget(COUNTING), service.getWidget(" " + COUNTING + " "));
+    }
+
+    public void testShouldReuseOutputUntilLogFileChanges() throws Exception {
+        File dir = DataUtils.createTempDirectory("widgetcache");
+        LogFile logFile = new LogFile(dir, "log20051209122104.xml");
+        DataUtils.writeContentToFile(logFile, "<cruisecontrol/>");
+        logFile.deleteOnExit();
+        logFile.setLastModified(1000000000L);
+        dashboardConfigMock.expects(atLeastOnce()).method("getSubTabClassNames")
+                .will(returnValue(Arrays.asList(new String[]{COUNTING})));
+
+        service.mergePluginOutput(new BuildDetail(logFile), new HashMap());
+        BuildDetail again = new BuildDetail(logFile);
+        service.mergePluginOutput(again, new HashMap());
+        assertEquals(1, CountingWidget.CALLS.get());
+        assertEquals("output 1", again.getPluginOutputs().get("Counting"));
+
+        logFile.setLastModified(2000000000L);
+        BuildDetail changed = new BuildDetail(logFile);
+        service.mergePluginOutput(changed, new HashMap());
+        assertEquals(2, CountingWidget.CALLS.get());
+        assertEquals("output 2", changed.getPluginOutputs().get("Counting"));
+    }
+
+    public void testShouldNotCacheWhenCacheSizeIsZero() throws Exception {
+        service = new WidgetPluginService((DashboardXmlConfigService) dashboardConfigMock.proxy(), 0, 1, 10);
+        dashboardConfigMock.expects(atLeastOnce()).method("getSubTabClassNames")
+                .will(returnValue(Arrays.asList(new String[]{COUNTING})));
+        service.mergePluginOutput(buildDetail, new HashMap());
+        service.mergePluginOutput(buildDetail, new HashMap());
+        assertEquals(2, CountingWidget.CALLS.get());
+        assertEquals(0, service.getCachedOutputCount());
+    }
+
+    public void testShouldKeepConfiguredOrderWhenRenderingConcurrently() throws Exception {
+        service = new WidgetPluginService((DashboardXmlConfigService) dashboardConfigMock.proxy(), 10, 4, 10);
+        dashboardConfigMock.expects(once()).method("getSubTabClassNames")
+                .will(returnValue(Arrays.asList(new String[]{OTHER, "not.exist.class", COUNTING,
+                        "net.sourceforge.cruisecontrol.dashboard.widgets.MergedCheckStyleWidget"})));
+        service.mergePluginOutput(buildDetail, new HashMap());
+
+        Iterator names = buildDetail.getPluginOutputs().keySet().iterator();
+        assertEquals("Other", names.next());
+        assertEquals("Counting", names.next());
+        assertEquals("Merged Check Style", names.next());
+        assertFalse(names.hasNext());
+        assertEquals("output 1", buildDetail.getPluginOutputs().get("Counting"));
+    }
+
+    public static class CountingWidget implements Widget {
+        static final AtomicInteger INSTANCES = new AtomicInteger();
+        static final AtomicInteger CALLS = new AtomicInteger();
+
+        public CountingWidget() {
+            INSTANCES.incrementAndGet();
+        }
+
+        public String getDisplayName() {
+            return "Counting";
+        }
+
+        public Object getOutput(Map parameters) {
+            return "output " + CALLS.incrementAndGet();
+        }
+    }
+
+    public static class OtherWidget implements Widget {
+        public String getDisplayName() {
+            return "Other";
+        }
+
+        public Object getOutput(Map parameters) {
+            try {
+                // finishes last, must still come first
+                Thread.sleep(200);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return "other";
+        }
+    }
 }
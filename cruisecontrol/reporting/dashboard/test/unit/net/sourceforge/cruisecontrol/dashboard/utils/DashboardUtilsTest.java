@@ -12,6 +12,11 @@ public class DashboardUtilsTest extends TestCase {
                 .decode("project%20name%20with%20space"));
     }
 
+    public void testShouldEncodeQueryParameter() {
+        assertEquals("Suite.test%5Ba+%26+b%23%2B1%5D", DashboardUtils.encode("Suite.test[a & b#+1]"));
+        assertEquals("Suite.test[a & b#+1]", DashboardUtils.decode(DashboardUtils.encode("Suite.test[a & b#+1]")));
+    }
+
     public void testShouldSplitURLToArray() {
         String[] params =
                 DashboardUtils.urlToParams("/detail/project%20name%20with%20space/whatever");
@@ -1,12 +1,19 @@
 package net.sourceforge.cruisecontrol.dashboard.web;
 
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.zip.GZIPOutputStream;
+
 import net.sourceforge.cruisecontrol.BuildLoopInformation;
 import net.sourceforge.cruisecontrol.dashboard.repository.BuildInformationRepository;
+import net.sourceforge.cruisecontrol.report.BuildLoopStatusProtocol;
 import net.sourceforge.cruisecontrol.util.BuildInformationHelper;
 
 import org.jmock.Mock;
+import org.jmock.core.Constraint;
 import org.jmock.cglib.MockObjectTestCase;
 import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
 
 public class BuildLoopControllerTest extends MockObjectTestCase {
     public void testBuildLoopShouldPassBuildInfomationProviderRepositoryImpl() throws Exception {
@@ -24,4 +31,67 @@ public class BuildLoopControllerTest extends MockObjectTestCase {
         repositoryMock.expects(once()).method("saveOrUpdate").with(eq(buildLoopInformation));
         buildLoopController.handleRequest(req, null);
     }
+
+    public void testShouldAcknowledgeVersionedSnapshot() throws Exception {
+        MockHttpServletRequest req = new MockHttpServletRequest("POST", "/buildloop/listener");
+        req.setContent("<xml/>".getBytes());
+        req.addHeader(BuildLoopStatusProtocol.HEADER_VERSION, "7");
+        MockHttpServletResponse resp = new MockHttpServletResponse();
+        Mock repositoryMock = mock(BuildInformationRepository.class);
+        Mock helperMock = mock(BuildInformationHelper.class);
+        BuildLoopInformation buildLoopInformation = new BuildLoopInformation(null, null, null, null);
+        helperMock.expects(once()).method("toObject").will(returnValue(buildLoopInformation));
+        repositoryMock.expects(once()).method("saveSnapshot").with(eq(buildLoopInformation), eq(7L));
+
+        new BuildLoopController((BuildInformationHelper) helperMock.proxy(),
+                (BuildInformationRepository) repositoryMock.proxy()).handleRequest(req, resp);
+
+        assertEquals("7", resp.getHeader(BuildLoopStatusProtocol.HEADER_ACK));
+    }
+
+    public void testShouldApplyGzippedDelta() throws Exception {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        GZIPOutputStream gzip = new GZIPOutputStream(body);
+        gzip.write("<delta/>".getBytes("UTF-8"));
+        gzip.close();
+        MockHttpServletRequest req = new MockHttpServletRequest("POST", "/buildloop/listener");
+        req.setContent(body.toByteArray());
+        req.addHeader("Content-Encoding", "gzip");
+        req.addHeader(BuildLoopStatusProtocol.HEADER_VERSION, "8");
+        req.addHeader(BuildLoopStatusProtocol.HEADER_BASE_VERSION, "7");
+        req.addHeader(BuildLoopStatusProtocol.HEADER_REMOVED, "old%2Cproject,other");
+        MockHttpServletResponse resp = new MockHttpServletResponse();
+        Mock repositoryMock = mock(BuildInformationRepository.class);
+        Mock helperMock = mock(BuildInformationHelper.class);
+        BuildLoopInformation delta = new BuildLoopInformation(null, null, null, null);
+        helperMock.expects(once()).method("toObject").with(eq("<delta/>")).will(returnValue(delta));
+        repositoryMock.expects(once()).method("applyDelta")
+                .with(new Constraint[] {eq(delta), eq(7L), eq(8L),
+                    eq(Arrays.asList(new String[] {"old,project", "other"}))})
+                .will(returnValue(true));
+
+        new BuildLoopController((BuildInformationHelper) helperMock.proxy(),
+                (BuildInformationRepository) repositoryMock.proxy()).handleRequest(req, resp);
+
+        assertEquals("8", resp.getHeader(BuildLoopStatusProtocol.HEADER_ACK));
+    }
+
+    public void testShouldAskForSnapshotWhenDeltaCannotBeApplied() throws Exception {
+        MockHttpServletRequest req = new MockHttpServletRequest("POST", "/buildloop/listener");
+        req.setContent("<delta/>".getBytes());
+        req.addHeader(BuildLoopStatusProtocol.HEADER_VERSION, "8");
+        req.addHeader(BuildLoopStatusProtocol.HEADER_BASE_VERSION, "7");
+        MockHttpServletResponse resp = new MockHttpServletResponse();
+        Mock repositoryMock = mock(BuildInformationRepository.class);
+        Mock helperMock = mock(BuildInformationHelper.class);
+        helperMock.expects(once()).method("toObject")
+                .will(returnValue(new BuildLoopInformation(null, null, null, null)));
+        repositoryMock.expects(once()).method("applyDelta").will(returnValue(false));
+
+        new BuildLoopController((BuildInformationHelper) helperMock.proxy(),
+                (BuildInformationRepository) repositoryMock.proxy()).handleRequest(req, resp);
+
+        assertEquals(String.valueOf(BuildLoopStatusProtocol.NO_VERSION),
+                resp.getHeader(BuildLoopStatusProtocol.HEADER_ACK));
+    }
 }
@@ -0,0 +1,100 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.web;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.sourceforge.cruisecontrol.dashboard.service.BuildStatisticsService;
+import net.sourceforge.cruisecontrol.dashboard.service.ConfigurationService;
+import net.sourceforge.cruisecontrol.dashboard.service.HistoricalBuildSummariesService;
+import net.sourceforge.cruisecontrol.dashboard.web.view.JsonView;
+
+import org.jmock.Mock;
+import org.jmock.cglib.MockObjectTestCase;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.ModelAndView;
+
+public class BuildStatisticsControllerTest extends MockObjectTestCase {
+
+    private MockHttpServletRequest request;
+
+    private MockHttpServletResponse response;
+
+    private BuildStatisticsController controller;
+
+    protected void setUp() throws Exception {
+        request = new MockHttpServletRequest();
+        response = new MockHttpServletResponse();
+        Map project = new HashMap();
+        project.put("passed", new Integer(3));
+        Map projects = new HashMap();
+        projects.put("project1", project);
+        Map statistics = new HashMap();
+        statistics.put("all", new HashMap());
+        statistics.put("projects", projects);
+        Mock statisticsServiceMock = mock(BuildStatisticsService.class, new Class[] {ConfigurationService.class,
+                HistoricalBuildSummariesService.class}, new Object[] {null, null});
+        statisticsServiceMock.expects(once()).method("getStatistics").will(returnValue(statistics));
+        controller = new BuildStatisticsController((BuildStatisticsService) statisticsServiceMock.proxy());
+    }
+
+    public void testShouldRenderStatisticsOfAllProjects() throws Exception {
+        ModelAndView mov = controller.handleRequest(request, response);
+        mov.getView().render(mov.getModelMap(), request, response);
+        String json = response.getContentAsString();
+        assertTrue(json, json.indexOf("\"projects\"") >= 0);
+        assertTrue(json, json.indexOf("\"project1\" : { \"passed\" : \"3\" }") >= 0);
+        assertEquals(GetProjectBuildStatusController.CACHE_CONTROL, response.getHeader("Cache-Control"));
+    }
+
+    public void testShouldRenderStatisticsOfOneProject() throws Exception {
+        request.addParameter("project", "project1");
+        ModelAndView mov = controller.handleRequest(request, response);
+        assertTrue(mov.getView() instanceof JsonView);
+        mov.getView().render(mov.getModelMap(), request, response);
+        assertEquals("{ \"passed\" : \"3\" }", response.getContentAsString());
+    }
+
+    public void testShouldReturnNotFoundForUnknownProject() throws Exception {
+        request.addParameter("project", "unknown");
+        ModelAndView mov = controller.handleRequest(request, response);
+        assertEquals(404, response.getStatus());
+        assertEquals("Unknown project unknown", mov.getModel().get("error"));
+    }
+}
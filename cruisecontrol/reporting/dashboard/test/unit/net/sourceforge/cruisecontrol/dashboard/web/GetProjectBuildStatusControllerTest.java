@@ -48,6 +48,7 @@ import net.sourceforge.cruisecontrol.dashboard.service.BuildSummaryUIService;
 import net.sourceforge.cruisecontrol.dashboard.service.DashboardXmlConfigService;
 import net.sourceforge.cruisecontrol.dashboard.service.HistoricalBuildSummariesService;
 import net.sourceforge.cruisecontrol.dashboard.service.LatestBuildSummariesService;
+import net.sourceforge.cruisecontrol.dashboard.service.StatusSnapshot;
 import net.sourceforge.cruisecontrol.dashboard.testhelpers.DataUtils;
 import net.sourceforge.cruisecontrol.dashboard.web.command.BuildCommand;
 import net.sourceforge.cruisecontrol.dashboard.web.view.JsonView;
@@ -81,8 +82,8 @@ public class GetProjectBuildStatusControllerTest extends MockObjectTestCase {
     }
 
     private void setUpControllerWithBuildSummaryService() {
-        latestBuildSummariesServiceMock.expects(atLeastOnce()).method("getLatestOfProjects").will(
-                returnValue(buidSummaries()));
+        latestBuildSummariesServiceMock.expects(atLeastOnce()).method("getSnapshot").will(
+                returnValue(new StatusSnapshot(buidSummaries(), null)));
     }
 
     private void createMocks() {
@@ -177,7 +178,7 @@ public class GetProjectBuildStatusControllerTest extends MockObjectTestCase {
                         LatestBuildSummariesService.class, new Class[]{HistoricalBuildSummariesService.class,
                         BuildLoopQueryService.class}, new Object[]{null, null});
 
-        failingServiceMock.expects(once()).method("getLatestOfProjects").will(
+        failingServiceMock.expects(once()).method("getSnapshot").will(
                 throwException(new RuntimeException("xyz")));
         controller =
                 new GetProjectBuildStatusController(
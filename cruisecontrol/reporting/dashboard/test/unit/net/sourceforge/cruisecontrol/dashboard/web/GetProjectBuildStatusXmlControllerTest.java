@@ -46,7 +46,9 @@ import net.sourceforge.cruisecontrol.dashboard.service.DashboardXmlConfigService
 import net.sourceforge.cruisecontrol.dashboard.service.EnvironmentService;
 import net.sourceforge.cruisecontrol.dashboard.service.HistoricalBuildSummariesService;
 import net.sourceforge.cruisecontrol.dashboard.service.LatestBuildSummariesService;
+import net.sourceforge.cruisecontrol.dashboard.service.StatusSnapshot;
 import net.sourceforge.cruisecontrol.dashboard.testhelpers.DataUtils;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
 import org.jmock.Mock;
 import org.jmock.cglib.MockObjectTestCase;
@@ -54,10 +56,12 @@ import org.springframework.mock.web.MockHttpServletRequest;
 import org.springframework.mock.web.MockHttpServletResponse;
 import org.springframework.web.HttpRequestMethodNotSupportedException;
 
+import java.io.ByteArrayInputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
 
 
 public class GetProjectBuildStatusXmlControllerTest extends MockObjectTestCase {
@@ -116,8 +120,8 @@ public class GetProjectBuildStatusXmlControllerTest extends MockObjectTestCase {
 
     public void testShouldReturnAllFieldsInCCTrayFormat() throws Exception {
         buildSummaryUIService.expects(once()).method("toXml").will(returnValue(""));
-        mockLatestBuildSummariesService.expects(once()).method("getLatestOfProjects").withNoArguments().will(
-                returnValue(returnedValue()));
+        mockLatestBuildSummariesService.expects(once()).method("getSnapshot").withNoArguments().will(
+                returnValue(new StatusSnapshot(returnedValue(), null)));
         request.setRequestURI("/dashboard/cctray.xml");
         controller.handleRequest(request, response);
         String xml = response.getContentAsString();
@@ -128,8 +132,8 @@ public class GetProjectBuildStatusXmlControllerTest extends MockObjectTestCase {
 
     public void testShouldReturnAllFieldsInRssFormat() throws Exception {
         buildSummaryUIService.expects(once()).method("toXml").will(returnValue(""));
-        mockLatestBuildSummariesService.expects(once()).method("getLatestOfProjects").withNoArguments().will(
-                returnValue(returnedValue()));
+        mockLatestBuildSummariesService.expects(once()).method("getSnapshot").withNoArguments().will(
+                returnValue(new StatusSnapshot(returnedValue(), null)));
         request.setRequestURI("/dashboard/rss.xml");
         controller.handleRequest(request, response);
         String xml = response.getContentAsString();
@@ -146,9 +150,12 @@ public class GetProjectBuildStatusXmlControllerTest extends MockObjectTestCase {
     }
 
     public void testShouldReturnSpecificRssFormat() throws Exception {
-        mockLatestBuildSummariesService.expects(once()).method("getLatestProject").with(eq("project1")).will(
-                returnValue(oneBuild));
-        buildSummaryUIService.expects(once()).method("toXml").will(returnValue(""));
+        mockLatestBuildSummariesService.expects(once()).method("getSnapshot").will(
+                returnValue(new StatusSnapshot(returnedValue(), null)));
+        List onlyProject1 = new ArrayList();
+        onlyProject1.add(oneBuild);
+        buildSummaryUIService.expects(once()).method("toXml").with(eq(onlyProject1), ANYTHING, eq("rss"))
+                .will(returnValue(""));
         request.setRequestURI("/dashboard/rss.xml");
         request.addParameter("projectName", "project1");
         controller.handleRequest(request, response);
@@ -164,6 +171,50 @@ public class GetProjectBuildStatusXmlControllerTest extends MockObjectTestCase {
         assertTrue(StringUtils.contains(xml, "</rss>"));
     }
 
+    public void testShouldRenderFeedOncePerSnapshot() throws Exception {
+        StatusSnapshot snapshot = new StatusSnapshot(returnedValue(), null);
+        mockLatestBuildSummariesService.expects(exactly(2)).method("getSnapshot").will(returnValue(snapshot));
+        buildSummaryUIService.expects(once()).method("toXml").will(returnValue("<Project name=\"project1\"/>"));
+        request.setRequestURI("/dashboard/cctray.xml");
+        controller.handleRequest(request, response);
+
+        MockHttpServletResponse second = new MockHttpServletResponse();
+        controller.handleRequest(request, second);
+
+        assertEquals(response.getContentAsString(), second.getContentAsString());
+        assertEquals(response.getHeader("ETag"), second.getHeader("ETag"));
+    }
+
+    public void testShouldAnswerNotModifiedWhenClientHasCurrentFeed() throws Exception {
+        StatusSnapshot snapshot = new StatusSnapshot(returnedValue(), null);
+        mockLatestBuildSummariesService.expects(exactly(2)).method("getSnapshot").will(returnValue(snapshot));
+        buildSummaryUIService.expects(once()).method("toXml").will(returnValue(""));
+        request.setRequestURI("/dashboard/cctray.xml");
+        controller.handleRequest(request, response);
+
+        MockHttpServletRequest poll = new MockHttpServletRequest("GET", "/dashboard/cctray.xml");
+        poll.addHeader("If-None-Match", response.getHeader("ETag"));
+        MockHttpServletResponse notModified = new MockHttpServletResponse();
+        controller.handleRequest(poll, notModified);
+
+        assertEquals(304, notModified.getStatus());
+        assertEquals(0, notModified.getContentAsByteArray().length);
+    }
+
+    public void testShouldServeGzippedFeedToClientsAcceptingIt() throws Exception {
+        mockLatestBuildSummariesService.expects(once()).method("getSnapshot").will(
+                returnValue(new StatusSnapshot(returnedValue(), null)));
+        buildSummaryUIService.expects(once()).method("toXml").will(returnValue(""));
+        request.setRequestURI("/dashboard/rss.xml");
+        request.addHeader("Accept-Encoding", "gzip, deflate");
+        controller.handleRequest(request, response);
+
+        assertEquals("gzip", response.getHeader("Content-Encoding"));
+        String xml = IOUtils.toString(new GZIPInputStream(
+                new ByteArrayInputStream(response.getContentAsByteArray())), "UTF-8");
+        assertTrue(xml, StringUtils.contains(xml, "<rss version=\"2.0\">"));
+    }
+
     public void testPostMethodIsNotAllowed() throws Exception {
         request.setMethod("POST");
         try {
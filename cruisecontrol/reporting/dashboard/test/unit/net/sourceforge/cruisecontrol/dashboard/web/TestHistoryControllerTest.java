@@ -0,0 +1,113 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.dashboard.web;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+
+import net.sourceforge.cruisecontrol.dashboard.repository.TestHistoryStore;
+import net.sourceforge.cruisecontrol.dashboard.service.ConfigurationService;
+import net.sourceforge.cruisecontrol.dashboard.service.HistoricalBuildSummariesService;
+import net.sourceforge.cruisecontrol.dashboard.service.TestHistoryService;
+
+import org.jmock.Mock;
+import org.jmock.cglib.MockObjectTestCase;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.ModelAndView;
+
+public class TestHistoryControllerTest extends MockObjectTestCase {
+    private TestHistoryController controller;
+
+    private MockHttpServletRequest request;
+
+    private MockHttpServletResponse response;
+
+    private Mock mockTestHistoryService;
+
+    protected void setUp() throws Exception {
+        request = new MockHttpServletRequest("GET", "/tests/summary/project1");
+        response = new MockHttpServletResponse();
+        TestHistoryStore store = new TestHistoryStore(new File("project1"), null, 10);
+        List tests = Arrays.asList(new String[] {"FooTest.testA", "FooTest.testB"});
+        BitSet failed = new BitSet();
+        store.add("log20080101000001.xml", 20080101000001L, tests, new int[] {10, 2000}, new BitSet());
+        failed.set(0);
+        store.add("log20080101000002.xml", 20080101000002L, tests, new int[] {10, 3000}, failed);
+
+        mockTestHistoryService = mock(TestHistoryService.class, new Class[] {ConfigurationService.class,
+                HistoricalBuildSummariesService.class}, new Object[] {null, null});
+        mockTestHistoryService.expects(atLeastOnce()).method("getStore").with(eq("project1"))
+                .will(returnValue(store));
+        mockTestHistoryService.expects(atLeastOnce()).method("getPendingCount").with(eq("project1"))
+                .will(returnValue(3));
+        controller = new TestHistoryController((TestHistoryService) mockTestHistoryService.proxy());
+    }
+
+    public void testShouldListFlakyAndSlowestTests() throws Exception {
+        ModelAndView mv = controller.summary(request, response);
+        assertEquals("page_test_history", mv.getViewName());
+        Map model = mv.getModel();
+        assertEquals("project1", model.get("projectName"));
+        assertEquals(new Integer(2), model.get("builds"));
+        assertEquals(new Integer(3), model.get("pending"));
+        assertEquals(1, ((List) model.get("flakyTests")).size());
+        TestHistoryStore.TestStats slowest = (TestHistoryStore.TestStats) ((List) model.get("slowestTests")).get(0);
+        assertEquals("FooTest.testB", slowest.getName());
+    }
+
+    public void testShouldLimitSummaryToRequestedBuilds() throws Exception {
+        request.addParameter("builds", "1");
+        ModelAndView mv = controller.summary(request, response);
+        assertEquals(new Integer(1), mv.getModel().get("builds"));
+        assertEquals(0, ((List) mv.getModel().get("flakyTests")).size());
+    }
+
+    public void testShouldShowRunsOfOneTest() throws Exception {
+        request.setRequestURI("/tests/history/project1");
+        request.addParameter("test", "FooTest.testA");
+        ModelAndView mv = controller.history(request, response);
+        assertEquals("page_test_runs", mv.getViewName());
+        Map model = mv.getModel();
+        assertEquals("FooTest.testA", model.get("test"));
+        assertEquals(2, ((List) model.get("runs")).size());
+        assertEquals(20080101000002L, ((TestHistoryStore.TestRun) model.get("failingSince")).getTimestamp());
+    }
+}
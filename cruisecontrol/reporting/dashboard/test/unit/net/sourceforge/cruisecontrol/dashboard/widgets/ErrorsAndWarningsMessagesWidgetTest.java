@@ -1,13 +1,7 @@
 package net.sourceforge.cruisecontrol.dashboard.widgets;
 
 import java.util.HashMap;
-import java.util.Arrays;
-import java.util.List;
 
-import net.sourceforge.cruisecontrol.dashboard.saxhandler.BuildMessageExtractor;
-import net.sourceforge.cruisecontrol.dashboard.saxhandler.CompositeExtractor;
-import net.sourceforge.cruisecontrol.dashboard.saxhandler.SAXBasedExtractor;
-import net.sourceforge.cruisecontrol.dashboard.saxhandler.StackTraceExtractor;
 import net.sourceforge.cruisecontrol.dashboard.testhelpers.DataUtils;
 
 import org.jmock.cglib.MockObjectTestCase;
@@ -35,12 +29,15 @@ public class ErrorsAndWarningsMessagesWidgetTest extends MockObjectTestCase {
         assertTrue(output.indexOf("Cannot find something") != -1);
     }
 
-    private ErrorsAndWarningsMessagesWidget createWidget() {
-        return new ErrorsAndWarningsMessagesWidget(new CompositeExtractor(handlers()));
+    public void testShouldNotCarryMessagesOverBetweenCalls() throws Exception {
+        ErrorsAndWarningsMessagesWidget widget = createWidget();
+        HashMap params = new HashMap();
+        params.put(Widget.PARAM_BUILD_LOG_FILE, DataUtils.getFailedBuildLbuildAsFile());
+        String first = (String) widget.getOutput(params);
+        assertEquals(first, widget.getOutput(params));
     }
 
-    private List handlers() {
-        return Arrays
-                .asList(new SAXBasedExtractor[] { new BuildMessageExtractor(), new StackTraceExtractor() });
+    private ErrorsAndWarningsMessagesWidget createWidget() {
+        return new ErrorsAndWarningsMessagesWidget();
     }
 }
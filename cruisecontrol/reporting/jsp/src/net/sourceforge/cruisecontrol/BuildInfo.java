@@ -38,16 +38,18 @@ package net.sourceforge.cruisecontrol;
 
 import java.io.File;
 import java.io.Serializable;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import net.sourceforge.cruisecontrol.taglib.CruiseControlLogFileFilter;
 import net.sourceforge.cruisecontrol.taglib.CruiseControlSuccessfulLogFileFilter;
+import net.sourceforge.cruisecontrol.util.LogDirectoryLayout;
 
 /**
  * Contains various information about a specific build.  The
@@ -63,6 +65,22 @@ public class BuildInfo implements Comparable<BuildInfo>, Serializable {
     public static final String LOG_PREFIX = "log";
     public static final char LABEL_SEPARATOR = 'L';
     public static final String LOG_DATE_PATTERN = "yyyyMMddHHmmss";
+
+    /**
+     * Directory modification times this close to the time a directory was loaded are not trusted, as files
+     * written in the same clock tick would not change them.
+     */
+    private static final long RACY_INTERVAL = 2000;
+    private static final ConcurrentMap<String, CachedSummary> SUMMARIES
+            = new ConcurrentHashMap<String, CachedSummary>();
+    private static final ThreadLocal<Calendar> CALENDAR = new ThreadLocal<Calendar>() {
+        protected Calendar initialValue() {
+            return Calendar.getInstance();
+        }
+    };
+    private static final CruiseControlSuccessfulLogFileFilter SUCCESSFUL_FILTER
+            = new CruiseControlSuccessfulLogFileFilter();
+
     private final Date buildDate;
     private final String dateStamp;
     private final String label;
@@ -84,7 +102,7 @@ public class BuildInfo implements Comparable<BuildInfo>, Serializable {
 
     private String deriveLabel() {
         String infoText = logFile.getName();
-        boolean buildSuccessful = new CruiseControlSuccessfulLogFileFilter().isSuccessful(infoText);
+        boolean buildSuccessful = SUCCESSFUL_FILTER.isSuccessful(infoText);
         String theLabel;
         if (buildSuccessful) {
             int labelStartIndex = (LOG_PREFIX + LOG_DATE_PATTERN + LABEL_SEPARATOR).length();
@@ -104,17 +122,29 @@ public class BuildInfo implements Comparable<BuildInfo>, Serializable {
         }
     }
 
+    /**
+     * Reads the digits of the date stamp directly instead of going through a new SimpleDateFormat for each
+     * log, as this is done for every log of a project when its directory is loaded.
+     */
     private Date deriveDate() throws ParseException {
-        String infoText = logFile.getName();
-        Date theDate;
-        final DateFormat logDateFormat = new SimpleDateFormat(LOG_DATE_PATTERN);
-        try {
-            theDate = logDateFormat.parse(dateStamp);
-        } catch (ParseException e) {
-            throw new ParseException("Invalid format: " + infoText + ". Format must be logyyyyMMddHHmmSS.xml or "
-                                     + "logyyyyMMddHHmmSSLlabel.xml", e.getErrorOffset());
+        for (int i = 0; i < dateStamp.length(); i++) {
+            if (!Character.isDigit(dateStamp.charAt(i))) {
+                throw new ParseException("Invalid format: " + logFile.getName()
+                        + ". Format must be logyyyyMMddHHmmSS.xml or logyyyyMMddHHmmSSLlabel.xml", i);
+            }
+        }
+        final Calendar calendar = CALENDAR.get();
+        calendar.clear();
+        calendar.set(digits(0, 4), digits(4, 6) - 1, digits(6, 8), digits(8, 10), digits(10, 12), digits(12, 14));
+        return calendar.getTime();
+    }
+
+    private int digits(final int start, final int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + Character.digit(dateStamp.charAt(i), 10);
         }
-        return theDate;
+        return value;
     }
 
     public Date getBuildDate() {
@@ -148,8 +178,57 @@ public class BuildInfo implements Comparable<BuildInfo>, Serializable {
         return logFile;
     }
 
+    /**
+     * Loads the builds of a log directory. The summary is kept per directory and only loaded again once the
+     * log directory or one of its shard directories has been modified, so the tags of a page can all ask for it.
+     * @param logDir the log directory of a project
+     * @return the builds in the directory, oldest first.
+     * @throws CruiseControlWebAppException if the directory can not be listed or holds no logs
+     */
     public static BuildInfoSummary loadFromDir(final File logDir) throws CruiseControlWebAppException {
-        final File[] logFileNames = logDir.listFiles(new CruiseControlLogFileFilter());
+        final String key = logDir.getAbsolutePath();
+        final CachedSummary cached = SUMMARIES.get(key);
+        if (cached != null && cached.isCurrent()) {
+            return cached.summary;
+        }
+        final List<File> dirs = listDirectories(logDir);
+        final long loaded = System.currentTimeMillis();
+        final long[] stamps = new long[dirs.size()];
+        for (int i = 0; i < stamps.length; i++) {
+            final long modified = dirs.get(i).lastModified();
+            stamps[i] = Math.abs(loaded - modified) < RACY_INTERVAL ? -1 : modified;
+        }
+        final BuildInfoSummary summary = load(logDir);
+        SUMMARIES.put(key, new CachedSummary(summary, dirs, stamps));
+        return summary;
+    }
+
+    /**
+     * @return the log directory followed by its year and month directories.
+     */
+    private static List<File> listDirectories(final File logDir) {
+        final List<File> dirs = new ArrayList<File>();
+        dirs.add(logDir);
+        final String[] years = logDir.list();
+        if (years != null) {
+            for (final String year : years) {
+                final File yearDir = new File(logDir, year);
+                final String[] months = LogDirectoryLayout.isYearDirectoryName(year) ? yearDir.list() : null;
+                if (months != null) {
+                    dirs.add(yearDir);
+                    for (final String month : months) {
+                        if (LogDirectoryLayout.isMonthDirectoryName(month)) {
+                            dirs.add(new File(yearDir, month));
+                        }
+                    }
+                }
+            }
+        }
+        return dirs;
+    }
+
+    private static BuildInfoSummary load(final File logDir) throws CruiseControlWebAppException {
+        final File[] logFileNames = LogDirectoryLayout.listLogFiles(logDir, new CruiseControlLogFileFilter());
         if (logFileNames == null) {
             throw new CruiseControlWebAppException("Could not access the directory " + logDir.getAbsolutePath());
         } else if (logFileNames.length == 0) {
@@ -177,4 +256,30 @@ public class BuildInfo implements Comparable<BuildInfo>, Serializable {
     public int compareTo(final BuildInfo other) {
         return this.buildDate.compareTo(other.buildDate);
     }
+
+    /**
+     * A loaded summary with the modification times of the directories it was loaded from. Adding or removing a
+     * log changes the time of its directory, a new shard directory that of its parent.
+     */
+    private static final class CachedSummary {
+        private final BuildInfoSummary summary;
+        private final List<File> dirs;
+        private final long[] stamps;
+
+        private CachedSummary(final BuildInfoSummary summary, final List<File> dirs, final long[] stamps) {
+            this.summary = summary;
+            this.dirs = dirs;
+            this.stamps = stamps;
+        }
+
+        private boolean isCurrent() {
+            for (int i = 0; i < stamps.length; i++) {
+                final long modified = dirs.get(i).lastModified();
+                if (stamps[i] == -1 || modified == 0 || modified != stamps[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
 }
@@ -37,6 +37,7 @@
 package net.sourceforge.cruisecontrol;
 
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -49,6 +50,9 @@ public final class BuildInfoSummary implements Serializable {
     private final int numBrokenBuilds;
     private final int numSuccessfulBuilds;
 
+    /**
+     * @param buildInfoList the builds, sorted from the oldest to the newest.
+     */
     public BuildInfoSummary(final List<BuildInfo> buildInfoList) {
         this.buildInfoList = Collections.unmodifiableList(buildInfoList);
         int brokenBuildsCounter = 0;
@@ -93,6 +97,23 @@ public final class BuildInfoSummary implements Serializable {
         return buildInfoList.size();
     }
 
+    /**
+     * Pages through the builds from the newest to the oldest without copying the whole list.
+     * @param offset number of newer builds to skip, 0 starts with the latest build
+     * @param count the maximal number of builds to return
+     * @return the builds of the page, newest first.
+     */
+    public List<BuildInfo> getLatest(final int offset, final int count) {
+        final int size = buildInfoList.size();
+        final int first = Math.max(0, offset);
+        final int end = (int) Math.min(size, (long) first + Math.max(0, count));
+        final List<BuildInfo> page = new ArrayList<BuildInfo>(Math.max(0, end - first));
+        for (int i = first; i < end; i++) {
+            page.add(buildInfoList.get(size - 1 - i));
+        }
+        return page;
+    }
+
 
 
     public BuildInfo[] asArray() {
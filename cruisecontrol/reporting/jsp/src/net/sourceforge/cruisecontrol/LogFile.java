@@ -38,6 +38,7 @@ package net.sourceforge.cruisecontrol;
 
 import net.sourceforge.cruisecontrol.taglib.CruiseControlLogFileFilter;
 import net.sourceforge.cruisecontrol.taglib.CruiseControlSuccessfulLogFileFilter;
+import net.sourceforge.cruisecontrol.util.LogDirectoryLayout;
 
 import java.io.File;
 import java.io.FileInputStream;
@@ -46,8 +47,6 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
 import java.text.ParseException;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.zip.GZIPInputStream;
 import org.jdom.Document;
 import org.jdom.JDOMException;
@@ -74,13 +73,13 @@ public class LogFile implements Serializable {
 
     /**
      * Creates a new instance of LogFile
-     * @param logDir directory with the XML log file
+     * @param logDir directory with the XML log file, either directly or in a shard directory
      * @param logName name of the XML log file
      */
     public LogFile(File logDir, String logName) {
-        this.xmlFile = new File(logDir, logName + LOG_SUFFIX);
+        this.xmlFile = LogDirectoryLayout.locate(logDir, logName + LOG_SUFFIX);
         if (!xmlFile.exists()) {
-            xmlFile = new File(logDir, logName + LOG_COMPRESSED_SUFFIX);
+            xmlFile = LogDirectoryLayout.locate(logDir, logName + LOG_COMPRESSED_SUFFIX);
         }
     }
 
@@ -100,12 +99,8 @@ public class LogFile implements Serializable {
      *          files in the given directory.
      */
     public static LogFile getLatestLogFile(File logDir) {
-        File[] logs = logDir.listFiles(LOG_FILTER);
-        if (logs != null && logs.length > 0) {
-            return new LogFile((File) Collections.max(Arrays.asList(logs)));
-        } else {
-            return null;
-        }
+        File latest = LogDirectoryLayout.findLatest(logDir, LOG_FILTER);
+        return latest != null ? new LogFile(latest) : null;
     }
 
     /**
@@ -117,12 +112,8 @@ public class LogFile implements Serializable {
      *          successful log files in the given directory
      */
     public static LogFile getLatestSuccessfulLogFile(File logDir) {
-        File[] logs = logDir.listFiles(SUCCESSFUL_FILTER);
-        if (logs != null && logs.length > 0) {
-            return new LogFile((File) Collections.max(Arrays.asList(logs)));
-        } else {
-            return null;
-        }
+        File latest = LogDirectoryLayout.findLatest(logDir, SUCCESSFUL_FILTER);
+        return latest != null ? new LogFile(latest) : null;
     }
 
     /**
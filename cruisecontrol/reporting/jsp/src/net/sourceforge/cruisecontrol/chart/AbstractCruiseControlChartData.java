@@ -38,10 +38,8 @@ package net.sourceforge.cruisecontrol.chart;
 
 import java.io.Serializable;
 import java.util.Date;
-import java.util.Iterator;
 import java.util.Map;
 
-import net.sourceforge.cruisecontrol.BuildInfo;
 import net.sourceforge.cruisecontrol.BuildInfoSummary;
 import net.sourceforge.cruisecontrol.taglib.BuildInfoTag;
 import de.laures.cewolf.DatasetProducer;
@@ -62,17 +60,8 @@ public abstract class AbstractCruiseControlChartData implements DatasetProducer,
             return false;
         }
         
-        Date newestBuild = null;
-        final Iterator<BuildInfo> iterator = summary.iterator();
-        while (iterator.hasNext()) {
-            final BuildInfo info = iterator.next();
-            final Date buildDate = info.getBuildDate();
-            if (newestBuild == null || buildDate.after(newestBuild)) {
-                newestBuild = buildDate;
-            }
-        }
-
-        // @todo May produce NullPointerException?
+        // the summary is sorted by build date, so the newest build is the last one
+        final Date newestBuild = summary.getLatest(0, 1).get(0).getBuildDate();
         return newestBuild.after(dateOfCachedData);
     }
 
@@ -0,0 +1,243 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.chart;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import net.sourceforge.cruisecontrol.BuildInfo;
+import net.sourceforge.cruisecontrol.BuildInfoSummary;
+import net.sourceforge.cruisecontrol.util.IO;
+import net.sourceforge.cruisecontrol.util.LogDirectoryLayout;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jdom.Document;
+import org.jdom.JDOMException;
+
+/**
+ * Keeps the values the {@link XPathData} expressions of a chart have for each log of a project, so every
+ * log is parsed once instead of on every rendering of the chart.
+ * <p>
+ * The values are kept in memory and in a file in the metrics directory of the project, one line per log
+ * with its name followed by the values. That directory is not the one of the cached transformations, which
+ * is pruned when it grows too large. The first line holds the expressions, the file is started over
+ * when they differ. Logs new to the summary are evaluated and appended.
+ * </p>
+ */
+final class MetricSeriesCache {
+    private static final Log LOG = LogFactory.getLog(MetricSeriesCache.class);
+
+    static final String CACHE_DIR = "_metrics";
+
+    private static final String ENCODING = "UTF-8";
+
+    private static final char SEPARATOR = '\t';
+
+    private static final ConcurrentMap<File, MetricSeriesCache> CACHES
+            = new ConcurrentHashMap<File, MetricSeriesCache>();
+
+    private final File file;
+
+    private final String header;
+
+    private final int size;
+
+    private final Map<String, double[]> values = new HashMap<String, double[]>();
+
+    private boolean loaded;
+
+    private MetricSeriesCache(final File file, final String header, final int size) {
+        this.file = file;
+        this.header = header;
+        this.size = size;
+    }
+
+    /**
+     * @param logDir the log directory of the project
+     * @param cacheRoot directory to keep the caches of all projects in, null to keep them in the log directory
+     * @param xpaths the expressions of the chart
+     * @return the cache of the values of these expressions for the logs of the project.
+     */
+    static MetricSeriesCache getInstance(final File logDir, final String cacheRoot, final List<XPathData> xpaths) {
+        final StringBuilder header = new StringBuilder("#");
+        for (final XPathData xpath : xpaths) {
+            header.append(SEPARATOR).append(xpath.getExpression().replace(SEPARATOR, ' '));
+        }
+        final File projectDir = cacheRoot == null ? logDir : new File(cacheRoot, logDir.getName());
+        final File file = new File(new File(projectDir, CACHE_DIR),
+                "metrics-" + Integer.toHexString(header.toString().hashCode()) + ".txt");
+        final MetricSeriesCache created = new MetricSeriesCache(file, header.toString(), xpaths.size());
+        final MetricSeriesCache existing = CACHES.putIfAbsent(file.getAbsoluteFile(), created);
+        return existing == null ? created : existing;
+    }
+
+    /**
+     * @param summary the builds of the project
+     * @return the log directory the builds of the summary are in, null if it holds no builds.
+     */
+    static File getLogDirectory(final BuildInfoSummary summary) {
+        final Iterator<BuildInfo> builds = summary.iterator();
+        return builds.hasNext() ? LogDirectoryLayout.getLogDirectory(builds.next().getLogFile().getFile()) : null;
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * Gets the values of every build of the summary, evaluating the expressions only for the logs that have
+     * not been seen before.
+     * @param summary the builds of the project
+     * @param xpaths the expressions this cache was got for
+     * @return the values of the expressions in their order, by log name.
+     * @throws JDOMException if a new log can not be parsed or evaluated
+     * @throws IOException if a new log can not be read
+     */
+    synchronized Map<String, double[]> getValues(final BuildInfoSummary summary, final List<XPathData> xpaths)
+            throws JDOMException, IOException {
+        if (!loaded) {
+            load();
+            loaded = true;
+        }
+        final Map<String, double[]> result = new HashMap<String, double[]>(summary.size() * 2);
+        final StringBuilder added = new StringBuilder();
+        for (final Iterator<BuildInfo> iter = summary.iterator(); iter.hasNext();) {
+            final BuildInfo buildInfo = iter.next();
+            final String logName = buildInfo.getLogName();
+            double[] logValues = values.get(logName);
+            if (logValues == null) {
+                logValues = evaluate(buildInfo.getLogFile().asDocument(), xpaths);
+                values.put(logName, logValues);
+                added.append(logName);
+                for (final double value : logValues) {
+                    added.append(SEPARATOR).append(value);
+                }
+                added.append('\n');
+            }
+            result.put(logName, logValues);
+        }
+        if (added.length() > 0) {
+            append(added.toString());
+        }
+        return result;
+    }
+
+    private static double[] evaluate(final Document log, final List<XPathData> xpaths) throws JDOMException {
+        final double[] logValues = new double[xpaths.size()];
+        int i = 0;
+        for (final XPathData xpath : xpaths) {
+            final Number value = xpath.evaluate(log);
+            logValues[i++] = value == null ? Double.NaN : value.doubleValue();
+        }
+        return logValues;
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        BufferedReader reader = null;
+        boolean current = false;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), ENCODING));
+            current = header.equals(reader.readLine());
+            for (String line = current ? reader.readLine() : null; line != null; line = reader.readLine()) {
+                parse(line);
+            }
+        } catch (IOException e) {
+            LOG.warn("Ignoring unreadable metrics cache " + file, e);
+            values.clear();
+        } finally {
+            IO.close(reader);
+        }
+        if (!current && !file.delete()) {
+            LOG.warn("Unable to start over the metrics cache " + file);
+        }
+    }
+
+    /**
+     * Reads the values of a log, leaving out lines that were not written completely.
+     */
+    private void parse(final String line) {
+        final String[] fields = line.split(String.valueOf(SEPARATOR));
+        if (fields.length != size + 1) {
+            return;
+        }
+        final double[] logValues = new double[size];
+        try {
+            for (int i = 0; i < size; i++) {
+                logValues[i] = Double.parseDouble(fields[i + 1]);
+            }
+        } catch (NumberFormatException e) {
+            return;
+        }
+        values.put(fields[0], logValues);
+    }
+
+    private void append(final String lines) {
+        final boolean created = !file.exists();
+        if (created && !file.getParentFile().isDirectory() && !file.getParentFile().mkdirs()) {
+            LOG.warn("Unable to create the metrics cache directory " + file.getParentFile());
+            return;
+        }
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(file, true), ENCODING);
+            if (created) {
+                writer.write(header + '\n');
+            }
+            writer.write(lines);
+        } catch (IOException e) {
+            LOG.warn("Unable to write the metrics cache " + file, e);
+        } finally {
+            IO.close(writer);
+        }
+    }
+}
@@ -68,10 +68,11 @@ public class TimeChartData extends AbstractCruiseControlChartData implements Cha
         BuildInfoSummary summary = getBuildInfoSummary(params);
         TimeSeries brokenSeries = new TimeSeries("Broken Builds", Minute.class);
         TimeSeries goodSeries = new TimeSeries("Good Builds", Minute.class);
+        Calendar buildCalendar = Calendar.getInstance();
         for (Iterator iter = summary.iterator(); iter.hasNext();) {
             BuildInfo buildInfo = (BuildInfo) iter.next();
             Date buildTime = buildInfo.getBuildDate();
-            double timeValue = extractTimeOfDay(buildTime);
+            double timeValue = extractTimeOfDay(buildCalendar, buildTime);
             Minute timePeriod = new Minute(buildTime);
             TimeSeries seriesToAddTo = buildInfo.isSuccessful() ? goodSeries
                                                                 : brokenSeries;
@@ -88,11 +89,11 @@ public class TimeChartData extends AbstractCruiseControlChartData implements Cha
     }
 
     /**
+     * @param buildCalendar calendar reused for all builds of the chart
      * @param buildTime
      * @return Only the time part of the Date
      */
-    private double extractTimeOfDay(Date buildTime) {
-        Calendar buildCalendar = Calendar.getInstance();
+    private double extractTimeOfDay(Calendar buildCalendar, Date buildTime) {
         buildCalendar.setTime(buildTime);
         double timeValue = buildCalendar.get(Calendar.HOUR_OF_DAY);
         timeValue = timeValue * 60 + buildCalendar.get(Calendar.MINUTE);
@@ -38,17 +38,15 @@ package net.sourceforge.cruisecontrol.chart;
 
 import de.laures.cewolf.ChartPostProcessor;
 import de.laures.cewolf.DatasetProduceException;
+import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import net.sourceforge.cruisecontrol.BuildInfo;
 import net.sourceforge.cruisecontrol.BuildInfoSummary;
-import org.jdom.Document;
 import org.jdom.JDOMException;
 import org.jfree.chart.JFreeChart;
 import org.jfree.chart.axis.DateAxis;
@@ -68,6 +66,8 @@ public class XPathChartData extends AbstractCruiseControlChartData implements Ch
 
     private final List<XPathData> xpaths = new LinkedList<XPathData>();
 
+    private String cacheRoot;
+
     /**
      * Creates a new instance of XPathChartData
      */
@@ -78,30 +78,46 @@ public class XPathChartData extends AbstractCruiseControlChartData implements Ch
         xpaths.add(new XPathData(name, expression));
     }
 
+    /**
+     * @param cacheRoot the cacheRoot context parameter, the directory to keep the values of the expressions
+     * in instead of the log directory of the project. May be null.
+     */
+    public void setCacheRoot(final String cacheRoot) {
+        this.cacheRoot = cacheRoot;
+    }
+
+    /**
+     * Charts the values of the expressions for every build. The values are looked up in the
+     * {@link MetricSeriesCache} of the project, so only logs that are new since the last rendering are parsed.
+     */
     public Object produceDataset(final Map params) throws DatasetProduceException {
         final BuildInfoSummary summary = getBuildInfoSummary(params);
         final TimeSeriesCollection dataset = new TimeSeriesCollection();
-        final Map<XPathData, TimeSeries> timeSeries = new LinkedHashMap<XPathData, TimeSeries>(xpaths.size());
+        final TimeSeries[] timeSeries = new TimeSeries[xpaths.size()];
+        int i = 0;
         for (final XPathData data : xpaths) {
-            final TimeSeries serie = new TimeSeries(data.getName(), Minute.class);
-            timeSeries.put(data, serie);
-            dataset.addSeries(serie);
+            timeSeries[i] = new TimeSeries(data.getName(), Minute.class);
+            dataset.addSeries(timeSeries[i++]);
+        }
+        final File logDir = MetricSeriesCache.getLogDirectory(summary);
+        if (logDir == null) {
+            return dataset;
+        }
+        final Map<String, double[]> values;
+        try {
+            values = MetricSeriesCache.getInstance(logDir, cacheRoot, xpaths).getValues(summary, xpaths);
+        } catch (JDOMException jex) {
+            throw new DatasetProduceException(jex.getMessage());
+        } catch (IOException ioex) {
+            throw new DatasetProduceException(ioex.getMessage());
         }
         for (final Iterator<BuildInfo> iter = summary.iterator(); iter.hasNext();) {
             final BuildInfo buildInfo = iter.next();
-            final Date buildTime = buildInfo.getBuildDate();
-            final Minute timePeriod = new Minute(buildTime);
-            try {
-                final Document log = buildInfo.getLogFile().asDocument();
-                for (final Map.Entry<XPathData, TimeSeries> pair : timeSeries.entrySet()) {
-                    final TimeSeries series = pair.getValue();
-                    final Number result = pair.getKey().evaluate(log);
-                    series.addOrUpdate(timePeriod, result);
-                }
-            } catch (JDOMException jex) {
-                throw new DatasetProduceException(jex.getMessage());
-            } catch (IOException ioex) {
-                throw new DatasetProduceException(ioex.getMessage());
+            final Minute timePeriod = new Minute(buildInfo.getBuildDate());
+            final double[] logValues = values.get(buildInfo.getLogName());
+            for (int j = 0; j < timeSeries.length; j++) {
+                // the cache keeps a missing value as NaN, it is charted as a gap
+                timeSeries[j].addOrUpdate(timePeriod, Double.isNaN(logValues[j]) ? null : new Double(logValues[j]));
             }
         }
         return dataset;
@@ -43,8 +43,6 @@ import javax.servlet.ServletOutputStream;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.InputStream;
@@ -52,6 +50,9 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Writer;
 import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Comparator;
 import java.util.StringTokenizer;
 import java.util.List;
@@ -158,11 +159,7 @@ public class FileServlet extends HttpServlet {
             } else {
                 mimeType = getMimeType(filename);
             }
-            final Date date = new Date(file.getFile().lastModified());
-            response.addDateHeader("Last-Modified", date.getTime());
-            response.setContentType(mimeType);
-            response.setContentLength((int) file.getFile().length());
-            file.write(response.getOutputStream());
+            serveFile(request, response, file, mimeType);
             return;
         }
 
@@ -181,6 +178,161 @@ public class FileServlet extends HttpServlet {
         writer.write("</html>");
     }
 
+    /**
+     * Sends the content of a file. Answers conditional requests with 304 Not Modified and single byte
+     * ranges with 206 Partial Content. A gzipped file is sent as is with <code>Content-Encoding: gzip</code>
+     * to clients that accept it and inflated for the others.
+     */
+    private void serveFile(final HttpServletRequest request, final HttpServletResponse response,
+                           final WebFile file, final String mimeType) throws IOException {
+        final long lastModified = file.getFile().lastModified();
+        final long length = file.getFile().length();
+        final String etag = "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+        response.addDateHeader("Last-Modified", lastModified);
+        response.setHeader("ETag", etag);
+        if (file.isCompressed()) {
+            response.setHeader("Vary", "Accept-Encoding");
+        }
+        if (isNotModified(request, etag, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+        response.setContentType(mimeType);
+        final boolean head = "HEAD".equals(request.getMethod());
+        if (file.isCompressed() && !acceptsGzip(request)) {
+            // the inflated length is not known without reading the whole file
+            if (!head) {
+                file.write(response.getOutputStream());
+            }
+            return;
+        }
+        if (file.isCompressed()) {
+            response.setHeader("Content-Encoding", "gzip");
+        }
+        response.setHeader("Accept-Ranges", "bytes");
+
+        long start = 0;
+        long count = length;
+        final long[] range = getRange(request, etag, lastModified, length);
+        if (range == UNSATISFIABLE_RANGE) {
+            response.setHeader("Content-Range", "bytes */" + length);
+            response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+            return;
+        } else if (range != null) {
+            start = range[0];
+            count = range[1] - range[0] + 1;
+            response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+            response.setHeader("Content-Range", "bytes " + range[0] + "-" + range[1] + "/" + length);
+        }
+        setContentLength(response, count);
+        if (!head) {
+            file.write(response.getOutputStream(), start, count);
+        }
+    }
+
+    private static void setContentLength(final HttpServletResponse response, final long length) {
+        if (length <= Integer.MAX_VALUE) {
+            response.setContentLength((int) length);
+        } else {
+            // setContentLength only takes an int
+            response.setHeader("Content-Length", String.valueOf(length));
+        }
+    }
+
+    static boolean isNotModified(final HttpServletRequest request, final String etag, final long lastModified) {
+        final String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            final StringTokenizer tokens = new StringTokenizer(ifNoneMatch, ",");
+            while (tokens.hasMoreTokens()) {
+                final String tag = tokens.nextToken().trim();
+                if (tag.equals("*") || tag.equals(etag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        final long ifModifiedSince = getDateHeader(request, "If-Modified-Since");
+        // HTTP dates have no milliseconds
+        return ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000;
+    }
+
+    private static long getDateHeader(final HttpServletRequest request, final String name) {
+        try {
+            return request.getDateHeader(name);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    static boolean acceptsGzip(final HttpServletRequest request) {
+        final String acceptEncoding = request.getHeader("Accept-Encoding");
+        if (acceptEncoding == null) {
+            return false;
+        }
+        final StringTokenizer codings = new StringTokenizer(acceptEncoding, ",");
+        while (codings.hasMoreTokens()) {
+            final String coding = codings.nextToken().trim();
+            final int parameters = coding.indexOf(';');
+            final String name = parameters < 0 ? coding : coding.substring(0, parameters).trim();
+            if (name.equalsIgnoreCase("gzip") || name.equals("*")) {
+                return parameters < 0 || !coding.substring(parameters).replaceAll("\\s", "").matches(";q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    private static final long[] UNSATISFIABLE_RANGE = new long[0];
+
+    /**
+     * @return the first and last byte of the single range requested, {@link #UNSATISFIABLE_RANGE} if it lies
+     * beyond the file, or <code>null</code> to send the whole file: when there is no valid single range, or
+     * when the If-Range condition does not hold.
+     */
+    static long[] getRange(final HttpServletRequest request, final String etag, final long lastModified,
+                           final long length) {
+        final String range = request.getHeader("Range");
+        if (range == null || !range.startsWith("bytes=") || range.indexOf(',') >= 0
+                || !isUnchanged(request, etag, lastModified)) {
+            return null;
+        }
+        final String spec = range.substring("bytes=".length()).trim();
+        final int dash = spec.indexOf('-');
+        final long first;
+        final long last;
+        try {
+            if (dash == 0) {
+                final long suffix = Long.parseLong(spec.substring(1));
+                first = suffix == 0 ? length : Math.max(0, length - suffix);
+                last = length - 1;
+            } else if (dash > 0) {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1
+                        ? length - 1 : Math.min(length - 1, Long.parseLong(spec.substring(dash + 1)));
+            } else {
+                return null;
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (first >= length) {
+            return UNSATISFIABLE_RANGE;
+        }
+        return last < first ? null : new long[] {first, last};
+    }
+
+    /**
+     * @return whether the If-Range condition, if any, holds.
+     */
+    private static boolean isUnchanged(final HttpServletRequest request, final String etag, final long lastModified) {
+        final String ifRange = request.getHeader("If-Range");
+        if (ifRange == null) {
+            return true;
+        } else if (ifRange.trim().startsWith("\"")) {
+            return ifRange.trim().equals(etag);
+        }
+        return getDateHeader(request, "If-Range") / 1000 == lastModified / 1000;
+    }
+
     protected String getMimeType(final String filename) {
         String mimeType = getServletContext().getMimeType(filename);
         if (mimeType == null) {
@@ -310,21 +462,63 @@ class WebFile {
         return file.isDirectory();
     }
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+
     protected InputStream getInputStream() throws IOException {
         return new FileInputStream(file);
     }
 
+    /**
+     * @return whether the file is gzipped and {@link #getInputStream()} inflates it.
+     */
+    public boolean isCompressed() {
+        return false;
+    }
+
+    /**
+     * Writes the content as read from {@link #getInputStream()}.
+     * @param stream where to write to
+     * @throws IOException if reading or writing fails
+     */
     public void write(ServletOutputStream stream) throws IOException {
-        InputStream input = new BufferedInputStream(getInputStream());
-        OutputStream output = new BufferedOutputStream(stream);
+        final InputStream input = getInputStream();
+        try {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                stream.write(buffer, 0, read);
+            }
+        } finally {
+            input.close();
+            stream.flush();
+        }
+    }
+
+    /**
+     * Writes the given part of the file as stored, transferred from the file channel without going through
+     * a stream.
+     * @param stream where to write to
+     * @param start position of the first byte to write
+     * @param count number of bytes to write
+     * @throws IOException if reading or writing fails
+     */
+    public void write(OutputStream stream, long start, long count) throws IOException {
+        final FileInputStream input = new FileInputStream(file);
         try {
-            int i;
-            while ((i = input.read()) != -1) {
-                output.write(i);
+            final FileChannel channel = input.getChannel();
+            final WritableByteChannel target = Channels.newChannel(stream);
+            long position = start;
+            final long end = start + count;
+            while (position < end) {
+                final long sent = channel.transferTo(position, end - position, target);
+                if (sent <= 0) {
+                    break;
+                }
+                position += sent;
             }
         } finally {
             input.close();
-            output.flush();
+            stream.flush();
         }
     }
 
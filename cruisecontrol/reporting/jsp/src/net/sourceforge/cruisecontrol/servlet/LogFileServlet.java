@@ -93,5 +93,9 @@ public class LogFileServlet extends FileServlet {
         protected InputStream getInputStream() throws IOException {
             return logfile.getInputStream();
         }
+
+        public boolean isCompressed() {
+            return logfile.isCompressed();
+        }
     }
 }
@@ -36,8 +36,6 @@
  ********************************************************************************/
 package net.sourceforge.cruisecontrol.taglib;
 
-import java.io.File;
-
 import javax.servlet.jsp.JspException;
 
 import net.sourceforge.cruisecontrol.BuildInfo;
@@ -56,12 +54,7 @@ public class NavigationCountTag extends CruiseControlTagSupport {
     private int count;
 
     public int doStartTag() throws JspException {
-        BuildInfo [] logFileNames = findLogFiles();
-
-        count = logFileNames.length;
-        //sort links...
-//        Arrays.sort(logFileNames, new ReversedComparator());
-//        buildInfo = logFileNames;
+        count = BuildInfo.loadFromDir(findLogDir()).size();
         if (count > startingBuildNumber) {
             return EVAL_BODY_INCLUDE;
         } else {
@@ -69,11 +62,6 @@ public class NavigationCountTag extends CruiseControlTagSupport {
         }
     }
 
-    private BuildInfo[] findLogFiles() throws JspException {
-        File logDir = findLogDir();
-        return BuildInfo.loadFromDir(logDir).asArray();
-    }
-
     public int getStartingBuildNumber() {
         return startingBuildNumber;
     }
@@ -37,17 +37,17 @@
 package net.sourceforge.cruisecontrol.taglib;
 
 import net.sourceforge.cruisecontrol.BuildInfo;
+import net.sourceforge.cruisecontrol.BuildInfoSummary;
 import net.sourceforge.cruisecontrol.util.CCTagException;
 import net.sourceforge.cruisecontrol.util.DateHelper;
 
 import javax.servlet.jsp.JspException;
 import javax.servlet.jsp.JspTagException;
 import javax.servlet.jsp.tagext.BodyContent;
-import java.io.File;
 import java.io.IOException;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
-import java.util.Arrays;
+import java.util.List;
 
 public class NavigationTag extends CruiseControlBodyTagSupport {
 
@@ -58,7 +58,7 @@ public class NavigationTag extends CruiseControlBodyTagSupport {
     public static final String LOG_FILE_ATTR = "logfile";
     public static final String BUILD_INFO_ATTR = "buildinfo";
 
-    private BuildInfo[] buildInfo; // the log files in the log directory.
+    private List<BuildInfo> buildInfo; // the log files of the builds shown, newest first.
     private int count;  // How many times around the loop have we gone.
 
     private int startingBuildNumber = 0;
@@ -78,12 +78,12 @@ public class NavigationTag extends CruiseControlBodyTagSupport {
     }
 
     public int doStartTag() throws JspException {
-        final BuildInfo[] logFileNames = findLogFiles();
-        //sort links...
-        Arrays.sort(logFileNames, new ReversedComparator());
-        buildInfo = logFileNames;
-        count = Math.max(0, startingBuildNumber);
-        endPoint = Math.min(finalBuildNumber, buildInfo.length - 1) + 1;
+        final BuildInfoSummary summary = BuildInfo.loadFromDir(findLogDir());
+        final int first = Math.max(0, startingBuildNumber);
+        final int last = Math.min(finalBuildNumber, summary.size() - 1);
+        buildInfo = summary.getLatest(first, last - first + 1);
+        count = 0;
+        endPoint = buildInfo.size();
         if (count < endPoint) {
             return EVAL_BODY_TAG;
         } else {
@@ -91,17 +91,12 @@ public class NavigationTag extends CruiseControlBodyTagSupport {
         }
     }
 
-    private BuildInfo[] findLogFiles() throws JspException {
-        final File logDir = findLogDir();
-        return BuildInfo.loadFromDir(logDir).asArray();
-    }
-
     public void doInitBody() throws JspException {
         setupLinkVariables();
     }
 
     void setupLinkVariables() throws JspTagException {
-        final BuildInfo info = buildInfo[count];
+        final BuildInfo info = buildInfo.get(count);
         final String logName = info.getLogName();
         getPageContext().setAttribute(URL_ATTR, createUrl(LOG_PARAMETER, logName));
         getPageContext().setAttribute(LINK_TEXT_ATTR, getLinkText(info));
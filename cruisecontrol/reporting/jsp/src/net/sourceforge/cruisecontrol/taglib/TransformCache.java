@@ -0,0 +1,302 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.taglib;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import javax.servlet.jsp.JspException;
+
+import net.sourceforge.cruisecontrol.util.CCTagException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps the output of the latest {@link XSLTag} transformations in memory in front of the cache files
+ * written to disk, so serving a page again only needs the modification time of its log.
+ * <p>
+ * Fragments are keyed by their cache file and remember the modification times of the log and stylesheet
+ * they were rendered from. The stylesheet is looked at again at most every few seconds. The fragments
+ * held are bounded by their total size; least recently used ones are dropped first. Requests for a
+ * fragment that is being rendered wait for that rendering instead of starting their own. Each cache
+ * directory is bounded in size too; the least recently written files are deleted when it grows beyond.
+ * </p>
+ */
+final class TransformCache {
+    private static final Log LOG = LogFactory.getLog(TransformCache.class);
+
+    static final int MEGABYTE = 1024 * 1024;
+
+    static final int DEFAULT_MEMORY_SIZE = 8 * MEGABYTE;
+
+    static final long DEFAULT_DISK_SIZE = 100L * MEGABYTE;
+
+    private static final long STYLESHEET_CHECK_INTERVAL = 2000;
+
+    private static final Comparator<File> OLDEST_FIRST = new Comparator<File>() {
+        public int compare(File one, File other) {
+            final long difference = one.lastModified() - other.lastModified();
+            return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+        }
+    };
+
+    private static final TransformCache INSTANCE = new TransformCache();
+
+    private final Map<String, Fragment> fragments = new LinkedHashMap<String, Fragment>(16, 0.75f, true);
+
+    private final ConcurrentMap<String, FutureTask<String>> rendering
+            = new ConcurrentHashMap<String, FutureTask<String>>();
+
+    private final Map<String, long[]> stylesheets = new HashMap<String, long[]>();
+
+    private final Map<File, Long> diskUsage = new HashMap<File, Long>();
+
+    private long memoryUsage;
+
+    private volatile long memoryLimit = DEFAULT_MEMORY_SIZE;
+
+    private volatile long diskLimit = DEFAULT_DISK_SIZE;
+
+    static TransformCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param bytes the size of the fragments kept in memory, 0 to keep none.
+     */
+    void setMemoryLimit(final long bytes) {
+        memoryLimit = bytes;
+    }
+
+    /**
+     * @param bytes the size of each cache directory, 0 for no limit.
+     */
+    void setDiskLimit(final long bytes) {
+        diskLimit = bytes;
+    }
+
+    /**
+     * @param stylesheet location of the stylesheet
+     * @return the modification time of the stylesheet as of at most a few seconds ago
+     * @throws IOException if the stylesheet can not be reached
+     */
+    long getLastModified(final URL stylesheet) throws IOException {
+        final String key = stylesheet.toExternalForm();
+        final long now = System.currentTimeMillis();
+        synchronized (stylesheets) {
+            final long[] checked = stylesheets.get(key);
+            if (checked != null && now - checked[1] < STYLESHEET_CHECK_INTERVAL) {
+                return checked[0];
+            }
+        }
+        final long lastModified = stylesheet.openConnection().getLastModified();
+        synchronized (stylesheets) {
+            stylesheets.put(key, new long[] {lastModified, now});
+        }
+        return lastModified;
+    }
+
+    /**
+     * @param cacheFile the file the fragment is cached in on disk
+     * @param logModified modification time of the log the fragment is rendered from
+     * @param stylesheetModified modification time of the stylesheet the fragment is rendered with
+     * @param prepare brings the cache file up to date and returns it; run by one caller at a time
+     * @return the fragment
+     * @throws JspException if the fragment can not be rendered or read
+     */
+    String get(final File cacheFile, final long logModified, final long stylesheetModified,
+               final Callable<File> prepare) throws JspException {
+        final String key = cacheFile.getAbsolutePath();
+        synchronized (this) {
+            final Fragment fragment = fragments.get(key);
+            if (fragment != null && fragment.logModified == logModified
+                    && fragment.stylesheetModified == stylesheetModified) {
+                return fragment.content;
+            }
+        }
+
+        final FutureTask<String> task = new FutureTask<String>(new Callable<String>() {
+            public String call() throws Exception {
+                final File file = prepare.call();
+                final String content = read(file);
+                store(key, new Fragment(content, logModified, stylesheetModified));
+                limitDiskUsage(file);
+                return content;
+            }
+        });
+        FutureTask<String> running = rendering.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                rendering.remove(key, task);
+            }
+        }
+        try {
+            return running.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof JspException) {
+                throw (JspException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new CCTagException("Error reading file '" + cacheFile.getName() + "': " + cause.getMessage(),
+                    cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CCTagException("Interrupted while waiting for '" + cacheFile.getName() + "'", e);
+        }
+    }
+
+    private static String read(final File file) throws IOException {
+        final Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+        try {
+            final StringBuffer content = new StringBuffer((int) Math.min(Integer.MAX_VALUE, file.length()));
+            final char[] buffer = new char[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                content.append(buffer, 0, read);
+            }
+            return content.toString();
+        } finally {
+            in.close();
+        }
+    }
+
+    private synchronized void store(final String key, final Fragment fragment) {
+        final Fragment replaced = fragments.remove(key);
+        if (replaced != null) {
+            memoryUsage -= replaced.size();
+        }
+        if (fragment.size() > memoryLimit) {
+            return;
+        }
+        fragments.put(key, fragment);
+        memoryUsage += fragment.size();
+        for (final Iterator<Fragment> iter = fragments.values().iterator();
+                memoryUsage > memoryLimit && iter.hasNext();) {
+            memoryUsage -= iter.next().size();
+            iter.remove();
+        }
+    }
+
+    /**
+     * Deletes the least recently written files of the directory of a file just written when the directory
+     * grew beyond the limit, down to three quarters of the limit.
+     */
+    private void limitDiskUsage(final File written) {
+        final long limit = diskLimit;
+        if (limit <= 0) {
+            return;
+        }
+        final File dir = written.getParentFile();
+        synchronized (diskUsage) {
+            final Long known = diskUsage.get(dir);
+            long usage = known == null ? sizeOf(dir) : known.longValue() + written.length();
+            if (usage > limit) {
+                usage = prune(dir, written, limit * 3 / 4);
+            }
+            diskUsage.put(dir, new Long(usage));
+        }
+    }
+
+    private static long sizeOf(final File dir) {
+        final File[] files = dir.listFiles();
+        long size = 0;
+        for (int i = 0; files != null && i < files.length; i++) {
+            size += files[i].length();
+        }
+        return size;
+    }
+
+    private static long prune(final File dir, final File keep, final long target) {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return 0;
+        }
+        long size = sizeOf(dir);
+        Arrays.sort(files, OLDEST_FIRST);
+        for (int i = 0; i < files.length && size > target; i++) {
+            if (files[i].isFile() && !files[i].equals(keep)) {
+                final long length = files[i].length();
+                if (files[i].delete()) {
+                    size -= length;
+                } else {
+                    LOG.warn("Unable to delete cached transformation " + files[i]);
+                }
+            }
+        }
+        return size;
+    }
+
+    private static final class Fragment {
+        private final String content;
+
+        private final long logModified;
+
+        private final long stylesheetModified;
+
+        private Fragment(final String content, final long logModified, final long stylesheetModified) {
+            this.content = content;
+            this.logModified = logModified;
+            this.stylesheetModified = stylesheetModified;
+        }
+
+        // two bytes per char
+        private long size() {
+            return 2L * content.length();
+        }
+    }
+}
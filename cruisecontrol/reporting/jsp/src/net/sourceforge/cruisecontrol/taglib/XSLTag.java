@@ -48,10 +48,10 @@ import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.Enumeration;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletContext;
@@ -59,16 +59,16 @@ import javax.servlet.jsp.JspException;
 import javax.servlet.jsp.JspTagException;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
 import net.sourceforge.cruisecontrol.LogFile;
 import net.sourceforge.cruisecontrol.util.CCTagException;
+import net.sourceforge.cruisecontrol.util.TemplatesCache;
 
 /**
  *  JSP custom tag to handle xsl transforms.  This tag also caches the output of the transform to disk, reducing the
- *  number of transforms necessary.
+ *  number of transforms necessary, and keeps the latest outputs in memory, see {@link TransformCache}.
  *
  *  @author alden almagro, ThoughtWorks, Inc. 2002
  *  @author <a href="mailto:hak@2mba.dk">Hack Kampbjorn</a>
@@ -78,8 +78,6 @@ public class XSLTag extends CruiseControlTagSupport {
     private static final long serialVersionUID = -948954553781627362L;
 
     private static final String XSLT_PARAMETER_PREFIX = "xslt.";
-    private static final String SAXON_VERSION_WARNING =
-            "http://saxon.sf.net/feature/version-warning";
     private String xslFileName;
     private static final String CACHE_DIR = "_cache";
 
@@ -128,13 +126,7 @@ public class XSLTag extends CruiseControlTagSupport {
     }
 
     private Transformer newTransformer(final URL style) throws TransformerException {
-        final TransformerFactory tFactory = TransformerFactory.newInstance();
-        try {
-            tFactory.setAttribute(SAXON_VERSION_WARNING, Boolean.FALSE);
-        } catch (IllegalArgumentException iaex) {
-            debug("could not silence Saxon XSLT 2.0 warning, processor is probably not saxon: " + iaex.getMessage());
-        }
-        final Transformer transformer = tFactory.newTransformer(new StreamSource(style.toExternalForm()));
+        final Transformer transformer = TemplatesCache.getInstance().newTransformer(style);
         final Map<String, String> parameters = getXSLTParameters();
         if (!parameters.isEmpty()) {
             transformer.clearParameters();
@@ -160,14 +152,20 @@ public class XSLTag extends CruiseControlTagSupport {
 
         final long xmlLastModified = xmlFile.lastModified();
         final long cacheLastModified = cacheFile.lastModified();
+        final long xslLastModified = getXslLastModified();
+        return xslLastModified != -1 && (cacheLastModified > xmlLastModified) && (cacheLastModified > xslLastModified);
+    }
+
+    /**
+     * @return the modification time of the xsl file as of at most a few seconds ago, or -1 if unknown.
+     */
+    private long getXslLastModified() {
         try {
             final URL xslUrl = getPageContext().getServletContext().getResource(xslFileName);
-            final URLConnection con = xslUrl.openConnection();
-            final long xslLastModified = con.getLastModified();
-            return (cacheLastModified > xmlLastModified) && (cacheLastModified > xslLastModified);
+            return TransformCache.getInstance().getLastModified(xslUrl);
         } catch (Exception e) {
             err("Failed to retrieve lastModified of xsl file " + xslFileName);
-            return false;
+            return -1;
         }
     }
 
@@ -275,7 +273,10 @@ public class XSLTag extends CruiseControlTagSupport {
      */
     File prepareContent() throws JspException {
         final LogFile xmlFile = findLogFile();
-        final File cacheFile = findCacheFile(xmlFile);
+        return prepareContent(xmlFile, findCacheFile(xmlFile));
+    }
+
+    private File prepareContent(final LogFile xmlFile, final File cacheFile) throws JspException {
         if (!isCacheFileCurrent(xmlFile.getFile(), cacheFile)) {
             info("Updating cached copy: " + cacheFile.getAbsolutePath());
             updateCacheFile(xmlFile, cacheFile);
@@ -319,11 +320,39 @@ public class XSLTag extends CruiseControlTagSupport {
     }
 
     public int doEndTag() throws JspException {
-        final File cachedFile = prepareContent();
-        serveCachedCopy(cachedFile, getPageContext().getOut());
+        final LogFile xmlFile = findLogFile();
+        final File cacheFile = findCacheFile(xmlFile);
+        final TransformCache cache = TransformCache.getInstance();
+        cache.setMemoryLimit(getMegabytesParam("cacheMemorySize", TransformCache.DEFAULT_MEMORY_SIZE));
+        cache.setDiskLimit(getMegabytesParam("cacheMaxSize", TransformCache.DEFAULT_DISK_SIZE));
+        final String content = cache.get(cacheFile, xmlFile.getFile().lastModified(), getXslLastModified(),
+                new Callable<File>() {
+                    public File call() throws JspException {
+                        return prepareContent(xmlFile, cacheFile);
+                    }
+                });
+        try {
+            getPageContext().getOut().write(content);
+        } catch (IOException e) {
+            err(e);
+            throw new CCTagException("Error writing '" + cacheFile.getName() + "': " + e.getMessage(), e);
+        }
         return EVAL_PAGE;
     }
 
+    private long getMegabytesParam(final String name, final long defaultBytes) {
+        final String value = getContextParam(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultBytes;
+        }
+        try {
+            return Math.max(0, Long.parseLong(value.trim())) * TransformCache.MEGABYTE;
+        } catch (NumberFormatException e) {
+            err("Ignoring invalid " + name + ": " + value);
+            return defaultBytes;
+        }
+    }
+
     private void closeQuietly(final InputStream in) {
         if (in != null) {
             try {
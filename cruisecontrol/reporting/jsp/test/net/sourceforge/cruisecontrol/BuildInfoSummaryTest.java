@@ -41,6 +41,8 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
 import java.io.ObjectInputStream;
+import java.util.List;
+
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
@@ -73,4 +75,19 @@ public class BuildInfoSummaryTest extends TestCase {
         assertEquals(deserialized.getNumSuccessfulBuilds(), original.getNumSuccessfulBuilds());
         assertEquals(deserialized.size(), original.size());
     }
+
+    public void testShouldPageFromTheLatestBuild() {
+        BuildInfoSummary summary = BuildInfo.loadFromDir(LogFileSetupDecorator.LOG_DIR);
+
+        List<BuildInfo> page = summary.getLatest(1, 2);
+        assertEquals(2, page.size());
+        assertEquals("20041018160000", page.get(0).getDateStamp());
+        assertEquals("20020225120000", page.get(1).getDateStamp());
+
+        assertEquals(1, summary.getLatest(5, 10).size());
+        assertEquals("20020222120000", summary.getLatest(5, 10).get(0).getDateStamp());
+        assertEquals(0, summary.getLatest(6, 1).size());
+        assertEquals(0, summary.getLatest(0, 0).size());
+        assertEquals(6, summary.getLatest(0, Integer.MAX_VALUE).size());
+    }
 }
@@ -36,6 +36,8 @@
  ********************************************************************************/
 package net.sourceforge.cruisecontrol;
 
+import java.io.File;
+import java.io.IOException;
 import java.text.ParseException;
 import java.util.Calendar;
 import java.util.Date;
@@ -44,6 +46,7 @@ import java.util.GregorianCalendar;
 import junit.framework.Test;
 import junit.framework.TestCase;
 import junit.framework.TestSuite;
+import net.sourceforge.cruisecontrol.testutil.TestUtil.FilesToDelete;
 
 /**
  * Test that we can determine build information correctly.
@@ -118,6 +121,56 @@ public class BuildInfoTest extends TestCase {
         }
     }
 
+    public void testInvalidDateStamp() {
+        try {
+            new BuildInfo("log2002022212x530.xml");
+            fail("Expected an exception for a date stamp that is not all digits");
+        } catch (ParseException expected) {
+            assertEquals(10, expected.getErrorOffset());
+        }
+    }
+
+    public void testShouldKeepSummaryUntilLogDirectoryChanges() throws IOException {
+        final FilesToDelete filesToDelete = new FilesToDelete();
+        final File logDir = new File("testresults/BuildInfoTest");
+        final File shard = new File(logDir, "2002/02");
+        try {
+            filesToDelete.add(logDir);
+            assertTrue(shard.mkdirs());
+            assertTrue(new File(logDir, "log20020101120000.xml").createNewFile());
+            assertTrue(new File(shard, "log20020222120000LBuild.1.xml").createNewFile());
+            final long past = System.currentTimeMillis() - 60000;
+            setLastModified(past, logDir, shard.getParentFile(), shard);
+
+            final BuildInfoSummary first = BuildInfo.loadFromDir(logDir);
+            assertEquals(2, first.size());
+            assertSame(first, BuildInfo.loadFromDir(logDir));
+
+            assertTrue(new File(shard, "log20020223120000.xml").createNewFile());
+            setLastModified(past + 1000, shard);
+            final BuildInfoSummary second = BuildInfo.loadFromDir(logDir);
+            assertNotSame(first, second);
+            assertEquals(3, second.size());
+            assertEquals("20020223120000", second.getLatest(0, 1).get(0).getDateStamp());
+            assertSame(second, BuildInfo.loadFromDir(logDir));
+
+            final File newMonth = new File(shard.getParentFile(), "03");
+            assertTrue(newMonth.mkdir());
+            assertTrue(new File(newMonth, "log20020301120000.xml").createNewFile());
+            setLastModified(past, newMonth);
+            setLastModified(past + 1000, shard.getParentFile());
+            assertEquals(4, BuildInfo.loadFromDir(logDir).size());
+        } finally {
+            filesToDelete.delete();
+        }
+    }
+
+    private static void setLastModified(final long time, final File... dirs) {
+        for (final File dir : dirs) {
+            assertTrue(dir.setLastModified(time));
+        }
+    }
+
     private void validateBuildInfo(BuildInfo expected, BuildInfo actual) {
         assertEquals(expected.getBuildDate(), actual.getBuildDate());
         assertEquals(expected.getLabel(), actual.getLabel());
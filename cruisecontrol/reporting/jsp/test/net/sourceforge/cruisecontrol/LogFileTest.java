@@ -105,6 +105,22 @@ public class LogFileTest extends TestCase {
         assertEquals(log2, result);
     }
 
+    public void testFindsLogsInShardDirectories() throws Exception {
+        final File shard = new File(logDir, "2005" + File.separator + "11");
+        final File shardedLog = new File(shard, "log20051101120000Lsuccessful-build-file.2.xml");
+        filesToDelete.add(new File(logDir, "2005"));
+        IO.write(log1, "");
+        IO.write(log2, "");
+        IO.write(log3, "");
+        IO.write(shardedLog, "");
+
+        assertEquals(shardedLog, LogFile.getLatestLogFile(logDir).getFile());
+        assertEquals(shardedLog, LogFile.getLatestSuccessfulLogFile(logDir).getFile());
+        assertEquals(shardedLog, new LogFile(logDir, "log20051101120000Lsuccessful-build-file.2").getFile());
+        assertEquals(log3, new LogFile(logDir, "log20051021103500").getFile());
+        assertEquals(4, BuildInfo.loadFromDir(logDir).asArray().length);
+    }
+
     public void testSerializable() throws Exception {
         IO.write(log1, "");
 
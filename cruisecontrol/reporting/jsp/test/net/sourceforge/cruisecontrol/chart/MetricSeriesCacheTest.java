@@ -0,0 +1,170 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.chart;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.sourceforge.cruisecontrol.BuildInfo;
+import net.sourceforge.cruisecontrol.BuildInfoSummary;
+import net.sourceforge.cruisecontrol.taglib.BuildInfoTag;
+import net.sourceforge.cruisecontrol.testutil.TestUtil.FilesToDelete;
+import net.sourceforge.cruisecontrol.util.IO;
+
+import org.jfree.data.time.TimeSeriesCollection;
+
+public class MetricSeriesCacheTest extends TestCase {
+    private final FilesToDelete filesToDelete = new FilesToDelete();
+    private File logDir;
+    private List<XPathData> xpaths;
+
+    protected void setUp() throws Exception {
+        logDir = new File("testresults/MetricSeriesCacheTest");
+        IO.delete(logDir);
+        assertTrue(logDir.mkdirs());
+        filesToDelete.add(logDir);
+        xpaths = new ArrayList<XPathData>();
+        xpaths.add(new XPathData("Errors", "count(/cruisecontrol/error)"));
+        xpaths.add(new XPathData("Warnings", "count(/cruisecontrol/warning)"));
+    }
+
+    protected void tearDown() throws Exception {
+        filesToDelete.delete();
+    }
+
+    public void testShouldEvaluateEachLogOnce() throws Exception {
+        final BuildInfo first = writeLog("log20050708100401.xml", "<cruisecontrol><error/><error/></cruisecontrol>");
+        final MetricSeriesCache cache = MetricSeriesCache.getInstance(logDir, null, xpaths);
+
+        Map<String, double[]> values = cache.getValues(summary(first), xpaths);
+        assertEquals(2, values.get("log20050708100401")[0], 0);
+        assertEquals(0, values.get("log20050708100401")[1], 0);
+        assertTrue(cache.getFile().exists());
+
+        // not parsed again, so the rewritten content is not seen
+        writeLog("log20050708100401.xml", "<cruisecontrol><warning/></cruisecontrol>");
+        final BuildInfo second = writeLog("log20050709100401LBuild.1.xml", "<cruisecontrol><warning/></cruisecontrol>");
+        values = cache.getValues(summary(first, second), xpaths);
+        assertEquals(2, values.get("log20050708100401")[0], 0);
+        assertEquals(0, values.get("log20050709100401LBuild.1")[0], 0);
+        assertEquals(1, values.get("log20050709100401LBuild.1")[1], 0);
+
+        assertEquals(3, IO.readLines(cache.getFile()).size());
+    }
+
+    public void testShouldReadValuesWrittenBefore() throws Exception {
+        final File cacheFile = MetricSeriesCache.getInstance(new File(logDir, "other"), null, xpaths).getFile();
+        assertTrue(cacheFile.getParentFile().mkdirs());
+        IO.write(cacheFile, "#\tcount(/cruisecontrol/error)\tcount(/cruisecontrol/warning)\n"
+                + "log20050708100401\t5.0\t7.0\n"
+                + "log20050709100401\t6.0\n");
+        final BuildInfo log = writeLog("other/log20050708100401.xml", "not even xml");
+
+        final Map<String, double[]> values = MetricSeriesCache.getInstance(new File(logDir, "other"), null, xpaths)
+                .getValues(summary(log), xpaths);
+        assertEquals(5, values.get("log20050708100401")[0], 0);
+        assertEquals(7, values.get("log20050708100401")[1], 0);
+    }
+
+    public void testShouldStartOverForOtherExpressions() throws Exception {
+        final File otherDir = new File(logDir, "changed");
+        final File cacheFile = MetricSeriesCache.getInstance(otherDir, null, xpaths).getFile();
+        assertTrue(cacheFile.getParentFile().mkdirs());
+        IO.write(cacheFile, "#\tcount(/cruisecontrol/other)\tcount(/cruisecontrol/warning)\n"
+                + "log20050708100401\t5.0\t7.0\n");
+        final BuildInfo log = writeLog("changed/log20050708100401.xml", "<cruisecontrol><error/></cruisecontrol>");
+
+        final Map<String, double[]> values = MetricSeriesCache.getInstance(otherDir, null, xpaths)
+                .getValues(summary(log), xpaths);
+        assertEquals(1, values.get("log20050708100401")[0], 0);
+        assertEquals("#\tcount(/cruisecontrol/error)\tcount(/cruisecontrol/warning)",
+                IO.readLines(cacheFile).get(0));
+    }
+
+    public void testShouldKeepValuesOutsideCacheOfTransformations() throws Exception {
+        final File cacheRoot = new File(logDir, "cacheRoot");
+        final File projectDir = new File(logDir, "project");
+        final BuildInfo log = writeLog("project/log20050708100401.xml", "<cruisecontrol><error/></cruisecontrol>");
+
+        assertEquals(new File(projectDir, "_metrics"),
+                MetricSeriesCache.getInstance(projectDir, null, xpaths).getFile().getParentFile());
+        final MetricSeriesCache cache = MetricSeriesCache.getInstance(projectDir, cacheRoot.getPath(), xpaths);
+        assertEquals(new File(new File(cacheRoot, "project"), "_metrics"), cache.getFile().getParentFile());
+        cache.getValues(summary(log), xpaths);
+        assertTrue(cache.getFile().exists());
+    }
+
+    public void testShouldChartCachedValues() throws Exception {
+        final XPathChartData data = new XPathChartData();
+        data.add("Errors", "count(/cruisecontrol/error)");
+        final BuildInfo log = writeLog("log20050708100401.xml", "<cruisecontrol><error/></cruisecontrol>");
+        final Map<String, BuildInfoSummary> params = Collections.singletonMap(BuildInfoTag.INFO_ATTRIBUTE, summary(log));
+
+        final TimeSeriesCollection dataset = (TimeSeriesCollection) data.produceDataset(params);
+        assertEquals(1, dataset.getSeriesCount());
+        assertEquals(1, dataset.getSeries(0).getItemCount());
+        assertEquals(1, dataset.getSeries(0).getValue(0).intValue());
+    }
+
+    public void testShouldChartMissingValuesAsGaps() throws Exception {
+        final XPathChartData data = new XPathChartData();
+        data.add("Label", "/cruisecontrol/info/property[@name='label']/@value");
+        final BuildInfo log = writeLog("log20050708100401.xml", "<cruisecontrol><info/></cruisecontrol>");
+        final Map<String, BuildInfoSummary> params = Collections.singletonMap(BuildInfoTag.INFO_ATTRIBUTE, summary(log));
+
+        final TimeSeriesCollection dataset = (TimeSeriesCollection) data.produceDataset(params);
+        assertEquals(1, dataset.getSeries(0).getItemCount());
+        assertNull(dataset.getSeries(0).getValue(0));
+    }
+
+    private BuildInfo writeLog(final String name, final String content) throws Exception {
+        final File file = new File(logDir, name);
+        file.getParentFile().mkdirs();
+        IO.write(file, content);
+        return new BuildInfo(file);
+    }
+
+    private static BuildInfoSummary summary(final BuildInfo... builds) {
+        final List<BuildInfo> list = new ArrayList<BuildInfo>();
+        Collections.addAll(list, builds);
+        return new BuildInfoSummary(list);
+    }
+}
@@ -40,6 +40,8 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.security.Principal;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.Enumeration;
 import java.util.Locale;
 import java.util.Map;
@@ -62,6 +64,8 @@ public class MockServletRequest implements HttpServletRequest {
     private Map params = new HashMap();
     private String pathInfo;
     private Locale locale;
+    private Map headers = new HashMap();
+    private String method;
 
     public MockServletRequest() {
     }
@@ -178,11 +182,23 @@ public class MockServletRequest implements HttpServletRequest {
     }
 
     public long getDateHeader(String s) {
-        return 0;
+        String value = getHeader(s);
+        if (value == null) {
+            return -1;
+        }
+        try {
+            return new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US).parse(value).getTime();
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(value);
+        }
     }
 
     public String getHeader(String s) {
-        return null;
+        return (String) headers.get(s);
+    }
+
+    public void setHeader(String name, String value) {
+        headers.put(name, value);
     }
 
     public Enumeration getHeaders(String s) {
@@ -198,7 +214,11 @@ public class MockServletRequest implements HttpServletRequest {
     }
 
     public String getMethod() {
-        return null;
+        return method;
+    }
+
+    public void setMethod(String method) {
+        this.method = method;
     }
 
     public String getPathInfo() {
@@ -39,7 +39,9 @@ package net.sourceforge.cruisecontrol.mock;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 
 import javax.servlet.ServletOutputStream;
 import javax.servlet.http.Cookie;
@@ -54,6 +56,8 @@ public class MockServletResponse implements HttpServletResponse {
     private String contentType;
     private int status;
     private ServletOutputStream outputStream = new MockServletOutputStream(stringWriter);
+    private Map headers = new HashMap();
+    private int contentLength = -1;
 
     public String getContentType() {
         return contentType;
@@ -67,6 +71,14 @@ public class MockServletResponse implements HttpServletResponse {
         return stringWriter.getBuffer().toString();
     }
 
+    public String getHeader(String name) {
+        return (String) headers.get(name);
+    }
+
+    public int getContentLength() {
+        return contentLength;
+    }
+
     /* (non-Javadoc)
      * @see javax.servlet.http.HttpServletResponse#addCookie(javax.servlet.http.Cookie)
      */
@@ -130,36 +142,42 @@ public class MockServletResponse implements HttpServletResponse {
      * @see javax.servlet.http.HttpServletResponse#setDateHeader(java.lang.String, long)
      */
     public void setDateHeader(String arg0, long arg1) {
+        headers.put(arg0, String.valueOf(arg1));
     }
 
     /* (non-Javadoc)
      * @see javax.servlet.http.HttpServletResponse#addDateHeader(java.lang.String, long)
      */
     public void addDateHeader(String arg0, long arg1) {
+        headers.put(arg0, String.valueOf(arg1));
     }
 
     /* (non-Javadoc)
      * @see javax.servlet.http.HttpServletResponse#setHeader(java.lang.String, java.lang.String)
      */
     public void setHeader(String arg0, String arg1) {
+        headers.put(arg0, arg1);
     }
 
     /* (non-Javadoc)
      * @see javax.servlet.http.HttpServletResponse#addHeader(java.lang.String, java.lang.String)
      */
     public void addHeader(String arg0, String arg1) {
+        headers.put(arg0, arg1);
     }
 
     /* (non-Javadoc)
      * @see javax.servlet.http.HttpServletResponse#setIntHeader(java.lang.String, int)
      */
     public void setIntHeader(String arg0, int arg1) {
+        headers.put(arg0, String.valueOf(arg1));
     }
 
     /* (non-Javadoc)
      * @see javax.servlet.http.HttpServletResponse#addIntHeader(java.lang.String, int)
      */
     public void addIntHeader(String arg0, int arg1) {
+        headers.put(arg0, String.valueOf(arg1));
     }
 
     /* (non-Javadoc)
@@ -201,6 +219,7 @@ public class MockServletResponse implements HttpServletResponse {
      * @see javax.servlet.ServletResponse#setContentLength(int)
      */
     public void setContentLength(int arg0) {
+        contentLength = arg0;
     }
 
     /* (non-Javadoc)
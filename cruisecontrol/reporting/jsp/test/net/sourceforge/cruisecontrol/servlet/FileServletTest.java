@@ -37,11 +37,15 @@
 package net.sourceforge.cruisecontrol.servlet;
 
 import java.io.File;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.StringWriter;
 import java.io.Writer;
+import java.text.SimpleDateFormat;
 import java.util.List;
 import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
 
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
@@ -209,6 +213,138 @@ public class FileServletTest extends TestCase {
 
     }
 
+    private FileServlet createServletFor(final File file) throws ServletException, IOException {
+        FileServlet fileServlet = new FileServlet() {
+            protected File getRootDir(ServletConfig servletconfig) {
+                return file.getParentFile();
+            }
+
+            protected String getMimeType(String filename) {
+                return "text/plain";
+            }
+        };
+        final MockServletConfig servletconfig = new MockServletConfig();
+        servletconfig.setServletContext(new MockServletContext());
+        fileServlet.init(servletconfig);
+        return fileServlet;
+    }
+
+    private File createTempFile(String content) throws IOException {
+        File file = File.createTempFile("tmp", ".txt");
+        file.deleteOnExit();
+        FileWriter writer = new FileWriter(file);
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+        return file;
+    }
+
+    public void testServiceFileContent() throws ServletException, IOException {
+        File file = createTempFile("0123456789");
+        MockServletRequest request = new MockServletRequest();
+        request.setPathInfo(file.getName());
+        MockServletResponse response = new MockServletResponse();
+
+        createServletFor(file).service(request, response);
+        assertEquals("0123456789", response.getWritten());
+        assertEquals(10, response.getContentLength());
+        assertEquals("bytes", response.getHeader("Accept-Ranges"));
+        assertNotNull(response.getHeader("ETag"));
+    }
+
+    public void testServiceByteRange() throws ServletException, IOException {
+        File file = createTempFile("0123456789");
+        FileServlet fileServlet = createServletFor(file);
+        MockServletRequest request = new MockServletRequest();
+        request.setPathInfo(file.getName());
+
+        request.setHeader("Range", "bytes=2-5");
+        MockServletResponse response = new MockServletResponse();
+        fileServlet.service(request, response);
+        assertEquals(HttpServletResponse.SC_PARTIAL_CONTENT, response.getStatus());
+        assertEquals("2345", response.getWritten());
+        assertEquals("bytes 2-5/10", response.getHeader("Content-Range"));
+        assertEquals(4, response.getContentLength());
+
+        request.setHeader("Range", "bytes=-3");
+        response = new MockServletResponse();
+        fileServlet.service(request, response);
+        assertEquals("789", response.getWritten());
+
+        request.setHeader("Range", "bytes=7-");
+        response = new MockServletResponse();
+        fileServlet.service(request, response);
+        assertEquals("789", response.getWritten());
+
+        request.setHeader("Range", "bytes=10-12");
+        response = new MockServletResponse();
+        fileServlet.service(request, response);
+        assertEquals(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE, response.getStatus());
+        assertEquals("bytes */10", response.getHeader("Content-Range"));
+        assertEquals("", response.getWritten());
+
+        // a range of an older version of the file is not of use, send the whole file
+        request.setHeader("Range", "bytes=2-5");
+        request.setHeader("If-Range", "\"outdated\"");
+        response = new MockServletResponse();
+        fileServlet.service(request, response);
+        assertEquals("0123456789", response.getWritten());
+    }
+
+    public void testServiceNotModified() throws ServletException, IOException {
+        File file = createTempFile("0123456789");
+        FileServlet fileServlet = createServletFor(file);
+        MockServletRequest request = new MockServletRequest();
+        request.setPathInfo(file.getName());
+        MockServletResponse response = new MockServletResponse();
+        fileServlet.service(request, response);
+        String etag = response.getHeader("ETag");
+
+        request.setHeader("If-None-Match", "\"other\", " + etag);
+        response = new MockServletResponse();
+        fileServlet.service(request, response);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        assertEquals("", response.getWritten());
+
+        request = new MockServletRequest();
+        request.setPathInfo(file.getName());
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        request.setHeader("If-Modified-Since", format.format(new Date(file.lastModified())));
+        response = new MockServletResponse();
+        fileServlet.service(request, response);
+        assertEquals(HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+
+        request.setHeader("If-Modified-Since", format.format(new Date(file.lastModified() - 60000)));
+        response = new MockServletResponse();
+        fileServlet.service(request, response);
+        assertEquals("0123456789", response.getWritten());
+    }
+
+    public void testServiceHeadWritesNoContent() throws ServletException, IOException {
+        File file = createTempFile("0123456789");
+        MockServletRequest request = new MockServletRequest();
+        request.setPathInfo(file.getName());
+        request.setMethod("HEAD");
+        MockServletResponse response = new MockServletResponse();
+        createServletFor(file).service(request, response);
+        assertEquals("", response.getWritten());
+        assertEquals(10, response.getContentLength());
+    }
+
+    public void testAcceptsGzip() {
+        MockServletRequest request = new MockServletRequest();
+        assertFalse(FileServlet.acceptsGzip(request));
+        request.setHeader("Accept-Encoding", "deflate, gzip;q=0.8");
+        assertTrue(FileServlet.acceptsGzip(request));
+        request.setHeader("Accept-Encoding", "gzip;q=0, deflate");
+        assertFalse(FileServlet.acceptsGzip(request));
+        request.setHeader("Accept-Encoding", "*");
+        assertTrue(FileServlet.acceptsGzip(request));
+    }
+
     public void testGetIndexes() throws ServletException, IOException {
         MockServletConfig config = new MockServletConfig();
         MockServletContext context = new MockServletContext();
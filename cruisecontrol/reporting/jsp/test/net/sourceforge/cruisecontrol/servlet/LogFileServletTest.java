@@ -36,8 +36,22 @@
  ********************************************************************************/
 package net.sourceforge.cruisecontrol.servlet;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+
 import junit.framework.TestCase;
 import net.sourceforge.cruisecontrol.LogFile;
+import net.sourceforge.cruisecontrol.mock.MockServletConfig;
+import net.sourceforge.cruisecontrol.mock.MockServletContext;
+import net.sourceforge.cruisecontrol.mock.MockServletRequest;
+import net.sourceforge.cruisecontrol.mock.MockServletResponse;
 
 /**
  * @author <a href="mailto:hak@2mba.dk">Hack Kampbjorn</a>
@@ -64,4 +78,52 @@ public class LogFileServletTest extends TestCase {
         assertEquals(logFile.getFile().getParent(), project);
         assertEquals(logFile.getName(), logName);
     }
+
+    public void testServeCompressedLog() throws ServletException, IOException {
+        final File logDir = new File(System.getProperty("java.io.tmpdir"), "logFileServletTest");
+        final File projectDir = new File(logDir, "project");
+        projectDir.mkdirs();
+        final File log = new File(projectDir, "log20051021021032Lmmba.8.xml.gz");
+        final String content = "<cruisecontrol></cruisecontrol>";
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        final OutputStream gzip = new GZIPOutputStream(compressed);
+        gzip.write(content.getBytes("UTF-8"));
+        gzip.close();
+        final OutputStream out = new FileOutputStream(log);
+        try {
+            out.write(compressed.toByteArray());
+        } finally {
+            out.close();
+        }
+        try {
+            servlet = new LogFileServlet() {
+                protected File getRootDir(ServletConfig servletconfig) {
+                    return logDir;
+                }
+            };
+            final MockServletConfig config = new MockServletConfig();
+            config.setServletContext(new MockServletContext());
+            servlet.init(config);
+
+            final MockServletRequest request = new MockServletRequest();
+            request.setPathInfo("project/log20051021021032Lmmba.8");
+            MockServletResponse response = new MockServletResponse();
+            servlet.service(request, response);
+            assertEquals(content, response.getWritten());
+            assertNull(response.getHeader("Content-Encoding"));
+            assertEquals(-1, response.getContentLength());
+
+            request.setHeader("Accept-Encoding", "gzip, deflate");
+            response = new MockServletResponse();
+            servlet.service(request, response);
+            assertEquals("gzip", response.getHeader("Content-Encoding"));
+            assertEquals("Accept-Encoding", response.getHeader("Vary"));
+            assertEquals(compressed.size(), response.getContentLength());
+            assertEquals(compressed.size(), response.getWritten().length());
+        } finally {
+            log.delete();
+            projectDir.delete();
+            logDir.delete();
+        }
+    }
 }
@@ -0,0 +1,171 @@
+/********************************************************************************
+ * CruiseControl, a Continuous Integration Toolkit
+ * Copyright (c) 2007, ThoughtWorks, Inc.
+ * 200 E. Randolph, 25th Floor
+ * Chicago, IL 60601 USA
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ *     + Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *
+ *     + Redistributions in binary form must reproduce the above
+ *       copyright notice, this list of conditions and the following
+ *       disclaimer in the documentation and/or other materials provided
+ *       with the distribution.
+ *
+ *     + Neither the name of ThoughtWorks, Inc., CruiseControl, nor the
+ *       names of its contributors may be used to endorse or promote
+ *       products derived from this software without specific prior
+ *       written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE REGENTS OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR
+ * PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF
+ * LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ ********************************************************************************/
+package net.sourceforge.cruisecontrol.taglib;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.jsp.JspException;
+
+import junit.framework.TestCase;
+import net.sourceforge.cruisecontrol.util.CCTagException;
+import net.sourceforge.cruisecontrol.util.IO;
+import net.sourceforge.cruisecontrol.util.Util;
+
+public class TransformCacheTest extends TestCase {
+
+    private File cacheDir;
+
+    private TransformCache cache;
+
+    protected void setUp() throws Exception {
+        cacheDir = new File("testresults/transformcache");
+        assertTrue(Util.doMkDirs(cacheDir));
+        cache = new TransformCache();
+    }
+
+    protected void tearDown() throws Exception {
+        IO.delete(cacheDir);
+    }
+
+    private Callable<File> writing(final File file, final String content, final AtomicInteger calls) {
+        return new Callable<File>() {
+            public File call() throws Exception {
+                calls.incrementAndGet();
+                IO.write(file, content);
+                return file;
+            }
+        };
+    }
+
+    public void testShouldRenderAgainOnlyWhenLogOrStylesheetChanged() throws Exception {
+        File file = new File(cacheDir, "log1-style.html");
+        AtomicInteger calls = new AtomicInteger();
+        assertEquals("one", cache.get(file, 1, 1, writing(file, "one", calls)));
+        assertEquals("one", cache.get(file, 1, 1, writing(file, "two", calls)));
+        assertEquals(1, calls.get());
+
+        assertEquals("two", cache.get(file, 2, 1, writing(file, "two", calls)));
+        assertEquals("three", cache.get(file, 2, 2, writing(file, "three", calls)));
+        assertEquals(3, calls.get());
+    }
+
+    public void testShouldRenderOnceForConcurrentRequests() throws Exception {
+        final File file = new File(cacheDir, "log1-style.html");
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final String[] waited = new String[1];
+        Thread first = new Thread() {
+            public void run() {
+                try {
+                    cache.get(file, 1, 1, new Callable<File>() {
+                        public File call() throws Exception {
+                            started.countDown();
+                            release.await();
+                            return writing(file, "content", calls).call();
+                        }
+                    });
+                } catch (JspException e) {
+                    fail(e.getMessage());
+                }
+            }
+        };
+        Thread second = new Thread() {
+            public void run() {
+                try {
+                    waited[0] = cache.get(file, 1, 1, writing(file, "other", calls));
+                } catch (JspException e) {
+                    fail(e.getMessage());
+                }
+            }
+        };
+        first.start();
+        started.await();
+        second.start();
+        // give the second request the time to join the running one
+        Thread.sleep(100);
+        release.countDown();
+        first.join();
+        second.join();
+        assertEquals(1, calls.get());
+        assertEquals("content", waited[0]);
+    }
+
+    public void testShouldPassOnRenderingErrors() throws Exception {
+        final CCTagException error = new CCTagException("failed", null);
+        try {
+            cache.get(new File(cacheDir, "log1-style.html"), 1, 1, new Callable<File>() {
+                public File call() throws Exception {
+                    throw error;
+                }
+            });
+            fail();
+        } catch (CCTagException e) {
+            assertSame(error, e);
+        }
+    }
+
+    public void testShouldDropLeastRecentlyUsedFragments() throws Exception {
+        cache.setMemoryLimit(15);
+        File first = new File(cacheDir, "log1-style.html");
+        File second = new File(cacheDir, "log2-style.html");
+        AtomicInteger calls = new AtomicInteger();
+        cache.get(first, 1, 1, writing(first, "12345", calls));
+        cache.get(second, 1, 1, writing(second, "12345", calls));
+        cache.get(first, 1, 1, writing(first, "12345", calls));
+        assertEquals(3, calls.get());
+    }
+
+    public void testShouldDeleteOldestCacheFilesBeyondDiskLimit() throws Exception {
+        cache.setDiskLimit(110);
+        File old = new File(cacheDir, "log1-style.html");
+        IO.write(old, "0123456789012345678901234567890123456789");
+        old.setLastModified(System.currentTimeMillis() - 60000);
+        File older = new File(cacheDir, "log0-style.html");
+        IO.write(older, "0123456789012345678901234567890123456789");
+        older.setLastModified(System.currentTimeMillis() - 120000);
+
+        File file = new File(cacheDir, "log2-style.html");
+        cache.get(file, 1, 1, writing(file, "0123456789012345678901234567890123456789", new AtomicInteger()));
+        assertFalse(older.exists());
+        assertTrue(old.exists());
+        assertTrue(file.exists());
+    }
+}
@@ -36,6 +36,7 @@
 <hr />
 <jsp:useBean id="xpathData" class="net.sourceforge.cruisecontrol.chart.XPathChartData" />
 <%
+    xpathData.setCacheRoot(application.getInitParameter("cacheRoot"));
     xpathData.add("CheckStyle", "count(/cruisecontrol/checkstyle/file/error)");
     xpathData.add("PMD", "count(/cruisecontrol/pmd/file/violation)");
     xpathData.add("Javadoc", "count(/cruisecontrol/build//target/task[@name='javadoc']/message[@priority='warn' or @priority='error'])");